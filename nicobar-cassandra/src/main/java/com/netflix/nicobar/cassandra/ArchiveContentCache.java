@@ -0,0 +1,281 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Local, content addressed cache of archive jars, keyed by the SHA-1 hash of their contents.
+ * Since archives with the same hash have the same contents, a cached jar can be reused
+ * without downloading the archive again, across revisions, modules and restarts.
+ *
+ * A jar is retained for as long as an archive which was opened from it is reachable, see
+ * {@link #retain(Object, byte[])}. Since a loaded module holds on to its archive, the jar of a
+ * module stays retained until the module is replaced or removed, even when a newer revision of
+ * it is fetched and then rejected. All of the other jars are unused, and the least recently used
+ * of them are deleted by {@link #evict()} whenever the total size of the cache exceeds its maximum size.
+ * The access order is persisted in the modification times of the jars.
+ */
+public class ArchiveContentCache {
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveContentCache.class);
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private final Path cacheDir;
+    private final long maxSizeBytes;
+    /** size of each cached jar by key, in least to most recently used order */
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    /** key of the jar retained by each holder, which are weakly referenced and compared by identity */
+    private final Map<Object, String> retainedKeys = new MapMaker().weakKeys().makeMap();
+    private long totalSizeBytes;
+
+    /**
+     * @param cacheDir the directory to store the jars in. Will be created if it doesn't exist.
+     * @param maxSizeBytes the size above which unused jars are evicted
+     * @throws IOException if the directory could not be created or listed
+     */
+    public ArchiveContentCache(Path cacheDir, long maxSizeBytes) throws IOException {
+        this.cacheDir = Objects.requireNonNull(cacheDir, "cacheDir");
+        this.maxSizeBytes = maxSizeBytes;
+        Files.createDirectories(cacheDir);
+        loadEntries();
+    }
+
+    /**
+     * Get the cached jar with the given content hash, and mark it as used.
+     * @param hash hash of the contents of the archive
+     * @return path to the jar, or null if it isn't cached
+     */
+    @Nullable
+    public synchronized Path get(byte[] hash) {
+        String key = toKey(hash);
+        if (!entrySizes.containsKey(key)) {
+            return null;
+        }
+        Path jarFile = getPath(key);
+        try {
+            Files.setLastModifiedTime(jarFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // deleted from under the cache
+            removeEntry(key);
+            return null;
+        }
+        entrySizes.get(key);
+        return jarFile;
+    }
+
+    /**
+     * Store the contents of an archive, see {@link #put(byte[], InputStream)}.
+     * @param hash SHA-1 hash of the contents
+     * @param content contents of the archive
+     * @return path to the cached jar, or null if the content doesn't match the hash
+     * @throws IOException if the jar could not be written
+     */
+    @Nullable
+    public Path put(byte[] hash, byte[] content) throws IOException {
+        return put(hash, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Store the contents of an archive, streaming them to a temporary file while verifying the hash.
+     * The file is then moved into place, so that concurrent readers never see a partial or corrupt jar.
+     * The stream is read without holding the lock of the cache, and is not closed.
+     * @param hash SHA-1 hash of the contents
+     * @param content contents of the archive
+     * @return path to the cached jar, or null if the content doesn't match the hash
+     * @throws IOException if the content could not be read, or the jar could not be written
+     */
+    @Nullable
+    public Path put(byte[] hash, InputStream content) throws IOException {
+        Path cachedJar = get(hash);
+        if (cachedJar != null) {
+            return cachedJar;
+        }
+        String key = toKey(hash);
+        Path tempFile = Files.createTempFile(cacheDir, "." + key, ".tmp");
+        try {
+            MessageDigest digester = createDigester();
+            long size;
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                size = IOUtils.copyLarge(new DigestInputStream(content, digester), outputStream);
+            }
+            if (!Arrays.equals(hash, digester.digest())) {
+                return null;
+            }
+            return install(key, tempFile, size);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private synchronized Path install(String key, Path tempFile, long size) throws IOException {
+        Path jarFile = getPath(key);
+        try {
+            Files.move(tempFile, jarFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, jarFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Long previousSize = entrySizes.put(key, size);
+        totalSizeBytes += size - (previousSize != null ? previousSize : 0);
+        return jarFile;
+    }
+
+    /**
+     * Retain the jar with the given hash for as long as the holder is reachable, so that it won't be evicted.
+     * @param holder the archive opened from the jar
+     * @param hash hash of the contents of the jar
+     */
+    public synchronized void retain(Object holder, byte[] hash) {
+        retainedKeys.put(Objects.requireNonNull(holder, "holder"), toKey(hash));
+    }
+
+    /**
+     * Delete the least recently used jars which aren't retained, until the total size
+     * of the cache is within its maximum size.
+     * @return the number of evicted jars
+     */
+    public synchronized int evict() {
+        if (totalSizeBytes <= maxSizeBytes) {
+            return 0;
+        }
+        Set<String> retained = new HashSet<String>(retainedKeys.values());
+        int evictedCount = 0;
+        Iterator<Entry<String, Long>> iterator = entrySizes.entrySet().iterator();
+        while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Entry<String, Long> entry = iterator.next();
+            if (retained.contains(entry.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(getPath(entry.getKey()));
+            } catch (IOException e) {
+                logger.warn("Failed to evict cached archive " + entry.getKey(), e);
+                continue;
+            }
+            iterator.remove();
+            totalSizeBytes -= entry.getValue();
+            evictedCount++;
+        }
+        return evictedCount;
+    }
+
+    /**
+     * @return the total size of the cached jars, in bytes
+     */
+    public synchronized long getSize() {
+        return totalSizeBytes;
+    }
+
+    /**
+     * @return the number of cached jars
+     */
+    public synchronized int getEntryCount() {
+        return entrySizes.size();
+    }
+
+    /**
+     * @return the directory the jars are stored in
+     */
+    public Path getCacheDirectory() {
+        return cacheDir;
+    }
+
+    private void loadEntries() throws IOException {
+        final Map<Path, FileTime> lastModifiedTimes = new HashMap<Path, FileTime>();
+        List<Path> jarFiles = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, "*" + JAR_SUFFIX)) {
+            for (Path jarFile : stream) {
+                if (jarFile.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                jarFiles.add(jarFile);
+                lastModifiedTimes.put(jarFile, Files.getLastModifiedTime(jarFile));
+            }
+        }
+        Collections.sort(jarFiles, new Comparator<Path>() {
+            @Override
+            public int compare(Path path1, Path path2) {
+                return lastModifiedTimes.get(path1).compareTo(lastModifiedTimes.get(path2));
+            }
+        });
+        for (Path jarFile : jarFiles) {
+            String fileName = jarFile.getFileName().toString();
+            long size = Files.size(jarFile);
+            entrySizes.put(fileName.substring(0, fileName.length() - JAR_SUFFIX.length()), size);
+            totalSizeBytes += size;
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long size = entrySizes.remove(key);
+        if (size != null) {
+            totalSizeBytes -= size;
+        }
+    }
+
+    private Path getPath(String key) {
+        return cacheDir.resolve(key + JAR_SUFFIX);
+    }
+
+    private static MessageDigest createDigester() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toKey(byte[] hash) {
+        return BaseEncoding.base16().lowerCase().encode(Objects.requireNonNull(hash, "hash"));
+    }
+}
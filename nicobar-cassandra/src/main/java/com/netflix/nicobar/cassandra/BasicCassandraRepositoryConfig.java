@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import com.netflix.astyanax.Keyspace;
 import com.netflix.nicobar.core.archive.GsonScriptModuleSpecSerializer;
@@ -38,16 +41,37 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
     /** Default number of archives to fetch per round-trip */
     public static final int DEFAULT_FETCH_BATCH_SIZE = 10;
 
+    /** Default number of batches of archives to fetch concurrently */
+    public static final int DEFAULT_FETCH_CONCURRENCY = 4;
+
+    /** Default size of the chunks that archives are compressed into. Archives are stored in a single column by default */
+    public static final int DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES = 0;
+
+    /** Default size above which unused archives are evicted from the local archive cache */
+    public static final long DEFAULT_ARCHIVE_CACHE_MAX_SIZE_BYTES = 256 * 1024 * 1024;
+
     /** Default module spec serializer */
     public static final ScriptModuleSpecSerializer DEFAULT_SPEC_SERIALIZER = new GsonScriptModuleSpecSerializer();
 
+    /** Default time to live of the change log entries */
+    public static final int DEFAULT_CHANGE_LOG_TTL_SECONDS = (int)TimeUnit.DAYS.toSeconds(1);
+
+    /** Default interval between full reconciles when polling the change log */
+    public static final long DEFAULT_FULL_RECONCILE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
     public static class Builder {
         private String repositoryId;
         private int shardCount = DEFAULT_SHARD_COUNT;
         private int fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
+        private int fetchConcurrency = DEFAULT_FETCH_CONCURRENCY;
         private Path archiveOutputDirectory;
+        private int archiveChunkSizeBytes = DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES;
+        private long archiveCacheMaxSizeBytes = DEFAULT_ARCHIVE_CACHE_MAX_SIZE_BYTES;
         private ScriptModuleSpecSerializer specSerializer = DEFAULT_SPEC_SERIALIZER;
         private CassandraGateway cassandraGateway;
+        private CassandraGateway changeLogGateway;
+        private int changeLogTtlSeconds = DEFAULT_CHANGE_LOG_TTL_SECONDS;
+        private long fullReconcileIntervalMillis = DEFAULT_FULL_RECONCILE_INTERVAL_MILLIS;
 
         /** Build by constructing a cassandra gateway for the given keyspace and column family */
         public Builder(Keyspace keyspace, String columnFamily) {
@@ -74,16 +98,54 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
             this.fetchBatchSize = fetchBatchSize;
             return this;
         }
+        /** Number of batches of archives to fetch concurrently */
+        public Builder setFetchConcurrency(int fetchConcurrency) {
+            this.fetchConcurrency = fetchConcurrency;
+            return this;
+        }
         /** Output Directory for the script archives that were downloaded  */
         public Builder setArchiveOutputDirectory(Path archiveOutputDirectory) {
             this.archiveOutputDirectory = archiveOutputDirectory;
             return this;
         }
+        /**
+         * Size of the chunks that archives are compressed into, such as 256KB. 0, the default, stores archives
+         * uncompressed in a single column. See {@link CassandraArchiveRepository} before enabling it.
+         */
+        public Builder setArchiveChunkSize(int archiveChunkSizeBytes) {
+            this.archiveChunkSizeBytes = archiveChunkSizeBytes;
+            return this;
+        }
+        /** Size above which unused archives are evicted from the local archive cache */
+        public Builder setArchiveCacheMaxSize(long archiveCacheMaxSizeBytes) {
+            this.archiveCacheMaxSizeBytes = archiveCacheMaxSizeBytes;
+            return this;
+        }
         /** Set a customer serializer for the module specification */
         public Builder setModuleSpecSerialize(ScriptModuleSpecSerializer specSerializer) {
             this.specSerializer = specSerializer;
             return this;
         }
+        /** Log changes to the given keyspace and column family, so that polls only read what changed */
+        public Builder setChangeLog(Keyspace keyspace, String columnFamily) {
+            this.changeLogGateway = new CassandraGatewayImpl(keyspace, columnFamily);
+            return this;
+        }
+        /** Log changes with the given cassandra gateway, so that polls only read what changed */
+        public Builder setChangeLogGateway(CassandraGateway changeLogGateway) {
+            this.changeLogGateway = changeLogGateway;
+            return this;
+        }
+        /** How long entries in the change log live. Polls fall back to a full scan if they are further apart */
+        public Builder setChangeLogTtl(long ttl, TimeUnit unit) {
+            this.changeLogTtlSeconds = (int)unit.toSeconds(ttl);
+            return this;
+        }
+        /** How often to reconcile with a full scan when polling the change log */
+        public Builder setFullReconcileInterval(long interval, TimeUnit unit) {
+            this.fullReconcileIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
         /** Construct the config with defaults if necessary */
         public CassandraArchiveRepositoryConfig build() throws IOException {
             Keyspace keyspace = cassandraGateway.getKeyspace();
@@ -96,25 +158,45 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
             if (buildArchiveDir == null) {
                 buildArchiveDir = Files.createTempDirectory("ScriptArchiveOutputDir");
             }
-            return new BasicCassandraRepositoryConfig(buildRepositoryId, cassandraGateway, shardCount, fetchBatchSize, buildArchiveDir, specSerializer);
+            return new BasicCassandraRepositoryConfig(buildRepositoryId, cassandraGateway, shardCount, fetchBatchSize, fetchConcurrency, buildArchiveDir,
+                archiveChunkSizeBytes, archiveCacheMaxSizeBytes, specSerializer, changeLogGateway, changeLogTtlSeconds, fullReconcileIntervalMillis);
         }
     }
 
     private final String repositoryId;
     private final int shardCount;
     private final int fetchBatchSize;
+    private final int fetchConcurrency;
     private final Path archiveOutputDirectory;
+    private final int archiveChunkSizeBytes;
+    private final long archiveCacheMaxSizeBytes;
     private final ScriptModuleSpecSerializer moduleSpecSerializer;
     private final CassandraGateway cassandraGateway;
+    private final CassandraGateway changeLogGateway;
+    private final int changeLogTtlSeconds;
+    private final long fullReconcileIntervalMillis;
 
     protected BasicCassandraRepositoryConfig(String repositoryId, CassandraGateway gateway, int shardCount,
             int fetchBatchSize, Path archiveOutputDirectory, ScriptModuleSpecSerializer moduleSpecSerializer) {
+        this(repositoryId, gateway, shardCount, fetchBatchSize, DEFAULT_FETCH_CONCURRENCY, archiveOutputDirectory, DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES,
+            DEFAULT_ARCHIVE_CACHE_MAX_SIZE_BYTES, moduleSpecSerializer, null, DEFAULT_CHANGE_LOG_TTL_SECONDS, DEFAULT_FULL_RECONCILE_INTERVAL_MILLIS);
+    }
+
+    protected BasicCassandraRepositoryConfig(String repositoryId, CassandraGateway gateway, int shardCount,
+            int fetchBatchSize, int fetchConcurrency, Path archiveOutputDirectory, int archiveChunkSizeBytes, long archiveCacheMaxSizeBytes,
+            ScriptModuleSpecSerializer moduleSpecSerializer, @Nullable CassandraGateway changeLogGateway, int changeLogTtlSeconds, long fullReconcileIntervalMillis) {
         this.repositoryId =  Objects.requireNonNull(repositoryId, "repositoryId");
         this.cassandraGateway = Objects.requireNonNull(gateway, "cassandraGateway");
         this.shardCount = shardCount;
         this.fetchBatchSize = fetchBatchSize;
+        this.fetchConcurrency = fetchConcurrency;
         this.archiveOutputDirectory = Objects.requireNonNull(archiveOutputDirectory, "archiveOutputDirectory");
+        this.archiveChunkSizeBytes = archiveChunkSizeBytes;
+        this.archiveCacheMaxSizeBytes = archiveCacheMaxSizeBytes;
         this.moduleSpecSerializer = Objects.requireNonNull(moduleSpecSerializer, "moduleSpecSerializer");
+        this.changeLogGateway = changeLogGateway;
+        this.changeLogTtlSeconds = changeLogTtlSeconds;
+        this.fullReconcileIntervalMillis = fullReconcileIntervalMillis;
     }
 
     @Override
@@ -132,11 +214,26 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
         return fetchBatchSize;
     }
 
+    @Override
+    public int getArchiveFetchConcurrency() {
+        return fetchConcurrency;
+    }
+
     @Override
     public Path getArchiveOutputDirectory() {
         return archiveOutputDirectory;
     }
 
+    @Override
+    public int getArchiveChunkSizeBytes() {
+        return archiveChunkSizeBytes;
+    }
+
+    @Override
+    public long getArchiveCacheMaxSizeBytes() {
+        return archiveCacheMaxSizeBytes;
+    }
+
     @Override
     public ScriptModuleSpecSerializer getModuleSpecSerializer() {
         return moduleSpecSerializer;
@@ -146,4 +243,19 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
     public String getRepositoryId() {
         return repositoryId;
     }
+
+    @Override
+    public CassandraGateway getChangeLogGateway() {
+        return changeLogGateway;
+    }
+
+    @Override
+    public int getChangeLogTtlSeconds() {
+        return changeLogTtlSeconds;
+    }
+
+    @Override
+    public long getFullReconcileIntervalMillis() {
+        return fullReconcileIntervalMillis;
+    }
 }
@@ -18,6 +18,8 @@
 package com.netflix.nicobar.cassandra;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,13 +37,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnList;
@@ -80,13 +98,62 @@ import com.netflix.nicobar.core.persistence.RepositoryView;
  *    module_spec varchar,
  *    archive_content_hash blob,
  *    archive_content blob,
+ *    archive_format varchar,
+ *    archive_chunk_count int,
+ *    superseded_content_hash blob,
+ *    superseded_chunk_count int,
  * PRIMARY KEY (module_id)
  * );
  *
  * CREATE INDEX script_repo_shard_num_index on script_repo (shard_num);
  * </pre>
  *
- * See {@link CassandraArchiveRepositoryConfig} to override the default table name.
+ * By default, each archive is stored whole in the {@code archive_content} column. If
+ * {@link CassandraArchiveRepositoryConfig#getArchiveChunkSizeBytes()} is set, archives are compressed with deflate and
+ * split into chunks of that size instead, so that large archives don't cause oversized mutations, or have to be held
+ * in memory when they are read. The {@code archive_format}, {@code archive_chunk_count} and {@code superseded_*}
+ * columns are only read and written when chunking is enabled, and need to be added to existing tables first.
+ * Pollers which don't support chunked archives can't read them, so chunking should only be enabled once every
+ * poller has been upgraded.
+ * <p>
+ * Each chunk is stored in the {@code archive_content} column of its own row, keyed by {@code moduleId:hash:index}.
+ * Chunk rows have no shard number, so they never show up in the shard queries. The chunks are written before the
+ * archive row which references them, and are streamed back, decompressed and verified against the
+ * {@code archive_content_hash} of the uncompressed archive while they are read. Archive rows which have content of
+ * their own, such as those written before chunking was enabled, or after it was disabled again, are read from
+ * {@code archive_content}. The chunks of the revisions written while chunking was enabled are left behind if it is
+ * disabled again.
+ * <p>
+ * Pollers on other hosts may still be reading the chunks of the previous revision of a module when a new one is
+ * inserted, so they are kept until the revision after it is inserted. The archive row references them in its
+ * {@code superseded_content_hash} and {@code superseded_chunk_count} columns. Deleting a module deletes all of its
+ * chunks right away.
+ *
+ * Scanning every shard on every poll gets more expensive as the repository grows, even if nothing changed.
+ * If {@link CassandraArchiveRepositoryConfig#getChangeLogGateway()} is configured, inserts and deletes are also
+ * recorded in a change log column family, with one TTL'd entry per module holding the latest change to it. The
+ * default view then only reads the entries which changed since the previous poll (its high-water mark), and falls
+ * back to a full scan of the archives on the first poll, periodically as configured by
+ * {@link CassandraArchiveRepositoryConfig#getFullReconcileIntervalMillis()}, whenever the change log can't be read,
+ * and when the entries since the previous poll may have expired. The high-water mark is moved back by
+ * {@link #CHANGE_LOG_OVERLAP_MILLIS} on every poll to tolerate clock skew between the writers and the pollers.
+ *
+ *<pre>
+ * Change Log Schema:
+ *
+ * CREATE TABLE script_repo_changes (
+ *    module_id varchar,
+ *    shard_num int,
+ *    change_time timestamp,
+ *    last_update timestamp,
+ *    deleted boolean,
+ * PRIMARY KEY (module_id)
+ * );
+ *
+ * CREATE INDEX script_repo_changes_shard_num_index on script_repo_changes (shard_num);
+ * </pre>
+ *
+ * See {@link CassandraArchiveRepositoryConfig} to override the default table names.
  * @author James Kojo
  * @author Vasanth Asokan
  */
@@ -102,12 +169,49 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         last_update,
         module_spec,
         archive_content_hash,
-        archive_content;
+        archive_content,
+        archive_format,
+        archive_chunk_count,
+        superseded_content_hash,
+        superseded_chunk_count;
+    }
+
+    /** change log column names */
+    public static enum ChangeLogColumns {
+        module_id,
+        shard_num,
+        change_time,
+        last_update,
+        deleted;
     }
 
+    /** {@link Columns#archive_format} of archives which are compressed with deflate and stored in chunks */
+    public static final String CHUNKED_DEFLATE_FORMAT = "deflate-chunked";
+
+    /** columns needed to find the chunks of an archive */
+    private static final String[] CHUNK_COLUMNS = {
+        Columns.archive_format.name(), Columns.archive_chunk_count.name(), Columns.archive_content_hash.name(),
+        Columns.superseded_content_hash.name(), Columns.superseded_chunk_count.name()
+    };
+
+    /** name of the directory of the archive cache, within the archive output directory */
+    public static final String ARCHIVE_CACHE_DIR_NAME = "cache";
+
+    /** columns to fetch to find out whether an archive is cached */
+    private static final String[] ARCHIVE_SUMMARY_COLUMNS = {
+        Columns.last_update.name(), Columns.module_spec.name(), Columns.archive_content_hash.name()
+    };
+
+    /** how far back to re-read the change log on every poll, to tolerate clock skew */
+    public static final long CHANGE_LOG_OVERLAP_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
     protected final RepositoryView defaultView;
     private final CassandraArchiveRepositoryConfig config;
     private final CassandraGateway cassandra;
+    private final CassandraGateway changeLog;
+    private ArchiveContentCache archiveCache;
+    private ExecutorService fetchExecutor;
+    private ExecutorService archiveExecutor;
 
     /**
      * Construct a instance of the repository with the given configuration
@@ -116,6 +220,7 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     public CassandraArchiveRepository(CassandraArchiveRepositoryConfig config) {
         this.config = Objects.requireNonNull(config, "config");
         this.cassandra = this.config.getCassandraGateway();
+        this.changeLog = this.config.getChangeLogGateway();
         defaultView = new DefaultView();
     }
 
@@ -126,6 +231,7 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     public CassandraArchiveRepository(CassandraArchiveRepositoryConfig config, RepositoryView defaultView) {
         this.config = Objects.requireNonNull(config, "config");
         this.cassandra = this.config.getCassandraGateway();
+        this.changeLog = this.config.getChangeLogGateway();
         this.defaultView = defaultView;
     }
 
@@ -167,8 +273,7 @@ public class CassandraArchiveRepository implements ArchiveRepository {
             throw new IOException(e);
         }
         int shardNum = calculateShardNum(moduleId);
-        byte[] jarBytes = Files.readAllBytes(jarFilePath);
-        byte[] hash = calculateHash(jarBytes);
+        byte[] hash = calculateHash(jarFilePath);
         Map<String, Object> columns = new HashMap<String, Object>();
         columns.put(Columns.module_id.name(), moduleId.toString());
         columns.put(Columns.module_name.name(), moduleId.getName());
@@ -176,15 +281,64 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         columns.put(Columns.shard_num.name(), shardNum);
         columns.put(Columns.last_update.name(), jarScriptArchive.getCreateTime());
         columns.put(Columns.archive_content_hash.name(), hash);
-        columns.put(Columns.archive_content.name(), jarBytes);
 
         String serialized = getConfig().getModuleSpecSerializer().serialize(moduleSpec);
         columns.put(Columns.module_spec.name(), serialized);
+        int chunkSize = getConfig().getArchiveChunkSizeBytes();
         try {
-            cassandra.upsert(moduleId.toString(), columns);
+            if (chunkSize > 0) {
+                insertChunkedArchive(moduleId, hash, jarFilePath, chunkSize, columns);
+            } else {
+                // the whole archive in a single column, which doesn't need any of the chunk columns in the schema
+                columns.put(Columns.archive_content.name(), Files.readAllBytes(jarFilePath));
+                cassandra.upsert(moduleId.toString(), columns);
+            }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             throw new IOException(e);
         }
+        logChange(moduleId, shardNum, jarScriptArchive.getCreateTime(), false);
+    }
+
+    /**
+     * Compress an archive into chunks, and upsert the archive row which references them. The chunks of the previous
+     * revision are superseded by this one, but kept until the next insert, since pollers may still be reading them.
+     * @param columns the columns of the archive row, other than its content
+     */
+    protected void insertChunkedArchive(ModuleId moduleId, byte[] hash, Path jarFilePath, int chunkSize,
+            Map<String, Object> columns) throws Exception {
+        ColumnList<String> previousColumns = cassandra.getColumns(moduleId.toString(), CHUNK_COLUMNS);
+        byte[] supersededHash = null;
+        int supersededChunkCount = 0;
+        byte[] deletedHash = null;
+        int deletedChunkCount = 0;
+        if (previousColumns != null) {
+            supersededHash = getSupersededHash(previousColumns);
+            supersededChunkCount = supersededHash != null ?
+                previousColumns.getColumnByName(Columns.superseded_chunk_count.name()).getIntegerValue() : 0;
+            if (isChunked(previousColumns)) {
+                byte[] previousHash = previousColumns.getColumnByName(Columns.archive_content_hash.name()).getByteArrayValue();
+                if (!Arrays.equals(previousHash, hash)) {
+                    deletedHash = supersededHash;
+                    deletedChunkCount = supersededChunkCount;
+                    supersededHash = previousHash;
+                    supersededChunkCount = previousColumns.getColumnByName(Columns.archive_chunk_count.name()).getIntegerValue();
+                }
+            }
+        }
+        // write the chunks before the row which references them
+        int chunkCount = writeChunks(moduleId, hash, jarFilePath, chunkSize);
+        columns.put(Columns.archive_format.name(), CHUNKED_DEFLATE_FORMAT);
+        columns.put(Columns.archive_chunk_count.name(), chunkCount);
+        columns.put(Columns.archive_content.name(), new byte[0]);
+        columns.put(Columns.superseded_content_hash.name(), supersededHash != null ? supersededHash : new byte[0]);
+        columns.put(Columns.superseded_chunk_count.name(), supersededChunkCount);
+        cassandra.upsert(moduleId.toString(), columns);
+        // the chunks from two revisions ago, unless the content was reverted to them
+        if (deletedHash != null && !Arrays.equals(deletedHash, hash)) {
+            deleteChunks(moduleId.toString(), deletedHash, deletedChunkCount);
+        }
     }
 
     /**
@@ -197,64 +351,245 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     }
 
     /**
-     * Get all of the {@link ScriptArchive}s for the given set of moduleIds. Will perform the operation in batches
-     * as specified by {@link CassandraArchiveRepositoryConfig#getArchiveFetchBatchSize()} and outputs the jar files in
-     * the path specified by {@link CassandraArchiveRepositoryConfig#getArchiveOutputDirectory()}.
+     * Get all of the {@link ScriptArchive}s for the given set of moduleIds. The archives are fetched in batches of
+     * {@link CassandraArchiveRepositoryConfig#getArchiveFetchBatchSize()}, up to
+     * {@link CassandraArchiveRepositoryConfig#getArchiveFetchConcurrency()} batches at a time. The hashes of the archives
+     * are fetched first, and only the archives which aren't in the local {@link ArchiveContentCache} in
+     * {@link CassandraArchiveRepositoryConfig#getArchiveOutputDirectory()} are downloaded.
+     * <p>
+     * Fetching is pipelined: as soon as a batch of rows arrives, verifying, writing and opening each of its archives
+     * is handed off to a separate pool of threads, while the next batches are being fetched.
      *
      * @param moduleIds keys to search for
      * @return set of ScriptArchives retrieved from the database
      */
     @Override
     public Set<ScriptArchive> getScriptArchives(Set<ModuleId> moduleIds) throws IOException {
-        Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>(moduleIds.size()*2);
-        Path archiveOuputDir = getConfig().getArchiveOutputDirectory();
-        List<ModuleId> moduleIdList = new LinkedList<ModuleId>(moduleIds);
-        int batchSize = getConfig().getArchiveFetchBatchSize();
-        int start = 0;
+        final ArchiveContentCache archiveCache = getArchiveCache();
+        List<ModuleId> moduleIdList = new ArrayList<ModuleId>(moduleIds);
+        int batchSize = Math.max(1, getConfig().getArchiveFetchBatchSize());
+        int batchCount = (moduleIdList.size() + batchSize - 1) / batchSize;
+        int window = Math.max(1, getConfig().getArchiveFetchConcurrency());
+        ExecutorService fetchExecutor = getFetchExecutor();
+        ExecutorService archiveExecutor = getArchiveExecutor();
+
+        CompletionService<List<FetchedRow>> batchFetches = new ExecutorCompletionService<List<FetchedRow>>(fetchExecutor);
+        List<Future<List<FetchedRow>>> batchFutures = new ArrayList<Future<List<FetchedRow>>>(batchCount);
+        Map<String, Future<ScriptArchive>> archiveFutures = new HashMap<String, Future<ScriptArchive>>(moduleIdList.size() * 2);
+        LinkedList<Future<ScriptArchive>> pendingArchives = new LinkedList<Future<ScriptArchive>>();
+        int completedBatches = 0;
         try {
-            while (start < moduleIdList.size()) {
-                int end = Math.min(moduleIdList.size(), start + batchSize);
-                List<ModuleId> batchModuleIds = moduleIdList.subList(start, end);
-                List<String> rowKeys = new ArrayList<String>(batchModuleIds.size());
-                for (ModuleId batchModuleId:batchModuleIds) {
-                    rowKeys.add(batchModuleId.toString());
+            while (completedBatches < batchCount) {
+                // keep the window of batches in flight full, unless the archive stage is falling behind
+                while (batchFutures.size() < batchCount && batchFutures.size() - completedBatches < window
+                        && pendingArchives.size() < window * batchSize) {
+                    int start = batchFutures.size() * batchSize;
+                    List<ModuleId> batchModuleIds = moduleIdList.subList(start, Math.min(moduleIdList.size(), start + batchSize));
+                    final String[] rowKeys = new String[batchModuleIds.size()];
+                    for (int i = 0; i < rowKeys.length; i++) {
+                        rowKeys[i] = batchModuleIds.get(i).toString();
+                    }
+                    batchFutures.add(batchFetches.submit(new Callable<List<FetchedRow>>() {
+                        @Override
+                        public List<FetchedRow> call() throws Exception {
+                            return fetchBatch(rowKeys, archiveCache);
+                        }
+                    }));
+                }
+                if (batchFutures.size() - completedBatches == 0) {
+                    pendingArchives.removeFirst().get();
+                    continue;
+                }
+                for (final FetchedRow row : batchFetches.take().get()) {
+                    Future<ScriptArchive> archiveFuture = archiveExecutor.submit(new Callable<ScriptArchive>() {
+                        @Override
+                        public ScriptArchive call() throws Exception {
+                            return storeArchive(row, archiveCache);
+                        }
+                    });
+                    archiveFutures.put(row.moduleId, archiveFuture);
+                    pendingArchives.add(archiveFuture);
                 }
+                completedBatches++;
+                while (!pendingArchives.isEmpty() && pendingArchives.getFirst().isDone()) {
+                    pendingArchives.removeFirst();
+                }
+            }
 
-                Rows<String, String> rows = cassandra.getRows(rowKeys.toArray(new String[0]));
-                for (Row<String, String> row : rows) {
-                    String moduleId = row.getKey();
-                    ColumnList<String> columns = row.getColumns();
-                    Column<String> lastUpdateColumn = columns.getColumnByName(Columns.last_update.name());
-                    Column<String> hashColumn = columns.getColumnByName(Columns.archive_content_hash.name());
-                    Column<String> contentColumn = columns.getColumnByName(Columns.archive_content.name());
-                    if (lastUpdateColumn == null || hashColumn == null || contentColumn == null) {
-                        continue;
-                    }
-                    ScriptModuleSpec moduleSpec = getModuleSpec(columns);
-                    long lastUpdateTime = lastUpdateColumn.getLongValue();
-                    byte[] hash = hashColumn.getByteArrayValue();
-                    byte[] content = contentColumn.getByteArrayValue();
-
-                    // verify the hash
-                    if (hash != null && hash.length > 0 && !verifyHash(hash, content)) {
-                        logger.warn("Content hash validation failed for moduleId {}. size: {}", moduleId, content.length);
-                        continue;
-                    }
-                    String fileName = new StringBuilder().append(moduleId).append("-").append(lastUpdateTime).append(".jar").toString();
-                    Path jarFile = archiveOuputDir.resolve(fileName);
-                    Files.write(jarFile, content);
-                    JarScriptArchive scriptArchive = new JarScriptArchive.Builder(jarFile)
-                        .setModuleSpec(moduleSpec)
-                        .setCreateTime(lastUpdateTime)
-                        .build();
-                    archives.add(scriptArchive);
+            // in the order of the requested moduleIds, whichever order the batches completed in
+            Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>(moduleIds.size()*2);
+            for (ModuleId moduleId : moduleIdList) {
+                Future<ScriptArchive> archiveFuture = archiveFutures.get(moduleId.toString());
+                ScriptArchive archive = archiveFuture != null ? archiveFuture.get() : null;
+                if (archive != null) {
+                    archives.add(archive);
                 }
-                start = end;
             }
-        } catch (Exception e) {
+            archiveCache.evict();
+            return archives;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new IOException(e);
+        } finally {
+            // stop the rest of the pipeline if it failed
+            for (Future<List<FetchedRow>> batchFuture : batchFutures) {
+                batchFuture.cancel(true);
+            }
+            for (Future<ScriptArchive> archiveFuture : archiveFutures.values()) {
+                archiveFuture.cancel(true);
+            }
         }
-        return archives;
+    }
+
+    /**
+     * Fetch a batch of archive rows. The content of the archives which are already cached is skipped.
+     * @param rowKeys the moduleIds of the batch
+     * @return the fetched rows
+     */
+    protected List<FetchedRow> fetchBatch(String[] rowKeys, ArchiveContentCache archiveCache) throws Exception {
+        List<FetchedRow> fetchedRows = new ArrayList<FetchedRow>(rowKeys.length);
+        Rows<String, String> rows = cassandra.getRows(rowKeys, ARCHIVE_SUMMARY_COLUMNS);
+        List<String> uncachedRowKeys = new ArrayList<String>(rowKeys.length);
+        for (Row<String, String> row : rows) {
+            String moduleId = row.getKey();
+            ColumnList<String> columns = row.getColumns();
+            Column<String> lastUpdateColumn = columns.getColumnByName(Columns.last_update.name());
+            Column<String> hashColumn = columns.getColumnByName(Columns.archive_content_hash.name());
+            if (lastUpdateColumn == null || hashColumn == null) {
+                continue;
+            }
+            byte[] hash = hashColumn.getByteArrayValue();
+            Path jarFile = hash != null && hash.length > 0 ? archiveCache.get(hash) : null;
+            if (jarFile == null) {
+                uncachedRowKeys.add(moduleId);
+            } else {
+                fetchedRows.add(new FetchedRow(moduleId, columns, jarFile));
+            }
+        }
+        if (!uncachedRowKeys.isEmpty()) {
+            for (Row<String, String> row : cassandra.getRows(uncachedRowKeys.toArray(new String[0]))) {
+                fetchedRows.add(new FetchedRow(row.getKey(), row.getColumns(), null));
+            }
+        }
+        return fetchedRows;
+    }
+
+    /**
+     * Verify and cache the content of a fetched archive, if it isn't cached yet, and open it.
+     * @return the archive, or null if the row is incomplete or its content is corrupt.
+     */
+    protected ScriptArchive storeArchive(FetchedRow row, ArchiveContentCache archiveCache) throws Exception {
+        String moduleId = row.moduleId;
+        ColumnList<String> columns = row.columns;
+        Column<String> lastUpdateColumn = columns.getColumnByName(Columns.last_update.name());
+        Column<String> hashColumn = columns.getColumnByName(Columns.archive_content_hash.name());
+        Column<String> contentColumn = columns.getColumnByName(Columns.archive_content.name());
+        if (lastUpdateColumn == null || hashColumn == null) {
+            return null;
+        }
+        long lastUpdateTime = lastUpdateColumn.getLongValue();
+        byte[] hash = hashColumn.getByteArrayValue();
+
+        Path jarFile;
+        if (row.cachedJarFile != null) {
+            jarFile = row.cachedJarFile;
+        } else if (isChunked(columns)) {
+            int chunkCount = columns.getColumnByName(Columns.archive_chunk_count.name()).getIntegerValue();
+            InputStream content = new InflaterInputStream(new ChunkInputStream(moduleId, hash, chunkCount));
+            try {
+                jarFile = archiveCache.put(hash, content);
+            } catch (IOException e) {
+                logger.warn("Failed to read the chunks of moduleId " + moduleId, e);
+                return null;
+            } finally {
+                IOUtils.closeQuietly(content);
+            }
+            if (jarFile == null) {
+                logger.warn("Content hash validation failed for moduleId {}. chunks: {}", moduleId, chunkCount);
+                return null;
+            }
+        } else if (contentColumn == null) {
+            return null;
+        } else if (hash != null && hash.length > 0) {
+            // verify the hash while caching
+            byte[] content = contentColumn.getByteArrayValue();
+            jarFile = archiveCache.put(hash, content);
+            if (jarFile == null) {
+                logger.warn("Content hash validation failed for moduleId {}. size: {}", moduleId, content.length);
+                return null;
+            }
+        } else {
+            byte[] content = contentColumn.getByteArrayValue();
+            // can't cache archives without a hash
+            String fileName = new StringBuilder().append(moduleId).append("-").append(lastUpdateTime).append(".jar").toString();
+            jarFile = getConfig().getArchiveOutputDirectory().resolve(fileName);
+            Files.write(jarFile, content);
+            return createArchive(jarFile, columns, lastUpdateTime);
+        }
+        // the jar stays cached for as long as the archive is in use, even if a newer revision is fetched
+        JarScriptArchive archive = createArchive(jarFile, columns, lastUpdateTime);
+        archiveCache.retain(archive, hash);
+        return archive;
+    }
+
+    private JarScriptArchive createArchive(Path jarFile, ColumnList<String> columns, long lastUpdateTime) throws IOException {
+        return new JarScriptArchive.Builder(jarFile)
+            .setModuleSpec(getModuleSpec(columns))
+            .setCreateTime(lastUpdateTime)
+            .build();
+    }
+
+    /**
+     * @return the pool of threads which fetch batches of archives, created on first use
+     */
+    protected synchronized ExecutorService getFetchExecutor() {
+        if (fetchExecutor == null) {
+            fetchExecutor = createDaemonThreadPool(Math.max(1, getConfig().getArchiveFetchConcurrency()), "FetchThread");
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * @return the pool of threads which verify, write and open the fetched archives, created on first use
+     */
+    protected synchronized ExecutorService getArchiveExecutor() {
+        if (archiveExecutor == null) {
+            archiveExecutor = createDaemonThreadPool(Runtime.getRuntime().availableProcessors(), "ArchiveThread");
+        }
+        return archiveExecutor;
+    }
+
+    /**
+     * Create a pool of daemon threads which time out when idle, so that it doesn't need to be shut down.
+     */
+    private ExecutorService createDaemonThreadPool(int threadCount, final String threadName) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, CassandraArchiveRepository.class.getSimpleName() + "-" + threadName
+                        + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    /**
+     * @return the local cache of archives, created on first use
+     */
+    protected synchronized ArchiveContentCache getArchiveCache() throws IOException {
+        if (archiveCache == null) {
+            archiveCache = new ArchiveContentCache(getConfig().getArchiveOutputDirectory().resolve(ARCHIVE_CACHE_DIR_NAME),
+                getConfig().getArchiveCacheMaxSizeBytes());
+        }
+        return archiveCache;
     }
 
     /**
@@ -265,7 +600,115 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     @Override
     public void deleteArchive(ModuleId moduleId) throws IOException {
         Objects.requireNonNull(moduleId, "moduleId");
+        ColumnList<String> previousColumns = null;
+        if (getConfig().getArchiveChunkSizeBytes() > 0) {
+            try {
+                previousColumns = cassandra.getColumns(moduleId.toString(), CHUNK_COLUMNS);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
         cassandra.deleteRow(moduleId.toString());
+        if (previousColumns != null) {
+            if (isChunked(previousColumns)) {
+                deleteChunks(moduleId.toString(),
+                    previousColumns.getColumnByName(Columns.archive_content_hash.name()).getByteArrayValue(),
+                    previousColumns.getColumnByName(Columns.archive_chunk_count.name()).getIntegerValue());
+            }
+            byte[] supersededHash = getSupersededHash(previousColumns);
+            if (supersededHash != null) {
+                deleteChunks(moduleId.toString(), supersededHash,
+                    previousColumns.getColumnByName(Columns.superseded_chunk_count.name()).getIntegerValue());
+            }
+        }
+        logChange(moduleId, calculateShardNum(moduleId), 0, true);
+    }
+
+    /**
+     * Compress an archive and store it in chunks of the given size.
+     * @return the number of chunks
+     */
+    protected int writeChunks(ModuleId moduleId, byte[] hash, Path jarFile, int chunkSize) throws IOException {
+        ChunkOutputStream chunkStream = new ChunkOutputStream(moduleId.toString(), hash, chunkSize);
+        try (OutputStream outputStream = new DeflaterOutputStream(chunkStream)) {
+            Files.copy(jarFile, outputStream);
+        }
+        return chunkStream.getChunkCount();
+    }
+
+    /**
+     * Delete the chunks of a revision of a module.
+     * @param moduleId the module
+     * @param hash hash of the contents of the revision
+     * @param chunkCount the number of chunks of the revision
+     */
+    protected void deleteChunks(String moduleId, byte[] hash, int chunkCount) {
+        for (int i = 0; i < chunkCount; i++) {
+            cassandra.deleteRow(getChunkRowKey(moduleId, hash, i));
+        }
+    }
+
+    /**
+     * @return the hash of the superseded chunks referenced by the given columns, or null if there are none
+     */
+    @Nullable
+    protected byte[] getSupersededHash(ColumnList<String> columns) {
+        Column<String> hashColumn = columns.getColumnByName(Columns.superseded_content_hash.name());
+        Column<String> chunkCountColumn = columns.getColumnByName(Columns.superseded_chunk_count.name());
+        if (hashColumn == null || !hashColumn.hasValue() || chunkCountColumn == null || !chunkCountColumn.hasValue()
+                || chunkCountColumn.getIntegerValue() == 0) {
+            return null;
+        }
+        return hashColumn.getByteArrayValue();
+    }
+
+    /**
+     * @return true if the given columns reference a chunked archive. Archives which were stored in a single
+     *         column after chunking was disabled again keep the format of the chunked revision before them,
+     *         so a row which has content of its own is never chunked.
+     */
+    protected boolean isChunked(ColumnList<String> columns) {
+        Column<String> formatColumn = columns.getColumnByName(Columns.archive_format.name());
+        Column<String> chunkCountColumn = columns.getColumnByName(Columns.archive_chunk_count.name());
+        Column<String> hashColumn = columns.getColumnByName(Columns.archive_content_hash.name());
+        Column<String> contentColumn = columns.getColumnByName(Columns.archive_content.name());
+        return formatColumn != null && formatColumn.hasValue() && CHUNKED_DEFLATE_FORMAT.equals(formatColumn.getStringValue())
+            && chunkCountColumn != null && chunkCountColumn.hasValue() && hashColumn != null && hashColumn.hasValue()
+            && (contentColumn == null || !contentColumn.hasValue() || contentColumn.getByteArrayValue().length == 0);
+    }
+
+    /**
+     * The row key of a chunk. Chunks are keyed by the hash of the archive, so that storing a new revision of a
+     * module never overwrites the chunks of the previous revision while they are being read.
+     */
+    protected String getChunkRowKey(String moduleId, byte[] hash, int chunkIndex) {
+        return new StringBuilder().append(moduleId).append(':')
+            .append(BaseEncoding.base16().lowerCase().encode(hash)).append(':')
+            .append(chunkIndex).toString();
+    }
+
+    /**
+     * Record the latest change to a module in the change log, if there is one.
+     * @param moduleId the changed module
+     * @param shardNum the shard of the module
+     * @param lastUpdate the update time of the inserted archive
+     * @param deleted whether the module was deleted
+     */
+    protected void logChange(ModuleId moduleId, int shardNum, long lastUpdate, boolean deleted) throws IOException {
+        if (changeLog == null) {
+            return;
+        }
+        Map<String, Object> columns = new HashMap<String, Object>();
+        columns.put(ChangeLogColumns.module_id.name(), moduleId.toString());
+        columns.put(ChangeLogColumns.shard_num.name(), shardNum);
+        columns.put(ChangeLogColumns.change_time.name(), System.currentTimeMillis());
+        columns.put(ChangeLogColumns.last_update.name(), lastUpdate);
+        columns.put(ChangeLogColumns.deleted.name(), deleted);
+        try {
+            changeLog.upsert(moduleId.toString(), columns, getConfig().getChangeLogTtlSeconds());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -290,6 +733,57 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         return rows;
     }
 
+    /**
+     * Get the change log entries of all of the modules which changed after the given time,
+     * one sub-query per shard.
+     * @param changeTime time of the last change which has already been seen
+     * @return change log rows
+     */
+    protected Iterable<Row<String, String>> getChanges(long changeTime) throws Exception {
+        int shardCount = config.getShardCount();
+
+        List<Future<Rows<String, String>>> futures = new ArrayList<Future<Rows<String, String>>>();
+        for (int i = 0; i < shardCount; i++) {
+            futures.add(changeLog.selectAsync(generateSelectChangesByShardCql(i, changeTime)));
+        }
+
+        List<Row<String, String>> rows = new LinkedList<Row<String, String>>();
+        for (Future<Rows<String, String>> f: futures) {
+            Rows<String, String> shardRows = f.get();
+            Iterables.addAll(rows, shardRows);
+        }
+        return rows;
+    }
+
+    /**
+     * Generate the CQL to select the change log entries of a shard which changed after the given time.
+     * <pre>
+     *      SELECT module_id,shard_num,change_time,last_update,deleted FROM script_repo_changes
+     *      WHERE shard_num = ? AND change_time > ? ALLOW FILTERING
+     * </pre>
+     */
+    protected String generateSelectChangesByShardCql(Integer shardNum, long changeTime) {
+        StringBuilder sb = new StringBuilder()
+            .append("SELECT ");
+        boolean first = true;
+        for (ChangeLogColumns column : ChangeLogColumns.values()) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(",");
+            }
+            sb.append(column.name());
+        }
+        sb.append("\n")
+            .append("FROM ").append(changeLog.getColumnFamily())
+            .append("\n").append("WHERE ").append(ChangeLogColumns.shard_num.name())
+            .append(" = ").append(shardNum)
+            .append(" AND ").append(ChangeLogColumns.change_time.name())
+            .append(" > ").append(changeTime).append("\n")
+            .append("ALLOW FILTERING\n");
+        return sb.toString();
+    }
+
     /**
      * Generate the CQL to select specific columns by shard number.
      * <pre>
@@ -320,6 +814,24 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         return Arrays.equals(expectedHashCode, hashCode);
     }
 
+    protected byte[] calculateHash(Path file) throws IOException {
+        MessageDigest digester;
+        try {
+            digester = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digester.update(buffer, 0, read);
+            }
+        }
+        return digester.digest();
+    }
+
     protected byte[] calculateHash(byte[] content) {
         MessageDigest digester;
         try {
@@ -356,6 +868,12 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     }
 
     protected class DefaultView implements RepositoryView {
+        /** update times as of the high-water mark. only used with a change log */
+        private Map<ModuleId, Long> cachedUpdateTimes;
+        /** start time of the last successful poll */
+        private long highWaterMark;
+        private long lastReconcileTime;
+
         @Override
         public String getName() {
             return "Default View";
@@ -363,10 +881,65 @@ public class CassandraArchiveRepository implements ArchiveRepository {
 
         /**
          * Get the last update times of all of the script archives managed by this Repository.
+         * With a change log, only the changes since the previous poll are read, see {@link CassandraArchiveRepository}.
          * @return map of moduleId to last update time
          */
         @Override
-        public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+        public synchronized Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+            if (changeLog == null) {
+                return scanArchiveUpdateTimes();
+            }
+            long pollTime = System.currentTimeMillis();
+            long changeLogTtlMillis = TimeUnit.SECONDS.toMillis(getConfig().getChangeLogTtlSeconds());
+            if (cachedUpdateTimes == null
+                    || pollTime - lastReconcileTime >= getConfig().getFullReconcileIntervalMillis()
+                    || pollTime - highWaterMark >= changeLogTtlMillis - CHANGE_LOG_OVERLAP_MILLIS) {
+                reconcile(pollTime);
+            } else {
+                try {
+                    applyChanges(getChanges(highWaterMark - CHANGE_LOG_OVERLAP_MILLIS));
+                    highWaterMark = pollTime;
+                } catch (Exception e) {
+                    logger.warn("Failed to read the change log of repository " + getRepositoryId() + ". Falling back to a full scan.", e);
+                    reconcile(pollTime);
+                }
+            }
+            return new LinkedHashMap<ModuleId, Long>(cachedUpdateTimes);
+        }
+
+        /**
+         * Replace the update times with a full scan of the archives.
+         */
+        protected void reconcile(long pollTime) throws IOException {
+            cachedUpdateTimes = scanArchiveUpdateTimes();
+            highWaterMark = pollTime;
+            lastReconcileTime = pollTime;
+        }
+
+        /**
+         * Apply the latest change of each module to the update times.
+         */
+        protected void applyChanges(Iterable<Row<String, String>> changes) {
+            for (Row<String, String> row : changes) {
+                String moduleId = row.getKey();
+                if (StringUtils.isBlank(moduleId)) {
+                    continue;
+                }
+                ColumnList<String> columns = row.getColumns();
+                Column<String> deletedColumn = columns.getColumnByName(ChangeLogColumns.deleted.name());
+                Column<String> lastUpdateColumn = columns.getColumnByName(ChangeLogColumns.last_update.name());
+                if (deletedColumn != null && deletedColumn.hasValue() && deletedColumn.getBooleanValue()) {
+                    cachedUpdateTimes.remove(ModuleId.fromString(moduleId));
+                } else if (lastUpdateColumn != null) {
+                    cachedUpdateTimes.put(ModuleId.fromString(moduleId), lastUpdateColumn.getLongValue());
+                }
+            }
+        }
+
+        /**
+         * Scan all of the shards for the update times of the archives.
+         */
+        protected Map<ModuleId, Long> scanArchiveUpdateTimes() throws IOException {
             Iterable<Row<String, String>> rows;
             try {
                 rows = getRows((EnumSet<?>)EnumSet.of(Columns.module_id, Columns.last_update));
@@ -428,4 +1001,167 @@ public class CassandraArchiveRepository implements ArchiveRepository {
             return summaries;
         }
     }
+
+    /**
+     * A row fetched by {@link CassandraArchiveRepository#fetchBatch(String[], ArchiveContentCache)}
+     */
+    protected static class FetchedRow {
+        protected final String moduleId;
+        protected final ColumnList<String> columns;
+        /** the cached jar with the content of the archive, or null if the columns include the content */
+        @Nullable
+        protected final Path cachedJarFile;
+
+        protected FetchedRow(String moduleId, ColumnList<String> columns, @Nullable Path cachedJarFile) {
+            this.moduleId = moduleId;
+            this.columns = columns;
+            this.cachedJarFile = cachedJarFile;
+        }
+    }
+
+    /**
+     * Splits the written bytes into chunks, storing each one as soon as it is full.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        private final String moduleId;
+        private final byte[] hash;
+        private final byte[] chunk;
+        private int position;
+        private int chunkCount;
+
+        private ChunkOutputStream(String moduleId, byte[] hash, int chunkSize) {
+            this.moduleId = moduleId;
+            this.hash = hash;
+            this.chunk = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            chunk[position++] = (byte)b;
+            if (position == chunk.length) {
+                writeChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, chunk.length - position);
+                System.arraycopy(bytes, offset, chunk, position, count);
+                position += count;
+                offset += count;
+                length -= count;
+                if (position == chunk.length) {
+                    writeChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (position > 0) {
+                writeChunk();
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            Map<String, Object> columns = new HashMap<String, Object>();
+            columns.put(Columns.archive_content.name(), Arrays.copyOf(chunk, position));
+            try {
+                cassandra.upsert(getChunkRowKey(moduleId, hash, chunkCount), columns);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            chunkCount++;
+            position = 0;
+        }
+
+        private int getChunkCount() {
+            return chunkCount;
+        }
+    }
+
+    /**
+     * Reads the chunks of an archive in order, fetching them in batches of
+     * {@link CassandraArchiveRepositoryConfig#getArchiveFetchBatchSize()}, so that only
+     * one batch of chunks is held in memory at a time.
+     */
+    private class ChunkInputStream extends InputStream {
+        private final String moduleId;
+        private final byte[] hash;
+        private final int chunkCount;
+        private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+        private int nextChunkIndex;
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        private ChunkInputStream(String moduleId, byte[] hash, int chunkCount) {
+            this.moduleId = moduleId;
+            this.hash = hash;
+            this.chunkCount = chunkCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Move to the next chunk if the current one has been read.
+         * @return false at the end of the last chunk
+         */
+        private boolean nextChunk() throws IOException {
+            while (position == chunk.length) {
+                if (chunks.isEmpty()) {
+                    if (nextChunkIndex == chunkCount) {
+                        return false;
+                    }
+                    fetchChunks();
+                }
+                chunk = chunks.removeFirst();
+                position = 0;
+            }
+            return true;
+        }
+
+        private void fetchChunks() throws IOException {
+            int batchEnd = Math.min(chunkCount, nextChunkIndex + Math.max(1, getConfig().getArchiveFetchBatchSize()));
+            String[] rowKeys = new String[batchEnd - nextChunkIndex];
+            for (int i = 0; i < rowKeys.length; i++) {
+                rowKeys[i] = getChunkRowKey(moduleId, hash, nextChunkIndex + i);
+            }
+            Rows<String, String> rows;
+            try {
+                rows = cassandra.getRows(rowKeys, new String[] {Columns.archive_content.name()});
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            for (String rowKey : rowKeys) {
+                Row<String, String> row = rows != null ? rows.getRow(rowKey) : null;
+                Column<String> contentColumn = row != null ? row.getColumns().getColumnByName(Columns.archive_content.name()) : null;
+                if (contentColumn == null) {
+                    throw new IOException("Missing chunk " + rowKey);
+                }
+                chunks.add(contentColumn.getByteArrayValue());
+            }
+            nextChunkIndex = batchEnd;
+        }
+    }
 }
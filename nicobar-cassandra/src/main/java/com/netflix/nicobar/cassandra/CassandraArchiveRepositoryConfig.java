@@ -19,6 +19,8 @@ package com.netflix.nicobar.cassandra;
 
 import java.nio.file.Path;
 
+import javax.annotation.Nullable;
+
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
 
@@ -44,11 +46,27 @@ public interface CassandraArchiveRepositoryConfig {
      */
     public int getArchiveFetchBatchSize();
 
+    /**
+     * @return how many batches of archives to fetch concurrently
+     */
+    public int getArchiveFetchConcurrency();
+
     /**
      * @return the output directory for archives
      */
     public Path getArchiveOutputDirectory();
 
+    /**
+     * @return the size of the chunks that archives are compressed into and stored in, in bytes.
+     *         Archives are stored uncompressed in a single column if 0.
+     */
+    public int getArchiveChunkSizeBytes();
+
+    /**
+     * @return the size above which unused archives are evicted from the local archive cache, in bytes
+     */
+    public long getArchiveCacheMaxSizeBytes();
+
     /**
      * @return serializer for the {@link ScriptModuleSpec} for use when inserting or fetching data.
      */
@@ -58,4 +76,21 @@ public interface CassandraArchiveRepositoryConfig {
      * @return Descriptive string which uniquely identifies the repository. Used for display and reporting.
      */
     public String getRepositoryId();
+
+    /**
+     * @return a gateway to the change log column family, or null if changes to the repository
+     *         aren't logged, in which case every poll scans all of the archives.
+     */
+    @Nullable
+    public CassandraGateway getChangeLogGateway();
+
+    /**
+     * @return how long entries in the change log live, in seconds
+     */
+    public int getChangeLogTtlSeconds();
+
+    /**
+     * @return how often to reconcile with a scan of all of the archives when polling the change log, in milliseconds
+     */
+    public long getFullReconcileIntervalMillis();
 }
\ No newline at end of file
@@ -93,6 +93,14 @@ public interface CassandraGateway {
      */
     public Rows<String, String> getRows(String... rowKeys);
 
+    /**
+     * Gets specific columns for all the listed row keys.
+     * @param rowKeys a list of row keys.
+     * @param columns the specific columns.
+     * @return list of rows, possibly null.
+     */
+    public Rows<String, String> getRows(String[] rowKeys, String[] columns);
+
     /**
      * Performs a CQL query and returns result.
      *
@@ -77,6 +77,11 @@ public class CassandraGatewayImpl implements CassandraGateway {
         return new HystrixCassandraGetRowsByKeys<String>(keyspace, columnFamily, rowKeys).execute();
     }
 
+    @Override
+    public Rows<String, String> getRows(String[] rowKeys, String[] columns) {
+        return new HystrixCassandraGetRowsByKeys<String>(keyspace, columnFamily, rowKeys).withColumns(columns).execute();
+    }
+
     @Override
     public Rows<String, String> select(String cql) {
         return new HystrixCassandraGetRowsByQuery<String>(keyspace, columnFamily, String.class, cql).execute();
@@ -0,0 +1,163 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Unit tests for {@link ArchiveContentCache}
+ */
+public class ArchiveContentCacheTest {
+    private static final byte[] CONTENT_A = createContent(1);
+    private static final byte[] CONTENT_B = createContent(2);
+    private static final byte[] CONTENT_C = createContent(3);
+    private static final byte[] HASH_A = sha1(CONTENT_A);
+    private static final byte[] HASH_B = sha1(CONTENT_B);
+    private static final byte[] HASH_C = sha1(CONTENT_C);
+    private Path cacheDir;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        cacheDir = Files.createTempDirectory("ArchiveContentCacheTest");
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ArchiveContentCache cache = new ArchiveContentCache(cacheDir, 1024);
+        assertNull(cache.get(HASH_A));
+        Path jarFile = cache.put(HASH_A, CONTENT_A);
+        assertEquals(jarFile, cacheDir.resolve(BaseEncoding.base16().lowerCase().encode(HASH_A) + ".jar"));
+        assertEquals(Files.readAllBytes(jarFile), CONTENT_A);
+        assertEquals(cache.get(HASH_A), jarFile);
+        // putting the same content twice is a no-op
+        assertEquals(cache.put(HASH_A, new ByteArrayInputStream(CONTENT_A)), jarFile);
+        assertEquals(cache.getSize(), 10);
+        assertEquals(cache.getEntryCount(), 1);
+    }
+
+    @Test
+    public void testHashMismatch() throws Exception {
+        ArchiveContentCache cache = new ArchiveContentCache(cacheDir, 1024);
+        assertNull(cache.put(HASH_A, CONTENT_B));
+        assertNull(cache.get(HASH_A));
+        assertEquals(cache.getEntryCount(), 0);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+            assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        ArchiveContentCache cache = new ArchiveContentCache(cacheDir, 25);
+        cache.put(HASH_A, CONTENT_A);
+        cache.put(HASH_B, CONTENT_B);
+        cache.put(HASH_C, CONTENT_C);
+        cache.get(HASH_A);
+
+        assertEquals(cache.evict(), 1);
+        assertNull(cache.get(HASH_B));
+        assertEquals(cache.getEntryCount(), 2);
+        assertNotNull(cache.get(HASH_C));
+        assertNotNull(cache.get(HASH_A));
+        assertEquals(cache.getSize(), 20);
+        assertEquals(cache.evict(), 0);
+    }
+
+    @Test
+    public void testRetainedEntriesAreNotEvicted() throws Exception {
+        ArchiveContentCache cache = new ArchiveContentCache(cacheDir, 5);
+        cache.put(HASH_A, CONTENT_A);
+        cache.put(HASH_B, CONTENT_B);
+        Object holderA = new Object();
+        cache.retain(holderA, HASH_A);
+
+        assertEquals(cache.evict(), 1);
+        assertNotNull(cache.get(HASH_A));
+        assertNull(cache.get(HASH_B));
+
+        // a newer revision doesn't release the jar of the one still in use
+        cache.put(HASH_B, CONTENT_B);
+        Object holderB = new Object();
+        cache.retain(holderB, HASH_B);
+        assertEquals(cache.evict(), 0);
+        assertNotNull(cache.get(HASH_A));
+
+        // until it is no longer reachable
+        holderA = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (cache.getEntryCount() > 1 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            cache.evict();
+        }
+        assertNull(cache.get(HASH_A));
+        assertNotNull(cache.get(HASH_B));
+        // keep the holder reachable until here
+        assertNotNull(holderB);
+    }
+
+    @Test
+    public void testReloadFromDisk() throws Exception {
+        ArchiveContentCache cache = new ArchiveContentCache(cacheDir, 15);
+        Path jarA = cache.put(HASH_A, CONTENT_A);
+        Path jarB = cache.put(HASH_B, CONTENT_B);
+        Files.setLastModifiedTime(jarB, FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(jarA, FileTime.fromMillis(2000));
+
+        ArchiveContentCache reloaded = new ArchiveContentCache(cacheDir, 15);
+        assertEquals(reloaded.getEntryCount(), 2);
+        assertEquals(reloaded.getSize(), 20);
+        // the access order is restored from the modification times
+        assertEquals(reloaded.evict(), 1);
+        assertTrue(Files.exists(jarA));
+        assertFalse(Files.exists(jarB));
+    }
+
+    private static byte[] createContent(int value) {
+        byte[] content = new byte[10];
+        Arrays.fill(content, (byte)value);
+        return content;
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
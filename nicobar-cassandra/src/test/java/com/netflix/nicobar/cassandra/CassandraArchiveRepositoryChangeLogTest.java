@@ -0,0 +1,172 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.cassandra.CassandraArchiveRepository.Columns;
+import com.netflix.nicobar.cassandra.CassandraArchiveRepositoryTest.TestResource;
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Tests for the change log polling of the {@link CassandraArchiveRepository}, against an {@link InMemoryCassandraGateway}
+ */
+public class CassandraArchiveRepositoryChangeLogTest {
+    private static final String ARCHIVE_COLUMN_FAMILY = "script_repo";
+    private static final String CHANGE_LOG_COLUMN_FAMILY = "script_repo_changes";
+
+    private Path testArchiveJarFile;
+    private InMemoryCassandraGateway gateway;
+    private InMemoryCassandraGateway changeLogGateway;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        URL testJarUrl = getClass().getClassLoader().getResource(TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        if (testJarUrl == null) {
+            fail("Couldn't locate " + TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        }
+        testArchiveJarFile = Files.createTempFile(TestResource.TEST_HELLOWORLD_JAR.getModuleId().toString(), ".jar");
+        InputStream inputStream = testJarUrl.openStream();
+        Files.copy(inputStream, testArchiveJarFile, StandardCopyOption.REPLACE_EXISTING);
+        IOUtils.closeQuietly(inputStream);
+    }
+
+    @BeforeMethod
+    public void createGateways() {
+        gateway = new InMemoryCassandraGateway("testKeySpace", ARCHIVE_COLUMN_FAMILY);
+        changeLogGateway = new InMemoryCassandraGateway("testKeySpace", CHANGE_LOG_COLUMN_FAMILY);
+    }
+
+    @Test
+    public void testIncrementalPoll() throws Exception {
+        CassandraArchiveRepository repository = createRepository(TimeUnit.HOURS.toMillis(1));
+        repository.insertArchive(createArchive("A", 1000));
+        repository.insertArchive(createArchive("B", 2000));
+
+        // the first poll scans all of the archives
+        Map<ModuleId, Long> expected = new LinkedHashMap<ModuleId, Long>();
+        expected.put(ModuleId.create("A"), 1000L);
+        expected.put(ModuleId.create("B"), 2000L);
+        assertEquals(repository.getDefaultView().getArchiveUpdateTimes(), expected);
+        int archiveQueries = gateway.getExecutedQueries().size();
+        assertEquals(archiveQueries, repository.getConfig().getShardCount());
+
+        // later polls only read the change log
+        repository.insertArchive(createArchive("C", 3000));
+        repository.insertArchive(createArchive("B", 4000));
+        repository.deleteArchive(ModuleId.create("A"));
+        expected.remove(ModuleId.create("A"));
+        expected.put(ModuleId.create("B"), 4000L);
+        expected.put(ModuleId.create("C"), 3000L);
+        assertEquals(repository.getDefaultView().getArchiveUpdateTimes(), expected);
+        assertEquals(repository.getDefaultView().getArchiveUpdateTimes(), expected);
+        assertEquals(gateway.getExecutedQueries().size(), archiveQueries);
+
+        List<String> changeLogQueries = changeLogGateway.getExecutedQueries();
+        assertEquals(changeLogQueries.size(), 2 * repository.getConfig().getShardCount());
+        assertTrue(changeLogQueries.get(0).contains("ALLOW FILTERING"));
+    }
+
+    @Test
+    public void testChangeLogEntries() throws Exception {
+        CassandraArchiveRepository repository = createRepository(TimeUnit.HOURS.toMillis(1));
+        long beforeInsert = System.currentTimeMillis();
+        repository.insertArchive(createArchive("A", 1000));
+
+        Map<String, Object> entry = changeLogGateway.getRowValues("A");
+        assertEquals(entry.get(CassandraArchiveRepository.ChangeLogColumns.last_update.name()), 1000L);
+        assertEquals(entry.get(CassandraArchiveRepository.ChangeLogColumns.deleted.name()), Boolean.FALSE);
+        assertEquals(entry.get(CassandraArchiveRepository.ChangeLogColumns.shard_num.name()),
+            repository.calculateShardNum(ModuleId.create("A")));
+        assertTrue((Long)entry.get(CassandraArchiveRepository.ChangeLogColumns.change_time.name()) >= beforeInsert);
+
+        repository.deleteArchive(ModuleId.create("A"));
+        entry = changeLogGateway.getRowValues("A");
+        assertEquals(entry.get(CassandraArchiveRepository.ChangeLogColumns.deleted.name()), Boolean.TRUE);
+    }
+
+    @Test
+    public void testFullReconcile() throws Exception {
+        CassandraArchiveRepository repository = createRepository(0);
+        repository.insertArchive(createArchive("A", 1000));
+        assertEquals(repository.getDefaultView().getArchiveUpdateTimes().keySet().size(), 1);
+
+        // changes which bypass the change log are picked up by the next full scan
+        Map<String, Object> columns = new HashMap<String, Object>();
+        columns.put(Columns.module_id.name(), "B");
+        columns.put(Columns.shard_num.name(), repository.calculateShardNum(ModuleId.create("B")));
+        columns.put(Columns.last_update.name(), 2000L);
+        gateway.upsert("B", columns);
+        Map<ModuleId, Long> updateTimes = repository.getDefaultView().getArchiveUpdateTimes();
+        assertEquals(updateTimes.get(ModuleId.create("B")), Long.valueOf(2000L));
+        assertTrue(changeLogGateway.getExecutedQueries().isEmpty());
+    }
+
+    @Test
+    public void testWithoutChangeLog() throws Exception {
+        CassandraArchiveRepositoryConfig config = new BasicCassandraRepositoryConfig.Builder(gateway)
+            .setRepositoryId("TestRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(getClass().getSimpleName() + "_"))
+            .build();
+        CassandraArchiveRepository repository = new CassandraArchiveRepository(config);
+        repository.insertArchive(createArchive("A", 1000));
+        repository.getDefaultView().getArchiveUpdateTimes();
+        repository.deleteArchive(ModuleId.create("A"));
+        assertFalse(repository.getDefaultView().getArchiveUpdateTimes().containsKey(ModuleId.create("A")));
+        assertEquals(gateway.getExecutedQueries().size(), 2 * config.getShardCount());
+        assertTrue(changeLogGateway.getExecutedQueries().isEmpty());
+    }
+
+    private CassandraArchiveRepository createRepository(long fullReconcileIntervalMillis) throws Exception {
+        CassandraArchiveRepositoryConfig config = new BasicCassandraRepositoryConfig.Builder(gateway)
+            .setRepositoryId("TestRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(getClass().getSimpleName() + "_"))
+            .setChangeLogGateway(changeLogGateway)
+            .setFullReconcileInterval(fullReconcileIntervalMillis, TimeUnit.MILLISECONDS)
+            .build();
+        return new CassandraArchiveRepository(config);
+    }
+
+    private JarScriptArchive createArchive(String moduleId, long createTime) throws Exception {
+        return new JarScriptArchive.Builder(testArchiveJarFile)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+            .setCreateTime(createTime)
+            .build();
+    }
+}
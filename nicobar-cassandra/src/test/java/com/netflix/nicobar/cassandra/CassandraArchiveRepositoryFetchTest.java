@@ -0,0 +1,381 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.astyanax.model.Rows;
+import com.netflix.nicobar.cassandra.CassandraArchiveRepository.Columns;
+import com.netflix.nicobar.cassandra.CassandraArchiveRepositoryTest.TestResource;
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Tests for fetching archives from the {@link CassandraArchiveRepository}, against an {@link InMemoryCassandraGateway}
+ */
+public class CassandraArchiveRepositoryFetchTest {
+    private Path testArchiveJarFile;
+    private InMemoryCassandraGateway gateway;
+    private CassandraArchiveRepository repository;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        URL testJarUrl = getClass().getClassLoader().getResource(TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        if (testJarUrl == null) {
+            fail("Couldn't locate " + TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        }
+        testArchiveJarFile = Files.createTempFile(TestResource.TEST_HELLOWORLD_JAR.getModuleId().toString(), ".jar");
+        InputStream inputStream = testJarUrl.openStream();
+        Files.copy(inputStream, testArchiveJarFile, StandardCopyOption.REPLACE_EXISTING);
+        IOUtils.closeQuietly(inputStream);
+    }
+
+    @BeforeMethod
+    public void createRepository() throws Exception {
+        gateway = new InMemoryCassandraGateway("testKeySpace", "script_repo");
+        repository = createRepository(BasicCassandraRepositoryConfig.DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES);
+    }
+
+    @Test
+    public void testGetScriptArchives() throws Exception {
+        repository.insertArchive(createArchive("A", 1000));
+        Set<ScriptArchive> archives = repository.getScriptArchives(Collections.singleton(ModuleId.create("A")));
+        assertEquals(archives.size(), 1);
+        ScriptArchive archive = archives.iterator().next();
+        assertEquals(archive.getModuleSpec().getModuleId(), ModuleId.create("A"));
+        assertEquals(archive.getCreateTime(), 1000);
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(testArchiveJarFile));
+    }
+
+    @Test
+    public void testCachedArchivesAreNotDownloaded() throws Exception {
+        repository.insertArchive(createArchive("A", 1000));
+        ScriptArchive archive1 = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        int contentReadCount = gateway.getReadCount(Columns.archive_content.name());
+        assertTrue(contentReadCount > 0);
+
+        // a new revision with the same content is served from the cache
+        repository.insertArchive(createArchive("A", 2000));
+        repository.insertArchive(createArchive("B", 2000));
+        Set<ModuleId> moduleIds = new LinkedHashSet<ModuleId>();
+        moduleIds.add(ModuleId.create("A"));
+        moduleIds.add(ModuleId.create("B"));
+        Set<ScriptArchive> archives = repository.getScriptArchives(moduleIds);
+        assertEquals(archives.size(), 2);
+        for (ScriptArchive archive : archives) {
+            assertEquals(archive.getCreateTime(), 2000);
+            assertEquals(archive.getRootUrl(), archive1.getRootUrl());
+        }
+        assertEquals(gateway.getReadCount(Columns.archive_content.name()), contentReadCount);
+        assertEquals(repository.getArchiveCache().getEntryCount(), 1);
+    }
+
+    @Test
+    public void testChunkedArchives() throws Exception {
+        repository = createRepository(64);
+        repository.insertArchive(createArchive("A", 1000));
+        Map<String, Object> row = gateway.getRowValues("A");
+        assertEquals(row.get(Columns.archive_format.name()), CassandraArchiveRepository.CHUNKED_DEFLATE_FORMAT);
+        int chunkCount = (Integer)row.get(Columns.archive_chunk_count.name());
+        assertTrue(chunkCount > repository.getConfig().getArchiveFetchBatchSize());
+        byte[] hash = (byte[])row.get(Columns.archive_content_hash.name());
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] chunk = (byte[])gateway.getRowValues(repository.getChunkRowKey("A", hash, i)).get(Columns.archive_content.name());
+            assertTrue(chunk.length <= 64);
+        }
+
+        Set<ScriptArchive> archives = repository.getScriptArchives(Collections.singleton(ModuleId.create("A")));
+        assertEquals(archives.size(), 1);
+        ScriptArchive archive = archives.iterator().next();
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(testArchiveJarFile));
+        // the empty content column of the archive row, and each of the chunks
+        assertEquals(gateway.getReadCount(Columns.archive_content.name()), 1 + chunkCount);
+    }
+
+    @Test
+    public void testSupersededChunksAreDeletedByTheNextRevision() throws Exception {
+        repository = createRepository(64);
+        repository.insertArchive(createArchive("A", 1000));
+        byte[] hash = (byte[])gateway.getRowValues("A").get(Columns.archive_content_hash.name());
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", hash, 0)) != null);
+
+        // same content, same chunks
+        repository.insertArchive(createArchive("A", 2000));
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", hash, 0)) != null);
+
+        // the chunks of the previous revision are kept for pollers which are still reading them
+        Path otherJarFile = createJar("other.txt", "other");
+        repository.insertArchive(createArchive("A", 3000, otherJarFile));
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", hash, 0)) != null);
+        ScriptArchive archive = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(otherJarFile));
+
+        // until the next revision is inserted
+        byte[] otherHash = (byte[])gateway.getRowValues("A").get(Columns.archive_content_hash.name());
+        Path thirdJarFile = createJar("third.txt", "third");
+        repository.insertArchive(createArchive("A", 4000, thirdJarFile));
+        assertEquals(gateway.getRowValues(repository.getChunkRowKey("A", hash, 0)), null);
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", otherHash, 0)) != null);
+
+        // reverting to the superseded content doesn't delete the chunks it is reusing
+        byte[] thirdHash = (byte[])gateway.getRowValues("A").get(Columns.archive_content_hash.name());
+        repository.insertArchive(createArchive("A", 5000, otherJarFile));
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", otherHash, 0)) != null);
+        assertTrue(gateway.getRowValues(repository.getChunkRowKey("A", thirdHash, 0)) != null);
+        archive = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(otherJarFile));
+
+        // deleting the module deletes the current and the superseded chunks
+        repository.deleteArchive(ModuleId.create("A"));
+        assertEquals(gateway.getRowValues("A"), null);
+        assertEquals(gateway.getRowValues(repository.getChunkRowKey("A", otherHash, 0)), null);
+        assertEquals(gateway.getRowValues(repository.getChunkRowKey("A", thirdHash, 0)), null);
+    }
+
+    @Test
+    public void testJarOfLoadedRevisionIsNotEvicted() throws Exception {
+        repository = createRepository(BasicCassandraRepositoryConfig.DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES, 1);
+        repository.insertArchive(createArchive("A", 1000));
+        // held like the source archive of a loaded module
+        ScriptArchive loadedArchive = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        Path loadedJarFile = Paths.get(loadedArchive.getRootUrl().toURI());
+
+        // a newer revision which is rejected by the module loader
+        repository.insertArchive(createArchive("A", 2000, createJar("other.txt", "other")));
+        repository.getScriptArchives(Collections.singleton(ModuleId.create("A")));
+        assertTrue(Files.exists(loadedJarFile));
+        repository.getScriptArchives(Collections.singleton(ModuleId.create("A")));
+        assertTrue(Files.exists(loadedJarFile));
+
+        // the jar is evicted once the revision is unloaded
+        loadedArchive = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (Files.exists(loadedJarFile) && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            repository.getArchiveCache().evict();
+        }
+        assertFalse(Files.exists(loadedJarFile));
+    }
+
+    @Test
+    public void testMissingChunk() throws Exception {
+        repository = createRepository(64);
+        repository.insertArchive(createArchive("A", 1000));
+        byte[] hash = (byte[])gateway.getRowValues("A").get(Columns.archive_content_hash.name());
+        gateway.deleteRow(repository.getChunkRowKey("A", hash, 3));
+        assertTrue(repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).isEmpty());
+        assertEquals(repository.getArchiveCache().getEntryCount(), 0);
+    }
+
+    @Test
+    public void testUnchunkedArchives() throws Exception {
+        repository = createRepository(0);
+        repository.insertArchive(createArchive("A", 1000));
+        Map<String, Object> row = gateway.getRowValues("A");
+        assertEquals(row.get(Columns.archive_content.name()), Files.readAllBytes(testArchiveJarFile));
+        // rows in the original format don't need the chunk columns
+        assertFalse(row.containsKey(Columns.archive_format.name()));
+        assertFalse(row.containsKey(Columns.archive_chunk_count.name()));
+        assertFalse(row.containsKey(Columns.superseded_content_hash.name()));
+        assertFalse(row.containsKey(Columns.superseded_chunk_count.name()));
+        ScriptArchive archive = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(testArchiveJarFile));
+    }
+
+    @Test
+    public void testChunkingDisabledAgain() throws Exception {
+        repository = createRepository(64);
+        repository.insertArchive(createArchive("A", 1000));
+
+        // the row keeps the format of the chunked revision, but has content of its own
+        repository = createRepository(0);
+        Path otherJarFile = createJar("other.txt", "other");
+        repository.insertArchive(createArchive("A", 2000, otherJarFile));
+        assertEquals(gateway.getRowValues("A").get(Columns.archive_format.name()), CassandraArchiveRepository.CHUNKED_DEFLATE_FORMAT);
+        ScriptArchive archive = repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).iterator().next();
+        assertEquals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), Files.readAllBytes(otherJarFile));
+    }
+
+    @Test
+    public void testConcurrentBatches() throws Exception {
+        final AtomicInteger inFlightBatches = new AtomicInteger();
+        final AtomicInteger maxInFlightBatches = new AtomicInteger();
+        gateway = new InMemoryCassandraGateway("testKeySpace", "script_repo") {
+            @Override
+            public Rows<String, String> getRows(String[] rowKeys, String[] columns) {
+                if (!Arrays.asList(columns).contains(Columns.last_update.name())) {
+                    // reading chunks
+                    return super.getRows(rowKeys, columns);
+                }
+                int inFlight = inFlightBatches.incrementAndGet();
+                try {
+                    synchronized (maxInFlightBatches) {
+                        maxInFlightBatches.set(Math.max(maxInFlightBatches.get(), inFlight));
+                    }
+                    Thread.sleep(50);
+                    return super.getRows(rowKeys, columns);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    inFlightBatches.decrementAndGet();
+                }
+            }
+        };
+        CassandraArchiveRepositoryConfig config = new BasicCassandraRepositoryConfig.Builder(gateway)
+            .setRepositoryId("TestRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(getClass().getSimpleName() + "_"))
+            .setFetchBatchSizeCount(3)
+            .setFetchConcurrency(3)
+            .build();
+        repository = new CassandraArchiveRepository(config);
+        Set<ModuleId> moduleIds = new LinkedHashSet<ModuleId>();
+        for (int i = 0; i < 20; i++) {
+            repository.insertArchive(createArchive("module" + i, 1000 + i));
+            moduleIds.add(ModuleId.create("module" + i));
+        }
+
+        Set<ScriptArchive> archives = repository.getScriptArchives(moduleIds);
+        assertEquals(archives.size(), 20);
+        // in the order they were requested
+        int i = 0;
+        for (ScriptArchive archive : archives) {
+            assertEquals(archive.getModuleSpec().getModuleId(), ModuleId.create("module" + i));
+            assertEquals(archive.getCreateTime(), 1000 + i);
+            i++;
+        }
+        assertTrue(maxInFlightBatches.get() > 1);
+        assertTrue(maxInFlightBatches.get() <= 3);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFailedBatch() throws Exception {
+        gateway = new InMemoryCassandraGateway("testKeySpace", "script_repo") {
+            @Override
+            public Rows<String, String> getRows(String[] rowKeys, String[] columns) {
+                if (Arrays.asList(rowKeys).contains("module15")) {
+                    throw new IllegalStateException("Read timed out");
+                }
+                return super.getRows(rowKeys, columns);
+            }
+        };
+        repository = createRepository(BasicCassandraRepositoryConfig.DEFAULT_ARCHIVE_CHUNK_SIZE_BYTES);
+        Set<ModuleId> moduleIds = new LinkedHashSet<ModuleId>();
+        for (int i = 0; i < 20; i++) {
+            repository.insertArchive(createArchive("module" + i, 1000 + i));
+            moduleIds.add(ModuleId.create("module" + i));
+        }
+        repository.getScriptArchives(moduleIds);
+    }
+
+    @Test
+    public void testArchivesWithoutHash() throws Exception {
+        Map<String, Object> columns = new HashMap<String, Object>();
+        columns.put(Columns.module_id.name(), "A");
+        columns.put(Columns.module_spec.name(), repository.getConfig().getModuleSpecSerializer().serialize(
+            new ScriptModuleSpec.Builder("A").build()));
+        columns.put(Columns.last_update.name(), 1000L);
+        columns.put(Columns.archive_content_hash.name(), new byte[0]);
+        columns.put(Columns.archive_content.name(), Files.readAllBytes(testArchiveJarFile));
+        gateway.upsert("A", columns);
+
+        for (int i = 0; i < 2; i++) {
+            Set<ScriptArchive> archives = repository.getScriptArchives(Collections.singleton(ModuleId.create("A")));
+            assertEquals(archives.size(), 1);
+            assertTrue(archives.iterator().next().getRootUrl().toString().endsWith("A-1000.jar"));
+        }
+        // can't be cached without a hash
+        assertEquals(gateway.getReadCount(Columns.archive_content.name()), 2);
+        assertEquals(repository.getArchiveCache().getEntryCount(), 0);
+    }
+
+    @Test
+    public void testCorruptArchivesAreSkipped() throws Exception {
+        repository = createRepository(64);
+        repository.insertArchive(createArchive("A", 1000));
+        byte[] hash = (byte[])gateway.getRowValues("A").get(Columns.archive_content_hash.name());
+        Map<String, Object> columns = new HashMap<String, Object>();
+        columns.put(Columns.archive_content.name(), new byte[] {1, 2, 3});
+        gateway.upsert(repository.getChunkRowKey("A", hash, 0), columns);
+        assertTrue(repository.getScriptArchives(Collections.singleton(ModuleId.create("A"))).isEmpty());
+        assertEquals(repository.getArchiveCache().getEntryCount(), 0);
+    }
+
+    private CassandraArchiveRepository createRepository(int chunkSize) throws Exception {
+        return createRepository(chunkSize, BasicCassandraRepositoryConfig.DEFAULT_ARCHIVE_CACHE_MAX_SIZE_BYTES);
+    }
+
+    private CassandraArchiveRepository createRepository(int chunkSize, long cacheMaxSize) throws Exception {
+        CassandraArchiveRepositoryConfig config = new BasicCassandraRepositoryConfig.Builder(gateway)
+            .setRepositoryId("TestRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(getClass().getSimpleName() + "_"))
+            .setArchiveChunkSize(chunkSize)
+            .setArchiveCacheMaxSize(cacheMaxSize)
+            .build();
+        return new CassandraArchiveRepository(config);
+    }
+
+    private Path createJar(String entryName, String content) throws Exception {
+        Path jarFile = Files.createTempFile(getClass().getSimpleName(), ".jar");
+        try (JarOutputStream jarStream = new JarOutputStream(Files.newOutputStream(jarFile))) {
+            jarStream.putNextEntry(new JarEntry(entryName));
+            jarStream.write(content.getBytes("UTF-8"));
+            jarStream.closeEntry();
+        }
+        return jarFile;
+    }
+
+    private JarScriptArchive createArchive(String moduleId, long createTime) throws Exception {
+        return createArchive(moduleId, createTime, testArchiveJarFile);
+    }
+
+    private JarScriptArchive createArchive(String moduleId, long createTime, Path jarFile) throws Exception {
+        return new JarScriptArchive.Builder(jarFile)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+            .setCreateTime(createTime)
+            .build();
+    }
+}
@@ -16,14 +16,18 @@
 package com.netflix.nicobar.cassandra;
 
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
@@ -41,6 +45,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.mockito.ArgumentCaptor;
@@ -153,6 +158,55 @@ public class CassandraArchiveRepositoryTest {
         assertTrue(Arrays.equals(repository.calculateHash(jarBytes), (byte[])columnMap.get(Columns.archive_content_hash.name())));
         assertEquals(serialized, (String)columnMap.get(Columns.module_spec.name()));
         assertEquals(jarArchive.getCreateTime(), (long)columnMap.get(Columns.last_update.name()));
+        // the chunk columns are only written if chunking is enabled
+        assertFalse(columnMap.containsKey(Columns.archive_format.name()));
+        assertFalse(columnMap.containsKey(Columns.archive_chunk_count.name()));
+        assertFalse(columnMap.containsKey(Columns.superseded_content_hash.name()));
+        assertFalse(columnMap.containsKey(Columns.superseded_chunk_count.name()));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testInsertChunkedArchive() throws Exception {
+        CassandraGateway chunkedGateway = mock(CassandraGateway.class);
+        CassandraArchiveRepositoryConfig chunkedConfig = new BasicCassandraRepositoryConfig.Builder(chunkedGateway)
+            .setRepositoryId("TestRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(this.getClass().getSimpleName() + "_"))
+            .setArchiveChunkSize(1024)
+            .build();
+        CassandraArchiveRepository chunkedRepository = new CassandraArchiveRepository(chunkedConfig);
+        JarScriptArchive jarArchive = new JarScriptArchive.Builder(testArchiveJarFile).build();
+        chunkedRepository.insertArchive(jarArchive);
+
+        ScriptModuleSpec moduleSpec = jarArchive.getModuleSpec();
+        String serialized = chunkedConfig.getModuleSpecSerializer().serialize(moduleSpec);
+        byte[] jarBytes = Files.readAllBytes(testArchiveJarFile);
+        ArgumentCaptor<String> argument1 = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> argument2 = ArgumentCaptor.forClass(Map.class);
+        verify(chunkedGateway, atLeast(2)).upsert(argument1.capture(),
+                argument2.capture());
+
+        // the chunks are written before the archive row
+        List<String> rowKeys = argument1.getAllValues();
+        List<Map> rowColumns = argument2.getAllValues();
+        int chunkCount = rowKeys.size() - 1;
+        assertEquals(moduleSpec.getModuleId().toString(), rowKeys.get(chunkCount));
+        Map columnMap = rowColumns.get(chunkCount);
+        byte[] hash = chunkedRepository.calculateHash(jarBytes);
+        assertEquals(chunkedRepository.calculateShardNum(moduleSpec.getModuleId()), columnMap.get(Columns.shard_num.name()));
+        assertEquals(CassandraArchiveRepository.CHUNKED_DEFLATE_FORMAT, columnMap.get(Columns.archive_format.name()));
+        assertEquals(chunkCount, columnMap.get(Columns.archive_chunk_count.name()));
+        assertTrue(Arrays.equals(hash, (byte[])columnMap.get(Columns.archive_content_hash.name())));
+        assertEquals(serialized, (String)columnMap.get(Columns.module_spec.name()));
+        assertEquals(jarArchive.getCreateTime(), (long)columnMap.get(Columns.last_update.name()));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int i = 0; i < chunkCount; i++) {
+            assertEquals(chunkedRepository.getChunkRowKey(moduleSpec.getModuleId().toString(), hash, i), rowKeys.get(i));
+            compressed.write((byte[])rowColumns.get(i).get(Columns.archive_content.name()));
+        }
+        InputStream content = new InflaterInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        assertTrue(Arrays.equals(jarBytes, IOUtils.toByteArray(content)));
     }
 
     @Test(expectedExceptions=UnsupportedOperationException.class)
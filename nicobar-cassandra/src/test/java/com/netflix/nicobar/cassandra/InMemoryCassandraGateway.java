@@ -0,0 +1,381 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.Futures;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
+
+/**
+ * In-memory stand-in for a {@link CassandraGateway}, for testing without a Cassandra cluster.
+ * Rows are maps of column names to values, keyed by row key. Only supports the simple
+ * CQL selects issued by the {@link CassandraArchiveRepository}:
+ * <pre>
+ *     SELECT col1,col2... FROM cf WHERE col = value [AND col &gt; value]... [ALLOW FILTERING]
+ * </pre>
+ * The row key of each result row is the value of its first selected column. TTLs are ignored.
+ */
+public class InMemoryCassandraGateway implements CassandraGateway {
+    private static final Pattern SELECT_PATTERN =
+        Pattern.compile("\\s*SELECT\\s+(.+?)\\s+FROM\\s+(\\w+)\\s+WHERE\\s+(.+?)(\\s+ALLOW\\s+FILTERING)?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CONDITION_PATTERN = Pattern.compile("(\\w+)\\s*(=|>=|<=|>|<)\\s*'?([^']*?)'?");
+
+    private final Keyspace keyspace;
+    private final String columnFamily;
+    private final Map<String, Map<String, Object>> rows = new ConcurrentHashMap<String, Map<String, Object>>();
+    private final Map<String, Integer> readCounts = new HashMap<String, Integer>();
+    private final List<String> executedQueries = Collections.synchronizedList(new ArrayList<String>());
+
+    public InMemoryCassandraGateway(final String keyspaceName, String columnFamily) {
+        this.columnFamily = columnFamily;
+        this.keyspace = proxy(Keyspace.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getKeyspaceName")) {
+                    return keyspaceName;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    @Override
+    public Keyspace getKeyspace() {
+        return keyspace;
+    }
+
+    @Override
+    public String getColumnFamily() {
+        return columnFamily;
+    }
+
+    @Override
+    public synchronized void upsert(String rowKey, Map<String, Object> attributes) {
+        Map<String, Object> row = rows.get(rowKey);
+        if (row == null) {
+            row = new LinkedHashMap<String, Object>();
+            rows.put(rowKey, row);
+        }
+        row.putAll(attributes);
+    }
+
+    @Override
+    public void upsert(String rowKey, Map<String, Object> attributes, int ttlSeconds) {
+        upsert(rowKey, attributes);
+    }
+
+    @Override
+    public synchronized void deleteRow(String rowKey) {
+        rows.remove(rowKey);
+    }
+
+    @Override
+    public synchronized void deleteColumn(String rowKey, String column) {
+        Map<String, Object> row = rows.get(rowKey);
+        if (row != null) {
+            row.remove(column);
+        }
+    }
+
+    @Override
+    public synchronized ColumnList<String> getColumns(String rowKey, String... columns) {
+        Map<String, Object> row = rows.get(rowKey);
+        if (row == null) {
+            return null;
+        }
+        return createColumnList(selectColumns(row, columns));
+    }
+
+    @Override
+    public synchronized ColumnList<String> getRow(String rowKey) {
+        Map<String, Object> row = rows.get(rowKey);
+        return row != null ? createColumnList(selectColumns(row, null)) : null;
+    }
+
+    @Override
+    public synchronized Rows<String, String> getRows(String... rowKeys) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (String rowKey : rowKeys) {
+            Map<String, Object> row = rows.get(rowKey);
+            if (row != null) {
+                result.put(rowKey, selectColumns(row, null));
+            }
+        }
+        return createRows(result);
+    }
+
+    @Override
+    public synchronized Rows<String, String> getRows(String[] rowKeys, String[] columns) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (String rowKey : rowKeys) {
+            Map<String, Object> row = rows.get(rowKey);
+            if (row != null) {
+                result.put(rowKey, selectColumns(row, columns));
+            }
+        }
+        return createRows(result);
+    }
+
+    @Override
+    public synchronized Rows<String, String> select(String cql) {
+        executedQueries.add(cql);
+        Matcher matcher = SELECT_PATTERN.matcher(cql);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported CQL: " + cql);
+        }
+        if (!matcher.group(2).equals(columnFamily)) {
+            throw new IllegalArgumentException("Unknown column family " + matcher.group(2));
+        }
+        String[] columns = matcher.group(1).split("\\s*,\\s*");
+        String[] conditions = matcher.group(3).split("(?i)\\s+AND\\s+");
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map<String, Object> row : rows.values()) {
+            if (!matches(row, conditions)) {
+                continue;
+            }
+            result.put(String.valueOf(row.get(columns[0])), selectColumns(row, columns));
+        }
+        return createRows(result);
+    }
+
+    @Override
+    public Future<Rows<String, String>> selectAsync(String cql) {
+        return Futures.immediateFuture(select(cql));
+    }
+
+    /**
+     * @return snapshot of the CQL queries executed so far, in order
+     */
+    public List<String> getExecutedQueries() {
+        synchronized (executedQueries) {
+            return new ArrayList<String>(executedQueries);
+        }
+    }
+
+    /**
+     * @return copy of the columns of the given row, or null if there is no such row
+     */
+    public synchronized Map<String, Object> getRowValues(String rowKey) {
+        Map<String, Object> row = rows.get(rowKey);
+        return row != null ? new LinkedHashMap<String, Object>(row) : null;
+    }
+
+    /**
+     * @return the number of times the given column has been read so far
+     */
+    public synchronized int getReadCount(String column) {
+        Integer readCount = readCounts.get(column);
+        return readCount != null ? readCount : 0;
+    }
+
+    /**
+     * Copy the given columns of a row, or all of them if columns is null, counting the reads.
+     */
+    private Map<String, Object> selectColumns(Map<String, Object> row, String[] columns) {
+        Map<String, Object> selected = new LinkedHashMap<String, Object>();
+        for (String column : columns != null ? Arrays.asList(columns) : row.keySet()) {
+            if (row.containsKey(column)) {
+                selected.put(column, row.get(column));
+                Integer readCount = readCounts.get(column);
+                readCounts.put(column, readCount != null ? readCount + 1 : 1);
+            }
+        }
+        return selected;
+    }
+
+    private static boolean matches(Map<String, Object> row, String[] conditions) {
+        for (String condition : conditions) {
+            Matcher matcher = CONDITION_PATTERN.matcher(condition.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Unsupported condition: " + condition);
+            }
+            Object value = row.get(matcher.group(1));
+            if (value == null) {
+                return false;
+            }
+            int comparison;
+            if (value instanceof Number || value instanceof Date) {
+                comparison = Long.compare(toLong(value), Long.parseLong(matcher.group(3)));
+            } else {
+                comparison = value.toString().compareTo(matcher.group(3));
+            }
+            String operator = matcher.group(2);
+            boolean matched = operator.equals("=") ? comparison == 0
+                : operator.equals(">") ? comparison > 0
+                : operator.equals(">=") ? comparison >= 0
+                : operator.equals("<") ? comparison < 0
+                : comparison <= 0;
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Date ? ((Date)value).getTime() : ((Number)value).longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Rows<String, String> createRows(final Map<String, Map<String, Object>> rowValues) {
+        final Map<String, Row<String, String>> rows = new LinkedHashMap<String, Row<String, String>>();
+        for (Map.Entry<String, Map<String, Object>> entry : rowValues.entrySet()) {
+            rows.put(entry.getKey(), createRow(entry.getKey(), entry.getValue()));
+        }
+        return proxy(Rows.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "iterator":
+                    return rows.values().iterator();
+                case "getRow":
+                    return rows.get(args[0]);
+                case "getKeys":
+                    return rows.keySet();
+                case "size":
+                    return rows.size();
+                case "isEmpty":
+                    return rows.isEmpty();
+                default:
+                    return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Row<String, String> createRow(final String rowKey, Map<String, Object> values) {
+        final ColumnList<String> columns = createColumnList(values);
+        return proxy(Row.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getKey":
+                    return rowKey;
+                case "getColumns":
+                    return columns;
+                default:
+                    return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ColumnList<String> createColumnList(Map<String, Object> values) {
+        final Map<String, Column<String>> columns = new LinkedHashMap<String, Column<String>>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            columns.put(entry.getKey(), createColumn(entry.getKey(), entry.getValue()));
+        }
+        return proxy(ColumnList.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "iterator":
+                    return columns.values().iterator();
+                case "getColumnByName":
+                    return columns.get(args[0]);
+                case "getColumnNames":
+                    return columns.keySet();
+                case "size":
+                    return columns.size();
+                case "isEmpty":
+                    return columns.isEmpty();
+                default:
+                    return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Column<String> createColumn(final String name, final Object value) {
+        return proxy(Column.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "hasValue":
+                    return value != null;
+                case "getStringValue":
+                    return value != null ? value.toString() : null;
+                case "getLongValue":
+                    return toLong(value);
+                case "getIntegerValue":
+                    return ((Number)value).intValue();
+                case "getBooleanValue":
+                    return (Boolean)value;
+                case "getDateValue":
+                    return value instanceof Date ? value : new Date(toLong(value));
+                case "getByteArrayValue":
+                    if (value instanceof ByteBuffer) {
+                        ByteBuffer buffer = ((ByteBuffer)value).duplicate();
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        return bytes;
+                    }
+                    return value;
+                case "getByteBufferValue":
+                    return value instanceof ByteBuffer ? ((ByteBuffer)value).duplicate() : ByteBuffer.wrap((byte[])value);
+                default:
+                    return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InMemoryCassandraGateway.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+            break;
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.archive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link JarScriptArchive.Builder#build()}, which indexes the entries of the jar
+ * and reads its module spec. The jar is generated, so the benchmark doesn't depend on any
+ * external files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JarScriptArchiveBenchmark {
+    @Param({"100", "10000"})
+    public int entryCount;
+
+    @Param({"true", "false"})
+    public boolean withModuleSpec;
+
+    private Path jarDir;
+    private Path jarPath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        jarDir = Files.createTempDirectory("JarScriptArchiveBenchmark");
+        jarPath = jarDir.resolve("benchmark.jar");
+        try (JarOutputStream jarStream = new JarOutputStream(Files.newOutputStream(jarPath))) {
+            if (withModuleSpec) {
+                ScriptModuleSpec moduleSpec = new ScriptModuleSpec.Builder("benchmark")
+                    .addCompilerPluginId("groovy2")
+                    .addModuleDependency("dependency")
+                    .build();
+                String json = new GsonScriptModuleSpecSerializer().serialize(moduleSpec);
+                writeEntry(jarStream, JarScriptArchive.DEFAULT_MODULE_SPEC_FILE_NAME, json);
+            }
+            for (int i = 0; i < entryCount; i++) {
+                writeEntry(jarStream, "package" + (i % 100) + "/Script" + i + ".groovy",
+                    "class Script" + i + " { String run() { 'script " + i + "' } }");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        FileUtils.deleteQuietly(jarDir.toFile());
+    }
+
+    @Benchmark
+    public JarScriptArchive build() throws IOException {
+        return new JarScriptArchive.Builder(jarPath).build();
+    }
+
+    private static void writeEntry(JarOutputStream jarStream, String name, String content) throws IOException {
+        jarStream.putNextEntry(new JarEntry(name));
+        jarStream.write(content.getBytes(StandardCharsets.UTF_8));
+        jarStream.closeEntry();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleBenchmarkSupport;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Benchmarks the overhead which {@link HystrixScriptModuleExecutor#executeModules} adds to
+ * each module it executes. The executable does no work of its own, so the throughput and the
+ * allocations reported by the GC profiler are those of the dispatch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HystrixScriptModuleExecutorBenchmark {
+    private static final ScriptModuleExecutable<String> EXECUTABLE = new ScriptModuleExecutable<String>() {
+        @Override
+        public String execute(ScriptModule scriptModule) {
+            return scriptModule.getModuleId().getName();
+        }
+    };
+
+    @Param({"1", "10"})
+    public int moduleCount;
+
+    private ScriptModuleBenchmarkSupport support;
+    private ScriptModuleLoader moduleLoader;
+    private List<String> moduleIds;
+    private List<ScriptModule> modules;
+    private HystrixScriptModuleExecutor<String> executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        support = new ScriptModuleBenchmarkSupport(moduleCount);
+        moduleLoader = support.getModuleLoader();
+        moduleIds = new ArrayList<String>(moduleCount);
+        modules = new ArrayList<ScriptModule>(moduleCount);
+        for (int i = 0; i < moduleCount; i++) {
+            String moduleId = ScriptModuleBenchmarkSupport.getModuleId(i);
+            moduleIds.add(moduleId);
+            modules.add(moduleLoader.getScriptModule(moduleId));
+        }
+        executor = new HystrixScriptModuleExecutor<String>("HystrixScriptModuleExecutorBenchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        support.delete();
+    }
+
+    /**
+     * Execute modules identified by id, including looking them up in the loader.
+     */
+    @Benchmark
+    public List<String> executeModuleIds() {
+        return executor.executeModules(moduleIds, EXECUTABLE, moduleLoader);
+    }
+
+    /**
+     * Execute modules which are already looked up.
+     */
+    @Benchmark
+    public List<String> executeModules() {
+        return executor.executeModules(modules, EXECUTABLE);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jboss.modules.ModuleLoadException;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+
+/**
+ * Loads script modules for the benchmarks of the code which runs once modules are loaded. Each
+ * module holds a copy of {@link HelloBenchmarkScript}, loaded with the {@link BytecodeLoadingPlugin}
+ * from the class file on the benchmark's classpath, so no compiler or external files are needed.
+ */
+public class ScriptModuleBenchmarkSupport {
+    private final Path archiveRootDir;
+    private final Path compilationRootDir;
+    private final ScriptModuleLoader moduleLoader;
+
+    /**
+     * Load the given number of modules, named module0 to module(moduleCount - 1).
+     */
+    public ScriptModuleBenchmarkSupport(int moduleCount) throws IOException, ModuleLoadException {
+        archiveRootDir = Files.createTempDirectory("ScriptModuleBenchmark");
+        compilationRootDir = Files.createTempDirectory("ScriptModuleBenchmark-compilation");
+        String classResource = HelloBenchmarkScript.class.getName().replace('.', '/') + ".class";
+        byte[] classBytes;
+        try (InputStream classStream = HelloBenchmarkScript.class.getClassLoader().getResourceAsStream(classResource)) {
+            classBytes = IOUtils.toByteArray(classStream);
+        }
+        Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>();
+        for (int i = 0; i < moduleCount; i++) {
+            Path archiveDir = archiveRootDir.resolve(getModuleId(i));
+            Path classPath = archiveDir.resolve(classResource);
+            Files.createDirectories(classPath.getParent());
+            Files.write(classPath, classBytes);
+            archives.add(new PathScriptArchive.Builder(archiveDir)
+                .setModuleSpec(new ScriptModuleSpec.Builder(getModuleId(i)).addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID).build())
+                .build());
+        }
+        moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder(BytecodeLoadingPlugin.PLUGIN_ID)
+                .withPluginClassName(BytecodeLoadingPlugin.class.getName())
+                .build())
+            .withCompilationRootDir(compilationRootDir)
+            .build();
+        moduleLoader.updateScriptArchives(archives);
+    }
+
+    /**
+     * @return the id of the module with the given index
+     */
+    public static String getModuleId(int index) {
+        return "module" + index;
+    }
+
+    public ScriptModuleLoader getModuleLoader() {
+        return moduleLoader;
+    }
+
+    public void delete() {
+        FileUtils.deleteQuietly(archiveRootDir.toFile());
+        FileUtils.deleteQuietly(compilationRootDir.toFile());
+    }
+}
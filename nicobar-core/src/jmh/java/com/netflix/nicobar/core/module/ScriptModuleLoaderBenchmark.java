@@ -0,0 +1,135 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.modules.ModuleLoadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Benchmarks {@link ScriptModuleLoader#updateScriptArchives(Set)} for archives which don't need
+ * to be compiled, which measures the cost of scheduling, linking and committing the modules.
+ * See the nicobar-groovy2 benchmarks for the cost of compiling them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScriptModuleLoaderBenchmark {
+    /**
+     * Shape of the dependency graph of the modules
+     */
+    public enum Topology {
+        /** no dependencies between the modules */
+        INDEPENDENT,
+        /** every module depends on the previous one */
+        CHAIN,
+        /** every module depends on the first one */
+        STAR
+    }
+
+    @Param({"INDEPENDENT", "CHAIN", "STAR"})
+    public Topology topology;
+
+    @Param({"10", "100"})
+    public int moduleCount;
+
+    private Path archiveRootDir;
+    private Set<ScriptArchive> archives;
+    private Set<ScriptArchive> rootArchive;
+    private Path compilationRootDir;
+    private ScriptModuleLoader moduleLoader;
+
+    @Setup(Level.Trial)
+    public void createArchives() throws IOException {
+        archiveRootDir = Files.createTempDirectory("ScriptModuleLoaderBenchmark");
+        archives = new LinkedHashSet<ScriptArchive>();
+        for (int i = 0; i < moduleCount; i++) {
+            Path archiveDir = Files.createDirectory(archiveRootDir.resolve("module" + i));
+            Files.write(archiveDir.resolve("resource" + i + ".txt"), ("module " + i).getBytes(StandardCharsets.UTF_8));
+            ScriptModuleSpec.Builder moduleSpecBuilder = new ScriptModuleSpec.Builder("module" + i);
+            if (i > 0 && topology == Topology.CHAIN) {
+                moduleSpecBuilder.addModuleDependency("module" + (i - 1));
+            } else if (i > 0 && topology == Topology.STAR) {
+                moduleSpecBuilder.addModuleDependency("module0");
+            }
+            ScriptArchive archive = new PathScriptArchive.Builder(archiveDir)
+                .setModuleSpec(moduleSpecBuilder.build())
+                .setCreateTime(1)
+                .build();
+            archives.add(archive);
+            if (i == 0) {
+                rootArchive = Collections.singleton(archive);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createModuleLoader() throws ModuleLoadException, IOException {
+        compilationRootDir = Files.createTempDirectory("ScriptModuleLoaderBenchmark-compilation");
+        moduleLoader = new ScriptModuleLoader.Builder().withCompilationRootDir(compilationRootDir).build();
+        moduleLoader.updateScriptArchives(archives);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCompilationRoot() {
+        FileUtils.deleteQuietly(compilationRootDir.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchives() {
+        FileUtils.deleteQuietly(archiveRootDir.toFile());
+    }
+
+    /**
+     * Update all of the modules at once.
+     */
+    @Benchmark
+    public void updateAll() {
+        moduleLoader.updateScriptArchives(archives);
+    }
+
+    /**
+     * Update the first module, which relinks all of the modules which depend on it, directly or not.
+     */
+    @Benchmark
+    public void updateRoot() {
+        moduleLoader.updateScriptArchives(rootArchive);
+    }
+}
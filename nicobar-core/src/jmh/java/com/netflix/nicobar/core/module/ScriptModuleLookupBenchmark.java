@@ -0,0 +1,109 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+
+/**
+ * Benchmarks the lookups which request threads perform on loaded modules: finding a module by
+ * its id, finding its entry point class and loading classes from its class loader. Run with the
+ * GC profiler (the default for this project) to see how much each lookup allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScriptModuleLookupBenchmark {
+    private static final String MISSING_CLASS_NAME = "com.netflix.nicobar.core.module.MissingBenchmarkScript";
+
+    @Param({"10", "1000"})
+    public int moduleCount;
+
+    private ScriptModuleBenchmarkSupport support;
+    private ScriptModuleLoader moduleLoader;
+    private String moduleIdString;
+    private ModuleId moduleId;
+    private ScriptModule module;
+    private JBossModuleClassLoader moduleClassLoader;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        support = new ScriptModuleBenchmarkSupport(moduleCount);
+        moduleLoader = support.getModuleLoader();
+        moduleIdString = ScriptModuleBenchmarkSupport.getModuleId(moduleCount / 2);
+        moduleId = ModuleId.fromString(moduleIdString);
+        module = moduleLoader.getScriptModule(moduleId);
+        if (module == null) {
+            throw new IllegalStateException("module " + moduleIdString + " was not loaded");
+        }
+        moduleClassLoader = module.getModuleClassLoader();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        support.delete();
+    }
+
+    @Benchmark
+    public ModuleId parseModuleId() {
+        return ModuleId.fromString(moduleIdString);
+    }
+
+    @Benchmark
+    public ScriptModule getScriptModuleByString() {
+        return moduleLoader.getScriptModule(moduleIdString);
+    }
+
+    @Benchmark
+    public ScriptModule getScriptModuleById() {
+        return moduleLoader.getScriptModule(moduleId);
+    }
+
+    @Benchmark
+    public Class<?> findAssignableClass() {
+        return ScriptModuleUtils.findAssignableClass(module, Callable.class);
+    }
+
+    @Benchmark
+    public Class<?> loadClassLocalHit() throws ClassNotFoundException {
+        return moduleClassLoader.loadClassLocal(HelloBenchmarkScript.class.getName(), false);
+    }
+
+    @Benchmark
+    public Class<?> loadClassLocalMiss() {
+        try {
+            return moduleClassLoader.loadClassLocal(MISSING_CLASS_NAME, false);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
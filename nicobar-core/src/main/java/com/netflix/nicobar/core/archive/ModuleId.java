@@ -35,6 +35,7 @@ public final class ModuleId {
     private final String name;
     private final String version;
     private final int hashCode;
+    private final String stringForm;
 
     private ModuleId(final String name, final String version) {
         if (name == null || name.equals("")) {
@@ -55,6 +56,7 @@ public final class ModuleId {
         }
 
         hashCode = Objects.hash(name, version);
+        stringForm = this.version.equals(DEFAULT_VERSION) ? name : name + MODULE_VERSION_SEPARATOR + this.version;
     }
 
     /**
@@ -103,11 +105,7 @@ public final class ModuleId {
      */
     @Override
     public String toString() {
-        if (version.equals(DEFAULT_VERSION))
-            return name;
-        else
-            return name + MODULE_VERSION_SEPARATOR + version;
-
+        return stringForm;
     }
 
     /**
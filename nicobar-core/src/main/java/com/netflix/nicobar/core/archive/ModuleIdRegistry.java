@@ -0,0 +1,80 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.archive;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Registry of interned {@link ModuleId}s, indexed by their string form. Resolving a registered id
+ * from its string form is a single map lookup, which neither parses the string nor allocates.
+ */
+public class ModuleIdRegistry {
+    private final ConcurrentMap<String, ModuleId> moduleIds = new ConcurrentHashMap<String, ModuleId>();
+
+    /**
+     * Register a module id, unless an equal one is already registered.
+     * @param moduleId the id to register
+     * @return the registered instance, which is equal to the given id
+     */
+    public ModuleId intern(ModuleId moduleId) {
+        Objects.requireNonNull(moduleId, "moduleId");
+        ModuleId registeredId = moduleIds.putIfAbsent(moduleId.toString(), moduleId);
+        return registeredId != null ? registeredId : moduleId;
+    }
+
+    /**
+     * Find a registered module id.
+     * @param moduleId the string form of the id, see {@link ModuleId#toString()}
+     * @return the registered instance, or null if there is none
+     */
+    @Nullable
+    public ModuleId get(String moduleId) {
+        return moduleIds.get(moduleId);
+    }
+
+    /**
+     * Resolve the string form of a module id, to the registered instance if there is one.
+     * Unregistered ids are parsed, but not registered.
+     * @param moduleId the string form of the id, see {@link ModuleId#fromString(String)}
+     * @return the module id
+     * @throws IllegalArgumentException if the id isn't registered and can't be parsed
+     */
+    public ModuleId resolve(String moduleId) {
+        ModuleId registeredId = moduleId != null ? moduleIds.get(moduleId) : null;
+        return registeredId != null ? registeredId : ModuleId.fromString(moduleId);
+    }
+
+    /**
+     * Unregister a module id.
+     * @param moduleId the id to unregister
+     */
+    public void remove(ModuleId moduleId) {
+        moduleIds.remove(moduleId.toString(), moduleId);
+    }
+
+    /**
+     * @return the number of registered ids
+     */
+    public int size() {
+        return moduleIds.size();
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.Charsets;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Fingerprints of the API of compiled classes: the signatures which other modules can compile
+ * against. Two revisions of a module with the same fingerprint can be swapped without recompiling
+ * the modules which depend on it.
+ *
+ * The API of a class is its name, modifiers, super types, generic signature and its public and
+ * protected fields and methods, including their generic signatures, declared exceptions and the
+ * values of constant fields (which compilers inline). Non public classes, private and package private
+ * members, synthetic and bridge members, method bodies and annotations are not part of the API.
+ */
+public class ApiFingerprint {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    /** public, final, interface, abstract, annotation, enum */
+    private static final int CLASS_API_FLAGS = 0x0001 | 0x0010 | 0x0200 | 0x0400 | 0x2000 | 0x4000;
+    /** public, protected, static, final, enum */
+    private static final int FIELD_API_FLAGS = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x4000;
+    /** public, protected, static, final, varargs, abstract */
+    private static final int METHOD_API_FLAGS = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0080 | 0x0400;
+
+    /**
+     * Compute the fingerprint of the API of a set of classes.
+     * @param classFiles map of class name to the contents of its class file
+     * @return hex encoded fingerprint, which only depends on the APIs of the public classes
+     * @throws IOException if one of the class files is malformed
+     */
+    public static String fingerprint(Map<String, byte[]> classFiles) throws IOException {
+        SortedMap<String, String> descriptions = new TreeMap<String, String>();
+        for (Entry<String, byte[]> classFile : classFiles.entrySet()) {
+            String description = describe(classFile.getValue());
+            if (description != null) {
+                descriptions.put(classFile.getKey(), description);
+            }
+        }
+        MessageDigest digester;
+        try {
+            digester = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen
+            throw new IllegalStateException(e);
+        }
+        for (String description : descriptions.values()) {
+            digester.update(description.getBytes(Charsets.UTF_8));
+            // separator, so that adjacent descriptions can't run into each other
+            digester.update((byte)0);
+        }
+        return BaseEncoding.base16().lowerCase().encode(digester.digest());
+    }
+
+    /**
+     * Describe the API of a single class.
+     * @param classBytes contents of the class file
+     * @return canonical description of the API, or null if the class isn't public
+     * @throws IOException if the class file is malformed
+     */
+    @Nullable
+    public static String describe(byte[] classBytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // read the constant pool, keeping the entries which can be referenced by the API
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8Entries = new String[constantPoolCount];
+        int[] classEntries = new int[constantPoolCount];
+        String[] constantValues = new String[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8Entries[i] = in.readUTF();
+                break;
+            case 7: // Class
+                classEntries[i] = in.readUnsignedShort();
+                break;
+            case 3: // Integer
+                constantValues[i] = "I" + in.readInt();
+                break;
+            case 4: // Float
+                constantValues[i] = "F" + Float.floatToRawIntBits(in.readFloat());
+                break;
+            case 5: // Long
+                constantValues[i] = "J" + in.readLong();
+                // 8 byte constants take up two entries
+                i++;
+                break;
+            case 6: // Double
+                constantValues[i] = "D" + Double.doubleToRawLongBits(in.readDouble());
+                i++;
+                break;
+            case 8: // String
+                // resolved once the whole pool has been read
+                classEntries[i] = -in.readUnsignedShort();
+                break;
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                skip(in, 2);
+                break;
+            case 15: // MethodHandle
+                skip(in, 3);
+                break;
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                skip(in, 4);
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+        for (int i = 1; i < constantPoolCount; i++) {
+            if (classEntries[i] < 0) {
+                constantValues[i] = "S" + utf8Entries[-classEntries[i]];
+                classEntries[i] = 0;
+            }
+        }
+        ConstantPool pool = new ConstantPool(utf8Entries, classEntries, constantValues);
+
+        int accessFlags = in.readUnsignedShort();
+        if ((accessFlags & ACC_PUBLIC) == 0) {
+            return null;
+        }
+        StringBuilder description = new StringBuilder();
+        description.append("class ").append(accessFlags & CLASS_API_FLAGS)
+            .append(' ').append(pool.getClassName(in.readUnsignedShort()));
+        int superClass = in.readUnsignedShort();
+        description.append(" extends ").append(superClass != 0 ? pool.getClassName(superClass) : "");
+        int interfaceCount = in.readUnsignedShort();
+        List<String> interfaces = new ArrayList<String>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(pool.getClassName(in.readUnsignedShort()));
+        }
+        Collections.sort(interfaces);
+        description.append(" implements ").append(interfaces);
+
+        List<String> members = new ArrayList<String>();
+        readMembers(in, pool, "field", FIELD_API_FLAGS, members);
+        readMembers(in, pool, "method", METHOD_API_FLAGS, members);
+        Collections.sort(members);
+        Attributes classAttributes = readAttributes(in, pool);
+        description.append(" signature ").append(classAttributes.signature);
+        for (String member : members) {
+            description.append('\n').append(member);
+        }
+        return description.toString();
+    }
+
+    /**
+     * Read the fields or the methods of a class, adding the descriptions of the ones which are part of the API
+     */
+    private static void readMembers(DataInputStream in, ConstantPool pool, String kind, int apiFlags, List<String> members) throws IOException {
+        int memberCount = in.readUnsignedShort();
+        for (int i = 0; i < memberCount; i++) {
+            int accessFlags = in.readUnsignedShort();
+            String name = pool.getUtf8(in.readUnsignedShort());
+            String descriptor = pool.getUtf8(in.readUnsignedShort());
+            Attributes attributes = readAttributes(in, pool);
+            if ((accessFlags & (ACC_PUBLIC | ACC_PROTECTED)) == 0 || (accessFlags & ACC_SYNTHETIC) != 0 ||
+                (kind.equals("method") && (accessFlags & ACC_BRIDGE) != 0)) {
+                continue;
+            }
+            members.add(kind + " " + (accessFlags & apiFlags) + " " + name + " " + descriptor
+                + " signature " + attributes.signature + " constant " + attributes.constantValue
+                + " throws " + attributes.exceptions);
+        }
+    }
+
+    private static Attributes readAttributes(DataInputStream in, ConstantPool pool) throws IOException {
+        Attributes attributes = new Attributes();
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = pool.getUtf8(in.readUnsignedShort());
+            int length = in.readInt();
+            if (name.equals("Signature")) {
+                attributes.signature = pool.getUtf8(in.readUnsignedShort());
+            } else if (name.equals("ConstantValue")) {
+                attributes.constantValue = pool.getConstantValue(in.readUnsignedShort());
+            } else if (name.equals("Exceptions")) {
+                int exceptionCount = in.readUnsignedShort();
+                List<String> exceptions = new ArrayList<String>(exceptionCount);
+                for (int j = 0; j < exceptionCount; j++) {
+                    exceptions.add(pool.getClassName(in.readUnsignedShort()));
+                }
+                Collections.sort(exceptions);
+                attributes.exceptions = exceptions;
+            } else {
+                skip(in, length);
+            }
+        }
+        return attributes;
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new IOException("Truncated class file");
+        }
+    }
+
+    /** the attributes of a class or member which are part of the API */
+    private static class Attributes {
+        private String signature;
+        private String constantValue;
+        private List<String> exceptions = Collections.emptyList();
+    }
+
+    private static class ConstantPool {
+        private final String[] utf8Entries;
+        private final int[] classEntries;
+        private final String[] constantValues;
+
+        private ConstantPool(String[] utf8Entries, int[] classEntries, String[] constantValues) {
+            this.utf8Entries = utf8Entries;
+            this.classEntries = classEntries;
+            this.constantValues = constantValues;
+        }
+
+        private String getUtf8(int index) throws IOException {
+            if (index <= 0 || index >= utf8Entries.length || utf8Entries[index] == null) {
+                throw new IOException("Invalid Utf8 index " + index);
+            }
+            return utf8Entries[index];
+        }
+
+        private String getClassName(int index) throws IOException {
+            if (index <= 0 || index >= classEntries.length || classEntries[index] == 0) {
+                throw new IOException("Invalid Class index " + index);
+            }
+            return getUtf8(classEntries[index]);
+        }
+
+        private String getConstantValue(int index) throws IOException {
+            if (index <= 0 || index >= constantValues.length || constantValues[index] == null) {
+                throw new IOException("Invalid constant value index " + index);
+            }
+            return constantValues[index];
+        }
+    }
+}
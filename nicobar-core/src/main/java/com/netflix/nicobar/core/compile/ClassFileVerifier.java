@@ -0,0 +1,122 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Structural verification of class files which have not been defined yet. Checks the header
+ * of the class file and that it declares the expected class, without defining the class
+ * (which would require loading its super types).
+ */
+public class ClassFileVerifier {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Verify the given class file.
+     * @param className the expected class name in dotted form
+     * @param classBytes contents of the class file
+     * @throws ScriptCompilationException if the class file is malformed, or declares another class
+     */
+    public static void verify(String className, byte[] classBytes) throws ScriptCompilationException {
+        String declaredClassName;
+        try {
+            declaredClassName = readClassName(classBytes);
+        } catch (IOException e) {
+            throw new ScriptCompilationException("Malformed class file for " + className, e);
+        }
+        if (!className.equals(declaredClassName)) {
+            throw new ScriptCompilationException("Class file for " + className + " declares " + declaredClassName);
+        }
+    }
+
+    /**
+     * Read the name of the class declared by a class file.
+     * @return the class name in dotted form
+     * @throws IOException if the class file is malformed
+     */
+    public static String readClassName(byte[] classBytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // scan the constant pool, remembering the class and string entries
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8Entries = new String[constantPoolCount];
+        int[] classEntries = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8Entries[i] = in.readUTF();
+                break;
+            case 7: // Class
+                classEntries[i] = in.readUnsignedShort();
+                break;
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                skip(in, 2);
+                break;
+            case 15: // MethodHandle
+                skip(in, 3);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                skip(in, 4);
+                break;
+            case 5: // Long
+            case 6: // Double
+                skip(in, 8);
+                // 8 byte constants take up two entries
+                i++;
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+        in.readUnsignedShort(); // access flags
+        int thisClass = in.readUnsignedShort();
+        if (thisClass <= 0 || thisClass >= constantPoolCount || classEntries[thisClass] == 0) {
+            throw new IOException("Invalid this_class index " + thisClass);
+        }
+        String internalName = utf8Entries[classEntries[thisClass]];
+        if (internalName == null) {
+            throw new IOException("Invalid this_class name");
+        }
+        return internalName.replace('/', '.');
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new IOException("Truncated class file");
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.io.BaseEncoding;
+import com.netflix.nicobar.core.archive.GsonScriptModuleSpecSerializer;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
+import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
+
+/**
+ * Persistent, content addressed cache of compiled script archives.
+ *
+ * Each entry is a directory of class files keyed by a hash of everything which can influence
+ * the output of a compilation: the archive contents, its {@link ScriptModuleSpec} (which includes
+ * the compiler plugin IDs), the application packages visible to the module and the keys of all of
+ * the module's dependencies. Since the cache is keyed by content rather than by revision, entries
+ * remain valid across restarts.
+ *
+ * Only the class files written to the compilation directory are cached, so archives which are
+ * loaded by the {@link BytecodeLoadingPlugin} are never cached.
+ */
+public class CompilationCache {
+    /** bump whenever the layout of the cache, or the inputs to the key change */
+    private static final String CACHE_FORMAT_VERSION = "1";
+    private static final ScriptModuleSpecSerializer SPEC_SERIALIZER = new GsonScriptModuleSpecSerializer();
+
+    private final Path cacheRootDir;
+
+    /**
+     * @param cacheRootDir the directory to store cache entries in. Will be created if it doesn't exist.
+     * @throws IOException if the directory could not be created
+     */
+    public CompilationCache(Path cacheRootDir) throws IOException {
+        this.cacheRootDir = Objects.requireNonNull(cacheRootDir, "cacheRootDir");
+        Files.createDirectories(cacheRootDir);
+    }
+
+    /**
+     * @return true if the output of compiling the given archive can be cached.
+     */
+    public boolean isCacheable(ScriptArchive archive) {
+        return !archive.getModuleSpec().getCompilerPluginIds().contains(BytecodeLoadingPlugin.PLUGIN_ID);
+    }
+
+    /**
+     * Compute the cache key for an archive.
+     * @param archive the archive about to be compiled
+     * @param appPackagePaths the application packages of the loader. Overridden by the archive's app import filters, if any.
+     * @param dependencyKeys map of the keys of already compiled modules
+     * @return the key, or null if the key of one of the archive's dependencies is not known.
+     * @throws IOException if the archive contents could not be read
+     */
+    @Nullable
+    public String computeKey(ScriptArchive archive, Set<String> appPackagePaths, Map<ModuleId, String> dependencyKeys) throws IOException {
+        ScriptModuleSpec moduleSpec = archive.getModuleSpec();
+        MessageDigest digester = createDigester();
+        update(digester, CACHE_FORMAT_VERSION);
+        update(digester, SPEC_SERIALIZER.serialize(moduleSpec));
+        for (String compilerPluginId : new TreeSet<String>(moduleSpec.getCompilerPluginIds())) {
+            update(digester, compilerPluginId);
+        }
+        Set<String> appPackages = moduleSpec.getAppImportFilterPaths() != null ? moduleSpec.getAppImportFilterPaths() : appPackagePaths;
+        for (String appPackage : new TreeSet<String>(appPackages)) {
+            update(digester, appPackage);
+        }
+        for (ModuleId dependency : moduleSpec.getModuleDependencies()) {
+            String dependencyKey = dependencyKeys.get(dependency);
+            if (dependencyKey == null) {
+                return null;
+            }
+            update(digester, dependency.toString());
+            update(digester, dependencyKey);
+        }
+
+        // sort the entries so that the key doesn't depend on the order in which they were listed
+        byte[] buffer = new byte[8192];
+        for (String entryName : new TreeSet<String>(archive.getArchiveEntryNames())) {
+            URL entryUrl = archive.getEntry(entryName);
+            if (entryUrl == null) {
+                continue;
+            }
+            update(digester, entryName);
+            InputStream entryStream = entryUrl.openStream();
+            try {
+                int read;
+                while ((read = entryStream.read(buffer)) != -1) {
+                    digester.update(buffer, 0, read);
+                }
+            } finally {
+                IOUtils.closeQuietly(entryStream);
+            }
+        }
+        return BaseEncoding.base16().lowerCase().encode(digester.digest());
+    }
+
+    /**
+     * Copy the cached compilation output for the given key into the target directory.
+     * @param key cache key, see {@link #computeKey(ScriptArchive, Set, Map)}
+     * @param targetDir the module's compilation directory
+     * @return true if the entry was found and restored, false on a cache miss.
+     * @throws IOException if the entry could not be copied
+     */
+    public boolean restore(String key, Path targetDir) throws IOException {
+        Objects.requireNonNull(key, "key");
+        Path entryDir = cacheRootDir.resolve(key);
+        if (!Files.isDirectory(entryDir)) {
+            return false;
+        }
+        FileUtils.copyDirectory(entryDir.toFile(), targetDir.toFile());
+        return true;
+    }
+
+    /**
+     * Read the cached compilation output for the given key into memory.
+     * @param key cache key, see {@link #computeKey(ScriptArchive, Set, Map)}
+     * @param targetResources map to add the cached resources to, keyed by / separated relative path
+     * @return true if the entry was found and restored, false on a cache miss.
+     * @throws IOException if the entry could not be read
+     */
+    public boolean restore(String key, Map<String, byte[]> targetResources) throws IOException {
+        Objects.requireNonNull(key, "key");
+        final Path entryDir = cacheRootDir.resolve(key);
+        if (!Files.isDirectory(entryDir)) {
+            return false;
+        }
+        final Map<String, byte[]> resources = targetResources;
+        Files.walkFileTree(entryDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = entryDir.relativize(file).toString().replace(File.separatorChar, '/');
+                resources.put(path, Files.readAllBytes(file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Store the compilation output in the given directory under the given key. The entry is
+     * first written to a temporary directory and then moved into place, so that concurrent
+     * readers never see a partial entry.
+     * @param key cache key, see {@link #computeKey(ScriptArchive, Set, Map)}
+     * @param sourceDir the module's compilation directory
+     * @throws IOException if the entry could not be written
+     */
+    public void store(String key, final Path sourceDir) throws IOException {
+        store(key, new EntryWriter() {
+            @Override
+            public void write(Path entryDir) throws IOException {
+                FileUtils.copyDirectory(sourceDir.toFile(), entryDir.toFile());
+            }
+        });
+    }
+
+    /**
+     * Store in-memory compilation output under the given key.
+     * @param key cache key, see {@link #computeKey(ScriptArchive, Set, Map)}
+     * @param sourceResources the compiled resources, keyed by / separated relative path
+     * @throws IOException if the entry could not be written
+     */
+    public void store(String key, final Map<String, byte[]> sourceResources) throws IOException {
+        store(key, new EntryWriter() {
+            @Override
+            public void write(Path entryDir) throws IOException {
+                Files.createDirectories(entryDir);
+                for (Entry<String, byte[]> resource : sourceResources.entrySet()) {
+                    Path file = entryDir.resolve(resource.getKey());
+                    Files.createDirectories(file.getParent());
+                    Files.write(file, resource.getValue());
+                }
+            }
+        });
+    }
+
+    private void store(String key, EntryWriter entryWriter) throws IOException {
+        Objects.requireNonNull(key, "key");
+        Path entryDir = cacheRootDir.resolve(key);
+        if (Files.isDirectory(entryDir)) {
+            return;
+        }
+        Path tempDir = cacheRootDir.resolve(key + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            entryWriter.write(tempDir);
+            Files.move(tempDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // another loader may have won the race to store the same entry
+            if (!Files.isDirectory(entryDir)) {
+                throw e;
+            }
+        } finally {
+            FileUtils.deleteQuietly(tempDir.toFile());
+        }
+    }
+
+    /**
+     * @return the root directory of this cache
+     */
+    public Path getCacheRootDir() {
+        return cacheRootDir;
+    }
+
+    /**
+     * Writes the contents of a new cache entry
+     */
+    private interface EntryWriter {
+        void write(Path entryDir) throws IOException;
+    }
+
+    private static void update(MessageDigest digester, String value) {
+        digester.update(value.getBytes(Charsets.UTF_8));
+        // separator, so that adjacent values can't run into each other
+        digester.update((byte)0);
+    }
+
+    private static MessageDigest createDigester() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.ExecutionStatistics;
+
+/**
+ * Immutable point in time copy of the {@link ExecutionStatistics} of a module, or of one of its revisions.
+ */
+public class ExecutionStatisticsSnapshot {
+    private final ModuleId moduleId;
+    private final long createTime;
+    private final long executionCount;
+    private final long lastExecutionTime;
+    private final long successCount;
+    private final long failureCount;
+    private final long timeoutCount;
+    private final int inFlightCount;
+    private final LatencyHistogram.Snapshot latencies;
+
+    protected ExecutionStatisticsSnapshot(ModuleId moduleId, long createTime, long executionCount, long lastExecutionTime,
+        long successCount, long failureCount, long timeoutCount, int inFlightCount, LatencyHistogram.Snapshot latencies) {
+        this.moduleId = moduleId;
+        this.createTime = createTime;
+        this.executionCount = executionCount;
+        this.lastExecutionTime = lastExecutionTime;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.timeoutCount = timeoutCount;
+        this.inFlightCount = inFlightCount;
+        this.latencies = latencies;
+    }
+
+    public ModuleId getModuleId() {
+        return moduleId;
+    }
+
+    /**
+     * @return the create time of the module revision, or -1 if these are the statistics of all revisions
+     */
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public long getExecutionCount() {
+        return executionCount;
+    }
+
+    public long getLastExecutionTime() {
+        return lastExecutionTime;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public LatencyHistogram.Snapshot getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionStatisticsSnapshot [moduleId=" + moduleId + ", createTime=" + createTime
+            + ", executionCount=" + executionCount + ", successCount=" + successCount
+            + ", failureCount=" + failureCount + ", timeoutCount=" + timeoutCount
+            + ", inFlightCount=" + inFlightCount + ", p50Micros=" + latencies.getValueAtPercentile(50)
+            + ", p99Micros=" + latencies.getValueAtPercentile(99) + ", maxMicros=" + latencies.getMaxMicros() + "]";
+    }
+}
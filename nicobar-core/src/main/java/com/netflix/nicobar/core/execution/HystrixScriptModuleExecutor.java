@@ -17,19 +17,34 @@
  */
 package com.netflix.nicobar.core.execution;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rx.Observer;
+
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.module.ScriptModule;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
@@ -39,6 +54,9 @@ import com.netflix.nicobar.core.module.ScriptModuleLoader;
  *
  * See {@link ScriptModuleExecutionCommand}.
  *
+ * Modules can be executed synchronously, blocking until all of them are done, or asynchronously,
+ * without blocking the caller. The asynchronous results are completed on the hystrix threads.
+ *
  * @author James Kojo
  * @author Vasanth Asokan
  */
@@ -46,29 +64,204 @@ public class HystrixScriptModuleExecutor<V> {
     private final static Logger logger = LoggerFactory.getLogger(HystrixScriptModuleExecutor.class);
 
     /**
-     * Statistics holder for a given module's executions.
+     * Statistics holder for a given module's executions. Executions are counted when they complete.
+     * Recording an execution is lock free and doesn't allocate.
      */
     public static class ExecutionStatistics {
         private final AtomicLong executionCount = new AtomicLong();
         private final AtomicLong lastExecutionTime = new AtomicLong();
+        private final AtomicLong successCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong timeoutCount = new AtomicLong();
+        private final AtomicInteger inFlightCount = new AtomicInteger();
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
+        /** @return the number of completed executions */
         public long getExecutionCount() {
             return executionCount.get();
         }
+        /** @return the time of the last completed execution, in milliseconds since the epoch */
         public long getLastExecutionTime() {
             return lastExecutionTime.get();
         }
+        public long getSuccessCount() {
+            return successCount.get();
+        }
+        /** @return the number of failed executions, excluding timeouts */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+        public long getTimeoutCount() {
+            return timeoutCount.get();
+        }
+        /** @return the number of executions which have been queued but haven't completed yet */
+        public int getInFlightCount() {
+            return inFlightCount.get();
+        }
+        /** @return histogram of the latencies of the completed executions, measured from the time they were queued */
+        public LatencyHistogram getLatencyHistogram() {
+            return latencyHistogram;
+        }
+
+        protected void recordQueued() {
+            inFlightCount.incrementAndGet();
+        }
+
+        protected void recordCompleted(ExecutionOutcome outcome, long latencyNanos) {
+            inFlightCount.decrementAndGet();
+            latencyHistogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+            switch (outcome) {
+            case SUCCESS:
+                successCount.incrementAndGet();
+                break;
+            case FAILURE:
+                failureCount.incrementAndGet();
+                break;
+            case TIMEOUT:
+                timeoutCount.incrementAndGet();
+                break;
+            }
+            executionCount.incrementAndGet();
+            lastExecutionTime.set(System.currentTimeMillis());
+        }
+
+        /**
+         * Take a point in time copy of the statistics.
+         * @param moduleId module the statistics belong to
+         * @param createTime create time of the module revision, or -1 for the statistics of all revisions.
+         */
+        public ExecutionStatisticsSnapshot snapshot(ModuleId moduleId, long createTime) {
+            return new ExecutionStatisticsSnapshot(moduleId, createTime, getExecutionCount(), getLastExecutionTime(),
+                getSuccessCount(), getFailureCount(), getTimeoutCount(), getInFlightCount(), latencyHistogram.snapshot());
+        }
+    }
+
+    /** Outcome of a single execution */
+    protected enum ExecutionOutcome {
+        SUCCESS, FAILURE, TIMEOUT
     }
 
-    private final ConcurrentMap<ModuleId, ExecutionStatistics> statistics = new ConcurrentHashMap<ModuleId, ExecutionStatistics>();
+    /**
+     * Statistics of all of the executions of a module, and of each of its recent revisions.
+     * Revisions are identified by their {@link ScriptModule} instance, since the archives of
+     * different revisions may have the same create time.
+     */
+    protected static class ModuleStatistics {
+        private final ExecutionStatistics moduleStatistics = new ExecutionStatistics();
+        /** statistics of the most recently executed new revision, for lookups without locking */
+        private volatile RevisionStatistics latestRevision;
+        /** recent revisions, newest first. guarded by this */
+        private final LinkedList<RevisionStatistics> revisions = new LinkedList<RevisionStatistics>();
+
+        /** the module is weakly referenced, so that the statistics don't keep the classloaders of old revisions alive */
+        private static class RevisionStatistics {
+            private final WeakReference<ScriptModule> module;
+            private final long createTime;
+            private final ExecutionStatistics statistics = new ExecutionStatistics();
+
+            private RevisionStatistics(ScriptModule module) {
+                this.module = new WeakReference<ScriptModule>(module);
+                this.createTime = module.getCreateTime();
+            }
+        }
+
+        protected ExecutionStatistics getModuleStatistics() {
+            return moduleStatistics;
+        }
+
+        /**
+         * Get or create the statistics of a revision. Only the {@value HystrixScriptModuleExecutor#MAX_REVISIONS} most recent revisions are kept.
+         */
+        protected ExecutionStatistics getOrCreateRevisionStatistics(ScriptModule module) {
+            RevisionStatistics latest = latestRevision;
+            if (latest != null && latest.module.get() == module) {
+                return latest.statistics;
+            }
+            synchronized (this) {
+                RevisionStatistics revision = findRevision(module);
+                if (revision == null) {
+                    revision = new RevisionStatistics(module);
+                    revisions.addFirst(revision);
+                    while (revisions.size() > MAX_REVISIONS) {
+                        revisions.removeLast();
+                    }
+                    latestRevision = revision;
+                }
+                return revision.statistics;
+            }
+        }
+
+        @Nullable
+        protected synchronized ExecutionStatistics getRevisionStatistics(ScriptModule module) {
+            RevisionStatistics revision = findRevision(module);
+            return revision != null ? revision.statistics : null;
+        }
+
+        /**
+         * Take a snapshot of the statistics of each of the recent revisions, newest first
+         */
+        protected synchronized List<ExecutionStatisticsSnapshot> snapshotRevisions(ModuleId moduleId) {
+            List<ExecutionStatisticsSnapshot> snapshots = new ArrayList<ExecutionStatisticsSnapshot>(revisions.size());
+            for (RevisionStatistics revision : revisions) {
+                snapshots.add(revision.statistics.snapshot(moduleId, revision.createTime));
+            }
+            return snapshots;
+        }
+
+        @Nullable
+        private RevisionStatistics findRevision(ScriptModule module) {
+            for (RevisionStatistics revision : revisions) {
+                if (revision.module.get() == module) {
+                    return revision;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** the number of revisions of each module which statistics are kept for */
+    protected static final int MAX_REVISIONS = 4;
+
+    /** Lazily created scheduler shared by the executors which don't provide their own */
+    private static class DefaultTimeoutScheduler {
+        private final static ScheduledExecutorService INSTANCE = createScheduler();
+
+        private static ScheduledExecutorService createScheduler() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, HystrixScriptModuleExecutor.class.getSimpleName() + "-" + "TimeoutThread");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // most executions complete before they time out
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+
+    private final ConcurrentMap<ModuleId, ModuleStatistics> statistics = new ConcurrentHashMap<ModuleId, ModuleStatistics>();
     private final String executorId;
+    @Nullable
+    private final ScheduledExecutorService timeoutScheduler;
 
     /**
      * Construct an instance of the executor.
      * @param executorId descriptive name for this executor which will be used for reporting purposes.
      */
     public HystrixScriptModuleExecutor(String executorId) {
+        this(executorId, null);
+    }
+
+    /**
+     * Construct an instance of the executor.
+     * @param executorId descriptive name for this executor which will be used for reporting purposes.
+     * @param timeoutScheduler scheduler used to time out asynchronous executions. if null, a shared daemon scheduler is used.
+     */
+    public HystrixScriptModuleExecutor(String executorId, @Nullable ScheduledExecutorService timeoutScheduler) {
         this.executorId = Objects.requireNonNull(executorId, "executorId");
+        this.timeoutScheduler = timeoutScheduler;
     }
 
     /**
@@ -86,7 +279,7 @@ public class HystrixScriptModuleExecutor<V> {
 
         List<ScriptModule> modules = new ArrayList<ScriptModule>(moduleIds.size());
         for (String moduleId : moduleIds) {
-           ScriptModule module = moduleLoader.getScriptModule(ModuleId.create(moduleId));
+           ScriptModule module = moduleLoader.getScriptModule(moduleId);
            if (module != null) {
                modules.add(module);
            }
@@ -107,12 +300,8 @@ public class HystrixScriptModuleExecutor<V> {
 
         List<Future<V>> futureResults = new ArrayList<Future<V>>(modules.size());
         for (ScriptModule module : modules) {
-           Future<V> future = new ScriptModuleExecutionCommand<V>(executorId, executable, module).queue();
+           Future<V> future = executeModuleAsync(module, executable, 0);
            futureResults.add(future);
-
-           ExecutionStatistics moduleStats = getOrCreateModuleStatistics(module.getModuleId());
-           moduleStats.executionCount.incrementAndGet();
-           moduleStats.lastExecutionTime.set(System.currentTimeMillis());
         }
 
         List<V> results = new ArrayList<V>(modules.size());
@@ -122,10 +311,7 @@ public class HystrixScriptModuleExecutor<V> {
                 V result = futureResult.get();
                 results.add(result);
             } catch (Exception e) {
-                // the exception is already logged by the hystrix command, so just add some additional context
-                ScriptModule failedModule = modules.get(i);
-                logger.error("moduleId {} with creationTime: {} failed execution. see hystrix command log for deatils.",
-                    failedModule.getModuleId(), failedModule.getCreateTime());
+                // the failure is already logged when the execution completes
                 continue;
             }
         }
@@ -133,12 +319,193 @@ public class HystrixScriptModuleExecutor<V> {
     }
 
     /**
-     * Get the statistics for the given moduleId
+     * Asynchronously execute a collection of ScriptModules identified by moduleId, skipping failed modules.
+     *
+     * @param moduleIds moduleIds for modules to execute
+     * @param executable execution logic to be performed for each module.
+     * @param moduleLoader loader which manages the modules.
+     * @param options timeouts and partial result policy of the execution.
+     * @return future list of the outputs from the executable.
+     */
+    public CompletableFuture<List<V>> executeModulesAsync(List<String> moduleIds, ScriptModuleExecutable<V> executable,
+        ScriptModuleLoader moduleLoader, ModuleExecutionOptions options) {
+        Objects.requireNonNull(moduleIds, "moduleIds");
+        Objects.requireNonNull(executable, "executable");
+        Objects.requireNonNull(moduleLoader, "moduleLoader");
+
+        List<ScriptModule> modules = new ArrayList<ScriptModule>(moduleIds.size());
+        for (String moduleId : moduleIds) {
+           ScriptModule module = moduleLoader.getScriptModule(moduleId);
+           if (module != null) {
+               modules.add(module);
+           }
+        }
+        return executeModulesAsync(modules, executable, options);
+    }
+
+    /**
+     * Asynchronously execute a collection of modules, without timeouts, skipping failed modules.
+     *
+     * @param modules modules to execute.
+     * @param executable execution logic to be performed for each module.
+     * @return future list of the outputs from the executable.
+     */
+    public CompletableFuture<List<V>> executeModulesAsync(List<ScriptModule> modules, ScriptModuleExecutable<V> executable) {
+        return executeModulesAsync(modules, executable, ModuleExecutionOptions.defaultOptions());
+    }
+
+    /**
+     * Asynchronously execute a collection of modules. The returned future completes once all of the
+     * modules are done, or, with {@link PartialResultPolicy#FAIL_ON_ANY_FAILURE}, as soon as one of them fails.
+     *
+     * @param modules modules to execute.
+     * @param executable execution logic to be performed for each module.
+     * @param options timeouts and partial result policy of the execution.
+     * @return future list of the outputs from the executable, combined according to the partial result policy.
+     */
+    public CompletableFuture<List<V>> executeModulesAsync(List<ScriptModule> modules, ScriptModuleExecutable<V> executable,
+        ModuleExecutionOptions options) {
+        Objects.requireNonNull(modules, "modules");
+        Objects.requireNonNull(executable, "executable");
+        Objects.requireNonNull(options, "options");
+
+        final CompletableFuture<List<V>> results = new CompletableFuture<List<V>>();
+        if (modules.isEmpty()) {
+            results.complete(Collections.<V>emptyList());
+            return results;
+        }
+        final PartialResultPolicy partialResultPolicy = options.getPartialResultPolicy();
+        final List<CompletableFuture<V>> futureResults = new ArrayList<CompletableFuture<V>>(modules.size());
+        final AtomicInteger pendingCount = new AtomicInteger(modules.size());
+        for (ScriptModule module : modules) {
+            futureResults.add(executeModuleAsync(module, executable, options.getTimeoutMillis(module.getModuleId())));
+        }
+        for (CompletableFuture<V> futureResult : futureResults) {
+            futureResult.whenComplete(new BiConsumer<V, Throwable>() {
+                @Override
+                public void accept(V result, Throwable cause) {
+                    if (cause != null && partialResultPolicy == PartialResultPolicy.FAIL_ON_ANY_FAILURE) {
+                        results.completeExceptionally(cause);
+                    }
+                    if (pendingCount.decrementAndGet() == 0) {
+                        results.complete(collectResults(futureResults, partialResultPolicy));
+                    }
+                }
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Asynchronously execute a single module.
+     *
+     * @param module module to execute.
+     * @param executable execution logic to be performed for the module.
+     * @param timeoutMillis time after which the returned future fails with a {@link TimeoutException}. zero if there is none.
+     * @return future output of the executable. it completes once the execution has been recorded in the statistics.
+     */
+    public CompletableFuture<V> executeModuleAsync(final ScriptModule module, ScriptModuleExecutable<V> executable, long timeoutMillis) {
+        Objects.requireNonNull(module, "module");
+        Objects.requireNonNull(executable, "executable");
+
+        final ExecutionStatistics moduleStats = getOrCreateModuleStatistics(module.getModuleId());
+        final ExecutionStatistics revisionStats = getOrCreateModuleRevisionStatistics(module);
+        moduleStats.recordQueued();
+        revisionStats.recordQueued();
+        final long queueTime = System.nanoTime();
+
+        final CompletableFuture<V> execution = new CompletableFuture<V>();
+        final ScriptModuleExecutionCommand<V> command = new ScriptModuleExecutionCommand<V>(executorId, executable, module);
+        try {
+            command.observe().subscribe(new Observer<V>() {
+                @Override
+                public void onNext(V result) {
+                    execution.complete(result);
+                }
+                @Override
+                public void onCompleted() {
+                    // no-op if there was a result
+                    execution.complete(null);
+                }
+                @Override
+                public void onError(Throwable cause) {
+                    execution.completeExceptionally(cause);
+                }
+            });
+        } catch (Exception e) {
+            execution.completeExceptionally(e);
+        }
+
+        if (timeoutMillis > 0 && !execution.isDone()) {
+            final ScheduledFuture<?> timeout = getTimeoutScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    execution.completeExceptionally(new TimeoutException("moduleId " + module.getModuleId() + " timed out"));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            execution.whenComplete(new BiConsumer<V, Throwable>() {
+                @Override
+                public void accept(V result, Throwable cause) {
+                    timeout.cancel(false);
+                }
+            });
+        }
+        // record the outcome before the returned future completes
+        return execution.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V result, Throwable cause) {
+                long latencyNanos = System.nanoTime() - queueTime;
+                ExecutionOutcome outcome = ExecutionOutcome.SUCCESS;
+                if (cause instanceof TimeoutException || (cause != null && command.isResponseTimedOut())) {
+                    outcome = ExecutionOutcome.TIMEOUT;
+                } else if (cause != null) {
+                    outcome = ExecutionOutcome.FAILURE;
+                }
+                moduleStats.recordCompleted(outcome, latencyNanos);
+                revisionStats.recordCompleted(outcome, latencyNanos);
+                if (cause != null) {
+                    // failures are already logged by the hystrix command, so just add some additional context
+                    logger.error("moduleId {} with creationTime: {} failed execution: {}. see hystrix command log for deatils.",
+                        module.getModuleId(), module.getCreateTime(), cause.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the statistics for the given moduleId, across all of its revisions
      */
     @Nullable
     public ExecutionStatistics getModuleStatistics(ModuleId moduleId) {
-        ExecutionStatistics moduleStats = statistics.get(moduleId);
-        return moduleStats;
+        ModuleStatistics moduleStats = statistics.get(moduleId);
+        return moduleStats != null ? moduleStats.getModuleStatistics() : null;
+    }
+
+    /**
+     * Get the statistics for a revision of a module. Only the statistics of the
+     * {@value #MAX_REVISIONS} most recently executed revisions of each module are kept.
+     * @param module the module revision, as returned by the {@link ScriptModuleLoader}
+     */
+    @Nullable
+    public ExecutionStatistics getModuleStatistics(ScriptModule module) {
+        ModuleStatistics moduleStats = statistics.get(module.getModuleId());
+        return moduleStats != null ? moduleStats.getRevisionStatistics(module) : null;
+    }
+
+    /**
+     * Take a snapshot of the statistics of all of the executed modules. For each module, there is
+     * a snapshot across all of its revisions, followed by one for each of its recent revisions,
+     * newest first.
+     */
+    public List<ExecutionStatisticsSnapshot> getStatisticsSnapshot() {
+        List<ExecutionStatisticsSnapshot> snapshots = new ArrayList<ExecutionStatisticsSnapshot>();
+        for (Entry<ModuleId, ModuleStatistics> entry : statistics.entrySet()) {
+            ModuleId moduleId = entry.getKey();
+            ModuleStatistics moduleStats = entry.getValue();
+            snapshots.add(moduleStats.getModuleStatistics().snapshot(moduleId, -1));
+            snapshots.addAll(moduleStats.snapshotRevisions(moduleId));
+        }
+        return snapshots;
     }
 
     /**
@@ -147,14 +514,45 @@ public class HystrixScriptModuleExecutor<V> {
      * @return new or existing module statistics
      */
     protected ExecutionStatistics getOrCreateModuleStatistics(ModuleId moduleId) {
-        ExecutionStatistics moduleStats = statistics.get(moduleId);
+        return getOrCreateStatistics(moduleId).getModuleStatistics();
+    }
+
+    /**
+     * Helper method to get or create the ExecutionStatistics instance of a module revision
+     * @return new or existing module revision statistics
+     */
+    protected ExecutionStatistics getOrCreateModuleRevisionStatistics(ScriptModule module) {
+        return getOrCreateStatistics(module.getModuleId()).getOrCreateRevisionStatistics(module);
+    }
+
+    private ModuleStatistics getOrCreateStatistics(ModuleId moduleId) {
+        ModuleStatistics moduleStats = statistics.get(moduleId);
         if (moduleStats == null) {
-            moduleStats = new ExecutionStatistics();
-            ExecutionStatistics existing = statistics.put(moduleId, moduleStats);
+            moduleStats = new ModuleStatistics();
+            ModuleStatistics existing = statistics.putIfAbsent(moduleId, moduleStats);
             if (existing != null) {
                 moduleStats = existing;
             }
         }
         return moduleStats;
     }
+
+    /**
+     * Combine the results of completed module executions according to the partial result policy
+     */
+    protected List<V> collectResults(List<CompletableFuture<V>> futureResults, PartialResultPolicy partialResultPolicy) {
+        List<V> results = new ArrayList<V>(futureResults.size());
+        for (CompletableFuture<V> futureResult : futureResults) {
+            if (!futureResult.isCompletedExceptionally()) {
+                results.add(futureResult.getNow(null));
+            } else if (partialResultPolicy == PartialResultPolicy.NULL_FOR_FAILURES) {
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    private ScheduledExecutorService getTimeoutScheduler() {
+        return timeoutScheduler != null ? timeoutScheduler : DefaultTimeoutScheduler.INSTANCE;
+    }
 }
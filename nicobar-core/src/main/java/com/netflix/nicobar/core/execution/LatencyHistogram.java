@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies, with microsecond resolution.
+ *
+ * Latencies are counted in log-linear buckets: every power of two range of values is split into
+ * {@value #SUB_BUCKET_COUNT} equally sized buckets, so reported percentiles are within about 6% of
+ * the recorded values. The buckets are allocated up front, so recording a latency never allocates.
+ * Latencies above roughly 19 hours are counted in the last bucket.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** the highest power of two which has its own buckets */
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param latency the latency. negative values are counted as zero.
+     * @param timeUnit unit of the latency
+     */
+    public void record(long latency, TimeUnit timeUnit) {
+        long micros = Math.max(0, timeUnit.toMicros(latency));
+        counts.incrementAndGet(getBucketIndex(micros));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Take a point in time copy of the histogram. The copy is not atomic with respect to
+     * concurrent recordings, which may be only partially reflected.
+     */
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+            count += bucketCounts[i];
+        }
+        return new Snapshot(bucketCounts, count, totalMicros.get(), maxMicros.get());
+    }
+
+    /**
+     * Immutable copy of a {@link LatencyHistogram}
+     */
+    public static class Snapshot {
+        private final long[] bucketCounts;
+        private final long count;
+        private final long totalMicros;
+        private final long maxMicros;
+
+        protected Snapshot(long[] bucketCounts, long count, long totalMicros, long maxMicros) {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        /**
+         * @return the number of recorded latencies
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the highest recorded latency in microseconds. zero if there are none.
+         */
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * @return the mean recorded latency in microseconds. zero if there are none.
+         */
+        public double getMeanMicros() {
+            return count > 0 ? (double)totalMicros / count : 0;
+        }
+
+        /**
+         * Get the latency at the given percentile.
+         * @param percentile percentile between 0 and 100
+         * @return the highest latency in microseconds of the bucket which contains the percentile,
+         *         capped at the highest recorded latency. zero if there are none.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("invalid percentile " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long targetCount = Math.max(1, (long)Math.ceil(count * percentile / 100));
+            long cumulativeCount = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                cumulativeCount += bucketCounts[i];
+                if (cumulativeCount >= targetCount) {
+                    // the last bucket has no upper bound
+                    return i < bucketCounts.length - 1 ? Math.min(getBucketUpperBound(i), maxMicros) : maxMicros;
+                }
+            }
+            return maxMicros;
+        }
+    }
+
+    static int getBucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int)micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long)(SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Options for the asynchronous executions of {@link HystrixScriptModuleExecutor}.
+ * Timeouts are measured from the time a module is queued, and complement the timeout of the
+ * underlying hystrix command. A timeout of zero means there is none.
+ */
+public class ModuleExecutionOptions {
+    private static final ModuleExecutionOptions DEFAULT = new Builder().build();
+
+    /**
+     * Used to Construct a {@link ModuleExecutionOptions}
+     */
+    public static class Builder {
+        private long defaultTimeoutMillis;
+        private final Map<ModuleId, Long> moduleTimeoutMillis = new HashMap<ModuleId, Long>();
+        private PartialResultPolicy partialResultPolicy = PartialResultPolicy.SKIP_FAILURES;
+
+        /** Set the timeout of the modules which don't have a specific timeout. Defaults to none. */
+        public Builder withDefaultTimeout(long timeout, TimeUnit timeUnit) {
+            this.defaultTimeoutMillis = toMillis(timeout, timeUnit);
+            return this;
+        }
+
+        /** Set the timeout of the given module */
+        public Builder withModuleTimeout(ModuleId moduleId, long timeout, TimeUnit timeUnit) {
+            Objects.requireNonNull(moduleId, "moduleId");
+            moduleTimeoutMillis.put(moduleId, toMillis(timeout, timeUnit));
+            return this;
+        }
+
+        /** Set how results are combined when modules fail. Defaults to {@link PartialResultPolicy#SKIP_FAILURES}. */
+        public Builder withPartialResultPolicy(PartialResultPolicy partialResultPolicy) {
+            this.partialResultPolicy = Objects.requireNonNull(partialResultPolicy, "partialResultPolicy");
+            return this;
+        }
+
+        public ModuleExecutionOptions build() {
+            return new ModuleExecutionOptions(defaultTimeoutMillis,
+                Collections.unmodifiableMap(new HashMap<ModuleId, Long>(moduleTimeoutMillis)), partialResultPolicy);
+        }
+
+        private static long toMillis(long timeout, TimeUnit timeUnit) {
+            Objects.requireNonNull(timeUnit, "timeUnit");
+            if (timeout < 0) {
+                throw new IllegalArgumentException("invalid timeout " + timeout);
+            }
+            return timeUnit.toMillis(timeout);
+        }
+    }
+
+    private final long defaultTimeoutMillis;
+    private final Map<ModuleId, Long> moduleTimeoutMillis;
+    private final PartialResultPolicy partialResultPolicy;
+
+    protected ModuleExecutionOptions(long defaultTimeoutMillis, Map<ModuleId, Long> moduleTimeoutMillis, PartialResultPolicy partialResultPolicy) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.moduleTimeoutMillis = moduleTimeoutMillis;
+        this.partialResultPolicy = partialResultPolicy;
+    }
+
+    /**
+     * @return options without timeouts, which skip failed modules
+     */
+    public static ModuleExecutionOptions defaultOptions() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the timeout of the given module in milliseconds. zero if there is none.
+     */
+    public long getTimeoutMillis(ModuleId moduleId) {
+        Long timeoutMillis = moduleTimeoutMillis.get(moduleId);
+        return timeoutMillis != null ? timeoutMillis : defaultTimeoutMillis;
+    }
+
+    public PartialResultPolicy getPartialResultPolicy() {
+        return partialResultPolicy;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+/**
+ * How the asynchronous executions of {@link HystrixScriptModuleExecutor} combine the results
+ * of a set of modules when some of them fail or time out.
+ */
+public enum PartialResultPolicy {
+    /** the results only contain the outputs of the successful modules. */
+    SKIP_FAILURES,
+    /** the results contain one entry per module, in module order, which is null for failed modules. */
+    NULL_FOR_FAILURES,
+    /** the results fail as soon as any module fails. */
+    FAIL_ON_ANY_FAILURE
+}
@@ -0,0 +1,56 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.Objects;
+
+import com.netflix.nicobar.core.module.ScriptModule;
+
+/**
+ * {@link ScriptModuleExecutable} which executes the shared entry point instance of each module,
+ * as provided by a {@link ScriptModuleInstanceProvider}.
+ *
+ * @param <T> the entry point type
+ * @param <V> the result type of method
+ */
+public abstract class ScriptModuleEntryPointExecutable<T, V> implements ScriptModuleExecutable<V> {
+    private final ScriptModuleInstanceProvider<T> instanceProvider;
+
+    public ScriptModuleEntryPointExecutable(ScriptModuleInstanceProvider<T> instanceProvider) {
+        this.instanceProvider = Objects.requireNonNull(instanceProvider, "instanceProvider");
+    }
+
+    @Override
+    public V execute(ScriptModule scriptModule) throws Exception {
+        T entryPoint = instanceProvider.getInstance(scriptModule);
+        if (entryPoint == null) {
+            throw new IllegalStateException("moduleId " + scriptModule.getModuleId() + " has no entry point assignable to "
+                + instanceProvider.getEntryPointType().getName());
+        }
+        return execute(entryPoint, scriptModule);
+    }
+
+    /**
+     * Execute the entry point of the given ScriptModule.
+     * @param entryPoint the shared entry point instance of the module
+     * @param scriptModule the module to be executed provided by the executor
+     * @return the output of the script module execution
+     * @throws Exception on any failures
+     */
+    protected abstract V execute(T entryPoint, ScriptModule scriptModule) throws Exception;
+}
@@ -0,0 +1,177 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.MapMaker;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.module.BaseScriptModuleListener;
+import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleUtils;
+
+/**
+ * Provides a shared instance of the entry point class of each {@link ScriptModule} revision.
+ * The entry point is the first class of the module which is assignable to the entry point type.
+ * It is resolved and constructed with its no-arg constructor the first time a revision is requested,
+ * and the same instance is handed out for every subsequent request of that revision, so executing
+ * a module doesn't involve any reflection. Entry point instances must therefore be thread safe.
+ *
+ * Register the provider as a listener on the {@link com.netflix.nicobar.core.module.ScriptModuleLoader}
+ * so that the instances of updated or deleted modules are released. Once a revision is released it
+ * is never cached again: executions still holding on to it get a new, uncached instance.
+ *
+ * See {@link ScriptModuleEntryPointExecutable}.
+ *
+ * @param <T> the entry point type
+ */
+public class ScriptModuleInstanceProvider<T> extends BaseScriptModuleListener {
+
+    /**
+     * The entry point of a single module revision.
+     */
+    private static class EntryPoint<T> {
+        private final ScriptModule module;
+        @Nullable
+        private final T instance;
+
+        private EntryPoint(ScriptModule module, @Nullable T instance) {
+            this.module = module;
+            this.instance = instance;
+        }
+    }
+
+    private final ConcurrentMap<ModuleId, EntryPoint<T>> entryPoints = new ConcurrentHashMap<ModuleId, EntryPoint<T>>();
+    /** revisions which were released. weak identity set, so retired modules can still be collected */
+    private final Set<ScriptModule> retiredModules =
+        Collections.newSetFromMap(new MapMaker().weakKeys().<ScriptModule, Boolean>makeMap());
+    private final Class<T> entryPointType;
+
+    /**
+     * Construct an instance of the provider.
+     * @param entryPointType the type the entry point classes of the modules are assignable to.
+     */
+    public ScriptModuleInstanceProvider(Class<T> entryPointType) {
+        this.entryPointType = Objects.requireNonNull(entryPointType, "entryPointType");
+    }
+
+    /**
+     * @return the type of the entry points handed out by this provider
+     */
+    public Class<T> getEntryPointType() {
+        return entryPointType;
+    }
+
+    /**
+     * Get the entry point instance of the given module revision, constructing it on first use.
+     * Failures to construct the entry point are not cached, so a later call will try again.
+     *
+     * @param module the module to get the entry point of
+     * @return the entry point instance, or null if the module has no class assignable to the entry point type
+     * @throws ReflectiveOperationException if the entry point class could not be constructed
+     */
+    @Nullable
+    public T getInstance(ScriptModule module) throws ReflectiveOperationException {
+        Objects.requireNonNull(module, "module");
+        EntryPoint<T> entryPoint = entryPoints.get(module.getModuleId());
+        if (entryPoint != null && entryPoint.module == module) {
+            return entryPoint.instance;
+        }
+
+        // released revisions are not cached again, so they don't stay reachable
+        ModuleId moduleId = module.getModuleId();
+        EntryPoint<T> newEntryPoint = new EntryPoint<T>(module, createInstance(module));
+        if (retiredModules.contains(module)) {
+            return newEntryPoint.instance;
+        }
+
+        // unknown revision. racing callers may each construct an instance, but only one is kept
+        boolean installed;
+        if (entryPoint == null) {
+            installed = entryPoints.putIfAbsent(moduleId, newEntryPoint) == null;
+        } else {
+            installed = entryPoints.replace(moduleId, entryPoint, newEntryPoint);
+        }
+        if (installed) {
+            // the revision may have been released concurrently, after the check above
+            if (retiredModules.contains(module)) {
+                entryPoints.remove(moduleId, newEntryPoint);
+            }
+        } else {
+            EntryPoint<T> existing = entryPoints.get(moduleId);
+            if (existing != null && existing.module == module) {
+                return existing.instance;
+            }
+        }
+        return newEntryPoint.instance;
+    }
+
+    /**
+     * Release the entry point instance of the given module revision, if there is one. The revision
+     * won't be cached again.
+     * @param module the module revision to release
+     */
+    public void invalidate(ScriptModule module) {
+        Objects.requireNonNull(module, "module");
+        retiredModules.add(module);
+        EntryPoint<T> entryPoint = entryPoints.get(module.getModuleId());
+        if (entryPoint != null && entryPoint.module == module) {
+            entryPoints.remove(module.getModuleId(), entryPoint);
+        }
+    }
+
+    /**
+     * Release the entry point instances of all of the modules
+     */
+    public void invalidateAll() {
+        entryPoints.clear();
+    }
+
+    /**
+     * Release the entry point of the old revision of the module. The entry point of the new
+     * revision will be constructed when it is first requested.
+     */
+    @Override
+    public void moduleUpdated(@Nullable ScriptModule newScriptModule, @Nullable ScriptModule oldScriptModule) {
+        if (oldScriptModule != null) {
+            invalidate(oldScriptModule);
+        }
+    }
+
+    /**
+     * Resolve and construct the entry point of the module
+     * @return the new instance, or null if the module has no entry point
+     */
+    @Nullable
+    protected T createInstance(ScriptModule module) throws ReflectiveOperationException {
+        Class<?> entryPointClass = ScriptModuleUtils.findAssignableClass(module, entryPointType);
+        if (entryPointClass == null) {
+            return null;
+        }
+        Constructor<?> constructor = entryPointClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return entryPointType.cast(constructor.newInstance());
+    }
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.netflix.nicobar.core.archive.ScriptArchive;
@@ -54,12 +55,21 @@ public class BytecodeLoader implements ScriptArchiveCompiler {
     public Set<Class<?>> compile(ScriptArchive archive, JBossModuleClassLoader moduleClassLoader, Path targetDir)
             throws ScriptCompilationException, IOException {
         HashSet<Class<?>> addedClasses = new HashSet<Class<?>>(archive.getArchiveEntryNames().size());
+        Set<String> lazyClassNames = new LinkedHashSet<String>();
         for (String entry : archive.getArchiveEntryNames()) {
             if (!entry.endsWith(".class")) {
                 continue;
             }
             // Load from the underlying archive class resource
             String entryName = entry.replace(".class", "").replace("/", ".");
+            if (moduleClassLoader.isLazyClassDefinition()) {
+                // only verify that the class is visible to the module, it will be defined on first load
+                if (moduleClassLoader.getResource(entry) == null) {
+                    throw new ScriptCompilationException("Unable to find class: " + entryName);
+                }
+                lazyClassNames.add(entryName);
+                continue;
+            }
             try {
                 Class<?> addedClass = moduleClassLoader.loadClassLocal(entryName, true);
                 addedClasses.add(addedClass);
@@ -68,6 +78,7 @@ public class BytecodeLoader implements ScriptArchiveCompiler {
             }
         }
         moduleClassLoader.addClasses(addedClasses);
+        moduleClassLoader.addLazyClassNames(lazyClassNames);
 
         return Collections.unmodifiableSet(addedClasses);
     }
@@ -25,5 +25,7 @@ package com.netflix.nicobar.core.module;
 public enum ArchiveRejectedReason {
     HIGHER_REVISION_AVAILABLE,
     ARCHIVE_IO_EXCEPTION,
-    COMPILE_FAILURE
+    COMPILE_FAILURE,
+    /** the archive is part of, or depends on, a cycle of module dependencies */
+    DEPENDENCY_CYCLE
 }
@@ -0,0 +1,38 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+/**
+ * Listener for retired module revisions whose class loader is not garbage collected,
+ * see {@link ClassLoaderLeakTracker}.
+ */
+public interface ClassLoaderLeakListener {
+
+    /**
+     * Notification that the class loader of a replaced or removed revision is still reachable
+     * after the configured number of garbage collections. Called once per revision.
+     * @param revision the leaked revision
+     */
+    void revisionLeaked(RetiredRevision revision);
+
+    /**
+     * Notification that the class loader of a revision which was reported as leaked was collected after all.
+     * @param revision the collected revision
+     */
+    void leakedRevisionCollected(RetiredRevision revision);
+}
@@ -0,0 +1,364 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+
+/**
+ * Tracks the class loaders of module revisions which were replaced or removed, and reports the
+ * ones which are not garbage collected. A class loader which outlives its revision keeps all of
+ * its classes, and their metadata, alive.
+ *
+ * Register the tracker as a listener of a {@link ScriptModuleLoader}. Every retired revision is
+ * tracked with a phantom reference, so the tracker itself doesn't keep it alive. A revision which
+ * is still reachable after the configured number of old generation garbage collections is reported
+ * as a zombie to the {@link ClassLoaderLeakListener}s, and counted in the metrics of the tracker.
+ *
+ * Revisions are checked whenever a module is updated, on the scheduler if one is configured,
+ * and on {@link #checkRetiredRevisions()}.
+ */
+public class ClassLoaderLeakTracker implements ScriptModuleListener {
+    private final static Logger logger = LoggerFactory.getLogger(ClassLoaderLeakTracker.class);
+
+    public static class Builder {
+        private int zombieGcThreshold = 3;
+        private ScheduledExecutorService scheduler;
+        private long checkIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+        private final Set<ClassLoaderLeakListener> listeners = new LinkedHashSet<ClassLoaderLeakListener>();
+
+        /**
+         * Number of old generation garbage collections after which a retired revision which is still
+         * reachable is reported as a zombie. Defaults to 3.
+         */
+        public Builder setZombieGcThreshold(int zombieGcThreshold) {
+            if (zombieGcThreshold < 1) {
+                throw new IllegalArgumentException("zombieGcThreshold must be positive");
+            }
+            this.zombieGcThreshold = zombieGcThreshold;
+            return this;
+        }
+
+        /**
+         * Check the retired revisions periodically on the given scheduler, in addition to checking
+         * them when modules are updated.
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler, long checkInterval, TimeUnit timeUnit) {
+            this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+            this.checkIntervalMillis = timeUnit.toMillis(checkInterval);
+            return this;
+        }
+
+        public Builder addListener(ClassLoaderLeakListener listener) {
+            listeners.add(Objects.requireNonNull(listener, "listener"));
+            return this;
+        }
+
+        public ClassLoaderLeakTracker build() {
+            ClassLoaderLeakTracker tracker = new ClassLoaderLeakTracker(zombieGcThreshold, listeners);
+            if (scheduler != null) {
+                tracker.schedule(scheduler, checkIntervalMillis);
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * Phantom reference to the class loader of a retired revision
+     */
+    protected static class TrackedRevision extends PhantomReference<ClassLoader> {
+        protected final ModuleId moduleId;
+        protected final long createTime;
+        protected final long retiredTimeMillis;
+        protected final long retiredGcCount;
+        /** true once the revision was reported as leaked. guarded by the tracker */
+        protected boolean zombie;
+
+        protected TrackedRevision(ClassLoader classLoader, ReferenceQueue<ClassLoader> referenceQueue,
+                ModuleId moduleId, long createTime, long retiredTimeMillis, long retiredGcCount) {
+            super(classLoader, referenceQueue);
+            this.moduleId = moduleId;
+            this.createTime = createTime;
+            this.retiredTimeMillis = retiredTimeMillis;
+            this.retiredGcCount = retiredGcCount;
+        }
+
+        protected RetiredRevision snapshot(long nowMillis, long gcCount) {
+            return new RetiredRevision(moduleId, createTime, retiredTimeMillis,
+                Math.max(0, nowMillis - retiredTimeMillis), Math.max(0, gcCount - retiredGcCount));
+        }
+    }
+
+    private final int zombieGcThreshold;
+    private final Set<ClassLoaderLeakListener> listeners =
+        Collections.newSetFromMap(new ConcurrentHashMap<ClassLoaderLeakListener, Boolean>());
+    private final ReferenceQueue<ClassLoader> referenceQueue = new ReferenceQueue<ClassLoader>();
+    /** the tracked references, which have to be strongly reachable to be enqueued */
+    private final Set<TrackedRevision> trackedRevisions =
+        Collections.newSetFromMap(new ConcurrentHashMap<TrackedRevision, Boolean>());
+    private final AtomicLong retiredRevisionCount = new AtomicLong();
+    private final AtomicLong collectedRevisionCount = new AtomicLong();
+    private final AtomicLong leakedRevisionCount = new AtomicLong();
+    private volatile ScheduledFuture<?> checkFuture;
+
+    protected ClassLoaderLeakTracker(int zombieGcThreshold, Set<ClassLoaderLeakListener> listeners) {
+        this.zombieGcThreshold = zombieGcThreshold;
+        this.listeners.addAll(listeners);
+    }
+
+    /**
+     * Add a listener for leaked revisions. Listeners are notified of the leaks which are detected after they were added.
+     */
+    public void addListener(ClassLoaderLeakListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Track the revision replaced by an update, or the revision of a removed module.
+     */
+    @Override
+    public void moduleUpdated(@Nullable ScriptModule newScriptModule, @Nullable ScriptModule oldScriptModule) {
+        if (oldScriptModule != null && oldScriptModule.getModuleClassLoader() != null) {
+            retire(oldScriptModule.getModuleId(), oldScriptModule.getCreateTime(), oldScriptModule.getModuleClassLoader());
+        }
+        checkRetiredRevisions();
+    }
+
+    @Override
+    public void archiveRejected(ScriptArchive scriptArchive, ArchiveRejectedReason reason, @Nullable Throwable cause) {
+    }
+
+    /**
+     * Start tracking the class loader of a retired revision.
+     * @param moduleId the id of the module
+     * @param createTime the create time of the revision
+     * @param classLoader the class loader of the revision, which should become unreachable
+     */
+    public void retire(ModuleId moduleId, long createTime, ClassLoader classLoader) {
+        Objects.requireNonNull(moduleId, "moduleId");
+        Objects.requireNonNull(classLoader, "classLoader");
+        trackedRevisions.add(new TrackedRevision(classLoader, referenceQueue, moduleId, createTime,
+            System.currentTimeMillis(), getGcCount()));
+        retiredRevisionCount.incrementAndGet();
+    }
+
+    /**
+     * Stop tracking the revisions whose class loader was collected, and report the revisions which
+     * are still reachable after the configured number of garbage collections.
+     */
+    public synchronized void checkRetiredRevisions() {
+        long nowMillis = System.currentTimeMillis();
+        long gcCount = getGcCount();
+        Reference<? extends ClassLoader> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            TrackedRevision revision = (TrackedRevision)reference;
+            if (trackedRevisions.remove(revision)) {
+                collectedRevisionCount.incrementAndGet();
+                if (revision.zombie) {
+                    RetiredRevision collectedRevision = revision.snapshot(nowMillis, gcCount);
+                    logger.info("Leaked revision was collected: " + collectedRevision);
+                    for (ClassLoaderLeakListener listener : listeners) {
+                        try {
+                            listener.leakedRevisionCollected(collectedRevision);
+                        } catch (RuntimeException e) {
+                            logger.warn("Exception notifying listener of collected revision " + collectedRevision, e);
+                        }
+                    }
+                }
+            }
+        }
+        for (TrackedRevision revision : trackedRevisions) {
+            if (!revision.zombie && gcCount - revision.retiredGcCount >= zombieGcThreshold) {
+                revision.zombie = true;
+                leakedRevisionCount.incrementAndGet();
+                RetiredRevision leakedRevision = revision.snapshot(nowMillis, gcCount);
+                logger.warn("Class loader of retired revision is still reachable: " + leakedRevision);
+                for (ClassLoaderLeakListener listener : listeners) {
+                    try {
+                        listener.revisionLeaked(leakedRevision);
+                    } catch (RuntimeException e) {
+                        logger.warn("Exception notifying listener of leaked revision " + leakedRevision, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current zombie revisions: the retired revisions which are still reachable after
+     *         the configured number of garbage collections. Ordered from the oldest to the youngest.
+     */
+    public synchronized List<RetiredRevision> getZombieRevisions() {
+        long nowMillis = System.currentTimeMillis();
+        long gcCount = getGcCount();
+        List<RetiredRevision> zombies = new ArrayList<RetiredRevision>();
+        for (TrackedRevision revision : trackedRevisions) {
+            if (revision.zombie) {
+                zombies.add(revision.snapshot(nowMillis, gcCount));
+            }
+        }
+        Collections.sort(zombies, new Comparator<RetiredRevision>() {
+            @Override
+            public int compare(RetiredRevision revision1, RetiredRevision revision2) {
+                return Long.compare(revision1.getRetiredTimeMillis(), revision2.getRetiredTimeMillis());
+            }
+        });
+        return zombies;
+    }
+
+    /**
+     * @return the number of current zombie revisions
+     */
+    public synchronized int getZombieRevisionCount() {
+        int zombieCount = 0;
+        for (TrackedRevision revision : trackedRevisions) {
+            if (revision.zombie) {
+                zombieCount++;
+            }
+        }
+        return zombieCount;
+    }
+
+    /**
+     * @return the age of the oldest current zombie revision, or 0 if there are none
+     */
+    public long getOldestZombieAgeMillis() {
+        List<RetiredRevision> zombies = getZombieRevisions();
+        return zombies.isEmpty() ? 0 : zombies.get(0).getAgeMillis();
+    }
+
+    /**
+     * @return the number of retired revisions which are still tracked, because their class loader wasn't collected yet
+     */
+    public int getTrackedRevisionCount() {
+        return trackedRevisions.size();
+    }
+
+    /**
+     * @return the total number of revisions which were retired
+     */
+    public long getRetiredRevisionCount() {
+        return retiredRevisionCount.get();
+    }
+
+    /**
+     * @return the total number of retired revisions whose class loader was collected
+     */
+    public long getCollectedRevisionCount() {
+        return collectedRevisionCount.get();
+    }
+
+    /**
+     * @return the total number of revisions which were reported as leaked, including the ones collected since
+     */
+    public long getLeakedRevisionCount() {
+        return leakedRevisionCount.get();
+    }
+
+    /**
+     * Stop the periodic checks. Revisions are still checked when modules are updated.
+     */
+    public void shutdown() {
+        ScheduledFuture<?> future = checkFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of old generation garbage collections of the JVM. Young collections don't
+     * unload classes, so a class loader which survives them hasn't necessarily leaked. Without
+     * generations, such as with ZGC or Shenandoah, every collection cycle is counted.
+     */
+    protected long getGcCount() {
+        List<GarbageCollectorMXBean> collectors = getGarbageCollectors();
+        boolean generational = false;
+        for (GarbageCollectorMXBean collector : collectors) {
+            generational |= isOldGenerationCollector(collector);
+        }
+        long gcCount = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            boolean counted = generational ? isOldGenerationCollector(collector) : !collector.getName().endsWith("Pauses");
+            long collectionCount = collector.getCollectionCount();
+            if (counted && collectionCount > 0) {
+                gcCount += collectionCount;
+            }
+        }
+        return gcCount;
+    }
+
+    /**
+     * @return the garbage collectors of the JVM
+     */
+    protected List<GarbageCollectorMXBean> getGarbageCollectors() {
+        return ManagementFactory.getGarbageCollectorMXBeans();
+    }
+
+    /**
+     * @return true if the collector collects the old generation, as opposed to only the young generation
+     */
+    protected static boolean isOldGenerationCollector(GarbageCollectorMXBean collector) {
+        String name = collector.getName();
+        // G1 lists the old generation pool for its young collections as well
+        if (name.contains("Young") || name.contains("Minor")) {
+            return false;
+        }
+        for (String memoryPoolName : collector.getMemoryPoolNames()) {
+            if (memoryPoolName.contains("Old Gen") || memoryPoolName.contains("Tenured")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void schedule(ScheduledExecutorService scheduler, long checkIntervalMillis) {
+        checkFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkRetiredRevisions();
+                } catch (Throwable t) {
+                    logger.error("Exception checking retired revisions", t);
+                }
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
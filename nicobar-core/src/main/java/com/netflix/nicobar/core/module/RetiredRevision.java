@@ -0,0 +1,78 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Immutable point in time description of a module revision which was replaced or removed,
+ * see {@link ClassLoaderLeakTracker}.
+ */
+public class RetiredRevision {
+    private final ModuleId moduleId;
+    private final long createTime;
+    private final long retiredTimeMillis;
+    private final long ageMillis;
+    private final long gcCycles;
+
+    protected RetiredRevision(ModuleId moduleId, long createTime, long retiredTimeMillis, long ageMillis, long gcCycles) {
+        this.moduleId = moduleId;
+        this.createTime = createTime;
+        this.retiredTimeMillis = retiredTimeMillis;
+        this.ageMillis = ageMillis;
+        this.gcCycles = gcCycles;
+    }
+
+    public ModuleId getModuleId() {
+        return moduleId;
+    }
+
+    /**
+     * @return the create time of the revision, see {@link ScriptModule#getCreateTime()}
+     */
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * @return when the revision was replaced or removed
+     */
+    public long getRetiredTimeMillis() {
+        return retiredTimeMillis;
+    }
+
+    /**
+     * @return how long ago the revision was replaced or removed
+     */
+    public long getAgeMillis() {
+        return ageMillis;
+    }
+
+    /**
+     * @return the number of old generation garbage collections since the revision was replaced or removed
+     */
+    public long getGcCycles() {
+        return gcCycles;
+    }
+
+    @Override
+    public String toString() {
+        return "RetiredRevision[moduleId=" + moduleId + ", createTime=" + createTime + ", ageMillis=" + ageMillis +
+            ", gcCycles=" + gcCycles + "]";
+    }
+}
@@ -36,7 +36,8 @@ public interface ScriptModule {
     public ModuleId getModuleId();
 
     /**
-     * @return the classes that were compiled and loaded from the scripts
+     * @return the classes that were compiled and loaded from the scripts. If classes are
+     *         defined lazily, only the classes which have been loaded so far.
      */
     public Set<Class<?>> getLoadedClasses();
 
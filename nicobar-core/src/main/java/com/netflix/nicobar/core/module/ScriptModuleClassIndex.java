@@ -0,0 +1,143 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Immutable index of the classes of a {@link ScriptModule}, by name and by every type they are
+ * assignable to (their superclasses and all of the interfaces they implement). Built once when a
+ * module is loaded, so that looking up entry points doesn't require scanning the module's classes.
+ */
+public class ScriptModuleClassIndex {
+    private static final ScriptModuleClassIndex EMPTY = new ScriptModuleClassIndex(Collections.<Class<?>>emptySet());
+
+    private final Set<Class<?>> classes;
+    private final Map<String, Class<?>> classesByName;
+    private final Map<Class<?>, Set<Class<?>>> classesByType;
+
+    /**
+     * Index the given classes.
+     * @param classes the classes of the module
+     */
+    public ScriptModuleClassIndex(Collection<Class<?>> classes) {
+        Objects.requireNonNull(classes, "classes");
+        Set<Class<?>> indexedClasses = new LinkedHashSet<Class<?>>(classes);
+        Map<String, Class<?>> byName = new HashMap<String, Class<?>>(indexedClasses.size() * 2);
+        Map<Class<?>, Set<Class<?>>> byType = new HashMap<Class<?>, Set<Class<?>>>();
+        for (Class<?> indexedClass : indexedClasses) {
+            byName.put(indexedClass.getName(), indexedClass);
+            for (Class<?> type : getAssignableTypes(indexedClass)) {
+                Set<Class<?>> assignableClasses = byType.get(type);
+                if (assignableClasses == null) {
+                    assignableClasses = new LinkedHashSet<Class<?>>();
+                    byType.put(type, assignableClasses);
+                }
+                assignableClasses.add(indexedClass);
+            }
+        }
+        for (Map.Entry<Class<?>, Set<Class<?>>> entry : byType.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        this.classes = Collections.unmodifiableSet(indexedClasses);
+        this.classesByName = byName;
+        this.classesByType = byType;
+    }
+
+    /**
+     * @return an empty index
+     */
+    public static ScriptModuleClassIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return immutable set of all of the indexed classes
+     */
+    public Set<Class<?>> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the number of indexed classes
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Find a class by name
+     * @param className the class name in dotted form.
+     * @return the class, or null if it isn't indexed
+     */
+    @Nullable
+    public Class<?> findClass(String className) {
+        return classesByName.get(className);
+    }
+
+    /**
+     * Find all of the indexed classes that are subclasses of, implement, or are equal to the target class
+     * @param targetClass target type to search for
+     * @return immutable set of matching classes. Empty if there are none.
+     */
+    public Set<Class<?>> findAssignableClasses(Class<?> targetClass) {
+        Set<Class<?>> assignableClasses = classesByType.get(targetClass);
+        return assignableClasses != null ? assignableClasses : Collections.<Class<?>>emptySet();
+    }
+
+    /**
+     * Find the first indexed class that is a subclass of, implements, or is equal to the target class
+     * @param targetClass target type to search for
+     * @return the first matching class, or null if there is none
+     */
+    @Nullable
+    public Class<?> findAssignableClass(Class<?> targetClass) {
+        Set<Class<?>> assignableClasses = classesByType.get(targetClass);
+        return assignableClasses != null ? assignableClasses.iterator().next() : null;
+    }
+
+    /**
+     * Collect every type the given class can be assigned to: itself, its superclasses,
+     * all of the interfaces it implements, directly or not, and {@link Object}.
+     */
+    private static Set<Class<?>> getAssignableTypes(Class<?> clazz) {
+        Set<Class<?>> types = new HashSet<Class<?>>();
+        collectAssignableTypes(clazz, types);
+        types.add(Object.class);
+        return types;
+    }
+
+    private static void collectAssignableTypes(Class<?> type, Set<Class<?>> types) {
+        if (type == null || !types.add(type)) {
+            return;
+        }
+        collectAssignableTypes(type.getSuperclass(), types);
+        for (Class<?> interfaceType : type.getInterfaces()) {
+            collectAssignableTypes(interfaceType, types);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Stable reference to a module of a {@link ScriptModuleLoader}, which callers can hold on to
+ * instead of the module itself. The loader swaps the latest revision of the module into the handle
+ * when the module is updated or removed, so reading it is a single volatile read, and the handle
+ * doesn't keep replaced revisions (and their class loaders) alive.
+ */
+public class ScriptModuleHandle {
+    private final ModuleId moduleId;
+    private volatile ScriptModule module;
+
+    protected ScriptModuleHandle(ModuleId moduleId) {
+        this.moduleId = Objects.requireNonNull(moduleId, "moduleId");
+    }
+
+    /**
+     * @return the id of the module
+     */
+    public ModuleId getModuleId() {
+        return moduleId;
+    }
+
+    /**
+     * @return the latest revision of the module, or null if the module isn't loaded
+     */
+    @Nullable
+    public ScriptModule get() {
+        return module;
+    }
+
+    /**
+     * Swap in the latest revision of the module
+     * @param module the latest revision, or null if the module was removed
+     */
+    protected void set(@Nullable ScriptModule module) {
+        this.module = module;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptModuleHandle[" + moduleId + "]";
+    }
+}
@@ -29,7 +29,8 @@ import com.netflix.nicobar.core.archive.ScriptArchive;
 public interface ScriptModuleListener {
 
     /**
-     * Notification that a module was newly created or updated.
+     * Notification that a module was newly created or updated. Called once the new version is visible
+     * through {@link ScriptModuleLoader#getScriptModule(String)}.
      * @param newScriptModule newly loaded version of the module. NULL if the module has been deleted.
      * @param oldScriptModule old version of the module that will be unloaded. NULL if this is a new module.
      */
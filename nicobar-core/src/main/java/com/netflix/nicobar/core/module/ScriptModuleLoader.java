@@ -18,44 +18,76 @@
 package com.netflix.nicobar.core.module;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nullable;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jboss.modules.Module;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
 import org.jboss.modules.ModuleSpec;
+import org.jboss.modules.filter.PathFilter;
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ModuleIdRegistry;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.compile.ApiFingerprint;
+import com.netflix.nicobar.core.compile.ClassFileVerifier;
+import com.netflix.nicobar.core.compile.CompilationCache;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
 import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.core.module.jboss.InMemoryResourceLoader;
 import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
 import com.netflix.nicobar.core.module.jboss.JBossModuleLoader;
 import com.netflix.nicobar.core.module.jboss.JBossModuleUtils;
 import com.netflix.nicobar.core.module.jboss.JBossScriptModule;
+import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
 
@@ -73,6 +105,16 @@ import static com.netflix.nicobar.core.module.ScriptModuleUtils.createModulePath
  *
  * Support pluggable compilers via the {@link ScriptCompilerPluginSpec}.
  *
+ * Updates and removals of modules are applied by a single writer at a time. Writes may be submitted
+ * asynchronously, see {@link #submitScriptArchives(Set)}, and writes which are submitted while
+ * another one is being applied are batched together, so that independent modules are compiled
+ * in the same update. Compiler plugins are registered by the writer as well, so they never observe
+ * a partially applied update. Readers see an immutable snapshot of the loaded modules, which is
+ * published atomically.
+ *
+ * Listeners are notified of each module right after it is committed and published, in the same order
+ * whether modules are compiled serially or concurrently.
+ *
  * @author James Kojo
  * @author Vasanth Asokan
  * @author Aaron Tull
@@ -80,6 +122,16 @@ import static com.netflix.nicobar.core.module.ScriptModuleUtils.createModulePath
 public class ScriptModuleLoader {
     private final static Logger logger = LoggerFactory.getLogger(ScriptModuleLoader.class);
 
+    /** Thread factory used for the default thread which applies the submitted writes */
+    private final static ThreadFactory DEFAULT_WRITE_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, ScriptModuleLoader.class.getSimpleName() + "-" + "WriteThread");
+             thread.setDaemon(true);
+             return thread;
+        }
+    };
+
     /**
      * Builder used to constract a {@link ScriptModuleLoader}
      */
@@ -89,6 +141,13 @@ public class ScriptModuleLoader {
         private final Set<String> paths = new LinkedHashSet<String>();
         private Path compilationRootDir;
         private ClassLoader appClassLoader = ScriptModuleLoader.class.getClassLoader();
+        private ExecutorService compilationExecutor;
+        private Executor writeExecutor;
+        private Path compilationCacheDir;
+        private boolean inMemoryCompilation;
+        private boolean lazyClassDefinition;
+        private ExecutorService classVerificationExecutor;
+        private boolean apiAwareRelinking;
 
         public Builder() {
         }
@@ -116,6 +175,85 @@ public class ScriptModuleLoader {
             this.compilationRootDir = compilationRootDir;
             return this;
         }
+        /**
+         * Compile independent modules concurrently on the given executor. Modules which are at the same
+         * level of the dependency graph will be compiled in parallel, while the loaded modules are still
+         * committed and listeners notified from the updating thread. The executor is not owned by the loader
+         * and will not be shut down by it.
+         * @param compilationExecutor the executor to compile modules on. null to compile serially (the default).
+         */
+        public Builder withCompilationExecutor(@Nullable ExecutorService compilationExecutor) {
+            this.compilationExecutor = compilationExecutor;
+            return this;
+        }
+        /**
+         * Apply the asynchronously submitted updates and removals on the given executor, see
+         * {@link ScriptModuleLoader#submitScriptArchives(Set)}. The executor is not owned by the loader
+         * and will not be shut down by it.
+         * @param writeExecutor the executor to apply writes on. null to use a daemon thread of the loader (the default).
+         */
+        public Builder withWriteExecutor(@Nullable Executor writeExecutor) {
+            this.writeExecutor = writeExecutor;
+            return this;
+        }
+        /**
+         * Enable the persistent compilation cache. Compiled classes will be stored under the given directory,
+         * keyed by the contents of the archive and its dependencies, and reused instead of recompiling the
+         * archive on subsequent loads, including loads by a different process.
+         * @param compilationCacheDir the cache directory. null to disable caching (the default).
+         */
+        public Builder withCompilationCacheDir(@Nullable Path compilationCacheDir) {
+            this.compilationCacheDir = compilationCacheDir;
+            return this;
+        }
+        /**
+         * Compile modules in memory. Compilers add the generated class bytes to an in-memory resource root
+         * of the module instead of writing class files to the compilation directory, which are then defined
+         * by the module's classloader without a round-trip through the filesystem. Compilers which don't
+         * support in-memory compilation (see {@link JBossModuleClassLoader#getInMemoryCompilationRoot()})
+         * will fail to compile in this mode.
+         * @param inMemoryCompilation true to compile in memory, false to compile to the compilation directory (the default).
+         */
+        public Builder withInMemoryCompilation(boolean inMemoryCompilation) {
+            this.inMemoryCompilation = inMemoryCompilation;
+            return this;
+        }
+        /**
+         * Define the classes of a module lazily. After compiling a module, its classes are only checked
+         * for presence, and are defined by the module's classloader on first load rather than eagerly.
+         * See {@link JBossModuleClassLoader#getMaterializedLazyClassCount()} for how many of them have
+         * been loaded since.
+         * @param lazyClassDefinition true to define classes lazily, false to load all classes eagerly (the default).
+         */
+        public Builder withLazyClassDefinition(boolean lazyClassDefinition) {
+            this.lazyClassDefinition = lazyClassDefinition;
+            return this;
+        }
+        /**
+         * Verify the class files of lazily defined classes in the background on the given executor.
+         * Failures are logged and counted, see {@link ScriptModuleLoader#getClassVerificationFailureCount()}.
+         * Only applies when classes are defined lazily. The executor is not owned by the loader and will
+         * not be shut down by it.
+         * @param classVerificationExecutor the executor to verify classes on. null to skip verification (the default).
+         */
+        public Builder withClassVerificationExecutor(@Nullable ExecutorService classVerificationExecutor) {
+            this.classVerificationExecutor = classVerificationExecutor;
+            return this;
+        }
+        /**
+         * Relink, rather than recompile, the dependents of an updated module when the API exported by
+         * the module hasn't changed. The API is fingerprinted from the public signatures of the classes in
+         * the exported packages of the module, see {@link ApiFingerprint}. Dependents are relinked by
+         * defining their previously compiled classes in a new revision which links to the updated module.
+         * See {@link ScriptModuleLoader#getRelinkedModuleCount()} for how many modules were relinked.
+         * Annotations are not part of the fingerprint, and the API of archives which ship class files is
+         * never considered unchanged.
+         * @param apiAwareRelinking true to relink when possible, false to always recompile dependents (the default).
+         */
+        public Builder withApiAwareRelinking(boolean apiAwareRelinking) {
+            this.apiAwareRelinking = apiAwareRelinking;
+            return this;
+        }
         /**
          * Specify a set of packages to make available from the application classloader
          * as runtime dependencies for all scripts loaded by this script module.
@@ -141,18 +279,199 @@ public class ScriptModuleLoader {
                 compilationRootDir = Files.createTempDirectory("ScriptModuleLoader");
             }
 
-            return new ScriptModuleLoader(pluginSpecs, appClassLoader, paths, listeners, compilationRootDir);
+            CompilationCache compilationCache = null;
+            if (compilationCacheDir != null) {
+                compilationCache = new CompilationCache(compilationCacheDir);
+            }
+
+            return new ScriptModuleLoader(pluginSpecs, appClassLoader, paths, listeners, compilationRootDir,
+                compilationExecutor, compilationCache, inMemoryCompilation, lazyClassDefinition, classVerificationExecutor,
+                apiAwareRelinking, writeExecutor);
+        }
+    }
+
+    /**
+     * Book-keeping for a single module being compiled during an update. Holds the outcome
+     * of the compilation step until it is committed (or rejected) by the updating thread.
+     */
+    protected static class ModuleUpdate {
+        protected final ModuleId scriptModuleId;
+        protected final ScriptArchive scriptArchive;
+        protected final ModuleIdentifier revisionId;
+        /** the compilation cache key of the module, or null if the cache is disabled */
+        protected String compilationKey;
+        /** the compiled module, or null if the compilation was rejected */
+        protected Module jbossModule;
+        protected IOException ioException;
+        protected ArchiveRejectedReason rejectedReason;
+        protected Throwable rejectedCause;
+        /** the classes of the loaded revision, to relink instead of recompiling. null to compile */
+        protected CompiledClasses relinkSource;
+        /** true if the module was relinked from the relinkSource */
+        protected boolean relinked;
+        /** the classes of the compiled module, or null if the compilation was rejected */
+        protected CompiledClasses compiledClasses;
+
+        protected ModuleUpdate(ModuleId scriptModuleId, ScriptArchive scriptArchive, ModuleIdentifier revisionId) {
+            this.scriptModuleId = Objects.requireNonNull(scriptModuleId, "scriptModuleId");
+            this.scriptArchive = Objects.requireNonNull(scriptArchive, "scriptArchive");
+            this.revisionId = Objects.requireNonNull(revisionId, "revisionId");
+        }
+
+        protected void reject(ArchiveRejectedReason reason, Throwable cause) {
+            this.rejectedReason = reason;
+            this.rejectedCause = cause;
+        }
+    }
+
+    /**
+     * The compiled classes of a loaded module, and the fingerprint of the API it exports
+     */
+    protected static class CompiledClasses {
+        /** directory holding the class files, or null if they are held in memory */
+        @Nullable
+        protected final Path compilationRoot;
+        /** in-memory root holding the class files, or null if they are held in a directory */
+        @Nullable
+        protected final InMemoryResourceLoader inMemoryCompilationRoot;
+        /** fingerprint of the exported API, or null if it is not known */
+        @Nullable
+        protected final String apiFingerprint;
+
+        protected CompiledClasses(@Nullable Path compilationRoot, @Nullable InMemoryResourceLoader inMemoryCompilationRoot,
+                @Nullable String apiFingerprint) {
+            this.compilationRoot = compilationRoot;
+            this.inMemoryCompilationRoot = inMemoryCompilationRoot;
+            this.apiFingerprint = apiFingerprint;
+        }
+    }
+
+    /**
+     * A pending update or removal, applied by whichever thread holds the write lock
+     */
+    protected static class WriteOperation {
+        /** archives to load or update, or null for a removal */
+        @Nullable
+        protected final Set<? extends ScriptArchive> candidateArchives;
+        /** module to remove, or null for an update */
+        @Nullable
+        protected final ModuleId removedModuleId;
+        protected final SettableFuture<Void> future = SettableFuture.create();
+
+        protected WriteOperation(@Nullable Set<? extends ScriptArchive> candidateArchives, @Nullable ModuleId removedModuleId) {
+            this.candidateArchives = candidateArchives;
+            this.removedModuleId = removedModuleId;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the loaded modules, made of a compacted map of the modules and of the modules
+     * which were committed since. The committed modules are shared by the snapshots published during an
+     * update, and each snapshot only sees the ones which were committed before it was published, so that
+     * publishing a single module doesn't copy the whole map.
+     */
+    protected static class ScriptModuleSnapshot extends AbstractMap<ModuleId, ScriptModule> {
+        private final Map<ModuleId, ScriptModule> compactedModules;
+        /** module ids mapped to their commit sequence number and module. Only written by the writer */
+        private final ConcurrentMap<ModuleId, Entry<Integer, ScriptModule>> committedModules;
+        /** number of the committed modules which are visible in this snapshot */
+        private final int committedCount;
+        private final int size;
+        private volatile Map<ModuleId, ScriptModule> mergedModules;
+
+        protected ScriptModuleSnapshot(Map<ModuleId, ScriptModule> compactedModules,
+                ConcurrentMap<ModuleId, Entry<Integer, ScriptModule>> committedModules, int committedCount, int size) {
+            this.compactedModules = compactedModules;
+            this.committedModules = committedModules;
+            this.committedCount = committedCount;
+            this.size = size;
+        }
+
+        @Override
+        public ScriptModule get(Object key) {
+            Entry<Integer, ScriptModule> committedModule = committedModules.get(key);
+            if (committedModule != null && committedModule.getKey() < committedCount) {
+                return committedModule.getValue();
+            }
+            return compactedModules.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<ModuleId, ScriptModule>> entrySet() {
+            // iterating over the modules is linear anyway, so merge them the first time it's needed
+            Map<ModuleId, ScriptModule> modules = mergedModules;
+            if (modules == null) {
+                modules = new HashMap<ModuleId, ScriptModule>(compactedModules);
+                for (Entry<ModuleId, Entry<Integer, ScriptModule>> entry : committedModules.entrySet()) {
+                    if (entry.getValue().getKey() < committedCount) {
+                        modules.put(entry.getKey(), entry.getValue().getValue());
+                    }
+                }
+                modules = Collections.unmodifiableMap(modules);
+                mergedModules = modules;
+            }
+            return modules.entrySet();
         }
     }
 
-    /** Map of script ModuleId to the loaded ScriptModules */
+    /** Map of script ModuleId to the loaded ScriptModules. Only accessed by the writer holding the writeLock */
     protected final Map<ModuleId, ScriptModule> loadedScriptModules = new ConcurrentHashMap<ModuleId, ScriptModule>();
+    /** interned ids of the loaded modules, to look them up by string without parsing the id */
+    protected final ModuleIdRegistry moduleIdRegistry = new ModuleIdRegistry();
+    /** handles to the modules, which the writer swaps the published revisions into. Dropped once unreferenced */
+    protected final ConcurrentMap<ModuleId, ScriptModuleHandle> moduleHandles = new MapMaker().weakValues().makeMap();
+    /** immutable snapshot of the loadedScriptModules, published by the writer once it's consistent */
+    protected volatile Map<ModuleId, ScriptModule> publishedScriptModules = Collections.emptyMap();
+    /** the last compacted snapshot. Only accessed by the writer holding the writeLock */
+    protected Map<ModuleId, ScriptModule> compactedScriptModules = Collections.emptyMap();
+    /** modules committed since the snapshot was compacted. Only written by the writer holding the writeLock */
+    protected ConcurrentMap<ModuleId, Entry<Integer, ScriptModule>> committedScriptModules =
+        new ConcurrentHashMap<ModuleId, Entry<Integer, ScriptModule>>();
+    /** held by the thread applying updates and removals */
+    protected final ReentrantLock writeLock = new ReentrantLock();
+    /** revision number of the last update. Only accessed by the writer holding the writeLock */
+    protected long lastUpdateNumber;
+    /** updates and removals waiting for the writeLock, in submission order */
+    protected final Queue<WriteOperation> pendingWrites = new ConcurrentLinkedQueue<WriteOperation>();
+    /** Executor which applies the asynchronously submitted writes */
+    protected final Executor writeExecutor;
     protected final Map<String, ClassLoader> compilerClassLoaders = new ConcurrentHashMap<String, ClassLoader>();
     protected final Set<ScriptCompilerPluginSpec> pluginSpecs;
     protected final ClassLoader appClassLoader;
     protected final Set<String> appPackagePaths;
-    protected final List<ScriptArchiveCompiler> compilers = new ArrayList<ScriptArchiveCompiler>();
+    protected final List<ScriptArchiveCompiler> compilers = new CopyOnWriteArrayList<ScriptArchiveCompiler>();
     protected final Path compilationRootDir;
+    /** Executor used to compile independent modules concurrently. null if modules are compiled serially */
+    @Nullable
+    protected final ExecutorService compilationExecutor;
+    /** Persistent cache of compiled classes. null if caching is disabled */
+    @Nullable
+    protected final CompilationCache compilationCache;
+    /** Map of script ModuleId to the compilation cache key of the loaded module */
+    protected final Map<ModuleId, String> compilationKeys = new ConcurrentHashMap<ModuleId, String>();
+    /** true if modules are compiled to an in-memory resource root rather than to the compilation directory */
+    protected final boolean inMemoryCompilation;
+    /** true if compiled classes are defined on first load rather than eagerly */
+    protected final boolean lazyClassDefinition;
+    /** Executor used to verify lazily defined classes in the background. null if they are not verified */
+    @Nullable
+    protected final ExecutorService classVerificationExecutor;
+    protected final AtomicLong classVerificationFailureCount = new AtomicLong();
+    /** true if dependents of modules with an unchanged API are relinked rather than recompiled */
+    protected final boolean apiAwareRelinking;
+    /** Map of script ModuleId to the compiled classes of the loaded module */
+    protected final Map<ModuleId, CompiledClasses> compiledClasses = new ConcurrentHashMap<ModuleId, CompiledClasses>();
+    protected final AtomicLong relinkedModuleCount = new AtomicLong();
 
     protected final Set<ScriptModuleListener> listeners =
         Collections.newSetFromMap(new ConcurrentHashMap<ScriptModuleListener, Boolean>());
@@ -164,6 +483,21 @@ public class ScriptModuleLoader {
             final Set<String> appPackagePaths,
             final Set<ScriptModuleListener> listeners,
             final Path compilationRootDir) throws ModuleLoadException {
+        this(pluginSpecs, appClassLoader, appPackagePaths, listeners, compilationRootDir, null, null, false, false, null, false, null);
+    }
+
+    protected ScriptModuleLoader(final Set<ScriptCompilerPluginSpec> pluginSpecs,
+            final ClassLoader appClassLoader,
+            final Set<String> appPackagePaths,
+            final Set<ScriptModuleListener> listeners,
+            final Path compilationRootDir,
+            @Nullable final ExecutorService compilationExecutor,
+            @Nullable final CompilationCache compilationCache,
+            final boolean inMemoryCompilation,
+            final boolean lazyClassDefinition,
+            @Nullable final ExecutorService classVerificationExecutor,
+            final boolean apiAwareRelinking,
+            @Nullable final Executor writeExecutor) throws ModuleLoadException {
         this.pluginSpecs = Objects.requireNonNull(pluginSpecs);
         this.appClassLoader = Objects.requireNonNull(appClassLoader);
         this.appPackagePaths = Objects.requireNonNull(appPackagePaths);
@@ -173,20 +507,229 @@ public class ScriptModuleLoader {
         }
         addListeners(Objects.requireNonNull(listeners));
         this.compilationRootDir = compilationRootDir;
+        this.compilationExecutor = compilationExecutor;
+        this.compilationCache = compilationCache;
+        this.inMemoryCompilation = inMemoryCompilation;
+        this.lazyClassDefinition = lazyClassDefinition;
+        this.classVerificationExecutor = classVerificationExecutor;
+        this.apiAwareRelinking = apiAwareRelinking;
+        this.writeExecutor = writeExecutor != null ? writeExecutor : createDefaultWriteExecutor();
+    }
+
+    /**
+     * Create the executor which applies the submitted writes, unless one was configured.
+     * Its thread exits while there are no writes to apply.
+     */
+    private static Executor createDefaultWriteExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), DEFAULT_WRITE_THREAD_FACTORY);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
      * Add or update the existing {@link ScriptModule}s with the given script archives.
      * This method will convert the archives to modules and then compile + link them in to the
      * dependency graph. It will then recursively re-link any modules depending on the new modules.
+     * Dependents are recompiled, unless API aware relinking is enabled and the API of all of their
+     * updated dependencies is unchanged.
      * If this loader already contains an old version of the module, it will be unloaded on
      * successful compile of the new module.
      *
+     * Waits until the archives are loaded. If another update is being applied, the archives are
+     * batched with any other writes which are submitted in the meantime.
+     *
+     * @param candidateArchives archives to load or update
+     */
+    public void updateScriptArchives(Set<? extends ScriptArchive> candidateArchives)  {
+        Objects.requireNonNull(candidateArchives);
+        if (writeLock.isHeldByCurrentThread()) {
+            // called back by a listener of the update being applied
+            applyUpdate(candidateArchives);
+            return;
+        }
+        WriteOperation operation = new WriteOperation(candidateArchives, null);
+        pendingWrites.add(operation);
+        awaitWrite(operation.future);
+    }
+
+    /**
+     * Asynchronously add or update the existing {@link ScriptModule}s with the given script archives,
+     * see {@link #updateScriptArchives(Set)}. The update is only queued on the calling thread. It is
+     * applied on the write executor, or by the thread applying the current write, batched with any
+     * other queued updates.
+     *
      * @param candidateArchives archives to load or update
+     * @return future which completes once the archives are loaded, or rejected
      */
-    public synchronized void updateScriptArchives(Set<? extends ScriptArchive> candidateArchives)  {
+    public ListenableFuture<Void> submitScriptArchives(Set<? extends ScriptArchive> candidateArchives) {
         Objects.requireNonNull(candidateArchives);
-        long updateNumber = System.currentTimeMillis();
+        return submitWrite(new WriteOperation(candidateArchives, null));
+    }
+
+    /**
+     * Asynchronously remove a module from being served by this instance, see {@link #removeScriptModule(ModuleId)}.
+     * @param scriptModuleId module to remove
+     * @return future which completes once the module is removed
+     */
+    public ListenableFuture<Void> submitRemoval(ModuleId scriptModuleId) {
+        Objects.requireNonNull(scriptModuleId);
+        return submitWrite(new WriteOperation(null, scriptModuleId));
+    }
+
+    /**
+     * Queue a write, and have the write executor apply the pending writes unless another thread is already applying them.
+     */
+    protected ListenableFuture<Void> submitWrite(WriteOperation operation) {
+        pendingWrites.add(operation);
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                tryApplyPendingWrites();
+            }
+        });
+        return operation.future;
+    }
+
+    /**
+     * Wait for a submitted write to be applied, applying the pending writes on this thread once
+     * the writer releases the lock without having applied it.
+     */
+    protected void awaitWrite(ListenableFuture<Void> future) {
+        while (!future.isDone()) {
+            writeLock.lock();
+            try {
+                applyPendingWrites();
+            } finally {
+                writeLock.unlock();
+            }
+            tryApplyPendingWrites();
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private void tryApplyPendingWrites() {
+        // recheck after releasing the lock, writes queued just before it was released would be stranded otherwise
+        while (!pendingWrites.isEmpty() && writeLock.tryLock()) {
+            try {
+                applyPendingWrites();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the pending writes in submission order. Consecutive updates of distinct modules are
+     * applied as a single update. Must be called with the writeLock held.
+     */
+    protected void applyPendingWrites() {
+        WriteOperation operation = pendingWrites.poll();
+        while (operation != null) {
+            List<WriteOperation> batch = new ArrayList<WriteOperation>();
+            batch.add(operation);
+            Set<ScriptArchive> batchArchives = null;
+            if (operation.candidateArchives != null) {
+                batchArchives = new LinkedHashSet<ScriptArchive>(operation.candidateArchives);
+                Set<ModuleId> batchModuleIds = new HashSet<ModuleId>();
+                for (ScriptArchive scriptArchive : operation.candidateArchives) {
+                    batchModuleIds.add(scriptArchive.getModuleSpec().getModuleId());
+                }
+                operation = pendingWrites.poll();
+                while (operation != null && operation.candidateArchives != null &&
+                        addModuleIds(batchModuleIds, operation.candidateArchives)) {
+                    batchArchives.addAll(operation.candidateArchives);
+                    batch.add(operation);
+                    operation = pendingWrites.poll();
+                }
+            } else {
+                operation = pendingWrites.poll();
+            }
+            try {
+                if (batchArchives != null) {
+                    applyUpdate(batchArchives);
+                } else {
+                    applyRemoval(batch.get(0).removedModuleId);
+                }
+                for (WriteOperation appliedOperation : batch) {
+                    appliedOperation.future.set(null);
+                }
+            } catch (RuntimeException | Error e) {
+                logger.error("Exception applying module updates", e);
+                for (WriteOperation failedOperation : batch) {
+                    failedOperation.future.setException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the module ids of the given archives to the batch, unless the batch already updates one of them.
+     * Updates of the same module are applied one after the other, so that older revisions get rejected.
+     * @return true if the module ids were added
+     */
+    private static boolean addModuleIds(Set<ModuleId> batchModuleIds, Set<? extends ScriptArchive> candidateArchives) {
+        Set<ModuleId> moduleIds = new HashSet<ModuleId>();
+        for (ScriptArchive scriptArchive : candidateArchives) {
+            ModuleId moduleId = scriptArchive.getModuleSpec().getModuleId();
+            if (batchModuleIds.contains(moduleId) || !moduleIds.add(moduleId)) {
+                return false;
+            }
+        }
+        batchModuleIds.addAll(moduleIds);
+        return true;
+    }
+
+    /**
+     * Publish an immutable snapshot of the loaded modules to the readers. Must be called with the writeLock held.
+     */
+    protected void publishScriptModules() {
+        compactedScriptModules = Collections.unmodifiableMap(new HashMap<ModuleId, ScriptModule>(loadedScriptModules));
+        // snapshots which were published before keep their own committed modules
+        committedScriptModules = new ConcurrentHashMap<ModuleId, Entry<Integer, ScriptModule>>();
+        publishedScriptModules = compactedScriptModules;
+    }
+
+    /**
+     * Publish a snapshot which holds a newly committed module, without copying the other modules.
+     * The snapshot is compacted once the update is applied. Must be called with the writeLock held.
+     */
+    protected void publishScriptModule(ModuleId scriptModuleId, ScriptModule scriptModule) {
+        if (committedScriptModules.containsKey(scriptModuleId)) {
+            // committed twice since the last compaction, which the published snapshots must not see
+            publishScriptModules();
+            return;
+        }
+        int sequence = committedScriptModules.size();
+        committedScriptModules.put(scriptModuleId,
+            new AbstractMap.SimpleImmutableEntry<Integer, ScriptModule>(sequence, scriptModule));
+        publishedScriptModules = new ScriptModuleSnapshot(compactedScriptModules, committedScriptModules,
+            sequence + 1, loadedScriptModules.size());
+    }
+
+    /**
+     * Swap the published revision of a module into its handle, if there is one. Must be called with the
+     * writeLock held, after publishing the revision.
+     */
+    protected void updateHandle(ModuleId scriptModuleId, @Nullable ScriptModule scriptModule) {
+        ScriptModuleHandle handle = moduleHandles.get(scriptModuleId);
+        if (handle != null) {
+            handle.set(scriptModule);
+        }
+    }
+
+    /**
+     * Load the given archives, see {@link #updateScriptArchives(Set)}. Must be called with the writeLock held.
+     * @param candidateArchives archives to load or update
+     */
+    protected void applyUpdate(Set<? extends ScriptArchive> candidateArchives) {
+        // revisions must be unique, even for updates which are applied within the same millisecond
+        long updateNumber = Math.max(System.currentTimeMillis(), lastUpdateNumber + 1);
+        lastUpdateNumber = updateNumber;
 
         // map script module id to archive to be compiled
         Map<ModuleId, ScriptArchive> archivesToCompile = new HashMap<ModuleId, ScriptArchive>(candidateArchives.size()*2);
@@ -221,75 +764,53 @@ public class ScriptModuleLoader {
             archiveDependencies.put(scriptModuleId, scriptArchive.getModuleSpec().getModuleDependencies());
         }
 
+        // dependents which have to be recompiled because the API of one of their dependencies changed
+        Set<ModuleId> recompileRequired = new HashSet<ModuleId>();
+
         // create a dependency graph with the candidates swapped in in order to figure out the
         // order in which the candidates should be loaded
         DirectedGraph<ModuleId, DefaultEdge> candidateGraph = jbossModuleLoader.getModuleNameGraph();
         GraphUtils.swapVertices(candidateGraph, archiveDependencies);
 
         // iterate over the graph in reverse dependency order
-        Set<ModuleId> leaves = GraphUtils.getLeafVertices(candidateGraph);
-        while (!leaves.isEmpty()) {
+        TopologicalScheduler<ModuleId> scheduler = new TopologicalScheduler<ModuleId>(candidateGraph);
+        while (scheduler.hasReady()) {
+            Set<ModuleId> leaves = scheduler.pollReady();
+            List<ModuleUpdate> levelUpdates = new ArrayList<ModuleUpdate>(leaves.size());
             for (ModuleId scriptModuleId : leaves) {
                 ScriptArchive scriptArchive = archivesToCompile.get(scriptModuleId);
-                if (scriptArchive == null) {
-                    continue;
-                }
-                ModuleSpec moduleSpec;
-                ModuleIdentifier candidateRevisionId = updatedRevisionIdMap.get(scriptModuleId);
-                Path modulePath = createModulePath(candidateRevisionId);
-                final Path moduleCompilationRoot = compilationRootDir.resolve(modulePath);
-                FileUtils.deleteQuietly(moduleCompilationRoot.toFile());
-                try {
-                    Files.createDirectories(moduleCompilationRoot);
-                } catch (IOException ioe) {
-                    notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION, ioe);
+                if (scriptArchive != null) {
+                    ModuleUpdate moduleUpdate = new ModuleUpdate(scriptModuleId, scriptArchive, updatedRevisionIdMap.get(scriptModuleId));
+                    if (apiAwareRelinking && !candidateArchives.contains(scriptArchive) && !recompileRequired.contains(scriptModuleId)) {
+                        // a dependent whose dependencies kept their API
+                        moduleUpdate.relinkSource = compiledClasses.get(scriptModuleId);
+                    }
+                    levelUpdates.add(moduleUpdate);
                 }
+            }
 
-                try {
-                   moduleSpec = createModuleSpec(scriptArchive, candidateRevisionId, updatedRevisionIdMap, moduleCompilationRoot);
-                } catch (ModuleLoadException e) {
-                    logger.error("Exception loading archive " +
-                        scriptArchive.getModuleSpec().getModuleId(), e);
-                    notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION, e);
-                    continue;
+            // modules within the same level do not depend on each other, so they can be compiled
+            // concurrently. The results are always committed on this thread in iteration order.
+            boolean compileConcurrently = compilationExecutor != null && levelUpdates.size() > 1;
+            if (compileConcurrently) {
+                compileAndLinkModules(levelUpdates, updatedRevisionIdMap);
+            }
+            for (ModuleUpdate moduleUpdate : levelUpdates) {
+                if (!compileConcurrently) {
+                    compileAndLinkModule(moduleUpdate, updatedRevisionIdMap);
                 }
-
-                // load and compile the module
-                jbossModuleLoader.addModuleSpec(moduleSpec);
-                Module jbossModule = null;
-                try {
-                    jbossModule = jbossModuleLoader.loadModule(candidateRevisionId);
-                    compileModule(jbossModule, moduleCompilationRoot);
-
-                    // Now refresh the resource loaders for this module, and load the set of
-                    // compiled classes and populate into the module's local class cache.
-                    jbossModuleLoader.rescanModule(jbossModule);
-
-                    final Set<String> classesToLoad = new LinkedHashSet<String>();
-                    Files.walkFileTree(moduleCompilationRoot, new SimpleFileVisitor<Path>() {
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            String relativePath = moduleCompilationRoot.relativize(file).toString();
-                            if (relativePath.endsWith(".class")) {
-                                String className = relativePath.replaceAll(".class", "").replace("/", ".");
-                                classesToLoad.add(className);
-                            }
-                            return FileVisitResult.CONTINUE;
-                        };
-                    });
-                    for (String loadClass: classesToLoad) {
-                        Class<?> loadedClass = jbossModule.getClassLoader().loadClassLocal(loadClass, true);
-                        if (loadedClass == null)
-                            throw new ScriptCompilationException("Unable to load compiled class: " + loadClass);
-                    }
-                } catch (Exception e) {
-                    // rollback
-                    logger.error("Exception loading module " + candidateRevisionId, e);
-                    if (candidateArchives.contains(scriptArchive)) {
+                ModuleId scriptModuleId = moduleUpdate.scriptModuleId;
+                ScriptArchive scriptArchive = moduleUpdate.scriptArchive;
+                if (moduleUpdate.ioException != null) {
+                    notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION, moduleUpdate.ioException);
+                }
+                Module jbossModule = moduleUpdate.jbossModule;
+                if (jbossModule == null) {
+                    // rollback already happened in the compilation step
+                    if (moduleUpdate.rejectedReason == ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION ||
+                        candidateArchives.contains(scriptArchive)) {
                         // this spec came from a candidate archive. Send reject notification
-                        notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.COMPILE_FAILURE, e);
-                    }
-                    if (jbossModule != null) {
-                        jbossModuleLoader.unloadModule(jbossModule);
+                        notifyArchiveRejected(scriptArchive, moduleUpdate.rejectedReason, moduleUpdate.rejectedCause);
                     }
                     continue;
                 }
@@ -302,11 +823,31 @@ public class ScriptModuleLoader {
 
                 JBossScriptModule scriptModule = new JBossScriptModule(scriptModuleId, jbossModule, scriptArchive);
                 ScriptModule oldModule = loadedScriptModules.put(scriptModuleId, scriptModule);
+                moduleIdRegistry.intern(scriptModuleId);
+                CompiledClasses oldCompiledClasses = compiledClasses.put(scriptModuleId, moduleUpdate.compiledClasses);
+                if (moduleUpdate.relinked) {
+                    relinkedModuleCount.incrementAndGet();
+                }
+                // the classes re-exported by a recompiled dependent may have changed along with its dependencies
+                boolean apiChanged = recompileRequired.contains(scriptModuleId) || oldCompiledClasses == null ||
+                    oldCompiledClasses.apiFingerprint == null ||
+                    !oldCompiledClasses.apiFingerprint.equals(moduleUpdate.compiledClasses.apiFingerprint);
+                if (moduleUpdate.compilationKey != null) {
+                    compilationKeys.put(scriptModuleId, moduleUpdate.compilationKey);
+                } else {
+                    compilationKeys.remove(scriptModuleId);
+                }
+                // dependencies are already published, so the module can be published on its own
+                publishScriptModule(scriptModuleId, scriptModule);
+                updateHandle(scriptModuleId, scriptModule);
                 notifyModuleUpdate(scriptModule, oldModule);
 
                 // find dependents and add them to the to be compiled set
                 Set<ModuleId> dependents = GraphUtils.getIncomingVertices(candidateGraph, scriptModuleId);
                 for (ModuleId dependentScriptModuleId : dependents) {
+                    if (apiChanged) {
+                        recompileRequired.add(dependentScriptModuleId);
+                    }
                     if (!archivesToCompile.containsKey(dependentScriptModuleId)) {
                         ScriptModule dependentScriptModule = loadedScriptModules.get(dependentScriptModuleId);
                         if (dependentScriptModule != null) {
@@ -318,11 +859,351 @@ public class ScriptModuleLoader {
                 }
             }
 
-            GraphUtils.removeVertices(candidateGraph, leaves);
-            leaves = GraphUtils.getLeafVertices(candidateGraph);
+            scheduler.complete(leaves);
+        }
+
+        if (!committedScriptModules.isEmpty()) {
+            publishScriptModules();
+        }
+
+        // anything left over could not be ordered because of a dependency cycle
+        if (!scheduler.getBlockedVertices().isEmpty()) {
+            List<List<ModuleId>> cycles = scheduler.findCycles();
+            logger.error("Dependency cycles found between modules: " + cycles);
+            for (ModuleId scriptModuleId : scheduler.getBlockedVertices()) {
+                ScriptArchive scriptArchive = archivesToCompile.get(scriptModuleId);
+                if (scriptArchive != null && candidateArchives.contains(scriptArchive)) {
+                    notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.DEPENDENCY_CYCLE,
+                        new ScriptCompilationException("Module " + scriptModuleId + " is part of, or depends on, a dependency cycle: " + cycles));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compile a set of independent modules concurrently on the compilation executor,
+     * and wait for all of them to complete.
+     * @param moduleUpdates modules to compile. None of them may depend on another.
+     * @param moduleIdMap a map of loaded script module IDs to jboss module identifiers
+     */
+    protected void compileAndLinkModules(List<ModuleUpdate> moduleUpdates, final Map<ModuleId, ModuleIdentifier> moduleIdMap) {
+        List<Future<?>> futures = new ArrayList<Future<?>>(moduleUpdates.size());
+        for (final ModuleUpdate moduleUpdate : moduleUpdates) {
+            futures.add(compilationExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    compileAndLinkModule(moduleUpdate, moduleIdMap);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            // always wait for every task so that no compilation is still running once we start committing
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = Throwables.propagate(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Create, load and compile the JBoss module for a single candidate. This does not commit the module
+     * to the loader, nor does it notify any listeners; the outcome is recorded on the given {@link ModuleUpdate}.
+     * On failure, the partially loaded module is rolled back.
+     * @param moduleUpdate the candidate to compile
+     * @param moduleIdMap a map of loaded script module IDs to jboss module identifiers
+     */
+    protected void compileAndLinkModule(ModuleUpdate moduleUpdate, Map<ModuleId, ModuleIdentifier> moduleIdMap) {
+        ScriptArchive scriptArchive = moduleUpdate.scriptArchive;
+        ModuleIdentifier candidateRevisionId = moduleUpdate.revisionId;
+        Path modulePath = createModulePath(candidateRevisionId);
+        final Path moduleCompilationRoot = compilationRootDir.resolve(modulePath);
+        InMemoryResourceLoader inMemoryCompilationRoot = null;
+        if (inMemoryCompilation) {
+            inMemoryCompilationRoot = new InMemoryResourceLoader(modulePath.toString());
+        } else {
+            FileUtils.deleteQuietly(moduleCompilationRoot.toFile());
+            try {
+                Files.createDirectories(moduleCompilationRoot);
+            } catch (IOException ioe) {
+                moduleUpdate.ioException = ioe;
+            }
+        }
+
+        String compilationKey = null;
+        if (compilationCache != null) {
+            try {
+                compilationKey = compilationCache.computeKey(scriptArchive, appPackagePaths, compilationKeys);
+            } catch (IOException e) {
+                logger.warn("Unable to compute the compilation cache key for " + candidateRevisionId, e);
+            }
+        }
+        moduleUpdate.compilationKey = compilationKey;
+        boolean cacheable = compilationKey != null && compilationCache.isCacheable(scriptArchive);
+
+        ModuleSpec moduleSpec;
+        try {
+           moduleSpec = createModuleSpec(scriptArchive, candidateRevisionId, moduleIdMap, moduleCompilationRoot, inMemoryCompilationRoot);
+        } catch (ModuleLoadException e) {
+            logger.error("Exception loading archive " +
+                scriptArchive.getModuleSpec().getModuleId(), e);
+            moduleUpdate.reject(ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION, e);
+            return;
+        }
+
+        // load and compile the module
+        jbossModuleLoader.addModuleSpec(moduleSpec);
+        Module jbossModule = null;
+        try {
+            jbossModule = jbossModuleLoader.loadModule(candidateRevisionId);
+            ModuleClassLoader moduleClassLoader = jbossModule.getClassLoader();
+            if (moduleClassLoader instanceof JBossModuleClassLoader) {
+                ((JBossModuleClassLoader)moduleClassLoader).setLazyClassDefinition(lazyClassDefinition);
+            }
+            boolean restored = false;
+            if (cacheable) {
+                try {
+                    if (inMemoryCompilationRoot != null) {
+                        Map<String, byte[]> cachedResources = new HashMap<String, byte[]>();
+                        restored = compilationCache.restore(compilationKey, cachedResources);
+                        for (Entry<String, byte[]> cachedResource : cachedResources.entrySet()) {
+                            inMemoryCompilationRoot.addResource(cachedResource.getKey(), cachedResource.getValue());
+                        }
+                    } else {
+                        restored = compilationCache.restore(compilationKey, moduleCompilationRoot);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Unable to restore cached classes for " + candidateRevisionId + ". Recompiling.", e);
+                    if (inMemoryCompilationRoot == null) {
+                        FileUtils.cleanDirectory(moduleCompilationRoot.toFile());
+                    }
+                }
+            }
+            if (!restored && moduleUpdate.relinkSource != null) {
+                try {
+                    copyCompiledClasses(moduleUpdate.relinkSource, moduleCompilationRoot, inMemoryCompilationRoot);
+                    restored = true;
+                    moduleUpdate.relinked = true;
+                } catch (IOException e) {
+                    logger.warn("Unable to relink the classes of " + candidateRevisionId + ". Recompiling.", e);
+                    if (inMemoryCompilationRoot == null) {
+                        FileUtils.cleanDirectory(moduleCompilationRoot.toFile());
+                    }
+                }
+            }
+            if (!restored) {
+                compileModule(jbossModule, moduleCompilationRoot);
+            }
+
+            // Now refresh the resource loaders for this module, and load the set of
+            // compiled classes and populate into the module's local class cache.
+            jbossModuleLoader.rescanModule(jbossModule);
+
+            final Set<String> classesToLoad = new LinkedHashSet<String>();
+            if (inMemoryCompilationRoot != null) {
+                classesToLoad.addAll(inMemoryCompilationRoot.getClassNames());
+            } else {
+                Files.walkFileTree(moduleCompilationRoot, new SimpleFileVisitor<Path>() {
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        String relativePath = moduleCompilationRoot.relativize(file).toString();
+                        if (relativePath.endsWith(".class")) {
+                            String className = relativePath.replaceAll(".class", "").replace("/", ".");
+                            classesToLoad.add(className);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    };
+                });
+            }
+            if (lazyClassDefinition && moduleClassLoader instanceof JBossModuleClassLoader) {
+                // only check that the classes are visible to the module, they will be defined on first load
+                for (String lazyClass : classesToLoad) {
+                    if (moduleClassLoader.getResource(lazyClass.replace('.', '/') + ".class") == null)
+                        throw new ScriptCompilationException("Unable to find compiled class: " + lazyClass);
+                }
+                JBossModuleClassLoader jbossModuleClassLoader = (JBossModuleClassLoader)moduleClassLoader;
+                jbossModuleClassLoader.addLazyClassNames(classesToLoad);
+                if (classVerificationExecutor != null) {
+                    verifyLazyClasses(candidateRevisionId, jbossModuleClassLoader);
+                }
+            } else {
+                for (String loadClass: classesToLoad) {
+                    Class<?> loadedClass = moduleClassLoader.loadClassLocal(loadClass, true);
+                    if (loadedClass == null)
+                        throw new ScriptCompilationException("Unable to load compiled class: " + loadClass);
+                }
+            }
+            if (cacheable && (!restored || moduleUpdate.relinked)) {
+                try {
+                    if (inMemoryCompilationRoot != null) {
+                        compilationCache.store(compilationKey, inMemoryCompilationRoot.getResources());
+                    } else {
+                        compilationCache.store(compilationKey, moduleCompilationRoot);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Unable to cache compiled classes for " + candidateRevisionId, e);
+                }
+            }
+            String apiFingerprint = null;
+            if (moduleUpdate.relinked) {
+                apiFingerprint = moduleUpdate.relinkSource.apiFingerprint;
+            } else if (apiAwareRelinking) {
+                apiFingerprint = computeApiFingerprint(scriptArchive, classesToLoad, moduleCompilationRoot, inMemoryCompilationRoot);
+            }
+            moduleUpdate.compiledClasses = new CompiledClasses(inMemoryCompilationRoot == null ? moduleCompilationRoot : null,
+                inMemoryCompilationRoot, apiFingerprint);
+        } catch (Exception e) {
+            // rollback
+            logger.error("Exception loading module " + candidateRevisionId, e);
+            moduleUpdate.reject(ArchiveRejectedReason.COMPILE_FAILURE, e);
+            if (jbossModule != null) {
+                jbossModuleLoader.unloadModule(jbossModule);
+            }
+            return;
+        }
+        moduleUpdate.jbossModule = jbossModule;
+    }
+
+    /**
+     * Copy the compiled classes of a loaded module to the compilation root of its new revision.
+     * @param source the compiled classes of the loaded module
+     * @param moduleCompilationRoot the compilation directory of the new revision
+     * @param inMemoryCompilationRoot the in-memory compilation root of the new revision. If not null,
+     *        it is used instead of moduleCompilationRoot.
+     * @throws IOException if the classes could not be copied
+     */
+    protected void copyCompiledClasses(CompiledClasses source, Path moduleCompilationRoot,
+            @Nullable InMemoryResourceLoader inMemoryCompilationRoot) throws IOException {
+        Map<String, byte[]> resources = new HashMap<String, byte[]>();
+        if (source.inMemoryCompilationRoot != null) {
+            resources.putAll(source.inMemoryCompilationRoot.getResources());
+        } else if (inMemoryCompilationRoot == null) {
+            FileUtils.copyDirectory(source.compilationRoot.toFile(), moduleCompilationRoot.toFile());
+            return;
+        } else {
+            final Path sourceRoot = source.compilationRoot;
+            final Map<String, byte[]> sourceResources = resources;
+            Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    sourceResources.put(sourceRoot.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+                    return FileVisitResult.CONTINUE;
+                };
+            });
+        }
+        for (Entry<String, byte[]> resource : resources.entrySet()) {
+            if (inMemoryCompilationRoot != null) {
+                inMemoryCompilationRoot.addResource(resource.getKey(), resource.getValue());
+            } else {
+                Path resourcePath = moduleCompilationRoot.resolve(resource.getKey());
+                Files.createDirectories(resourcePath.getParent());
+                Files.write(resourcePath, resource.getValue());
+            }
         }
     }
 
+    /**
+     * Fingerprint the API which a compiled module exports to its dependents, see {@link ApiFingerprint}.
+     * @param scriptArchive the archive of the module
+     * @param classNames the names of the compiled classes of the module
+     * @param moduleCompilationRoot the compilation directory of the module
+     * @param inMemoryCompilationRoot the in-memory compilation root of the module. If not null,
+     *        it is used instead of moduleCompilationRoot.
+     * @return the fingerprint, or null if the API of the module can not be determined
+     */
+    @Nullable
+    protected String computeApiFingerprint(ScriptArchive scriptArchive, Set<String> classNames, Path moduleCompilationRoot,
+            @Nullable InMemoryResourceLoader inMemoryCompilationRoot) {
+        // classes which are loaded from the archive itself, rather than compiled, can't be fingerprinted
+        if (scriptArchive.getModuleSpec().getCompilerPluginIds().contains(BytecodeLoadingPlugin.PLUGIN_ID)) {
+            return null;
+        }
+        for (String entryName : scriptArchive.getArchiveEntryNames()) {
+            if (entryName.endsWith(".class")) {
+                return null;
+            }
+        }
+        PathFilter exportFilter = JBossModuleUtils.createExportFilter(scriptArchive.getModuleSpec().getModuleExportFilterPaths());
+        Map<String, byte[]> exportedClasses = new HashMap<String, byte[]>();
+        try {
+            for (String className : classNames) {
+                String classPath = className.replace('.', '/');
+                int packageEnd = classPath.lastIndexOf('/');
+                if (!exportFilter.accept(packageEnd > 0 ? classPath.substring(0, packageEnd) : "")) {
+                    continue;
+                }
+                byte[] classBytes;
+                if (inMemoryCompilationRoot != null) {
+                    classBytes = inMemoryCompilationRoot.getResources().get(classPath + ".class");
+                } else {
+                    classBytes = Files.readAllBytes(moduleCompilationRoot.resolve(classPath + ".class"));
+                }
+                if (classBytes == null) {
+                    return null;
+                }
+                exportedClasses.put(className, classBytes);
+            }
+            return ApiFingerprint.fingerprint(exportedClasses);
+        } catch (IOException e) {
+            logger.warn("Unable to fingerprint the API of " + scriptArchive.getModuleSpec().getModuleId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of dependent modules which were relinked rather than recompiled, because the API of
+     *         their updated dependencies didn't change
+     */
+    public long getRelinkedModuleCount() {
+        return relinkedModuleCount.get();
+    }
+
+    /**
+     * Verify the class files of the lazily defined classes of a module on the class verification executor.
+     * Classes which have already been defined by the time they are verified are skipped.
+     * @param revisionId the JBoss module identifier, for logging
+     * @param moduleClassLoader the classloader of the module
+     */
+    protected void verifyLazyClasses(final ModuleIdentifier revisionId, final JBossModuleClassLoader moduleClassLoader) {
+        final Set<String> classNames = new LinkedHashSet<String>(moduleClassLoader.getLazyClassNames());
+        classVerificationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String className : classNames) {
+                    if (!moduleClassLoader.getLazyClassNames().contains(className)) {
+                        continue;
+                    }
+                    try {
+                        URL classUrl = moduleClassLoader.getResource(className.replace('.', '/') + ".class");
+                        if (classUrl == null) {
+                            throw new ScriptCompilationException("Unable to find class file for " + className);
+                        }
+                        InputStream classStream = classUrl.openStream();
+                        try {
+                            ClassFileVerifier.verify(className, IOUtils.toByteArray(classStream));
+                        } finally {
+                            IOUtils.closeQuietly(classStream);
+                        }
+                    } catch (Exception e) {
+                        classVerificationFailureCount.incrementAndGet();
+                        logger.error("Verification failed for class " + className + " in module " + revisionId, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of lazily defined classes which failed background verification
+     */
+    public long getClassVerificationFailureCount() {
+        return classVerificationFailureCount.get();
+    }
+
     /**
      * Create a JBoss module spec for an about to be created script module.
      * @param archive the script archive being converted to a module.
@@ -335,6 +1216,24 @@ public class ScriptModuleLoader {
             ModuleIdentifier moduleId,
             Map<ModuleId, ModuleIdentifier> moduleIdMap,
             Path moduleCompilationRoot) throws ModuleLoadException {
+        return createModuleSpec(archive, moduleId, moduleIdMap, moduleCompilationRoot, null);
+    }
+
+    /**
+     * Create a JBoss module spec for an about to be created script module.
+     * @param archive the script archive being converted to a module.
+     * @param moduleId the JBoss module identifier.
+     * @param moduleIdMap a map of loaded script module IDs to jboss module identifiers
+     * @param moduleCompilationRoot a path to a directory that will hold compiled classes for this module.
+     * @param inMemoryCompilationRoot in-memory root that will hold compiled classes for this module.
+     *        If not null, it is used instead of moduleCompilationRoot.
+     * @throws ModuleLoadException
+     */
+    protected ModuleSpec createModuleSpec(ScriptArchive archive,
+            ModuleIdentifier moduleId,
+            Map<ModuleId, ModuleIdentifier> moduleIdMap,
+            Path moduleCompilationRoot,
+            @Nullable InMemoryResourceLoader inMemoryCompilationRoot) throws ModuleLoadException {
         ScriptModuleSpec archiveSpec = archive.getModuleSpec();
         // create the jboss module pre-cursor artifact
         ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(moduleId);
@@ -344,7 +1243,11 @@ public class ScriptModuleLoader {
         JBossModuleUtils.populateModuleSpecWithAppImports(moduleSpecBuilder,
                 appClassLoader, archiveSpec.getAppImportFilterPaths() == null ? appPackagePaths : archiveSpec.getAppImportFilterPaths());
         // Allow compiled class files to fetched as resources later on.
-        JBossModuleUtils.populateModuleSpecWithCompilationRoot(moduleSpecBuilder, moduleCompilationRoot);
+        if (inMemoryCompilationRoot != null) {
+            JBossModuleUtils.populateModuleSpecWithCompilationRoot(moduleSpecBuilder, archive, inMemoryCompilationRoot);
+        } else {
+            JBossModuleUtils.populateModuleSpecWithCompilationRoot(moduleSpecBuilder, moduleCompilationRoot);
+        }
 
         // Populate the modulespec with the scriptArchive dependencies
         for (ModuleId dependencyModuleId : archiveSpec.getModuleDependencies()) {
@@ -385,12 +1288,27 @@ public class ScriptModuleLoader {
     }
 
     /**
-     * Add a language plugin to this module
+     * Add a language plugin to this module. Waits for any update which is being applied, the compilers
+     * of the plugin are used by the modules which are compiled after it's added.
      * @param pluginSpec
      * @throws ModuleLoadException
      */
-    public synchronized void addCompilerPlugin(ScriptCompilerPluginSpec pluginSpec) throws ModuleLoadException  {
+    public void addCompilerPlugin(ScriptCompilerPluginSpec pluginSpec) throws ModuleLoadException  {
         Objects.requireNonNull(pluginSpec, "pluginSpec");
+        writeLock.lock();
+        try {
+            applyCompilerPlugin(pluginSpec);
+        } finally {
+            writeLock.unlock();
+        }
+        // apply the writes which were submitted while the plugin was being added
+        tryApplyPendingWrites();
+    }
+
+    /**
+     * Add a language plugin, see {@link #addCompilerPlugin(ScriptCompilerPluginSpec)}. Must be called with the writeLock held.
+     */
+    protected void applyCompilerPlugin(ScriptCompilerPluginSpec pluginSpec) throws ModuleLoadException  {
         ModuleIdentifier pluginModuleId = JBossModuleUtils.getPluginModuleId(pluginSpec);
         ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(pluginModuleId);
         Map<ModuleId, ModuleIdentifier> latestRevisionIds = jbossModuleLoader.getLatestRevisionIds();
@@ -426,18 +1344,43 @@ public class ScriptModuleLoader {
      * Remove a module from being served by this instance. Note that any
      * instances of the module cached outside of this module loader will remain
      * un-effected and will continue to operate.
+     * Waits for any update which is being applied.
+     */
+    public void removeScriptModule(ModuleId scriptModuleId) {
+        Objects.requireNonNull(scriptModuleId);
+        if (writeLock.isHeldByCurrentThread()) {
+            applyRemoval(scriptModuleId);
+            return;
+        }
+        WriteOperation operation = new WriteOperation(null, scriptModuleId);
+        pendingWrites.add(operation);
+        awaitWrite(operation.future);
+    }
+
+    /**
+     * Remove a module, see {@link #removeScriptModule(ModuleId)}. Must be called with the writeLock held.
      */
-    public synchronized void removeScriptModule(ModuleId scriptModuleId) {
+    protected void applyRemoval(ModuleId scriptModuleId) {
         jbossModuleLoader.unloadAllModuleRevision(scriptModuleId.toString());
         ScriptModule oldScriptModule = loadedScriptModules.remove(scriptModuleId);
+        moduleIdRegistry.remove(scriptModuleId);
+        compilationKeys.remove(scriptModuleId);
+        compiledClasses.remove(scriptModuleId);
         if (oldScriptModule != null) {
+            publishScriptModules();
+            updateHandle(scriptModuleId, null);
             notifyModuleUpdate(null, oldScriptModule);
         }
     }
 
+    /**
+     * Get the latest revision of a module. Ids of loaded modules are resolved without parsing them.
+     * @param scriptModuleId the string form of the module id, see {@link ModuleId#fromString(String)}
+     * @return the module, or null if it isn't loaded
+     */
     @Nullable
     public ScriptModule getScriptModule(String scriptModuleId) {
-        return loadedScriptModules.get(ModuleId.fromString(scriptModuleId));
+        return publishedScriptModules.get(moduleIdRegistry.resolve(scriptModuleId));
     }
 
     @Nullable
@@ -447,15 +1390,53 @@ public class ScriptModuleLoader {
 
     @Nullable
     public ScriptModule getScriptModule(ModuleId scriptModuleId) {
-        return loadedScriptModules.get(scriptModuleId);
+        return publishedScriptModules.get(scriptModuleId);
+    }
+
+    /**
+     * Get the handle to a module, which holds its latest revision. The module doesn't have to be loaded yet.
+     * @param scriptModuleId the string form of the module id, see {@link ModuleId#fromString(String)}
+     * @return handle to the module
+     */
+    public ScriptModuleHandle getScriptModuleHandle(String scriptModuleId) {
+        return getScriptModuleHandle(moduleIdRegistry.resolve(scriptModuleId));
+    }
+
+    /**
+     * Get the handle to a module, which holds its latest revision. The module doesn't have to be loaded yet.
+     * There is a single handle per module id for as long as it is referenced. The loader only holds it weakly.
+     * @param scriptModuleId the module id
+     * @return handle to the module
+     */
+    public ScriptModuleHandle getScriptModuleHandle(ModuleId scriptModuleId) {
+        Objects.requireNonNull(scriptModuleId, "scriptModuleId");
+        ScriptModuleHandle handle = moduleHandles.get(scriptModuleId);
+        if (handle != null) {
+            return handle;
+        }
+        ScriptModuleHandle newHandle = new ScriptModuleHandle(scriptModuleId);
+        ScriptModule scriptModule = publishedScriptModules.get(scriptModuleId);
+        newHandle.set(scriptModule);
+        handle = moduleHandles.putIfAbsent(scriptModuleId, newHandle);
+        if (handle != null) {
+            return handle;
+        }
+        // the writer may publish a revision before it sees the new handle, so retry until the
+        // handle holds the revision which is published after it was set
+        while (publishedScriptModules.get(scriptModuleId) != scriptModule) {
+            scriptModule = publishedScriptModules.get(scriptModuleId);
+            newHandle.set(scriptModule);
+        }
+        return newHandle;
     }
 
     /**
-     * Get a view of the loaded script modules
-     * @return immutable view of the Map that retains the script modules. Map ModuleId the loaded ScriptModule
+     * Get a snapshot of the loaded script modules. The snapshot is consistent: it never holds a module
+     * without the updated revisions of the modules it depends on.
+     * @return immutable snapshot of the script modules. Map ModuleId the loaded ScriptModule
      */
     public Map<ModuleId, ScriptModule> getAllScriptModules() {
-        return Collections.unmodifiableMap(loadedScriptModules);
+        return publishedScriptModules;
     }
 
     /**
@@ -23,7 +23,6 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -37,6 +36,8 @@ import com.netflix.nicobar.core.archive.GsonScriptModuleSpecSerializer;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+import com.netflix.nicobar.core.module.jboss.JBossScriptModule;
 import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
 import org.jboss.modules.ModuleIdentifier;
 
@@ -62,16 +63,10 @@ public class ScriptModuleUtils {
      * Find all of the classes in the module that are subclasses or equal to the target class
      * @param module module to search
      * @param targetClass target type to search for
-     * @return first instance that matches the given type
+     * @return immutable set of the classes that match the given type
      */
     public static Set<Class<?>> findAssignableClasses(ScriptModule module, Class<?> targetClass) {
-        Set<Class<?>> result = new LinkedHashSet<Class<?>>();
-        for (Class<?> candidateClass : module.getLoadedClasses()) {
-            if (targetClass.isAssignableFrom(candidateClass)) {
-                result.add(candidateClass);
-            }
-        }
-        return result;
+        return getCompleteClassIndex(module).findAssignableClasses(targetClass);
     }
 
     /**
@@ -82,12 +77,7 @@ public class ScriptModuleUtils {
      */
     @Nullable
     public static Class<?> findAssignableClass(ScriptModule module, Class<?> targetClass) {
-        for (Class<?> candidateClass : module.getLoadedClasses()) {
-            if (targetClass.isAssignableFrom(candidateClass)) {
-                return candidateClass;
-            }
-        }
-        return null;
+        return getCompleteClassIndex(module).findAssignableClass(targetClass);
     }
 
     /**
@@ -99,18 +89,48 @@ public class ScriptModuleUtils {
      */
     @Nullable
     public static Class<?> findClass(ScriptModule module, String className) {
-        Set<Class<?>> classes = module.getLoadedClasses();
-        Class<?> targetClass = null;
-        for (Class<?> clazz : classes) {
-            if (clazz.getName().equals(className)) {
-                targetClass = clazz;
-                break;
+        Class<?> targetClass = getClassIndex(module).findClass(className);
+
+        // fall back to defining the class, if it is lazily defined
+        JBossModuleClassLoader moduleClassLoader = module.getModuleClassLoader();
+        if (targetClass == null && moduleClassLoader != null && moduleClassLoader.getLazyClassNames().contains(className)) {
+            try {
+                targetClass = moduleClassLoader.loadClassLocal(className, true);
+            } catch (ClassNotFoundException e) {
+                return null;
             }
         }
-
         return targetClass;
     }
 
+    /**
+     * Get the class index of a module. {@link JBossScriptModule}s maintain their own index,
+     * for any other implementation an index of the currently loaded classes is built.
+     */
+    private static ScriptModuleClassIndex getClassIndex(ScriptModule module) {
+        if (module instanceof JBossScriptModule) {
+            return ((JBossScriptModule)module).getClassIndex();
+        }
+        Set<Class<?>> loadedClasses = module.getLoadedClasses();
+        return loadedClasses != null ? new ScriptModuleClassIndex(loadedClasses) : ScriptModuleClassIndex.empty();
+    }
+
+    /**
+     * Get the class index of a module covering all of its classes. Any lazily defined classes
+     * which haven't been loaded yet are defined first, since their types need to be inspected.
+     */
+    private static ScriptModuleClassIndex getCompleteClassIndex(ScriptModule module) {
+        JBossModuleClassLoader moduleClassLoader = module.getModuleClassLoader();
+        if (moduleClassLoader != null && !moduleClassLoader.getLazyClassNames().isEmpty()) {
+            try {
+                moduleClassLoader.materializeLazyClasses();
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Unable to load the classes of module " + module.getModuleId(), e);
+            }
+        }
+        return getClassIndex(module);
+    }
+
     /**
      * Convert a ScriptModule to its compiled equivalent ScriptArchive.
      * <p>
@@ -0,0 +1,166 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Schedules the vertices of a dependency graph in reverse dependency order, level by level
+ * (Kahn's algorithm). Edges point from a dependent to its dependency, so the leaves of the
+ * graph are scheduled first.
+ *
+ * The out-degree of every vertex is counted once up front. Completing a vertex decrements the
+ * counters of its dependents, and a dependent becomes ready when its counter drops to zero, so
+ * scheduling the whole graph costs O(V+E). Vertices which never become ready are part of, or
+ * depend on, a dependency cycle. See {@link #getBlockedVertices()} and {@link #findCycles()}.
+ *
+ * The graph must not be modified while it is being scheduled.
+ */
+public class TopologicalScheduler<V> {
+    private final DirectedGraph<V, DefaultEdge> graph;
+    /** number of dependencies of each unscheduled vertex which haven't been completed yet */
+    private final Map<V, Integer> pendingDependencyCounts;
+    private Set<V> ready = new LinkedHashSet<V>();
+
+    public TopologicalScheduler(DirectedGraph<V, DefaultEdge> graph) {
+        this.graph = Objects.requireNonNull(graph, "graph");
+        this.pendingDependencyCounts = new HashMap<V, Integer>(graph.vertexSet().size() * 2);
+        for (V vertex : graph.vertexSet()) {
+            int outDegree = graph.outDegreeOf(vertex);
+            if (outDegree == 0) {
+                ready.add(vertex);
+            } else {
+                pendingDependencyCounts.put(vertex, outDegree);
+            }
+        }
+    }
+
+    /**
+     * @return true if there are vertices which are ready to be scheduled
+     */
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * Remove and return all of the vertices which are ready to be scheduled. None of the returned
+     * vertices depend on each other. The dependents of the returned vertices become ready once
+     * their dependencies are passed to {@link #complete(Collection)}.
+     * @return mutable snapshot of the ready vertices, in the order in which they became ready.
+     */
+    public Set<V> pollReady() {
+        Set<V> level = ready;
+        ready = new LinkedHashSet<V>();
+        return level;
+    }
+
+    /**
+     * Mark the given scheduled vertices as completed, readying any dependents whose
+     * dependencies are now all completed.
+     * @param vertices vertices previously returned by {@link #pollReady()}
+     */
+    public void complete(Collection<V> vertices) {
+        for (V vertex : vertices) {
+            for (DefaultEdge edge : graph.incomingEdgesOf(vertex)) {
+                V dependent = graph.getEdgeSource(edge);
+                Integer pendingCount = pendingDependencyCounts.get(dependent);
+                if (pendingCount == null) {
+                    continue;
+                }
+                if (pendingCount == 1) {
+                    pendingDependencyCounts.remove(dependent);
+                    ready.add(dependent);
+                } else {
+                    pendingDependencyCounts.put(dependent, pendingCount - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Vertices which have not become ready yet. Once there are no more ready vertices and all
+     * scheduled vertices have been completed, these are the vertices which are part of, or
+     * depend on, a dependency cycle.
+     * @return immutable view of the blocked vertices
+     */
+    public Set<V> getBlockedVertices() {
+        return Collections.unmodifiableSet(pendingDependencyCounts.keySet());
+    }
+
+    /**
+     * Find the dependency cycles among the blocked vertices. Each cycle is reported once, as the
+     * path of vertices along the dependency edges, starting and ending with the same vertex.
+     * Only meaningful once scheduling is done, see {@link #getBlockedVertices()}.
+     * @return list of cycles. Empty if there are no blocked vertices.
+     */
+    public List<List<V>> findCycles() {
+        List<List<V>> cycles = new ArrayList<List<V>>();
+        Set<V> visited = new HashSet<V>();
+        for (V start : pendingDependencyCounts.keySet()) {
+            if (visited.contains(start)) {
+                continue;
+            }
+            // every blocked vertex has at least one blocked dependency, so following them
+            // must eventually revisit a vertex
+            Map<V, Integer> path = new LinkedHashMap<V, Integer>();
+            V vertex = start;
+            while (vertex != null && !visited.contains(vertex)) {
+                visited.add(vertex);
+                path.put(vertex, path.size());
+                vertex = findBlockedDependency(vertex);
+            }
+            if (vertex != null && path.containsKey(vertex)) {
+                // found a new cycle, which starts at the revisited vertex
+                List<V> cycle = new ArrayList<V>();
+                int cycleStart = path.get(vertex);
+                for (Entry<V, Integer> entry : path.entrySet()) {
+                    if (entry.getValue() >= cycleStart) {
+                        cycle.add(entry.getKey());
+                    }
+                }
+                cycle.add(vertex);
+                cycles.add(cycle);
+            }
+        }
+        return cycles;
+    }
+
+    private V findBlockedDependency(V vertex) {
+        for (DefaultEdge edge : graph.outgoingEdgesOf(vertex)) {
+            V dependency = graph.getEdgeTarget(edge);
+            if (pendingDependencyCounts.containsKey(dependency)) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module.jboss;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.jboss.modules.ClassSpec;
+import org.jboss.modules.PackageSpec;
+import org.jboss.modules.Resource;
+import org.jboss.modules.ResourceLoader;
+
+/**
+ * A {@link ResourceLoader} which serves resources from memory. Used as the compilation root
+ * of a module when compiling in memory: compilers add the class bytes they generate, and the
+ * module's classloader defines the classes from here on demand, exactly as it would from a
+ * directory of class files.
+ *
+ * Resources must be added before the module is rescanned (see {@link JBossModuleLoader#rescanModule})
+ * to be visible to the module.
+ */
+public class InMemoryResourceLoader implements ResourceLoader {
+    private static final String URL_PROTOCOL = "nicobar-memory";
+
+    private final String rootName;
+    private final Map<String, byte[]> resources = new ConcurrentHashMap<String, byte[]>();
+    private final URLStreamHandler urlHandler = new InMemoryURLStreamHandler();
+    private final CodeSource codeSource;
+
+    /**
+     * @param rootName a descriptive name for this root, usually derived from the module revision
+     */
+    public InMemoryResourceLoader(String rootName) {
+        this.rootName = Objects.requireNonNull(rootName, "rootName");
+        this.codeSource = new CodeSource(createUrl(""), (CodeSigner[])null);
+    }
+
+    /**
+     * Add a resource to this root, replacing any previous resource at the same path.
+     * @param path / separated path of the resource, relative to the root
+     * @param bytes contents of the resource
+     */
+    public void addResource(String path, byte[] bytes) {
+        Objects.requireNonNull(path, "path");
+        Objects.requireNonNull(bytes, "bytes");
+        resources.put(path, bytes);
+    }
+
+    /**
+     * Add the bytecode for a class to this root.
+     * @param className the class name in dotted form
+     * @param classBytes bytecode of the class
+     */
+    public void addClassBytes(String className, byte[] classBytes) {
+        Objects.requireNonNull(className, "className");
+        addResource(className.replace('.', '/') + ".class", classBytes);
+    }
+
+    /**
+     * @return the names, in dotted form, of all of the classes in this root
+     */
+    public Set<String> getClassNames() {
+        Set<String> classNames = new LinkedHashSet<String>();
+        for (String path : resources.keySet()) {
+            if (path.endsWith(".class")) {
+                classNames.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * @return immutable view of the resources in this root, keyed by path
+     */
+    public Map<String, byte[]> getResources() {
+        return Collections.unmodifiableMap(resources);
+    }
+
+    @Override
+    public String getRootName() {
+        return rootName;
+    }
+
+    @Override
+    @Nullable
+    public ClassSpec getClassSpec(String fileName) throws IOException {
+        byte[] bytes = resources.get(fileName);
+        if (bytes == null) {
+            return null;
+        }
+        ClassSpec classSpec = new ClassSpec();
+        classSpec.setBytes(bytes);
+        classSpec.setCodeSource(codeSource);
+        return classSpec;
+    }
+
+    @Override
+    public PackageSpec getPackageSpec(String name) throws IOException {
+        return new PackageSpec();
+    }
+
+    @Override
+    @Nullable
+    public Resource getResource(String name) {
+        final String path = name.startsWith("/") ? name.substring(1) : name;
+        final byte[] bytes = resources.get(path);
+        if (bytes == null) {
+            return null;
+        }
+        return new Resource() {
+            @Override
+            public String getName() {
+                return path;
+            }
+            @Override
+            public URL getURL() {
+                return createUrl(path);
+            }
+            @Override
+            public InputStream openStream() throws IOException {
+                return new ByteArrayInputStream(bytes);
+            }
+            @Override
+            public long getSize() {
+                return bytes.length;
+            }
+        };
+    }
+
+    @Override
+    @Nullable
+    public String getLibrary(String name) {
+        return null;
+    }
+
+    @Override
+    public Collection<String> getPaths() {
+        Set<String> paths = new LinkedHashSet<String>();
+        for (String path : resources.keySet()) {
+            int lastSlash = path.lastIndexOf('/');
+            paths.add(lastSlash == -1 ? "" : path.substring(0, lastSlash));
+        }
+        return paths;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private URL createUrl(String path) {
+        try {
+            return new URL(URL_PROTOCOL, null, -1, "/" + rootName + "/" + path, urlHandler);
+        } catch (MalformedURLException e) {
+            // should never happen, since we supply the handler
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serves the resources of this root for the URLs handed out by {@link #getResource(String)}
+     */
+    private class InMemoryURLStreamHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            String prefix = "/" + rootName + "/";
+            String file = url.getPath();
+            final byte[] bytes = file.startsWith(prefix) ? resources.get(file.substring(prefix.length())) : null;
+            if (bytes == null) {
+                throw new FileNotFoundException(url.toString());
+            }
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(bytes);
+                }
+                @Override
+                public int getContentLength() {
+                    return bytes.length;
+                }
+            };
+        }
+    }
+}
@@ -19,11 +19,15 @@ package com.netflix.nicobar.core.module.jboss;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleClassLoaderFactory;
@@ -41,6 +45,12 @@ import com.netflix.nicobar.core.archive.ScriptArchive;
 public class JBossModuleClassLoader extends ModuleClassLoader {
     private final ScriptArchive scriptArchive;
     private final Map<String, Class<?>> localClassCache;
+    private final InMemoryResourceLoader inMemoryCompilationRoot;
+    /** classes which are available to this classloader, but haven't been defined yet */
+    private final Set<String> lazyClassNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger declaredLazyClassCount = new AtomicInteger();
+    private final AtomicInteger materializedLazyClassCount = new AtomicInteger();
+    private volatile boolean lazyClassDefinition;
 
     static {
         try {
@@ -50,9 +60,19 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
     }
     
     public JBossModuleClassLoader(Configuration moduleClassLoaderContext, ScriptArchive scriptArchive) {
+        this(moduleClassLoaderContext, scriptArchive, null);
+    }
+
+    /**
+     * @param inMemoryCompilationRoot optional in-memory resource root that compilers should write
+     *        their output to, instead of the compilation directory.
+     */
+    public JBossModuleClassLoader(Configuration moduleClassLoaderContext, ScriptArchive scriptArchive,
+            @Nullable InMemoryResourceLoader inMemoryCompilationRoot) {
         super(moduleClassLoaderContext);
         this.scriptArchive = scriptArchive;
         this.localClassCache = new ConcurrentHashMap<String, Class<?>>(scriptArchive.getArchiveEntryNames().size());
+        this.inMemoryCompilationRoot = inMemoryCompilationRoot;
     }
 
     /**
@@ -61,12 +81,21 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
      * the {@link ModuleSpec}
      */
     protected static ModuleClassLoaderFactory createFactory(final ScriptArchive scriptArchive) {
+        return createFactory(scriptArchive, null);
+    }
+
+    /**
+     * Creates a ModuleClassLoaderFactory that produces a {@link JBossModuleClassLoader}
+     * which compiles into the given in-memory resource root.
+     */
+    protected static ModuleClassLoaderFactory createFactory(final ScriptArchive scriptArchive,
+            @Nullable final InMemoryResourceLoader inMemoryCompilationRoot) {
         return new ModuleClassLoaderFactory() {
             public ModuleClassLoader create(final Configuration configuration) {
                 return AccessController.doPrivileged(
                     new PrivilegedAction<JBossModuleClassLoader>() {
                         public JBossModuleClassLoader run() {
-                            return new JBossModuleClassLoader(configuration, scriptArchive);
+                            return new JBossModuleClassLoader(configuration, scriptArchive, inMemoryCompilationRoot);
                         }
                     });
             }
@@ -96,6 +125,62 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
         return newClass;
     }
 
+    /**
+     * Declare classes which are available to this classloader, but which should only be
+     * defined on first load. Declared classes which are already loaded are ignored.
+     * @param classNames class names in dotted form
+     */
+    public void addLazyClassNames(Collection<String> classNames) {
+        for (String className : classNames) {
+            if (!localClassCache.containsKey(className) && lazyClassNames.add(className)) {
+                declaredLazyClassCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Define all of the declared classes which haven't been loaded yet.
+     * @throws ClassNotFoundException if one of the declared classes could not be loaded
+     */
+    public void materializeLazyClasses() throws ClassNotFoundException {
+        for (String className : lazyClassNames) {
+            loadClassLocal(className, true);
+        }
+    }
+
+    /**
+     * @return the names of the declared classes which haven't been loaded yet.
+     */
+    public Set<String> getLazyClassNames() {
+        return Collections.unmodifiableSet(lazyClassNames);
+    }
+
+    /**
+     * @return the number of classes which were declared by {@link #addLazyClassNames(Collection)}
+     */
+    public int getDeclaredLazyClassCount() {
+        return declaredLazyClassCount.get();
+    }
+
+    /**
+     * @return the number of declared classes which have since been loaded
+     */
+    public int getMaterializedLazyClassCount() {
+        return materializedLazyClassCount.get();
+    }
+
+    /**
+     * Whether compilers should declare the classes they produce with {@link #addLazyClassNames(Collection)}
+     * instead of loading them eagerly.
+     */
+    public boolean isLazyClassDefinition() {
+        return lazyClassDefinition;
+    }
+
+    public void setLazyClassDefinition(boolean lazyClassDefinition) {
+        this.lazyClassDefinition = lazyClassDefinition;
+    }
+
     @Override
     public Class<?> loadClassLocal(String className, boolean resolve) throws ClassNotFoundException {
         Class<?> local = localClassCache.get(className);
@@ -103,8 +188,12 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
             return local;
         }
         local = super.loadClassLocal(className, resolve);
-        if (local != null)
+        if (local != null) {
             localClassCache.put(className, local);
+            if (lazyClassNames.remove(className)) {
+                materializedLazyClassCount.incrementAndGet();
+            }
+        }
         return local;
     }
 
@@ -112,6 +201,26 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
         return scriptArchive;
     }
 
+    /**
+     * @return the in-memory resource root that compilers should add their output to, or null
+     *         if the module is compiled to a directory.
+     */
+    @Nullable
+    public InMemoryResourceLoader getInMemoryCompilationRoot() {
+        return inMemoryCompilationRoot;
+    }
+
+    /**
+     * @return the number of classes which have been loaded by this classloader
+     */
+    public int getLoadedClassCount() {
+        return localClassCache.size();
+    }
+
+    /**
+     * @return the classes which have been loaded by this classloader. Does not include
+     *         lazily defined classes which haven't been loaded yet, see {@link #getLazyClassNames()}.
+     */
     public Set<Class<?>> getLoadedClasses() {
         return Collections.unmodifiableSet(new HashSet<Class<?>>(localClassCache.values()));
     }
@@ -18,14 +18,14 @@
 package com.netflix.nicobar.core.module.jboss;
 
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
-import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.annotation.Nullable;
@@ -61,37 +61,73 @@ import com.netflix.nicobar.core.module.GraphUtils;
  * @author Vasanth Asokan
  */
 public class JBossModuleLoader extends ModuleLoader {
-    /** Comparator used for the module revision sorting */
-    protected final static Comparator<ModuleIdentifier> MODULE_ID_COMPARATOR = new Comparator<ModuleIdentifier>() {
+    /** Module Spec repo.  Map of the revisionId to the Module specifications. */
+    protected final Map<ModuleIdentifier, ModuleSpec> moduleSpecs;
+
+    /** Revision registry. Map of the script module id to its revisions, sorted newest first */
+    protected final Map<ModuleId, NavigableMap<Revision, ModuleSpec>> moduleRevisions = new ConcurrentHashMap<ModuleId, NavigableMap<Revision, ModuleSpec>>();
+
+    /** Map of the script module id to its latest revisionId */
+    protected final Map<ModuleId, ModuleIdentifier> latestRevisionIds = new ConcurrentHashMap<ModuleId, ModuleIdentifier>();
+
+    /**
+     * Dependency graph of the latest revisions, maintained as revisions are added and removed.
+     * Guarded by the registry lock, along with the other registry structures.
+     */
+    protected final DirectedGraph<ModuleId, DefaultEdge> moduleNameGraph = new SimpleDirectedGraph<ModuleId, DefaultEdge>(DefaultEdge.class);
+
+    private final Object registryLock = new Object();
+
+    /**
+     * A revision of a module, with the revision number parsed out of the slot up front.
+     * Sorts in descending revision order.
+     */
+    protected static class Revision implements Comparable<Revision> {
+        private final ModuleIdentifier revisionId;
+        private final long revisionNumber;
+
+        protected Revision(ModuleIdentifier revisionId) {
+            this.revisionId = Objects.requireNonNull(revisionId, "revisionId");
+            this.revisionNumber = JBossModuleLoader.getRevisionNumber(revisionId);
+        }
+
+        public ModuleIdentifier getRevisionId() {
+            return revisionId;
+        }
+
+        public long getRevisionNumber() {
+            return revisionNumber;
+        }
+
         @Override
-        public int compare(ModuleIdentifier id1, ModuleIdentifier id2) {
-            if (id1 == null && id2 == null || id1 == id2) {
-                return 0;
-            } else if (id1 == null) {
-                return -1;
-            } else if (id2 == null) {
-                return 1;
-            }
-            int result = id1.getName().compareTo(id2.getName());
+        public int compareTo(Revision other) {
+            // descending order
+            int result = Long.compare(other.revisionNumber, revisionNumber);
             if (result == 0) {
-                // descending order
-                result = (int)(Long.parseLong(id2.getSlot()) - Long.parseLong(id1.getSlot()));
+                result = revisionId.getSlot().compareTo(other.revisionId.getSlot());
             }
             return result;
         }
-    };
 
-    /** Module Spec repo.  Map of the revisionId to the Module specifications. */
-    protected final SortedMap<ModuleIdentifier, ModuleSpec> moduleSpecs;
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Revision && revisionId.equals(((Revision)o).revisionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return revisionId.hashCode();
+        }
+    }
 
     /**
      * Construct a instance with an empty module spec repository.
      */
     public JBossModuleLoader() {
-        this(new ConcurrentSkipListMap<ModuleIdentifier, ModuleSpec>(MODULE_ID_COMPARATOR));
+        this(new ConcurrentHashMap<ModuleIdentifier, ModuleSpec>());
     }
 
-    private JBossModuleLoader(final SortedMap<ModuleIdentifier, ModuleSpec> moduleSpecs) {
+    private JBossModuleLoader(final Map<ModuleIdentifier, ModuleSpec> moduleSpecs) {
         // create a finder that is backed by the local module spec map
         super(new ModuleFinder[] { new ModuleFinder() {
             @Override
@@ -107,9 +143,7 @@ public class JBossModuleLoader extends ModuleLoader {
      */
     public void unloadAllModuleRevision(String scriptModuleId) {
         for (ModuleIdentifier revisionId : getAllRevisionIds(scriptModuleId)) {
-            if (revisionId.getName().equals(scriptModuleId)) {
-                unloadModule(revisionId);
-            }
+            unloadModule(revisionId);
         }
     }
     /**
@@ -132,7 +166,7 @@ public class JBossModuleLoader extends ModuleLoader {
     public void unloadModule(Module module) {
         Objects.requireNonNull(module, "module");
         unloadModuleLocal(module);
-        moduleSpecs.remove(module.getIdentifier());
+        removeModuleSpec(module.getIdentifier());
     }
 
     /**
@@ -158,11 +192,82 @@ public class JBossModuleLoader extends ModuleLoader {
     public boolean addModuleSpec(ModuleSpec moduleSpec) {
         Objects.requireNonNull(moduleSpec, "moduleSpec");
         ModuleIdentifier revisionId = moduleSpec.getModuleIdentifier();
-        boolean available = !moduleSpecs.containsKey(revisionId);
-        if (available) {
+        synchronized (registryLock) {
+            if (moduleSpecs.containsKey(revisionId)) {
+                return false;
+            }
             moduleSpecs.put(revisionId, moduleSpec);
+            ModuleId scriptModuleId = ModuleId.fromString(revisionId.getName());
+            NavigableMap<Revision, ModuleSpec> revisions = moduleRevisions.get(scriptModuleId);
+            if (revisions == null) {
+                revisions = new ConcurrentSkipListMap<Revision, ModuleSpec>();
+                moduleRevisions.put(scriptModuleId, revisions);
+            }
+            revisions.put(new Revision(revisionId), moduleSpec);
+            updateLatestRevision(scriptModuleId, revisions);
+            return true;
+        }
+    }
+
+    /**
+     * Remove a {@link ModuleSpec} from the internal repository.
+     * @param revisionId id of the spec to remove
+     */
+    protected void removeModuleSpec(ModuleIdentifier revisionId) {
+        synchronized (registryLock) {
+            if (moduleSpecs.remove(revisionId) == null) {
+                return;
+            }
+            ModuleId scriptModuleId = ModuleId.fromString(revisionId.getName());
+            NavigableMap<Revision, ModuleSpec> revisions = moduleRevisions.get(scriptModuleId);
+            if (revisions == null) {
+                return;
+            }
+            revisions.remove(new Revision(revisionId));
+            if (revisions.isEmpty()) {
+                moduleRevisions.remove(scriptModuleId);
+            }
+            updateLatestRevision(scriptModuleId, revisions);
+        }
+    }
+
+    /**
+     * Update the latest revision of a module, and its edges in the module name graph, after
+     * its revisions have changed. Must be called while holding the registry lock.
+     */
+    private void updateLatestRevision(ModuleId scriptModuleId, NavigableMap<Revision, ModuleSpec> revisions) {
+        Entry<Revision, ModuleSpec> latest = revisions.firstEntry();
+        ModuleIdentifier latestRevisionId = latest != null ? latest.getKey().getRevisionId() : null;
+        ModuleIdentifier previousRevisionId = latest != null ?
+            latestRevisionIds.put(scriptModuleId, latestRevisionId) : latestRevisionIds.remove(scriptModuleId);
+        if (latestRevisionId != null && latestRevisionId.equals(previousRevisionId)) {
+            return;
+        }
+
+        // drop the edges of the previous revision
+        if (moduleNameGraph.containsVertex(scriptModuleId)) {
+            Set<ModuleId> previousDependencies = GraphUtils.getOutgoingVertices(moduleNameGraph, scriptModuleId);
+            for (ModuleId dependency : previousDependencies) {
+                moduleNameGraph.removeEdge(scriptModuleId, dependency);
+                removeIfOrphaned(dependency);
+            }
+        }
+        if (latest != null) {
+            GraphUtils.addOutgoingEdges(moduleNameGraph, scriptModuleId, getDependencyScriptModuleIds(latest.getValue()));
+        } else {
+            removeIfOrphaned(scriptModuleId);
+        }
+    }
+
+    /**
+     * Remove a vertex from the module name graph if it no longer has any revisions,
+     * and no other module depends on it.
+     */
+    private void removeIfOrphaned(ModuleId scriptModuleId) {
+        if (!latestRevisionIds.containsKey(scriptModuleId) && moduleNameGraph.containsVertex(scriptModuleId)
+            && moduleNameGraph.inDegreeOf(scriptModuleId) == 0) {
+            moduleNameGraph.removeVertex(scriptModuleId);
         }
-        return available;
     }
 
     /**
@@ -183,17 +288,12 @@ public class JBossModuleLoader extends ModuleLoader {
      */
     public long getLatestRevisionNumber(ModuleId scriptModuleId) {
         Objects.requireNonNull(scriptModuleId, "scriptModuleId");
-        ModuleIdentifier searchIdentifier = JBossModuleUtils.createRevisionId(scriptModuleId, 0);
-        SortedMap<ModuleIdentifier,ModuleSpec> tailMap = moduleSpecs.tailMap(searchIdentifier);
-        long revisionNumber = -1;
-        for (ModuleIdentifier revisionId : tailMap.keySet()) {
-            if (revisionId.getName().equals(scriptModuleId.toString())) {
-                revisionNumber = getRevisionNumber(revisionId);
-            } else {
-                break;
-            }
+        NavigableMap<Revision, ModuleSpec> revisions = moduleRevisions.get(scriptModuleId);
+        if (revisions == null) {
+            return -1;
         }
-        return revisionNumber;
+        Entry<Revision, ModuleSpec> latest = revisions.firstEntry();
+        return latest != null ? latest.getKey().getRevisionNumber() : -1;
     }
 
     /**
@@ -212,14 +312,24 @@ public class JBossModuleLoader extends ModuleLoader {
 
     /**
      * Find all module revisionIds with a common name
+     * @return immutable snapshot of the revisionIds, newest first
      */
     public Set<ModuleIdentifier> getAllRevisionIds(String scriptModuleId) {
         Objects.requireNonNull(scriptModuleId, "scriptModuleId");
+        ModuleId moduleId;
+        try {
+            moduleId = ModuleId.fromString(scriptModuleId);
+        } catch (IllegalArgumentException e) {
+            // not a valid module id, so there can't be any revisions of it
+            return Collections.emptySet();
+        }
+        NavigableMap<Revision, ModuleSpec> revisions = moduleRevisions.get(moduleId);
+        if (revisions == null) {
+            return Collections.emptySet();
+        }
         Set<ModuleIdentifier> revisionIds = new LinkedHashSet<ModuleIdentifier>();
-        for (ModuleIdentifier revisionId : moduleSpecs.keySet()) {
-            if (revisionId.getName().equals(scriptModuleId)) {
-                revisionIds.add(revisionId);
-            }
+        for (Revision revision : revisions.keySet()) {
+            revisionIds.add(revision.getRevisionId());
         }
         return Collections.unmodifiableSet(revisionIds);
     }
@@ -229,14 +339,8 @@ public class JBossModuleLoader extends ModuleLoader {
      * @return immutable snapshot of the latest module revisionIds
      */
     public Map<ModuleId, ModuleIdentifier> getLatestRevisionIds() {
-        Map<ModuleId, ModuleIdentifier> nameToIdMap = new HashMap<ModuleId, ModuleIdentifier>(moduleSpecs.size()*2);
-        for (Entry<ModuleIdentifier, ModuleSpec> entry : moduleSpecs.entrySet()) {
-            ModuleId scriptModuleId = ModuleId.fromString(entry.getKey().getName());
-            ModuleSpec moduleSpec = entry.getValue();
-            nameToIdMap.put(scriptModuleId, moduleSpec.getModuleIdentifier());
-        }
         // reserve the ability to convert this to an immutable view later
-        return Collections.unmodifiableMap(nameToIdMap);
+        return Collections.unmodifiableMap(new HashMap<ModuleId, ModuleIdentifier>(latestRevisionIds));
     }
 
     /**
@@ -244,9 +348,9 @@ public class JBossModuleLoader extends ModuleLoader {
      * @return revision number or -1 if it couldn't be parsed
      */
     public static long getRevisionNumber(ModuleIdentifier revisionId) {
-        int revision;
+        long revision;
         try {
-            revision = Integer.parseInt(revisionId.getSlot());
+            revision = Long.parseLong(revisionId.getSlot());
         } catch (NumberFormatException nf) {
             revision = -1;
         }
@@ -254,19 +358,14 @@ public class JBossModuleLoader extends ModuleLoader {
     }
 
     /**
-     * Construct the Module dependency graph of a module loader where each vertex is the module name
+     * Get the Module dependency graph of a module loader where each vertex is the module name.
+     * The graph is maintained as modules are added and removed, so this only costs a copy.
      * @return a mutable snapshot of the underlying dependency
      */
     public DirectedGraph<ModuleId, DefaultEdge> getModuleNameGraph() {
         SimpleDirectedGraph<ModuleId, DefaultEdge> graph = new SimpleDirectedGraph<ModuleId, DefaultEdge>(DefaultEdge.class);
-        Map<ModuleId, ModuleIdentifier> moduleIdentifiers = getLatestRevisionIds();
-        GraphUtils.addAllVertices(graph, moduleIdentifiers.keySet());
-        for (Entry<ModuleId, ModuleIdentifier> entry : moduleIdentifiers.entrySet()) {
-            ModuleId scriptModuleId = entry.getKey();
-            ModuleIdentifier revisionID = entry.getValue();
-            ModuleSpec moduleSpec = moduleSpecs.get(revisionID);
-            Set<ModuleId> dependencyNames = getDependencyScriptModuleIds(moduleSpec);
-            GraphUtils.addOutgoingEdges(graph, scriptModuleId, dependencyNames);
+        synchronized (registryLock) {
+            GraphUtils.copyGraph(moduleNameGraph, graph);
         }
         return graph;
     }
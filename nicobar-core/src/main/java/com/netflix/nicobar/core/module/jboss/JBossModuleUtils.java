@@ -172,6 +172,16 @@ public class JBossModuleUtils {
         moduleSpecBuilder.addDependency(DependencySpec.createModuleDependencySpec(importFilters, dependencyExportFilters, null, dependentModuleIdentifier, false));
     }
 
+    /**
+     * Create the filter of the packages a module exports to the modules which depend on it,
+     * matching the filter used to link them.
+     * @param exportFilterPaths the export filter paths of the module. null to export all packages.
+     * @return filter which accepts / separated package paths
+     */
+    public static PathFilter createExportFilter(@Nullable Set<String> exportFilterPaths) {
+        return buildFilters(exportFilterPaths, false);
+    }
+
     /**
      * Populates a builder with a {@link ResourceLoaderSpec} to a filesystem resource root.
      * {@link ScriptArchive}
@@ -185,6 +195,23 @@ public class JBossModuleUtils {
         moduleSpecBuilder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(resourceLoader));
     }
 
+    /**
+     * Populates a builder with an in-memory compilation resource root. The module's classloader
+     * is set up so that compilers add their output to the given root rather than to a directory.
+     * Must be called after {@link #populateModuleSpecWithResources(ModuleSpec.Builder, ScriptArchive)}.
+     * @param moduleSpecBuilder builder to populate
+     * @param scriptArchive {@link ScriptArchive} being compiled
+     * @param compilationRoot the in-memory compilation resource root
+     */
+    public static void populateModuleSpecWithCompilationRoot(ModuleSpec.Builder moduleSpecBuilder, ScriptArchive scriptArchive,
+            InMemoryResourceLoader compilationRoot) {
+        Objects.requireNonNull(moduleSpecBuilder, "moduleSpecBuilder");
+        Objects.requireNonNull(scriptArchive, "scriptArchive");
+        Objects.requireNonNull(compilationRoot, "compilationRoot");
+        moduleSpecBuilder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(compilationRoot));
+        moduleSpecBuilder.setModuleClassLoaderFactory(JBossModuleClassLoader.createFactory(scriptArchive, compilationRoot));
+    }
+
     /**
      * Populates a {@link ModuleSpec} with a dependency on application runtime packages
      * specified as a set of package paths, loaded within the given classloader. This is the
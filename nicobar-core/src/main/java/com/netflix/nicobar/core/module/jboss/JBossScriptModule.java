@@ -27,6 +27,7 @@ import org.jboss.modules.Module;
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleClassIndex;
 
 /**
  * Encapsulates a the compiled classes and the resources in a {@link ScriptArchive}
@@ -38,12 +39,14 @@ public class JBossScriptModule implements ScriptModule {
     private final Module jbossModule;
     private final long createTime;
     private final ScriptArchive sourceArchive;
+    private volatile ScriptModuleClassIndex classIndex;
 
     public JBossScriptModule(ModuleId moduleId, Module jbossModule, ScriptArchive sourceArchive) {
         this.moduleId = Objects.requireNonNull(moduleId, "moduleId");
         this.jbossModule =  Objects.requireNonNull(jbossModule, "jbossModule");
         this.createTime = sourceArchive.getCreateTime();
         this.sourceArchive = Objects.requireNonNull(sourceArchive, "sourceArchive");
+        this.classIndex = new ScriptModuleClassIndex(getModuleClassLoader().getLoadedClasses());
     }
 
     /**
@@ -59,7 +62,23 @@ public class JBossScriptModule implements ScriptModule {
      */
     @Override
     public Set<Class<?>> getLoadedClasses() {
-        return getModuleClassLoader().getLoadedClasses();
+        return getClassIndex().getClasses();
+    }
+
+    /**
+     * Get the index of the classes of this module. The index is built when the module is created,
+     * and only rebuilt if more classes have been loaded into the module's classloader since, as
+     * happens when classes are defined lazily.
+     * @return immutable index of the loaded classes
+     */
+    public ScriptModuleClassIndex getClassIndex() {
+        ScriptModuleClassIndex index = classIndex;
+        JBossModuleClassLoader moduleClassLoader = getModuleClassLoader();
+        if (index.size() != moduleClassLoader.getLoadedClassCount()) {
+            index = new ScriptModuleClassIndex(moduleClassLoader.getLoadedClasses());
+            classIndex = index;
+        }
+        return index;
     }
 
     @Override
@@ -0,0 +1,302 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Tracks the last update times of the archives stored as the entries of a root directory, for
+ * {@link ArchiveRepository} implementations which keep one file or directory per archive.
+ *
+ * Without watching, every request for the update times scans the whole root directory.
+ * When watching, the update times are kept in memory and updated incrementally from the events
+ * of a {@link WatchService} on the root directory, which are processed on a daemon thread.
+ * Change listeners are notified after every batch of events. The root directory is still
+ * rescanned at a fixed interval, after the watch service overflows, or if it stops working,
+ * since some file systems, like NFS, don't report changes made by other hosts.
+ */
+public class ArchiveDirectoryWatcher implements Closeable {
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveDirectoryWatcher.class);
+
+    /**
+     * Maps the entries of the root directory to the archives they contain
+     */
+    public interface ModuleIdResolver {
+        /**
+         * @param entry path of an entry of the root directory, which may not exist anymore
+         * @return the id of the module stored in the entry, or null if the entry isn't an archive
+         */
+        @Nullable
+        ModuleId getModuleId(Path entry);
+    }
+
+    private final Path rootDir;
+    private final DirectoryStream.Filter<Path> entryFilter;
+    private final ModuleIdResolver moduleIdResolver;
+    private final boolean watchForChanges;
+    private final long fullRescanIntervalMillis;
+    private final CopyOnWriteArrayList<Runnable> changeListeners = new CopyOnWriteArrayList<Runnable>();
+
+    /** guarded by this */
+    private final Map<ModuleId, Long> updateTimes = new HashMap<ModuleId, Long>();
+    /** guarded by this */
+    private long lastFullScanTime;
+    /** guarded by this */
+    private boolean rescanRequired = true;
+    private volatile WatchService watchService;
+
+    /**
+     * @param rootDir directory containing the archives
+     * @param entryFilter filter which accepts the entries of the root directory that contain archives
+     * @param moduleIdResolver resolves the module ids of the archives
+     * @param watchForChanges whether to watch the root directory for changes, or to scan it on every request
+     * @param fullRescanIntervalMillis when watching, the interval at which the root directory is rescanned anyway
+     */
+    public ArchiveDirectoryWatcher(Path rootDir, DirectoryStream.Filter<Path> entryFilter, ModuleIdResolver moduleIdResolver,
+        boolean watchForChanges, long fullRescanIntervalMillis) {
+        this.rootDir = Objects.requireNonNull(rootDir, "rootDir");
+        this.entryFilter = Objects.requireNonNull(entryFilter, "entryFilter");
+        this.moduleIdResolver = Objects.requireNonNull(moduleIdResolver, "moduleIdResolver");
+        this.watchForChanges = watchForChanges;
+        this.fullRescanIntervalMillis = fullRescanIntervalMillis;
+    }
+
+    /**
+     * Start watching the root directory, if enabled. Falls back to scanning the root directory
+     * on every request if the watch service can't be started.
+     */
+    public void start() {
+        if (!watchForChanges || watchService != null) {
+            return;
+        }
+        try {
+            WatchService newWatchService = rootDir.getFileSystem().newWatchService();
+            rootDir.register(newWatchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchService = newWatchService;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Unable to watch " + rootDir + " for changes. Falling back to full scans.", e);
+            return;
+        }
+        Thread watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, ArchiveDirectoryWatcher.class.getSimpleName() + "-" + rootDir.getFileName());
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * @return true if the root directory is being watched for changes
+     */
+    public boolean isWatching() {
+        return watchService != null;
+    }
+
+    /**
+     * Register a listener which is notified after the watched root directory has changed.
+     * Listeners are invoked on the watcher thread, and must not block.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Get the last update times of all of the archives in the root directory.
+     * @return map of moduleId to last update time
+     */
+    public synchronized Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+        if (!isWatching()) {
+            return scan();
+        }
+        long now = System.currentTimeMillis();
+        if (rescanRequired || now - lastFullScanTime >= fullRescanIntervalMillis) {
+            Map<ModuleId, Long> scannedUpdateTimes = scan();
+            updateTimes.clear();
+            updateTimes.putAll(scannedUpdateTimes);
+            lastFullScanTime = now;
+            rescanRequired = false;
+        }
+        return new LinkedHashMap<ModuleId, Long>(updateTimes);
+    }
+
+    /**
+     * Update the tracked update time of a root directory entry, after the repository changed it.
+     * @param entry path of the root directory entry
+     */
+    public synchronized void refresh(Path entry) {
+        ModuleId moduleId = moduleIdResolver.getModuleId(entry);
+        if (moduleId == null || !isWatching()) {
+            return;
+        }
+        try {
+            if (Files.exists(entry) && entryFilter.accept(entry)) {
+                updateTimes.put(moduleId, Files.getLastModifiedTime(entry).toMillis());
+            } else {
+                updateTimes.remove(moduleId);
+            }
+        } catch (NoSuchFileException e) {
+            updateTimes.remove(moduleId);
+        } catch (IOException e) {
+            logger.warn("Unable to refresh " + entry + ". Rescanning " + rootDir, e);
+            rescanRequired = true;
+        }
+    }
+
+    /**
+     * Move a complete archive into the root directory, replacing the existing entry if there is one.
+     * Directories can't be replaced atomically, so the existing entry is first moved aside to a hidden
+     * name. Scans and change events are held off until the new entry is in place, so they never
+     * observe the archive missing.
+     * @param source the complete archive, in the root directory under a name which is ignored by the
+     *        {@link ModuleIdResolver}. The replaced entry is moved aside under the same name, with a suffix.
+     * @param entry the root directory entry to move it to
+     */
+    public void replaceEntry(Path source, Path entry) throws IOException {
+        Path replacedEntry = null;
+        synchronized (this) {
+            if (Files.exists(entry)) {
+                replacedEntry = source.resolveSibling(source.getFileName() + ".replaced");
+                move(entry, replacedEntry);
+            }
+            try {
+                move(source, entry);
+            } catch (IOException e) {
+                if (replacedEntry != null) {
+                    // put the existing entry back
+                    move(replacedEntry, entry);
+                }
+                throw e;
+            }
+            refresh(entry);
+        }
+        if (replacedEntry != null) {
+            FileUtils.deleteQuietly(replacedEntry.toFile());
+        }
+    }
+
+    /**
+     * Stop watching the root directory
+     */
+    @Override
+    public void close() throws IOException {
+        WatchService currentWatchService = watchService;
+        watchService = null;
+        if (currentWatchService != null) {
+            currentWatchService.close();
+        }
+    }
+
+    protected Map<ModuleId, Long> scan() throws IOException {
+        Map<ModuleId, Long> scannedUpdateTimes = new LinkedHashMap<ModuleId, Long>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(rootDir, entryFilter)) {
+            for (Path entry : entries) {
+                ModuleId moduleId = moduleIdResolver.getModuleId(entry);
+                if (moduleId == null) {
+                    continue;
+                }
+                try {
+                    scannedUpdateTimes.put(moduleId, Files.getLastModifiedTime(entry).toMillis());
+                } catch (NoSuchFileException e) {
+                    // deleted while scanning
+                    continue;
+                }
+            }
+        }
+        return scannedUpdateTimes;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    private void processEvents() {
+        WatchService currentWatchService = watchService;
+        while (currentWatchService != null) {
+            WatchKey watchKey;
+            try {
+                watchKey = currentWatchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    synchronized (this) {
+                        rescanRequired = true;
+                    }
+                } else {
+                    refresh(rootDir.resolve((Path)event.context()));
+                }
+            }
+            if (!watchKey.reset()) {
+                // the root directory is gone or inaccessible
+                logger.warn("Stopped watching " + rootDir + ". Falling back to full scans.");
+                try {
+                    close();
+                } catch (IOException e) {
+                    logger.warn("Unable to close the watch service of " + rootDir, e);
+                }
+            }
+            for (Runnable listener : changeListeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    logger.error("Change listener failed for " + rootDir, e);
+                }
+            }
+            currentWatchService = watchService;
+        }
+    }
+}
@@ -18,33 +18,64 @@
 package com.netflix.nicobar.core.persistence;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.execution.LatencyHistogram;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-
 /**
  * Poller which periodically scans a list of {@link ArchiveRepository} for updates and publishes
  * them to a {@link ScriptModuleLoader}
  *
+ * Every repository is polled on its own schedule, and fetched on the fetch thread pool, so that a
+ * slow or unavailable repository doesn't delay the polling of the others. A poll which takes longer
+ * than the poll timeout is abandoned, and a repository which keeps failing is polled exponentially
+ * less often, up to the max backoff. The changes fetched from all of the repositories are
+ * published to the module loader by a single update thread. Changes which arrive while the module
+ * loader is busy are coalesced, so that only the latest revision of each module is loaded.
+ *
+ * With an update quiet period, the update thread also waits until no changes have arrived for the
+ * quiet period (or until the oldest change has waited for the max update delay) before publishing,
+ * so that a burst of changes, such as a chain of dependent modules being deployed, is compiled in a
+ * single update rather than recompiling the dependents once per change.
+ *
+ * With an active poll interval, a repository is polled at the active poll interval right after a
+ * change is found, and the interval is doubled after every poll which finds no changes, until it
+ * is back to the poll interval of the repository. Every delay between polls is randomized by the
+ * poll jitter, so that a fleet of instances doesn't poll the same repository in lockstep. The
+ * effective poll intervals and the latencies of the polls are reported by {@link #getPollStatistics}.
+ *
  * @author James Kojo
  * @author Vasanth Asokan
  */
@@ -52,6 +83,13 @@ public class ArchiveRepositoryPoller {
     public static class Builder {
         protected final ScriptModuleLoader moduleLoader;
         protected ScheduledExecutorService pollerThreadPool;
+        protected ExecutorService fetchThreadPool;
+        protected long pollTimeoutMillis = DEFAULT_POLL_TIMEOUT_MILLIS;
+        protected long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+        protected long updateQuietPeriodMillis;
+        protected long maxUpdateDelayMillis = DEFAULT_MAX_UPDATE_DELAY_MILLIS;
+        protected long activePollIntervalMillis;
+        protected double pollJitter = DEFAULT_POLL_JITTER;
 
         public Builder(ScriptModuleLoader moduleLoader) {
             this.moduleLoader = moduleLoader;
@@ -63,17 +101,101 @@ public class ArchiveRepositoryPoller {
             return this;
         }
 
+        /**
+         * Override the default pool which the repositories are fetched on. The pool should be able to
+         * fetch every repository concurrently, otherwise slow repositories will delay the others.
+         */
+        public Builder setFetchThreadPool(ExecutorService fetchThreadPool) {
+            this.fetchThreadPool = fetchThreadPool;
+            return this;
+        }
+
+        /** Set how long a single poll of a repository may take before it is abandoned and counted as a failure */
+        public Builder setPollTimeout(long pollTimeout, TimeUnit timeUnit) {
+            if (pollTimeout <= 0) {
+                throw new IllegalArgumentException("invalid pollTimeout " + pollTimeout);
+            }
+            this.pollTimeoutMillis = timeUnit.toMillis(pollTimeout);
+            return this;
+        }
+
+        /** Set the longest delay between the polls of a repository which keeps failing */
+        public Builder setMaxBackoff(long maxBackoff, TimeUnit timeUnit) {
+            if (maxBackoff <= 0) {
+                throw new IllegalArgumentException("invalid maxBackoff " + maxBackoff);
+            }
+            this.maxBackoffMillis = timeUnit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Set how long the update thread waits for more changes before publishing them to the module loader.
+         * Disabled by default.
+         */
+        public Builder setUpdateQuietPeriod(long quietPeriod, TimeUnit timeUnit) {
+            if (quietPeriod < 0) {
+                throw new IllegalArgumentException("invalid quietPeriod " + quietPeriod);
+            }
+            this.updateQuietPeriodMillis = timeUnit.toMillis(quietPeriod);
+            return this;
+        }
+
+        /** Set the longest time a change may wait for the update quiet period before it is published */
+        public Builder setMaxUpdateDelay(long maxUpdateDelay, TimeUnit timeUnit) {
+            if (maxUpdateDelay <= 0) {
+                throw new IllegalArgumentException("invalid maxUpdateDelay " + maxUpdateDelay);
+            }
+            this.maxUpdateDelayMillis = timeUnit.toMillis(maxUpdateDelay);
+            return this;
+        }
+
+        /**
+         * Set the poll interval used right after a change is found in a repository. Repositories which
+         * don't change slow back down to their own poll interval. Disabled by default.
+         */
+        public Builder setActivePollInterval(long activePollInterval, TimeUnit timeUnit) {
+            if (activePollInterval < 0) {
+                throw new IllegalArgumentException("invalid activePollInterval " + activePollInterval);
+            }
+            this.activePollIntervalMillis = timeUnit.toMillis(activePollInterval);
+            return this;
+        }
+
+        /**
+         * Set the fraction by which the delays between polls are randomly lengthened or shortened,
+         * between 0 (no jitter) and 1.
+         */
+        public Builder setPollJitter(double pollJitter) {
+            if (pollJitter < 0 || pollJitter > 1) {
+                throw new IllegalArgumentException("invalid pollJitter " + pollJitter);
+            }
+            this.pollJitter = pollJitter;
+            return this;
+        }
+
         public ArchiveRepositoryPoller build() {
             ScheduledExecutorService buildPollerThreadPool = pollerThreadPool;
             if (buildPollerThreadPool == null ) {
                 buildPollerThreadPool = Executors.newSingleThreadScheduledExecutor(DEFAULT_POLLER_THREAD_FACTORY);
             }
-            return new ArchiveRepositoryPoller(buildPollerThreadPool, moduleLoader);
+            ExecutorService buildFetchThreadPool = fetchThreadPool;
+            if (buildFetchThreadPool == null) {
+                buildFetchThreadPool = Executors.newCachedThreadPool(DEFAULT_FETCH_THREAD_FACTORY);
+            }
+            return new ArchiveRepositoryPoller(buildPollerThreadPool, buildFetchThreadPool,
+                Executors.newSingleThreadExecutor(DEFAULT_UPDATE_THREAD_FACTORY), moduleLoader,
+                pollTimeoutMillis, maxBackoffMillis, updateQuietPeriodMillis, maxUpdateDelayMillis,
+                activePollIntervalMillis, pollJitter);
         }
     }
 
     private final static Logger logger = LoggerFactory.getLogger(ArchiveRepositoryPoller.class);
 
+    public final static long DEFAULT_POLL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    public final static long DEFAULT_MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public final static long DEFAULT_MAX_UPDATE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public final static double DEFAULT_POLL_JITTER = 0.1;
+
     /** Thread factory used for the default poller thread pool */
     private final static ThreadFactory DEFAULT_POLLER_THREAD_FACTORY = new ThreadFactory() {
         @Override
@@ -83,28 +205,129 @@ public class ArchiveRepositoryPoller {
              return thread;
         }
     };
+
+    /** Thread factory used for the default fetch thread pool */
+    private final static ThreadFactory DEFAULT_FETCH_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, ArchiveRepositoryPoller.class.getSimpleName() + "-" + "FetchThread-" + threadCount.incrementAndGet());
+             thread.setDaemon(true);
+             return thread;
+        }
+    };
+
+    /** Thread factory used for the thread which publishes the updates to the module loader */
+    private final static ThreadFactory DEFAULT_UPDATE_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, ArchiveRepositoryPoller.class.getSimpleName() + "-" + "UpdateThread");
+             thread.setDaemon(true);
+             return thread;
+        }
+    };
+
     /** used for book-keeping  of repositories that are being polled */
     protected static class RepositoryPollerContext {
-        /** Map of moduleId to last known update time of the archive */
+        /** Map of moduleId to last known update time of the archive. Guarded by the fetchLock */
         protected  final Map<ModuleId, Long> lastUpdateTimes = new HashMap<ModuleId, Long>();
+        /** held while the repository is being fetched, so that fetches of the same repository never overlap */
+        protected final ReentrantLock fetchLock = new ReentrantLock();
+        /** released once the first poll has been published, or has failed */
+        protected final CountDownLatch initialPollLatch = new CountDownLatch(1);
+        protected final long pollIntervalMillis;
+        /** interval used right after a change is found */
+        protected final long activePollIntervalMillis;
+        protected final LatencyHistogram pollLatencies = new LatencyHistogram();
+        protected final AtomicLong pollCount = new AtomicLong();
+        protected final AtomicLong failureCount = new AtomicLong();
+        /** delay before the next scheduled poll, including the backoff and jitter */
+        protected volatile long effectivePollIntervalMillis;
+        /** true if the last fetch found changes. Guarded by the fetchLock */
+        protected boolean changesFound;
+        /** modules whose fetched revision failed to load, to be fetched again on the next poll */
+        protected final Set<ModuleId> failedModuleIds = Collections.newSetFromMap(new ConcurrentHashMap<ModuleId, Boolean>());
+
+        // the remaining fields are guarded by the context
+        /** the current poll interval, which adapts to the rate of changes */
+        protected long currentPollIntervalMillis;
+        protected boolean initialPollCompleted;
+        /** the next scheduled poll */
+        protected ScheduledFuture<?> future;
+        /** the poll which is in progress, or null */
+        protected PollAttempt pollAttempt;
+        /** true if another poll was requested while a poll was in progress */
+        protected boolean pollRequested;
+        protected int consecutiveFailures;
 
-        @SuppressFBWarnings(value="URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification="will use later")
-        protected volatile ScheduledFuture<?> future;
-        protected RepositoryPollerContext() {
+        protected RepositoryPollerContext(long pollIntervalMillis, long activePollIntervalMillis) {
+            this.pollIntervalMillis = pollIntervalMillis;
+            this.activePollIntervalMillis = Math.min(pollIntervalMillis, activePollIntervalMillis);
+            this.currentPollIntervalMillis = pollIntervalMillis;
         }
     }
 
+    /** a single scheduled poll of a repository */
+    protected static class PollAttempt {
+        protected final long startNanos = System.nanoTime();
+        protected volatile Future<?> fetchFuture;
+        protected volatile ScheduledFuture<?> timeoutFuture;
+    }
+
     /** Contains transient state required for calculating deltas */
     protected final ConcurrentHashMap<ArchiveRepository, RepositoryPollerContext> repositoryContexts =
         new ConcurrentHashMap<ArchiveRepository, RepositoryPollerContext>();
 
-    /** Thread pool used by the pollers */
+    /** Thread pool used to schedule the polls, and to time them out */
     protected final ScheduledExecutorService pollerThreadPool;
+    /** Thread pool used to fetch the repositories */
+    protected final ExecutorService fetchThreadPool;
+    /** Single threaded pool used to publish the fetched changes to the module loader */
+    protected final ExecutorService updateThreadPool;
     protected final ScriptModuleLoader moduleLoader;
+    protected final long pollTimeoutMillis;
+    protected final long maxBackoffMillis;
+    protected final long updateQuietPeriodMillis;
+    protected final long maxUpdateDelayMillis;
+    protected final long activePollIntervalMillis;
+    protected final double pollJitter;
+
+    // changes which haven't been published to the module loader yet, guarded by the updateQueueLock
+    protected final Object updateQueueLock = new Object();
+    protected final Map<ModuleId, ScriptArchive> pendingUpdates = new LinkedHashMap<ModuleId, ScriptArchive>();
+    /** the contexts of the repositories the pending updates were fetched from */
+    protected final Map<ModuleId, RepositoryPollerContext> pendingUpdateContexts = new HashMap<ModuleId, RepositoryPollerContext>();
+    protected final Set<ModuleId> pendingDeletes = new LinkedHashSet<ModuleId>();
+    protected final List<Runnable> pendingCallbacks = new ArrayList<Runnable>();
+    protected boolean updateScheduled;
+    /** nano time at which the oldest and the latest pending changes were queued */
+    protected long firstQueuedNanos;
+    protected long lastQueuedNanos;
+
+    protected final AtomicLong savedCompilationCount = new AtomicLong();
+    protected final AtomicLong mergedUpdateCount = new AtomicLong();
+    protected final AtomicLong publishedUpdateCount = new AtomicLong();
 
     protected ArchiveRepositoryPoller(ScheduledExecutorService pollerThreadPool, ScriptModuleLoader moduleLoader) {
+        this(pollerThreadPool, Executors.newCachedThreadPool(DEFAULT_FETCH_THREAD_FACTORY),
+            Executors.newSingleThreadExecutor(DEFAULT_UPDATE_THREAD_FACTORY), moduleLoader,
+            DEFAULT_POLL_TIMEOUT_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, 0, DEFAULT_MAX_UPDATE_DELAY_MILLIS,
+            0, DEFAULT_POLL_JITTER);
+    }
+
+    protected ArchiveRepositoryPoller(ScheduledExecutorService pollerThreadPool, ExecutorService fetchThreadPool,
+            ExecutorService updateThreadPool, ScriptModuleLoader moduleLoader, long pollTimeoutMillis, long maxBackoffMillis,
+            long updateQuietPeriodMillis, long maxUpdateDelayMillis, long activePollIntervalMillis, double pollJitter) {
         this.pollerThreadPool = Objects.requireNonNull(pollerThreadPool, "pollerThreadPool");
+        this.fetchThreadPool = Objects.requireNonNull(fetchThreadPool, "fetchThreadPool");
+        this.updateThreadPool = Objects.requireNonNull(updateThreadPool, "updateThreadPool");
         this.moduleLoader = Objects.requireNonNull(moduleLoader, "moduleLoader");
+        this.pollTimeoutMillis = pollTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.updateQuietPeriodMillis = updateQuietPeriodMillis;
+        this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+        this.activePollIntervalMillis = activePollIntervalMillis;
+        this.pollJitter = pollJitter;
     }
 
     /**
@@ -120,27 +343,24 @@ public class ArchiveRepositoryPoller {
             throw new IllegalArgumentException("invalid pollInterval " + pollInterval);
         }
         Objects.requireNonNull(timeUnit, "timeUnit");
-        RepositoryPollerContext pollerContext = new RepositoryPollerContext();
-        RepositoryPollerContext oldContext = repositoryContexts.putIfAbsent(archiveRepository, pollerContext);
+        final RepositoryPollerContext context = new RepositoryPollerContext(Math.max(1, timeUnit.toMillis(pollInterval)),
+            activePollIntervalMillis > 0 ? activePollIntervalMillis : Long.MAX_VALUE);
+        RepositoryPollerContext oldContext = repositoryContexts.putIfAbsent(archiveRepository, context);
         if (oldContext != null) {
             return false;
         }
-        final CountDownLatch initialPollLatch = new CountDownLatch(1);
-        ScheduledFuture<?> future = pollerThreadPool.scheduleWithFixedDelay(new Runnable() {
-            public void run() {
-                try {
-                    pollRepository(archiveRepository);
-                    initialPollLatch.countDown();
-                } catch (Throwable t) {
-                    // should never happen
-                    logger.error("Excecution exception on poll" , t);
+        schedulePoll(archiveRepository, context, 0);
+        if (archiveRepository instanceof ChangeNotifyingArchiveRepository) {
+            // poll as soon as the repository reports a change, rather than waiting for the next scheduled poll
+            ((ChangeNotifyingArchiveRepository)archiveRepository).addChangeListener(new Runnable() {
+                public void run() {
+                    requestPoll(archiveRepository, context);
                 }
-            }
-        }, 0, pollInterval, timeUnit);
-        pollerContext.future = future;
+            });
+        }
         if (waitForInitialPoll) {
             try {
-                initialPollLatch.await();
+                context.initialPollLatch.await();
             } catch (Exception e) {
                 // should never happen
                 logger.error("Excecution exception on poll" , e);
@@ -149,29 +369,71 @@ public class ArchiveRepositoryPoller {
         return true;
     }
 
-    protected void pollRepository(ArchiveRepository archiveRepository) {
+    /**
+     * Poll the repository immediately, and wait until the changes have been published to the module loader.
+     * @param archiveRepository a repository which has been added to this poller
+     * @return true if the poll succeeded
+     */
+    protected boolean pollRepository(ArchiveRepository archiveRepository) {
         RepositoryPollerContext context = repositoryContexts.get(archiveRepository);
+        final CountDownLatch publishedLatch = new CountDownLatch(1);
+        boolean success;
+        context.fetchLock.lock();
+        try {
+            success = fetchRepository(archiveRepository, context, new Runnable() {
+                public void run() {
+                    publishedLatch.countDown();
+                }
+            });
+        } finally {
+            context.fetchLock.unlock();
+        }
+        if (success) {
+            try {
+                publishedLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Fetch the changes in the repository since its last poll, and queue them to be published to the
+     * module loader. The caller must hold the fetch lock of the context.
+     * @param onPublished callback to run once the changes have been published
+     * @return true if the changes were queued. false if the repository could not be fetched, in which
+     *         case it will be fetched again on the next poll, and the callback is not run.
+     */
+    protected boolean fetchRepository(ArchiveRepository archiveRepository, RepositoryPollerContext context,
+            @Nullable Runnable onPublished) {
+        // fetch the modules whose last fetched revision failed to load again
+        for (ModuleId moduleId : context.failedModuleIds) {
+            context.failedModuleIds.remove(moduleId);
+            if (context.lastUpdateTimes.containsKey(moduleId)) {
+                context.lastUpdateTimes.put(moduleId, Long.MIN_VALUE);
+            }
+        }
+
         Map<ModuleId, Long> repoUpdateTimes;
         try {
             repoUpdateTimes = archiveRepository.getDefaultView().getArchiveUpdateTimes();
         } catch (IOException e) {
             logger.error("Exception while fetching update times for repository " +
                 archiveRepository.getRepositoryId(), e);
-            return;
+            return false;
         }
 
         // search for new/updated archives by comparing update times reported by the repo
         // to the local repository context.
-        Set<ModuleId> updatedModuleIds = new HashSet<ModuleId>(repoUpdateTimes.size());
+        Map<ModuleId, Long> updatedTimes = new HashMap<ModuleId, Long>();
         for (Entry<ModuleId, Long> entry : repoUpdateTimes.entrySet()) {
             ModuleId moduleId = entry.getKey();
             Long queryUpdateTime = entry.getValue();
             Long lastUpdateTime = context.lastUpdateTimes.get(moduleId);
             if (lastUpdateTime == null || lastUpdateTime < queryUpdateTime) {
                 // this is a new archive or a new revision of an existing archive.
-                lastUpdateTime = queryUpdateTime;
-                context.lastUpdateTimes.put(moduleId, lastUpdateTime);
-                updatedModuleIds.add(moduleId);
+                updatedTimes.put(moduleId, queryUpdateTime);
             }
         }
 
@@ -179,28 +441,386 @@ public class ArchiveRepositoryPoller {
         // and module ids in the repository context
         Set<ModuleId> deletedModuleIds = new HashSet<ModuleId>(context.lastUpdateTimes.keySet());
         deletedModuleIds.removeAll(repoUpdateTimes.keySet());
-        context.lastUpdateTimes.keySet().removeAll(deletedModuleIds);
 
-        // lookup updated archives and update archive times
-        if (!updatedModuleIds.isEmpty()) {
-            Set<ScriptArchive> scriptArchives;
+        // lookup updated archives
+        Set<ScriptArchive> scriptArchives = Collections.emptySet();
+        if (!updatedTimes.isEmpty()) {
             try {
-                scriptArchives = archiveRepository.getScriptArchives(updatedModuleIds);
-                moduleLoader.updateScriptArchives(scriptArchives);
+                scriptArchives = archiveRepository.getScriptArchives(updatedTimes.keySet());
             } catch (Exception e) {
                 logger.error("Exception when attempting to Fetch archives for moduleIds: " +
-                    updatedModuleIds, e);
+                    updatedTimes.keySet(), e);
+                return false;
             }
         }
 
-        if (!deletedModuleIds.isEmpty()) {
+        // only remember the changes once they have been fetched, so that a failed fetch is retried
+        context.lastUpdateTimes.putAll(updatedTimes);
+        context.lastUpdateTimes.keySet().removeAll(deletedModuleIds);
+        context.changesFound = !updatedTimes.isEmpty() || !deletedModuleIds.isEmpty();
+        queueUpdates(scriptArchives, deletedModuleIds, onPublished, context);
+        return true;
+    }
+
+    /**
+     * Queue changes to be published to the module loader by the update thread. Changes to the
+     * same module which are queued before the update thread gets to them replace each other,
+     * and changes which are queued together are published in a single update.
+     * @param onPublished callback to run once the changes have been published
+     */
+    protected void queueUpdates(Set<? extends ScriptArchive> scriptArchives, Set<ModuleId> deletedModuleIds,
+            @Nullable Runnable onPublished) {
+        queueUpdates(scriptArchives, deletedModuleIds, onPublished, null);
+    }
+
+    /**
+     * Queue changes to be published to the module loader, see {@link #queueUpdates(Set, Set, Runnable)}.
+     * @param context the context of the repository the changes were fetched from, which fetches the archives
+     *        which fail to load again on its next poll. null if they should not be fetched again.
+     */
+    protected void queueUpdates(Set<? extends ScriptArchive> scriptArchives, Set<ModuleId> deletedModuleIds,
+            @Nullable Runnable onPublished, @Nullable RepositoryPollerContext context) {
+        synchronized (updateQueueLock) {
+            if (!scriptArchives.isEmpty() || !deletedModuleIds.isEmpty()) {
+                long now = nanoTime();
+                if (pendingUpdates.isEmpty() && pendingDeletes.isEmpty()) {
+                    firstQueuedNanos = now;
+                } else {
+                    // these changes join an update which hasn't been published yet
+                    mergedUpdateCount.incrementAndGet();
+                }
+                lastQueuedNanos = now;
+            }
+            for (ScriptArchive scriptArchive : scriptArchives) {
+                ModuleId moduleId = scriptArchive.getModuleSpec().getModuleId();
+                pendingDeletes.remove(moduleId);
+                if (pendingUpdates.put(moduleId, scriptArchive) != null) {
+                    savedCompilationCount.incrementAndGet();
+                }
+                if (context != null) {
+                    pendingUpdateContexts.put(moduleId, context);
+                } else {
+                    pendingUpdateContexts.remove(moduleId);
+                }
+            }
+            for (ModuleId moduleId : deletedModuleIds) {
+                pendingUpdateContexts.remove(moduleId);
+                if (pendingUpdates.remove(moduleId) != null) {
+                    savedCompilationCount.incrementAndGet();
+                }
+                pendingDeletes.add(moduleId);
+            }
+            if (onPublished != null) {
+                pendingCallbacks.add(onPublished);
+            }
+            if (updateScheduled) {
+                // the update thread will pick the changes up
+                return;
+            }
+            updateScheduled = true;
+        }
+        try {
+            updateThreadPool.execute(new Runnable() {
+                public void run() {
+                    publishUpdates();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, so publish them on the calling thread
+            publishUpdates();
+        }
+    }
+
+    /**
+     * Publish the queued changes to the module loader until the queue is empty.
+     */
+    protected void publishUpdates() {
+        while (true) {
+            Set<ScriptArchive> scriptArchives;
+            Map<ModuleId, RepositoryPollerContext> updateContexts;
+            Set<ModuleId> deletedModuleIds;
+            List<Runnable> callbacks;
+            synchronized (updateQueueLock) {
+                if (pendingUpdates.isEmpty() && pendingDeletes.isEmpty() && pendingCallbacks.isEmpty()) {
+                    updateScheduled = false;
+                    return;
+                }
+                if (!pendingUpdates.isEmpty() || !pendingDeletes.isEmpty()) {
+                    awaitQuietPeriod();
+                }
+                scriptArchives = new LinkedHashSet<ScriptArchive>(pendingUpdates.values());
+                updateContexts = new HashMap<ModuleId, RepositoryPollerContext>(pendingUpdateContexts);
+                deletedModuleIds = new LinkedHashSet<ModuleId>(pendingDeletes);
+                callbacks = new ArrayList<Runnable>(pendingCallbacks);
+                pendingUpdates.clear();
+                pendingUpdateContexts.clear();
+                pendingDeletes.clear();
+                pendingCallbacks.clear();
+            }
+            if (!scriptArchives.isEmpty() || !deletedModuleIds.isEmpty()) {
+                publishedUpdateCount.incrementAndGet();
+            }
+            if (!scriptArchives.isEmpty()) {
+                try {
+                    moduleLoader.updateScriptArchives(scriptArchives);
+                } catch (Throwable t) {
+                    logger.error("Exception when publishing updates to the module loader. " +
+                        "The archives will be fetched again on the next poll.", t);
+                    for (Entry<ModuleId, RepositoryPollerContext> entry : updateContexts.entrySet()) {
+                        entry.getValue().failedModuleIds.add(entry.getKey());
+                    }
+                }
+            }
             for (ModuleId scriptModuleId : deletedModuleIds) {
-                moduleLoader.removeScriptModule(scriptModuleId);
+                try {
+                    moduleLoader.removeScriptModule(scriptModuleId);
+                } catch (Throwable t) {
+                    logger.error("Exception when removing module " + scriptModuleId + " from the module loader", t);
+                }
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Wait until no changes have been queued for the quiet period, or the oldest pending change has
+     * waited for the max update delay. The caller must hold the updateQueueLock, which is released while waiting.
+     */
+    protected void awaitQuietPeriod() {
+        if (updateQuietPeriodMillis <= 0) {
+            return;
+        }
+        long quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(updateQuietPeriodMillis);
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxUpdateDelayMillis);
+        while (true) {
+            long now = nanoTime();
+            long remainingNanos = Math.min(lastQueuedNanos + quietPeriodNanos - now, firstQueuedNanos + maxDelayNanos - now);
+            if (remainingNanos <= 0) {
+                return;
+            }
+            try {
+                updateQueueLock.wait(TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1);
+            } catch (InterruptedException e) {
+                // shutting down, publish right away
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the current value of the clock which the quiet period and the max update delay are measured with
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the number of archives which were replaced by a newer revision, or deleted, before they
+     *         were published, and so never had to be compiled
+     */
+    public long getSavedCompilationCount() {
+        return savedCompilationCount.get();
+    }
+
+    /**
+     * @return the number of changes which were merged in to an update that hadn't been published yet.
+     *         Each one saved an update of the module loader, along with the recompilation of the dependents
+     *         of the changed modules.
+     */
+    public long getMergedUpdateCount() {
+        return mergedUpdateCount.get();
+    }
+
+    /**
+     * @return the number of updates which have been published to the module loader
+     */
+    public long getPublishedUpdateCount() {
+        return publishedUpdateCount.get();
+    }
+
+    /**
+     * Schedule the next poll of the repository, replacing the currently scheduled one.
+     */
+    protected void schedulePoll(final ArchiveRepository archiveRepository, final RepositoryPollerContext context, long delayMillis) {
+        synchronized (context) {
+            if (context.future != null) {
+                context.future.cancel(false);
             }
+            try {
+                context.future = pollerThreadPool.schedule(new Runnable() {
+                    public void run() {
+                        startPoll(archiveRepository, context);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                context.initialPollLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * Poll the repository as soon as possible. If it is being polled already, it is polled again
+     * once the current poll completes. Repositories which are backing off after a failure are
+     * polled once their backoff expires.
+     */
+    protected void requestPoll(ArchiveRepository archiveRepository, RepositoryPollerContext context) {
+        synchronized (context) {
+            if (context.pollAttempt != null) {
+                context.pollRequested = true;
+            } else if (context.consecutiveFailures == 0) {
+                schedulePoll(archiveRepository, context, 0);
+            }
+        }
+    }
+
+    /**
+     * Start a poll of the repository on the fetch thread pool, and schedule its timeout.
+     */
+    protected void startPoll(final ArchiveRepository archiveRepository, final RepositoryPollerContext context) {
+        final PollAttempt attempt = new PollAttempt();
+        synchronized (context) {
+            if (context.pollAttempt != null) {
+                context.pollRequested = true;
+                return;
+            }
+            context.pollAttempt = attempt;
+        }
+        try {
+            attempt.fetchFuture = fetchThreadPool.submit(new Runnable() {
+                public void run() {
+                    boolean success = false;
+                    boolean changesFound = false;
+                    // a timed out fetch may still be running
+                    if (context.fetchLock.tryLock()) {
+                        try {
+                            success = fetchRepository(archiveRepository, context, new Runnable() {
+                                public void run() {
+                                    context.initialPollLatch.countDown();
+                                }
+                            });
+                            changesFound = success && context.changesFound;
+                        } catch (Throwable t) {
+                            // should never happen
+                            logger.error("Excecution exception on poll" , t);
+                        } finally {
+                            context.fetchLock.unlock();
+                        }
+                    } else {
+                        logger.warn("Skipping poll of repository {}, the previous poll is still running",
+                            archiveRepository.getRepositoryId());
+                    }
+                    completePoll(archiveRepository, context, attempt, success, changesFound);
+                }
+            });
+            attempt.timeoutFuture = pollerThreadPool.schedule(new Runnable() {
+                public void run() {
+                    if (completePoll(archiveRepository, context, attempt, false, false)) {
+                        logger.warn("Poll of repository {} timed out after {} ms",
+                            archiveRepository.getRepositoryId(), pollTimeoutMillis);
+                        attempt.fetchFuture.cancel(true);
+                    }
+                }
+            }, pollTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            synchronized (context) {
+                context.pollAttempt = null;
+            }
+            context.initialPollLatch.countDown();
+        }
+    }
+
+    /**
+     * Complete a poll and schedule the next one, adapting the poll interval to whether changes were
+     * found, or backing off if it failed. Each poll is only completed once, either by its fetch or by its timeout.
+     * @return true if the poll was completed by this call
+     */
+    protected boolean completePoll(ArchiveRepository archiveRepository, RepositoryPollerContext context,
+            PollAttempt attempt, boolean success, boolean changesFound) {
+        synchronized (context) {
+            if (context.pollAttempt != attempt) {
+                return false;
+            }
+            context.pollAttempt = null;
+            if (attempt.timeoutFuture != null) {
+                attempt.timeoutFuture.cancel(false);
+            }
+            context.pollCount.incrementAndGet();
+            context.pollLatencies.record(System.nanoTime() - attempt.startNanos, TimeUnit.NANOSECONDS);
+            long delayMillis;
+            if (success) {
+                context.consecutiveFailures = 0;
+                // the initial poll finds every archive, which says nothing about the rate of changes
+                if (changesFound && context.initialPollCompleted) {
+                    context.currentPollIntervalMillis = context.activePollIntervalMillis;
+                } else {
+                    context.currentPollIntervalMillis = context.currentPollIntervalMillis < context.pollIntervalMillis / 2 ?
+                        context.currentPollIntervalMillis * 2 : context.pollIntervalMillis;
+                }
+                context.initialPollCompleted = true;
+                delayMillis = context.pollRequested ? 0 : applyJitter(context.currentPollIntervalMillis);
+            } else {
+                context.failureCount.incrementAndGet();
+                context.consecutiveFailures++;
+                delayMillis = applyJitter(getBackoffMillis(context));
+                context.initialPollLatch.countDown();
+            }
+            context.pollRequested = false;
+            context.effectivePollIntervalMillis = delayMillis;
+            schedulePoll(archiveRepository, context, delayMillis);
+        }
+        return true;
+    }
+
+    /**
+     * @return the given delay, randomly lengthened or shortened by up to the poll jitter
+     */
+    protected long applyJitter(long delayMillis) {
+        if (pollJitter <= 0) {
+            return delayMillis;
+        }
+        double factor = 1 + pollJitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long)(delayMillis * factor));
+    }
+
+    /**
+     * Get the polling statistics of a repository
+     * @return point in time copy of the statistics, or null if the repository hasn't been added to this poller
+     */
+    @Nullable
+    public RepositoryPollStatistics getPollStatistics(ArchiveRepository archiveRepository) {
+        RepositoryPollerContext context = repositoryContexts.get(archiveRepository);
+        if (context == null) {
+            return null;
+        }
+        int consecutiveFailures;
+        synchronized (context) {
+            consecutiveFailures = context.consecutiveFailures;
+        }
+        return new RepositoryPollStatistics(archiveRepository.getRepositoryId(), context.pollIntervalMillis,
+            context.effectivePollIntervalMillis, context.pollCount.get(), context.failureCount.get(),
+            consecutiveFailures, context.pollLatencies.snapshot());
+    }
+
+    /**
+     * @return the delay before the next poll of a repository which has failed. The poll interval is
+     *         doubled for each consecutive failure, up to the max backoff.
+     */
+    protected long getBackoffMillis(RepositoryPollerContext context) {
+        long delayMillis = context.pollIntervalMillis;
+        for (int i = 0; i < context.consecutiveFailures && delayMillis < maxBackoffMillis; i++) {
+            delayMillis *= 2;
         }
+        return Math.max(context.pollIntervalMillis, Math.min(delayMillis, maxBackoffMillis));
     }
 
     public void shutdown() {
         pollerThreadPool.shutdown();
+        fetchThreadPool.shutdown();
+        updateThreadPool.shutdown();
     }
 }
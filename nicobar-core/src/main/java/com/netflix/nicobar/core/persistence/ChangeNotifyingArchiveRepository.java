@@ -0,0 +1,33 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+/**
+ * {@link ArchiveRepository} which can notify listeners when its archives change, so that they
+ * can react without waiting for their next poll.
+ */
+public interface ChangeNotifyingArchiveRepository extends ArchiveRepository {
+
+    /**
+     * Register a listener which is notified after the archives in the repository have changed.
+     * Notifications may be spurious or coalesced, and carry no details, so listeners should query
+     * the repository views for the actual changes. Listeners must not block.
+     * @param listener the listener to notify
+     */
+    public void addChangeListener(Runnable listener);
+}
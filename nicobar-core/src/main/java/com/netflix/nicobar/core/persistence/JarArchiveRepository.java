@@ -17,26 +17,30 @@
  */
 package com.netflix.nicobar.core.persistence;
 
+import java.io.Closeable;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
 import java.util.Enumeration;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.netflix.nicobar.core.archive.GsonScriptModuleSpecSerializer;
@@ -52,14 +56,17 @@ import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
  *
  * @author James Kojo
  */
-public class JarArchiveRepository implements ArchiveRepository {
+public class JarArchiveRepository implements ChangeNotifyingArchiveRepository, Closeable {
 
     private static final ScriptModuleSpecSerializer DEFAULT_SERIALIZER = new GsonScriptModuleSpecSerializer();
+    private static final long DEFAULT_FULL_RESCAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
     public static class Builder {
         private final Path rootDir;
         private String repositoryId ;
         private ScriptModuleSpecSerializer moduleSpecSerializer = DEFAULT_SERIALIZER;
         private String respositoryDescription;
+        private boolean watchForChanges;
+        private long fullRescanIntervalMillis = DEFAULT_FULL_RESCAN_INTERVAL_MILLIS;
 
         public Builder(Path rootDir){
             this.rootDir = rootDir;
@@ -79,6 +86,21 @@ public class JarArchiveRepository implements ArchiveRepository {
             return this;
         }
 
+        /**
+         * Watch the root directory for changes instead of scanning it on every poll. Defaults to false.
+         * See {@link ArchiveDirectoryWatcher}.
+         */
+        public Builder setWatchForChanges(boolean watchForChanges) {
+            this.watchForChanges = watchForChanges;
+            return this;
+        }
+
+        /** Set the interval at which a watched root directory is rescanned anyway. Defaults to 5 minutes. */
+        public Builder setFullRescanInterval(long fullRescanInterval, TimeUnit timeUnit) {
+            this.fullRescanIntervalMillis = timeUnit.toMillis(fullRescanInterval);
+            return this;
+        }
+
         public JarArchiveRepository build() {
             String buildRepositoryId = repositoryId;
             if (buildRepositoryId == null) {
@@ -88,7 +110,8 @@ public class JarArchiveRepository implements ArchiveRepository {
             if (buildDescription == null) {
                 buildDescription =  JarArchiveRepository.class.getSimpleName() + ": " + rootDir.toString();
             }
-            return new JarArchiveRepository(rootDir, buildRepositoryId, buildDescription, moduleSpecSerializer);
+            return new JarArchiveRepository(rootDir, buildRepositoryId, buildDescription, moduleSpecSerializer,
+                watchForChanges, fullRescanIntervalMillis);
         }
     }
 
@@ -103,17 +126,44 @@ public class JarArchiveRepository implements ArchiveRepository {
         }
     };
 
+    /**
+     * Resolves the module ids of the jar files in the root directory
+     */
+    protected final static ArchiveDirectoryWatcher.ModuleIdResolver MODULE_ID_RESOLVER = new ArchiveDirectoryWatcher.ModuleIdResolver() {
+        public ModuleId getModuleId(Path entry) {
+            String moduleName = entry.getFileName().toString();
+            if (!moduleName.endsWith(".jar")) {
+                return null;
+            }
+            moduleName = moduleName.substring(0, moduleName.lastIndexOf(".jar"));
+            try {
+                return ModuleId.fromString(moduleName);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    };
+
     private final Path rootDir;
     private final String repositoryId ;
     private final ScriptModuleSpecSerializer moduleSpecSerializer;
     private final String repositoryDescription;
     private final RepositoryView defaultView = new DefaultView();
+    private final ArchiveDirectoryWatcher directoryWatcher;
 
     protected JarArchiveRepository(Path rootDir, String repositoryId, String repositoryDescription, ScriptModuleSpecSerializer moduleSpecSerializer) {
+        this(rootDir, repositoryId, repositoryDescription, moduleSpecSerializer, false, DEFAULT_FULL_RESCAN_INTERVAL_MILLIS);
+    }
+
+    protected JarArchiveRepository(Path rootDir, String repositoryId, String repositoryDescription, ScriptModuleSpecSerializer moduleSpecSerializer,
+        boolean watchForChanges, long fullRescanIntervalMillis) {
         this.rootDir = Objects.requireNonNull(rootDir, "rootDir");
         this.repositoryId = Objects.requireNonNull(repositoryId, "repositoryId");
         this.moduleSpecSerializer = Objects.requireNonNull(moduleSpecSerializer, "moduleSpecSerializer");
         this.repositoryDescription = Objects.requireNonNull(repositoryDescription, "repositoryDescription");
+        this.directoryWatcher = new ArchiveDirectoryWatcher(rootDir, JAR_FILE_FILTER, MODULE_ID_RESOLVER,
+            watchForChanges, fullRescanIntervalMillis);
+        this.directoryWatcher.start();
     }
 
     @Override
@@ -121,6 +171,22 @@ public class JarArchiveRepository implements ArchiveRepository {
         return repositoryId;
     }
 
+    /**
+     * Change listeners are only notified if the repository watches its root directory for changes.
+     */
+    @Override
+    public void addChangeListener(Runnable listener) {
+        directoryWatcher.addChangeListener(listener);
+    }
+
+    /**
+     * Stop watching the root directory for changes, if it is being watched.
+     */
+    @Override
+    public void close() throws IOException {
+        directoryWatcher.close();
+    }
+
     /**
      * The default view reports all archives inserted into this repository.
      * @return the default view into all archives.
@@ -146,43 +212,59 @@ public class JarArchiveRepository implements ArchiveRepository {
         ScriptModuleSpec moduleSpec = jarScriptArchive.getModuleSpec();
         ModuleId moduleId = moduleSpec.getModuleId();
         Path moduleJarPath = getModuleJarPath(moduleId);
-        Files.deleteIfExists(moduleJarPath);
-        JarFile sourceJarFile;
-        try {
-            sourceJarFile = new JarFile(jarScriptArchive.getRootUrl().toURI().getPath());
-        } catch (URISyntaxException e) {
-           throw new IOException(e);
-        }
-        JarOutputStream destJarFile = new JarOutputStream(new FileOutputStream(moduleJarPath.toFile()));
+        // write to a temporary file which is moved into place once it is complete,
+        // so that partially written jars are never visible
+        Path tempJarPath = Files.createTempFile(rootDir, "." + moduleId, ".tmp");
+        boolean moved = false;
         try {
-            String moduleSpecFileName = moduleSpecSerializer.getModuleSpecFileName();
-            Enumeration<JarEntry> sourceEntries = sourceJarFile.entries();
-            while (sourceEntries.hasMoreElements()) {
-                JarEntry sourceEntry = sourceEntries.nextElement();
-                if (sourceEntry.getName().equals(moduleSpecFileName)) {
-                    // avoid double entry for module spec
-                    continue;
-                }
-                destJarFile.putNextEntry(sourceEntry);
-                if (!sourceEntry.isDirectory()) {
-                    InputStream inputStream = sourceJarFile.getInputStream(sourceEntry);
-                    IOUtils.copy(inputStream, destJarFile);
-                    IOUtils.closeQuietly(inputStream);
+            JarFile sourceJarFile;
+            try {
+                sourceJarFile = new JarFile(jarScriptArchive.getRootUrl().toURI().getPath());
+            } catch (URISyntaxException e) {
+               throw new IOException(e);
+            }
+            JarOutputStream destJarFile = new JarOutputStream(new FileOutputStream(tempJarPath.toFile()));
+            try {
+                String moduleSpecFileName = moduleSpecSerializer.getModuleSpecFileName();
+                Enumeration<JarEntry> sourceEntries = sourceJarFile.entries();
+                while (sourceEntries.hasMoreElements()) {
+                    JarEntry sourceEntry = sourceEntries.nextElement();
+                    if (sourceEntry.getName().equals(moduleSpecFileName)) {
+                        // avoid double entry for module spec
+                        continue;
+                    }
+                    destJarFile.putNextEntry(sourceEntry);
+                    if (!sourceEntry.isDirectory()) {
+                        InputStream inputStream = sourceJarFile.getInputStream(sourceEntry);
+                        IOUtils.copy(inputStream, destJarFile);
+                        IOUtils.closeQuietly(inputStream);
+                    }
+                    destJarFile.closeEntry();
                 }
+                // write the module spec
+                String serialized = moduleSpecSerializer.serialize(moduleSpec);
+                JarEntry moduleSpecEntry = new JarEntry(moduleSpecSerializer.getModuleSpecFileName());
+                destJarFile.putNextEntry(moduleSpecEntry);
+                IOUtils.write(serialized, destJarFile);
                 destJarFile.closeEntry();
+            } finally {
+                IOUtils.closeQuietly(sourceJarFile);
+                IOUtils.closeQuietly(destJarFile);
+            }
+            // update the timestamp on the jar file to indicate that the module has been updated
+            Files.setLastModifiedTime(tempJarPath, FileTime.fromMillis(jarScriptArchive.getCreateTime()));
+            try {
+                Files.move(tempJarPath, moduleJarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempJarPath, moduleJarPath, StandardCopyOption.REPLACE_EXISTING);
             }
-            // write the module spec
-            String serialized = moduleSpecSerializer.serialize(moduleSpec);
-            JarEntry moduleSpecEntry = new JarEntry(moduleSpecSerializer.getModuleSpecFileName());
-            destJarFile.putNextEntry(moduleSpecEntry);
-            IOUtils.write(serialized, destJarFile);
-            destJarFile.closeEntry();
+            moved = true;
         } finally {
-            IOUtils.closeQuietly(sourceJarFile);
-            IOUtils.closeQuietly(destJarFile);
+            if (!moved) {
+                FileUtils.deleteQuietly(tempJarPath.toFile());
+            }
         }
-        // update the timestamp on the jar file to indicate that the module has been updated
-        Files.setLastModifiedTime(moduleJarPath, FileTime.fromMillis(jarScriptArchive.getCreateTime()));
+        directoryWatcher.refresh(moduleJarPath);
     }
 
     /**
@@ -212,6 +294,7 @@ public class JarArchiveRepository implements ArchiveRepository {
         Path moduleJar = getModuleJarPath(moduleId);
         if (Files.exists(moduleJar)) {
             Files.delete(moduleJar);
+            directoryWatcher.refresh(moduleJar);
         }
     }
 
@@ -232,20 +315,7 @@ public class JarArchiveRepository implements ArchiveRepository {
 
         @Override
         public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
-            Map<ModuleId, Long> updateTimes = new LinkedHashMap<ModuleId, Long>();
-            try (DirectoryStream<Path> archiveJars = Files.newDirectoryStream(rootDir, JAR_FILE_FILTER)) {
-                for (Path archiveJar : archiveJars) {
-                    Path absoluteArchiveFile = rootDir.resolve(archiveJar);
-                    long lastUpdateTime = Files.getLastModifiedTime(absoluteArchiveFile).toMillis();
-                    String moduleName = archiveJar.getFileName().toString();
-                    if (moduleName.endsWith(".jar")) {
-                        moduleName = moduleName.substring(0, moduleName.lastIndexOf(".jar"));
-                    }
-                    ModuleId moduleId = ModuleId.fromString(moduleName);
-                    updateTimes.put(moduleId, lastUpdateTime);
-                }
-            }
-            return updateTimes;
+            return directoryWatcher.getArchiveUpdateTimes();
         }
 
         @Override
@@ -17,6 +17,7 @@
  */
 package com.netflix.nicobar.core.persistence;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
@@ -25,13 +26,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.util.Enumeration;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -53,14 +54,17 @@ import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
  *
  * @author James Kojo
  */
-public class PathArchiveRepository implements ArchiveRepository {
+public class PathArchiveRepository implements ChangeNotifyingArchiveRepository, Closeable {
 
     private static final ScriptModuleSpecSerializer DEFAULT_SERIALIZER = new GsonScriptModuleSpecSerializer();
+    private static final long DEFAULT_FULL_RESCAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
     public static class Builder {
         private final Path rootDir;
         private String repositoryId ;
         private ScriptModuleSpecSerializer moduleSpecSerializer = DEFAULT_SERIALIZER;
         private String respositoryDescription;
+        private boolean watchForChanges;
+        private long fullRescanIntervalMillis = DEFAULT_FULL_RESCAN_INTERVAL_MILLIS;
 
         public Builder(Path rootDir){
             this.rootDir = rootDir;
@@ -80,6 +84,21 @@ public class PathArchiveRepository implements ArchiveRepository {
             return this;
         }
 
+        /**
+         * Watch the root directory for changes instead of scanning it on every poll. Defaults to false.
+         * See {@link ArchiveDirectoryWatcher}.
+         */
+        public Builder setWatchForChanges(boolean watchForChanges) {
+            this.watchForChanges = watchForChanges;
+            return this;
+        }
+
+        /** Set the interval at which a watched root directory is rescanned anyway. Defaults to 5 minutes. */
+        public Builder setFullRescanInterval(long fullRescanInterval, TimeUnit timeUnit) {
+            this.fullRescanIntervalMillis = timeUnit.toMillis(fullRescanInterval);
+            return this;
+        }
+
         public PathArchiveRepository build() {
             String buildRepositoryId = repositoryId;
             if (buildRepositoryId == null) {
@@ -89,7 +108,8 @@ public class PathArchiveRepository implements ArchiveRepository {
             if (buildDescription == null) {
                 buildDescription =  PathArchiveRepository.class.getSimpleName() + ": " + rootDir.toString();
             }
-            return new PathArchiveRepository(rootDir, buildRepositoryId, buildDescription, moduleSpecSerializer);
+            return new PathArchiveRepository(rootDir, buildRepositoryId, buildDescription, moduleSpecSerializer,
+                watchForChanges, fullRescanIntervalMillis);
         }
     }
 
@@ -102,17 +122,44 @@ public class PathArchiveRepository implements ArchiveRepository {
         }
     };
 
+    /**
+     * Resolves the module ids of the directories in the root directory. Hidden directories
+     * hold archives which are being inserted.
+     */
+    protected final static ArchiveDirectoryWatcher.ModuleIdResolver MODULE_ID_RESOLVER = new ArchiveDirectoryWatcher.ModuleIdResolver() {
+        public ModuleId getModuleId(Path entry) {
+            String moduleName = entry.getFileName().toString();
+            if (moduleName.startsWith(".")) {
+                return null;
+            }
+            try {
+                return ModuleId.fromString(moduleName);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    };
+
     private final Path rootDir;
     private final String repositoryId ;
     private final ScriptModuleSpecSerializer moduleSpecSerializer;
     private final String repositoryDescription;
     private final RepositoryView defaultView = new DefaultView();
+    private final ArchiveDirectoryWatcher directoryWatcher;
 
     protected PathArchiveRepository(Path rootDir, String repositoryId, String repositoryDescription, ScriptModuleSpecSerializer moduleSpecSerializer) {
+        this(rootDir, repositoryId, repositoryDescription, moduleSpecSerializer, false, DEFAULT_FULL_RESCAN_INTERVAL_MILLIS);
+    }
+
+    protected PathArchiveRepository(Path rootDir, String repositoryId, String repositoryDescription, ScriptModuleSpecSerializer moduleSpecSerializer,
+        boolean watchForChanges, long fullRescanIntervalMillis) {
         this.rootDir = Objects.requireNonNull(rootDir, "rootDir");
         this.repositoryId = Objects.requireNonNull(repositoryId, "repositoryId");
         this.moduleSpecSerializer = Objects.requireNonNull(moduleSpecSerializer, "moduleSpecSerializer");
         this.repositoryDescription = Objects.requireNonNull(repositoryDescription, "repositoryDescription");
+        this.directoryWatcher = new ArchiveDirectoryWatcher(rootDir, DIRECTORY_FILTER, MODULE_ID_RESOLVER,
+            watchForChanges, fullRescanIntervalMillis);
+        this.directoryWatcher.start();
     }
 
     @Override
@@ -120,6 +167,22 @@ public class PathArchiveRepository implements ArchiveRepository {
         return repositoryId;
     }
 
+    /**
+     * Change listeners are only notified if the repository watches its root directory for changes.
+     */
+    @Override
+    public void addChangeListener(Runnable listener) {
+        directoryWatcher.addChangeListener(listener);
+    }
+
+    /**
+     * Stop watching the root directory for changes, if it is being watched.
+     */
+    @Override
+    public void close() throws IOException {
+        directoryWatcher.close();
+    }
+
     /**
      * The default view reports all archives inserted into this repository.
      * @return the default view into all archives.
@@ -145,40 +208,50 @@ public class PathArchiveRepository implements ArchiveRepository {
         ScriptModuleSpec moduleSpec = jarScriptArchive.getModuleSpec();
         ModuleId moduleId = moduleSpec.getModuleId();
         Path moduleDir = rootDir.resolve(moduleId.toString());
-        if (Files.exists(moduleDir)) {
-            FileUtils.deleteDirectory(moduleDir.toFile());
-        }
-        JarFile jarFile;
-        try {
-            jarFile = new JarFile(jarScriptArchive.getRootUrl().toURI().getPath());
-        } catch (URISyntaxException e) {
-           throw new IOException(e);
-        }
+        // extract to a temporary directory which is moved into place once it is complete,
+        // so that partially extracted archives are never visible
+        Path tempModuleDir = Files.createTempDirectory(rootDir, "." + moduleId);
+        boolean moved = false;
         try {
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry jarEntry = entries.nextElement();
-                Path entryName = moduleDir.resolve(jarEntry.getName());
-                if (jarEntry.isDirectory()) {
-                    Files.createDirectories(entryName);
-                } else {
-                    InputStream inputStream = jarFile.getInputStream(jarEntry);
-                    try {
-                        Files.copy(inputStream, entryName);
-                    } finally {
-                        IOUtils.closeQuietly(inputStream);
+            JarFile jarFile;
+            try {
+                jarFile = new JarFile(jarScriptArchive.getRootUrl().toURI().getPath());
+            } catch (URISyntaxException e) {
+               throw new IOException(e);
+            }
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry jarEntry = entries.nextElement();
+                    Path entryName = tempModuleDir.resolve(jarEntry.getName());
+                    if (jarEntry.isDirectory()) {
+                        Files.createDirectories(entryName);
+                    } else {
+                        Files.createDirectories(entryName.getParent());
+                        InputStream inputStream = jarFile.getInputStream(jarEntry);
+                        try {
+                            Files.copy(inputStream, entryName);
+                        } finally {
+                            IOUtils.closeQuietly(inputStream);
+                        }
                     }
                 }
+            } finally {
+                IOUtils.closeQuietly(jarFile);
             }
+            // write the module spec
+            String serialized = moduleSpecSerializer.serialize(moduleSpec);
+            Files.write(tempModuleDir.resolve(moduleSpecSerializer.getModuleSpecFileName()), serialized.getBytes(Charsets.UTF_8));
+
+            // update the timestamp on the module directory to indicate that the module has been updated
+            Files.setLastModifiedTime(tempModuleDir, FileTime.fromMillis(jarScriptArchive.getCreateTime()));
+            directoryWatcher.replaceEntry(tempModuleDir, moduleDir);
+            moved = true;
         } finally {
-            IOUtils.closeQuietly(jarFile);
+            if (!moved) {
+                FileUtils.deleteQuietly(tempModuleDir.toFile());
+            }
         }
-        // write the module spec
-        String serialized = moduleSpecSerializer.serialize(moduleSpec);
-        Files.write(moduleDir.resolve(moduleSpecSerializer.getModuleSpecFileName()), serialized.getBytes(Charsets.UTF_8));
-
-        // update the timestamp on the module directory to indicate that the module has been updated
-        Files.setLastModifiedTime(moduleDir, FileTime.fromMillis(jarScriptArchive.getCreateTime()));
     }
 
     /**
@@ -208,6 +281,7 @@ public class PathArchiveRepository implements ArchiveRepository {
         Path moduleDir = rootDir.resolve(moduleId.toString());
         if (Files.exists(moduleDir)) {
             FileUtils.deleteDirectory(moduleDir.toFile());
+            directoryWatcher.refresh(moduleDir);
         }
     }
 
@@ -219,15 +293,7 @@ public class PathArchiveRepository implements ArchiveRepository {
 
         @Override
         public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
-            Map<ModuleId, Long> updateTimes = new LinkedHashMap<ModuleId, Long>();
-            DirectoryStream<Path> archiveDirs = Files.newDirectoryStream(rootDir, DIRECTORY_FILTER);
-            for (Path archiveDir: archiveDirs) {
-                Path absoluteArchiveDir = rootDir.resolve(archiveDir);
-                long lastUpdateTime = Files.getLastModifiedTime(absoluteArchiveDir).toMillis();
-                ModuleId moduleId = ModuleId.fromString(archiveDir.getFileName().toString());
-                updateTimes.put(moduleId, lastUpdateTime);
-            }
-            return updateTimes;
+            return directoryWatcher.getArchiveUpdateTimes();
         }
 
         @Override
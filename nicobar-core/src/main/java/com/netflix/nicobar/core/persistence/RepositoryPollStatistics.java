@@ -0,0 +1,99 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import com.netflix.nicobar.core.execution.LatencyHistogram;
+
+/**
+ * Immutable point in time copy of the polling statistics of a repository, see
+ * {@link ArchiveRepositoryPoller#getPollStatistics(ArchiveRepository)}.
+ */
+public class RepositoryPollStatistics {
+    private final String repositoryId;
+    private final long pollIntervalMillis;
+    private final long effectivePollIntervalMillis;
+    private final long pollCount;
+    private final long failureCount;
+    private final int consecutiveFailures;
+    private final LatencyHistogram.Snapshot latencies;
+
+    protected RepositoryPollStatistics(String repositoryId, long pollIntervalMillis, long effectivePollIntervalMillis,
+        long pollCount, long failureCount, int consecutiveFailures, LatencyHistogram.Snapshot latencies) {
+        this.repositoryId = repositoryId;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.effectivePollIntervalMillis = effectivePollIntervalMillis;
+        this.pollCount = pollCount;
+        this.failureCount = failureCount;
+        this.consecutiveFailures = consecutiveFailures;
+        this.latencies = latencies;
+    }
+
+    public String getRepositoryId() {
+        return repositoryId;
+    }
+
+    /**
+     * @return the poll interval the repository was added with
+     */
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    /**
+     * @return the delay before the next scheduled poll, after adapting to the rate of changes,
+     *         backing off from failures and applying the jitter. zero until the first poll completes.
+     */
+    public long getEffectivePollIntervalMillis() {
+        return effectivePollIntervalMillis;
+    }
+
+    /**
+     * @return the number of completed scheduled polls, including the failed ones
+     */
+    public long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return the number of scheduled polls which failed or timed out
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the latencies of the scheduled polls, from the start of the fetch until the changes were queued
+     *         for the module loader, or the poll failed or timed out
+     */
+    public LatencyHistogram.Snapshot getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return "RepositoryPollStatistics [repositoryId=" + repositoryId + ", pollIntervalMillis=" + pollIntervalMillis
+            + ", effectivePollIntervalMillis=" + effectivePollIntervalMillis + ", pollCount=" + pollCount
+            + ", failureCount=" + failureCount + ", consecutiveFailures=" + consecutiveFailures
+            + ", p50Micros=" + latencies.getValueAtPercentile(50) + ", p99Micros=" + latencies.getValueAtPercentile(99)
+            + ", maxMicros=" + latencies.getMaxMicros() + "]";
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.archive;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ModuleIdRegistry}
+ */
+public class ModuleIdRegistryTest {
+
+    @Test
+    public void testIntern() {
+        ModuleIdRegistry registry = new ModuleIdRegistry();
+        ModuleId moduleId = ModuleId.create("test-Module", "v1");
+        assertSame(registry.intern(moduleId), moduleId);
+        // equal ids resolve to the first registered instance
+        assertSame(registry.intern(ModuleId.fromString("test-Module.v1")), moduleId);
+        assertSame(registry.get("test-Module.v1"), moduleId);
+        assertNull(registry.get("test-Module"));
+        assertEquals(registry.size(), 1);
+    }
+
+    @Test
+    public void testResolve() {
+        ModuleIdRegistry registry = new ModuleIdRegistry();
+        ModuleId moduleId = registry.intern(ModuleId.create("test-Module"));
+        assertSame(registry.resolve("test-Module"), moduleId);
+
+        // unregistered ids are parsed, but not registered
+        assertEquals(registry.resolve("other-Module.v2"), ModuleId.create("other-Module", "v2"));
+        assertNull(registry.get("other-Module.v2"));
+        try {
+            registry.resolve("bad#Module");
+            fail("Should disallow invalid module ids");
+        } catch (IllegalArgumentException e) {
+            assertEquals(registry.size(), 1);
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        ModuleIdRegistry registry = new ModuleIdRegistry();
+        ModuleId moduleId = registry.intern(ModuleId.create("test-Module", "v1"));
+        registry.remove(ModuleId.fromString("test-Module.v1"));
+        assertNull(registry.get("test-Module.v1"));
+        assertEquals(registry.size(), 0);
+        assertEquals(registry.resolve("test-Module.v1"), moduleId);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.Charsets;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ApiFingerprint}
+ */
+public class ApiFingerprintTest {
+    private static final String API =
+        "package test;\n" +
+        "public class Api implements Comparable<Api> {\n" +
+        "    public static final int VERSION = 1;\n" +
+        "    public String name;\n" +
+        "    private int count;\n" +
+        "    public String greet(String who) { return \"hello \" + who; }\n" +
+        "    public int compareTo(Api other) { return 0; }\n" +
+        "    private void helper() { }\n" +
+        "}\n";
+
+    @Test
+    public void testBodyChangesKeepFingerprint() throws Exception {
+        String fingerprint = fingerprint(API);
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint(API), fingerprint);
+        assertEquals(fingerprint(API.replace("\"hello \"", "\"goodbye \"")), fingerprint);
+    }
+
+    @Test
+    public void testPrivateChangesKeepFingerprint() throws Exception {
+        String fingerprint = fingerprint(API);
+        assertEquals(fingerprint(API.replace("private int count;", "private long count; private String other;")), fingerprint);
+        assertEquals(fingerprint(API.replace("private void helper() { }", "void helper(int x) { }")), fingerprint);
+    }
+
+    @Test
+    public void testSignatureChangesChangeFingerprint() throws Exception {
+        String fingerprint = fingerprint(API);
+        assertFalse(fingerprint.equals(fingerprint(API.replace("greet(String who)", "greet(Object who)"))));
+        assertFalse(fingerprint.equals(fingerprint(API.replace("public String name;", "public Object name;"))));
+        assertFalse(fingerprint.equals(fingerprint(API.replace("private void helper()", "public void helper()"))));
+        assertFalse(fingerprint.equals(fingerprint(API.replace("public class Api", "public final class Api"))));
+    }
+
+    @Test
+    public void testConstantChangesChangeFingerprint() throws Exception {
+        // constants are inlined into the classes which reference them
+        assertFalse(fingerprint(API).equals(fingerprint(API.replace("VERSION = 1", "VERSION = 2"))));
+    }
+
+    @Test
+    public void testNonPublicClassesAreNotDescribed() throws Exception {
+        Map<String, byte[]> classFiles = compile("Internal", "package test;\nclass Internal { public void run() { } }\n");
+        assertNull(ApiFingerprint.describe(classFiles.get("test.Internal")));
+    }
+
+    private static String fingerprint(String source) throws Exception {
+        return ApiFingerprint.fingerprint(compile("Api", source));
+    }
+
+    private static Map<String, byte[]> compile(String className, String source) throws Exception {
+        Path sourceDir = Files.createTempDirectory("ApiFingerprintTest-source");
+        Path classesDir = Files.createTempDirectory("ApiFingerprintTest-classes");
+        Path sourceFile = sourceDir.resolve(className + ".java");
+        Files.write(sourceFile, source.getBytes(Charsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null, "-d", classesDir.toString(), sourceFile.toString());
+        assertEquals(result, 0);
+        Map<String, byte[]> classFiles = new HashMap<String, byte[]>();
+        classFiles.put("test." + className, Files.readAllBytes(classesDir.resolve("test/" + className + ".class")));
+        return Collections.unmodifiableMap(classFiles);
+    }
+}
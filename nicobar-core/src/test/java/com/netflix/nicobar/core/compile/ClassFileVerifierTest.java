@@ -0,0 +1,74 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ClassFileVerifier}
+ */
+public class ClassFileVerifierTest {
+
+    @Test
+    public void testReadClassName() throws Exception {
+        byte[] classBytes = getClassBytes(ClassFileVerifierTest.class);
+        assertEquals(ClassFileVerifier.readClassName(classBytes), ClassFileVerifierTest.class.getName());
+        ClassFileVerifier.verify(ClassFileVerifierTest.class.getName(), classBytes);
+    }
+
+    @Test
+    public void testVerifyWrongClassName() throws Exception {
+        byte[] classBytes = getClassBytes(ClassFileVerifierTest.class);
+        try {
+            ClassFileVerifier.verify(ClassFileVerifier.class.getName(), classBytes);
+            fail("expected ScriptCompilationException");
+        } catch (ScriptCompilationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVerifyMalformedClass() throws Exception {
+        byte[] classBytes = getClassBytes(ClassFileVerifierTest.class);
+        byte[] truncatedBytes = new byte[20];
+        System.arraycopy(classBytes, 0, truncatedBytes, 0, truncatedBytes.length);
+        for (byte[] malformedBytes : new byte[][] {new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, truncatedBytes}) {
+            try {
+                ClassFileVerifier.verify(ClassFileVerifierTest.class.getName(), malformedBytes);
+                fail("expected ScriptCompilationException");
+            } catch (ScriptCompilationException e) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] getClassBytes(Class<?> clazz) throws Exception {
+        InputStream classStream = clazz.getResourceAsStream(clazz.getSimpleName() + ".class");
+        try {
+            return IOUtils.toByteArray(classStream);
+        } finally {
+            IOUtils.closeQuietly(classStream);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.Charsets;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Unit tests for {@link CompilationCache}
+ */
+public class CompilationCacheTest {
+    private static final Set<String> APP_PACKAGES = Collections.singleton("com/netflix/nicobar/test");
+    private Path archiveDir;
+    private CompilationCache cache;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        archiveDir = Files.createTempDirectory("CompilationCacheTest-archive");
+        Files.write(archiveDir.resolve("Hello.groovy"), "println 'hello'".getBytes(Charsets.UTF_8));
+        cache = new CompilationCache(Files.createTempDirectory("CompilationCacheTest-cache"));
+    }
+
+    @Test
+    public void testKeyIsStableForSameContent() throws Exception {
+        String key1 = cache.computeKey(createArchive("A", 1000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        String key2 = cache.computeKey(createArchive("A", 2000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        assertNotNull(key1);
+        // the create time is not part of the content
+        assertEquals(key1, key2);
+    }
+
+    @Test
+    public void testKeyChangesWithContent() throws Exception {
+        String key1 = cache.computeKey(createArchive("A", 1000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        Files.write(archiveDir.resolve("Hello.groovy"), "println 'goodbye'".getBytes(Charsets.UTF_8));
+        String key2 = cache.computeKey(createArchive("A", 1000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        assertFalse(key1.equals(key2));
+    }
+
+    @Test
+    public void testKeyChangesWithDependencies() throws Exception {
+        ScriptArchive archive = new PathScriptArchive.Builder(archiveDir)
+            .setModuleSpec(new ScriptModuleSpec.Builder("A").addCompilerPluginId("groovy2").addModuleDependency("B").build())
+            .build();
+        Map<ModuleId, String> dependencyKeys = new HashMap<ModuleId, String>();
+        assertNull(cache.computeKey(archive, APP_PACKAGES, dependencyKeys));
+
+        dependencyKeys.put(ModuleId.create("B"), "key1");
+        String key1 = cache.computeKey(archive, APP_PACKAGES, dependencyKeys);
+        dependencyKeys.put(ModuleId.create("B"), "key2");
+        String key2 = cache.computeKey(archive, APP_PACKAGES, dependencyKeys);
+        assertNotNull(key1);
+        assertFalse(key1.equals(key2));
+    }
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        String key = cache.computeKey(createArchive("A", 1000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        Path targetDir = Files.createTempDirectory("CompilationCacheTest-target");
+        assertFalse(cache.restore(key, targetDir));
+
+        Path sourceDir = Files.createTempDirectory("CompilationCacheTest-source");
+        Files.createDirectories(sourceDir.resolve("com/netflix"));
+        Files.write(sourceDir.resolve("com/netflix/Hello.class"), new byte[] {1, 2, 3});
+        cache.store(key, sourceDir);
+        // storing the same key twice is a no-op
+        cache.store(key, sourceDir);
+
+        assertTrue(cache.restore(key, targetDir));
+        assertEquals(Files.readAllBytes(targetDir.resolve("com/netflix/Hello.class")), new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void testStoreAndRestoreInMemory() throws Exception {
+        String key = cache.computeKey(createArchive("A", 1000), APP_PACKAGES, Collections.<ModuleId, String>emptyMap());
+        Map<String, byte[]> resources = new HashMap<String, byte[]>();
+        resources.put("com/netflix/Hello.class", new byte[] {1, 2, 3});
+        cache.store(key, resources);
+
+        // entries stored from memory can be restored to a directory, and vice versa
+        Path targetDir = Files.createTempDirectory("CompilationCacheTest-target");
+        assertTrue(cache.restore(key, targetDir));
+        assertEquals(Files.readAllBytes(targetDir.resolve("com/netflix/Hello.class")), new byte[] {1, 2, 3});
+
+        Map<String, byte[]> restored = new HashMap<String, byte[]>();
+        assertTrue(cache.restore(key, restored));
+        assertEquals(restored.keySet(), resources.keySet());
+        assertEquals(restored.get("com/netflix/Hello.class"), new byte[] {1, 2, 3});
+    }
+
+    private ScriptArchive createArchive(String moduleId, long createTime) throws Exception {
+        return new PathScriptArchive.Builder(archiveDir)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).addCompilerPluginId("groovy2").build())
+            .setCreateTime(createTime)
+            .build();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.ExecutionStatistics;
+import com.netflix.nicobar.core.module.ScriptModule;
+
+/**
+ * Unit tests for {@link HystrixScriptModuleExecutor}
+ */
+public class HystrixScriptModuleExecutorTest {
+    private static final ScriptModuleExecutable<String> EXECUTABLE = new ScriptModuleExecutable<String>() {
+        @Override
+        public String execute(ScriptModule scriptModule) throws Exception {
+            if (scriptModule.getModuleId().getName().equals("slow")) {
+                Thread.sleep(500);
+            }
+            return scriptModule.getModuleId().getName();
+        }
+    };
+
+    @Test
+    public void testModuleTimeout() throws Exception {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("TestModuleExecutor");
+        ModuleExecutionOptions options = new ModuleExecutionOptions.Builder()
+            .withModuleTimeout(ModuleId.create("slow"), 50, TimeUnit.MILLISECONDS)
+            .withPartialResultPolicy(PartialResultPolicy.NULL_FOR_FAILURES)
+            .build();
+        List<String> results = executor.executeModulesAsync(Arrays.asList(createModule("fast"), createModule("slow")),
+            EXECUTABLE, options).get();
+        assertEquals(results, Arrays.asList("fast", null));
+    }
+
+    @Test
+    public void testFailOnAnyFailure() throws Exception {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("TestModuleExecutor");
+        ModuleExecutionOptions options = new ModuleExecutionOptions.Builder()
+            .withDefaultTimeout(50, TimeUnit.MILLISECONDS)
+            .withPartialResultPolicy(PartialResultPolicy.FAIL_ON_ANY_FAILURE)
+            .build();
+        try {
+            executor.executeModulesAsync(Arrays.asList(createModule("fast"), createModule("slow")), EXECUTABLE, options).get();
+            fail("expected the slow module to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testStatisticsPerRevision() throws Exception {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("TestModuleExecutor");
+        ModuleExecutionOptions options = new ModuleExecutionOptions.Builder()
+            .withModuleTimeout(ModuleId.create("slow"), 50, TimeUnit.MILLISECONDS)
+            .build();
+        // revisions are told apart even if their archives have the same create time
+        ScriptModule revision1 = createModule("slow", 1000);
+        ScriptModule revision2 = createModule("slow", 1000);
+        executor.executeModulesAsync(Arrays.asList(revision1), EXECUTABLE, options).get();
+        executor.executeModules(Arrays.asList(revision2, revision2), EXECUTABLE);
+
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(ModuleId.create("slow"));
+        assertEquals(moduleStats.getExecutionCount(), 3);
+        assertEquals(moduleStats.getSuccessCount(), 2);
+        assertEquals(moduleStats.getTimeoutCount(), 1);
+        assertEquals(moduleStats.getInFlightCount(), 0);
+
+        ExecutionStatistics revision1Stats = executor.getModuleStatistics(revision1);
+        assertEquals(revision1Stats.getExecutionCount(), 1);
+        assertEquals(revision1Stats.getTimeoutCount(), 1);
+        ExecutionStatistics revision2Stats = executor.getModuleStatistics(revision2);
+        assertEquals(revision2Stats.getSuccessCount(), 2);
+        assertEquals(revision2Stats.getFailureCount(), 0);
+        assertTrue(revision2Stats.getLatencyHistogram().snapshot().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toMicros(500));
+        assertNull(executor.getModuleStatistics(createModule("slow", 1000)));
+
+        // the aggregate snapshot comes first, followed by the revisions, newest first
+        List<ExecutionStatisticsSnapshot> snapshots = executor.getStatisticsSnapshot();
+        assertEquals(snapshots.size(), 3);
+        assertEquals(snapshots.get(0).getCreateTime(), -1);
+        assertEquals(snapshots.get(0).getExecutionCount(), 3);
+        assertEquals(snapshots.get(1).getSuccessCount(), 2);
+        assertEquals(snapshots.get(2).getTimeoutCount(), 1);
+    }
+
+    private ScriptModule createModule(String moduleId) {
+        return createModule(moduleId, 0);
+    }
+
+    private ScriptModule createModule(String moduleId, long createTime) {
+        ScriptModule module = mock(ScriptModule.class);
+        when(module.getModuleId()).thenReturn(ModuleId.create(moduleId));
+        when(module.getCreateTime()).thenReturn(createTime);
+        return module;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long micros = 0; micros < 100000; micros++) {
+            long upperBound = LatencyHistogram.getBucketUpperBound(LatencyHistogram.getBucketIndex(micros));
+            assertTrue(upperBound >= micros);
+            // buckets are at most 1/16th of their values wide
+            assertTrue(upperBound - micros <= micros / 16, "bucket of " + micros + " too wide");
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.snapshot().getValueAtPercentile(50), 0);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 1000);
+        assertEquals(snapshot.getMaxMicros(), 1000000);
+        assertEquals(snapshot.getMeanMicros(), 500500.0);
+        assertEquals(snapshot.getValueAtPercentile(100), 1000000);
+        long median = snapshot.getValueAtPercentile(50);
+        assertTrue(median >= 500000 && median <= 500000 * 17 / 16, "median " + median);
+        long p90 = snapshot.getValueAtPercentile(90);
+        assertTrue(p90 >= 900000 && p90 <= 900000 * 17 / 16, "p90 " + p90);
+    }
+
+    @Test
+    public void testOutOfRangeLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1, TimeUnit.MILLISECONDS);
+        histogram.record(100, TimeUnit.DAYS);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 2);
+        assertEquals(snapshot.getValueAtPercentile(0), 0);
+        assertEquals(snapshot.getValueAtPercentile(100), TimeUnit.DAYS.toMicros(100));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.module.ScriptModule;
+
+/**
+ * Unit tests for {@link ScriptModuleInstanceProvider}
+ */
+public class ScriptModuleInstanceProviderTest {
+
+    public static class TestEntryPoint implements Callable<String> {
+        @Override
+        public String call() {
+            return "called";
+        }
+    }
+
+    @Test
+    public void testInstanceIsSharedPerRevision() throws Exception {
+        ScriptModuleInstanceProvider<Callable> provider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+        ScriptModule revision1 = createModule("A", 1000, TestEntryPoint.class);
+        Callable<?> instance = provider.getInstance(revision1);
+        assertNotNull(instance);
+        assertSame(provider.getInstance(revision1), instance);
+
+        // a new revision gets a new instance, and the old one is released on update
+        ScriptModule revision2 = createModule("A", 2000, TestEntryPoint.class);
+        Callable<?> newInstance = provider.getInstance(revision2);
+        assertNotSame(newInstance, instance);
+        provider.moduleUpdated(revision2, revision1);
+        assertSame(provider.getInstance(revision2), newInstance);
+        provider.moduleUpdated(null, revision2);
+        assertNotSame(provider.getInstance(revision2), newInstance);
+    }
+
+    @Test
+    public void testRetiredRevisionIsNotCached() throws Exception {
+        ScriptModuleInstanceProvider<Callable> provider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+        ScriptModule revision1 = createModule("A", 1000, TestEntryPoint.class);
+        ScriptModule revision2 = createModule("A", 1000, TestEntryPoint.class);
+        Callable<?> instance = provider.getInstance(revision2);
+
+        // an execution still holding on to the replaced revision doesn't evict the current one
+        provider.moduleUpdated(revision2, revision1);
+        assertNotSame(provider.getInstance(revision1), provider.getInstance(revision1));
+        assertSame(provider.getInstance(revision2), instance);
+
+        // nor is a removed revision cached again
+        provider.moduleUpdated(null, revision2);
+        Callable<?> uncachedInstance = provider.getInstance(revision2);
+        assertNotNull(uncachedInstance);
+        assertNotSame(provider.getInstance(revision2), uncachedInstance);
+    }
+
+    @Test
+    public void testModuleWithoutEntryPoint() throws Exception {
+        ScriptModuleInstanceProvider<Callable> provider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+        assertNull(provider.getInstance(createModule("A", 1000, String.class)));
+    }
+
+    @Test
+    public void testEntryPointExecutable() throws Exception {
+        ScriptModuleInstanceProvider<Callable> provider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+        ScriptModuleExecutable<Object> executable = new ScriptModuleEntryPointExecutable<Callable, Object>(provider) {
+            @Override
+            protected Object execute(Callable entryPoint, ScriptModule scriptModule) throws Exception {
+                return entryPoint.call();
+            }
+        };
+        assertEquals(executable.execute(createModule("A", 1000, TestEntryPoint.class)), "called");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testEntryPointExecutableWithoutEntryPoint() throws Exception {
+        ScriptModuleInstanceProvider<Callable> provider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+        ScriptModuleExecutable<Object> executable = new ScriptModuleEntryPointExecutable<Callable, Object>(provider) {
+            @Override
+            protected Object execute(Callable entryPoint, ScriptModule scriptModule) throws Exception {
+                return entryPoint.call();
+            }
+        };
+        executable.execute(createModule("A", 1000, String.class));
+    }
+
+    private ScriptModule createModule(String moduleId, long createTime, Class<?> moduleClass) {
+        ScriptModule module = mock(ScriptModule.class);
+        when(module.getModuleId()).thenReturn(ModuleId.create(moduleId));
+        when(module.getCreateTime()).thenReturn(createTime);
+        when(module.getLoadedClasses()).thenReturn(Collections.<Class<?>>singleton(moduleClass));
+        return module;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Unit tests for {@link ClassLoaderLeakTracker}
+ */
+public class ClassLoaderLeakTrackerTest {
+    private long gcCount;
+    private List<RetiredRevision> leakedRevisions;
+    private List<RetiredRevision> collectedRevisions;
+    private ClassLoaderLeakTracker tracker;
+
+    @BeforeMethod
+    public void setup() {
+        gcCount = 0;
+        leakedRevisions = Collections.synchronizedList(new ArrayList<RetiredRevision>());
+        collectedRevisions = Collections.synchronizedList(new ArrayList<RetiredRevision>());
+        tracker = new ClassLoaderLeakTracker(2, Collections.<ClassLoaderLeakListener>singleton(new ClassLoaderLeakListener() {
+            @Override
+            public void revisionLeaked(RetiredRevision revision) {
+                leakedRevisions.add(revision);
+            }
+            @Override
+            public void leakedRevisionCollected(RetiredRevision revision) {
+                collectedRevisions.add(revision);
+            }
+        })) {
+            @Override
+            protected long getGcCount() {
+                return gcCount;
+            }
+        };
+    }
+
+    @Test
+    public void testReachableRevisionIsReportedOnce() {
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        tracker.retire(ModuleId.create("A"), 1000, classLoader);
+        assertEquals(tracker.getRetiredRevisionCount(), 1);
+        assertEquals(tracker.getTrackedRevisionCount(), 1);
+
+        gcCount = 1;
+        tracker.checkRetiredRevisions();
+        assertEquals(leakedRevisions.size(), 0);
+        assertEquals(tracker.getZombieRevisionCount(), 0);
+
+        gcCount = 2;
+        tracker.checkRetiredRevisions();
+        gcCount = 5;
+        tracker.checkRetiredRevisions();
+        assertEquals(leakedRevisions.size(), 1);
+        RetiredRevision leakedRevision = leakedRevisions.get(0);
+        assertEquals(leakedRevision.getModuleId(), ModuleId.create("A"));
+        assertEquals(leakedRevision.getCreateTime(), 1000);
+        assertEquals(leakedRevision.getGcCycles(), 2);
+
+        assertEquals(tracker.getZombieRevisionCount(), 1);
+        assertEquals(tracker.getLeakedRevisionCount(), 1);
+        List<RetiredRevision> zombies = tracker.getZombieRevisions();
+        assertEquals(zombies.size(), 1);
+        assertEquals(zombies.get(0).getGcCycles(), 5);
+        assertTrue(tracker.getOldestZombieAgeMillis() >= 0);
+        // keep the class loader reachable until here
+        assertTrue(classLoader != null);
+    }
+
+    @Test
+    public void testYoungCollectionsAreNotCounted() {
+        final StubCollector youngCollector = new StubCollector("G1 Young Generation", "G1 Eden Space", "G1 Survivor Space", "G1 Old Gen");
+        final StubCollector oldCollector = new StubCollector("G1 Old Generation", "G1 Eden Space", "G1 Survivor Space", "G1 Old Gen");
+        tracker = new ClassLoaderLeakTracker(2, Collections.<ClassLoaderLeakListener>emptySet()) {
+            @Override
+            protected List<GarbageCollectorMXBean> getGarbageCollectors() {
+                return Arrays.<GarbageCollectorMXBean>asList(youngCollector, oldCollector);
+            }
+        };
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        tracker.retire(ModuleId.create("A"), 1000, classLoader);
+
+        youngCollector.collectionCount = 10;
+        oldCollector.collectionCount = 1;
+        tracker.checkRetiredRevisions();
+        assertEquals(tracker.getGcCount(), 1);
+        assertEquals(tracker.getZombieRevisionCount(), 0);
+
+        oldCollector.collectionCount = 2;
+        tracker.checkRetiredRevisions();
+        assertEquals(tracker.getZombieRevisionCount(), 1);
+        assertEquals(tracker.getZombieRevisions().get(0).getGcCycles(), 2);
+        // keep the class loader reachable until here
+        assertTrue(classLoader != null);
+    }
+
+    @Test
+    public void testOldGenerationCollectors() {
+        assertTrue(ClassLoaderLeakTracker.isOldGenerationCollector(new StubCollector("PS MarkSweep", "PS Eden Space", "PS Survivor Space", "PS Old Gen")));
+        assertTrue(ClassLoaderLeakTracker.isOldGenerationCollector(new StubCollector("MarkSweepCompact", "Eden Space", "Survivor Space", "Tenured Gen")));
+        assertFalse(ClassLoaderLeakTracker.isOldGenerationCollector(new StubCollector("PS Scavenge", "PS Eden Space", "PS Survivor Space")));
+        assertFalse(ClassLoaderLeakTracker.isOldGenerationCollector(new StubCollector("G1 Young Generation", "G1 Eden Space", "G1 Survivor Space", "G1 Old Gen")));
+        assertFalse(ClassLoaderLeakTracker.isOldGenerationCollector(new StubCollector("ZGC Cycles", "ZHeap")));
+    }
+
+    @Test
+    public void testCollectionsWithoutGenerationsAreCounted() {
+        final StubCollector cycles = new StubCollector("ZGC Cycles", "ZHeap");
+        final StubCollector pauses = new StubCollector("ZGC Pauses", "ZHeap");
+        tracker = new ClassLoaderLeakTracker(2, Collections.<ClassLoaderLeakListener>emptySet()) {
+            @Override
+            protected List<GarbageCollectorMXBean> getGarbageCollectors() {
+                return Arrays.<GarbageCollectorMXBean>asList(cycles, pauses);
+            }
+        };
+        cycles.collectionCount = 3;
+        pauses.collectionCount = 9;
+        assertEquals(tracker.getGcCount(), 3);
+    }
+
+    @Test
+    public void testCollectedRevisionIsUntracked() throws Exception {
+        tracker.retire(ModuleId.create("A"), 1000, new URLClassLoader(new URL[0]));
+        gcCount = 2;
+        tracker.checkRetiredRevisions();
+        assertEquals(leakedRevisions.size(), 1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (tracker.getTrackedRevisionCount() > 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            tracker.checkRetiredRevisions();
+        }
+        assertEquals(tracker.getTrackedRevisionCount(), 0);
+        assertEquals(tracker.getCollectedRevisionCount(), 1);
+        assertEquals(tracker.getZombieRevisionCount(), 0);
+        assertEquals(tracker.getOldestZombieAgeMillis(), 0);
+        assertEquals(collectedRevisions.size(), 1);
+        assertEquals(collectedRevisions.get(0).getModuleId(), ModuleId.create("A"));
+    }
+
+    /**
+     * Collector with a settable collection count
+     */
+    private static class StubCollector implements GarbageCollectorMXBean {
+        private final String name;
+        private final String[] memoryPoolNames;
+        private volatile long collectionCount;
+
+        private StubCollector(String name, String... memoryPoolNames) {
+            this.name = name;
+            this.memoryPoolNames = memoryPoolNames;
+        }
+
+        @Override
+        public long getCollectionCount() {
+            return collectionCount;
+        }
+
+        @Override
+        public long getCollectionTime() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public String[] getMemoryPoolNames() {
+            return memoryPoolNames;
+        }
+
+        @Override
+        public ObjectName getObjectName() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ScriptModuleClassIndex}
+ */
+public class ScriptModuleClassIndexTest {
+
+    @Test
+    public void testFindClass() {
+        ScriptModuleClassIndex index = new ScriptModuleClassIndex(Arrays.<Class<?>>asList(ArrayList.class, HashMap.class));
+        assertEquals(index.size(), 2);
+        assertEquals(index.findClass(ArrayList.class.getName()), ArrayList.class);
+        assertEquals(index.findClass(HashMap.class.getName()), HashMap.class);
+        assertNull(index.findClass(String.class.getName()));
+    }
+
+    @Test
+    public void testFindAssignableClasses() {
+        ScriptModuleClassIndex index = new ScriptModuleClassIndex(Arrays.<Class<?>>asList(ArrayList.class, HashMap.class, Runnable.class));
+        // superclasses, directly implemented and inherited interfaces
+        assertEquals(index.findAssignableClasses(AbstractList.class), Collections.singleton(ArrayList.class));
+        assertEquals(index.findAssignableClasses(List.class), Collections.singleton(ArrayList.class));
+        assertEquals(index.findAssignableClasses(Collection.class), Collections.singleton(ArrayList.class));
+        assertEquals(index.findAssignableClasses(Map.class), Collections.singleton(HashMap.class));
+        assertEquals(index.findAssignableClasses(Serializable.class), new HashSet<Class<?>>(Arrays.<Class<?>>asList(ArrayList.class, HashMap.class)));
+        // the class itself, and Object for interfaces too
+        assertEquals(index.findAssignableClasses(Runnable.class), Collections.singleton(Runnable.class));
+        assertEquals(index.findAssignableClasses(Object.class), index.getClasses());
+
+        assertTrue(index.findAssignableClasses(Callable.class).isEmpty());
+        assertNull(index.findAssignableClass(Callable.class));
+        assertEquals(index.findAssignableClass(List.class), ArrayList.class);
+    }
+
+    @Test
+    public void testEmpty() {
+        ScriptModuleClassIndex index = ScriptModuleClassIndex.empty();
+        assertEquals(index.size(), 0);
+        assertNull(index.findClass(Object.class.getName()));
+        assertNull(index.findAssignableClass(Object.class));
+    }
+}
@@ -26,19 +26,28 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.hamcrest.Description;
+import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
 import org.mockito.ArgumentMatcher;
 import org.mockito.InOrder;
@@ -219,6 +228,109 @@ public class ScriptModuleLoaderTest {
         assertEquals(moduleLoader.getAllScriptModules().size(),4);
     }
 
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+        // graph: A->{B,C,D}, E->D
+        long originalCreateTime = 1000;
+        Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin")
+            .addModuleDependency("B").addModuleDependency("C").addModuleDependency("D").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("B").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("C").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("D").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("E").addCompilerPluginId("mockPlugin").addModuleDependency("D").build(), originalCreateTime));
+
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+
+        ExecutorService compilationExecutor = Executors.newFixedThreadPool(4);
+        try {
+            ScriptModuleListener mockListener = createMockListener();
+            ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+                .addListener(mockListener)
+                .withCompilationExecutor(compilationExecutor)
+                .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                    .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+                .build();
+            moduleLoader.updateScriptArchives(updateArchives);
+
+            // A must only be committed after all of its dependencies
+            InOrder orderVerifier = inOrder(mockListener);
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("B", originalCreateTime), (ScriptModule)Mockito.isNull());
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("A", originalCreateTime), (ScriptModule)Mockito.isNull());
+            orderVerifier = inOrder(mockListener);
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("D", originalCreateTime), (ScriptModule)Mockito.isNull());
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("E", originalCreateTime), (ScriptModule)Mockito.isNull());
+            verify(mockListener).moduleUpdated(moduleEquals("C", originalCreateTime), (ScriptModule)Mockito.isNull());
+            verifyNoMoreInteractions(mockListener);
+            assertEquals(moduleLoader.getAllScriptModules().size(), 5);
+
+            // update D. should cause A and E to be relinked
+            reset(mockListener);
+            updateArchives.clear();
+            long updatedCreateTime = 2000;
+            updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("D").addCompilerPluginId("mockPlugin").build(), updatedCreateTime));
+            moduleLoader.updateScriptArchives(updateArchives);
+
+            orderVerifier = inOrder(mockListener);
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("D", updatedCreateTime), moduleEquals("D", originalCreateTime));
+            orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("A", originalCreateTime), moduleEquals("A", originalCreateTime));
+            verify(mockListener).moduleUpdated(moduleEquals("E", originalCreateTime), moduleEquals("E", originalCreateTime));
+            verifyNoMoreInteractions(mockListener);
+            assertEquals(moduleLoader.getScriptModule("D").getCreateTime(), updatedCreateTime);
+        } finally {
+            compilationExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentCompilationNotificationOrder() throws Exception {
+        // graph: A->{B,C,D}, E->D
+        long originalCreateTime = 1000;
+        Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin")
+            .addModuleDependency("B").addModuleDependency("C").addModuleDependency("D").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("B").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("C").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("D").addCompilerPluginId("mockPlugin").build(), originalCreateTime));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("E").addCompilerPluginId("mockPlugin").addModuleDependency("D").build(), originalCreateTime));
+        Set<ScriptArchive> dependencyUpdate = new HashSet<ScriptArchive>();
+        dependencyUpdate.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("D").addCompilerPluginId("mockPlugin").build(), 2000));
+
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+
+        NotificationRecordingListener serialListener = new NotificationRecordingListener();
+        ScriptModuleLoader serialLoader = new ScriptModuleLoader.Builder()
+            .addListener(serialListener)
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+            .build();
+        serialListener.moduleLoader = serialLoader;
+        serialLoader.updateScriptArchives(updateArchives);
+        serialLoader.updateScriptArchives(dependencyUpdate);
+
+        ExecutorService compilationExecutor = Executors.newFixedThreadPool(4);
+        try {
+            NotificationRecordingListener concurrentListener = new NotificationRecordingListener();
+            ScriptModuleLoader concurrentLoader = new ScriptModuleLoader.Builder()
+                .addListener(concurrentListener)
+                .withCompilationExecutor(compilationExecutor)
+                .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                    .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+                .build();
+            concurrentListener.moduleLoader = concurrentLoader;
+            concurrentLoader.updateScriptArchives(updateArchives);
+            concurrentLoader.updateScriptArchives(dependencyUpdate);
+
+            // each module is notified right after it is committed, once it can be looked up
+            assertEquals(serialListener.notifications.size(), 8);
+            assertEquals(concurrentListener.notifications, serialListener.notifications);
+        } finally {
+            compilationExecutor.shutdownNow();
+        }
+    }
+
     @Test
     public void testCompileErrorAbortsRelink() throws Exception {
         // original graph: A->B->C->D
@@ -346,6 +458,113 @@ public class ScriptModuleLoaderTest {
         assertEquals(moduleLoader.getScriptModule("A").getCreateTime(), originalCreateTime);
     }
 
+    @Test
+    public void testRevisionsAreUniqueWithinTheSameMillisecond() throws Exception {
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+        ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+            .build();
+
+        // back to back updates are usually applied within the same millisecond
+        Set<ModuleIdentifier> revisionIds = new HashSet<ModuleIdentifier>();
+        for (int i = 1; i <= 10; i++) {
+            moduleLoader.updateScriptArchives(Collections.singleton(
+                new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin").build(), i)));
+            ScriptModule scriptModule = moduleLoader.getScriptModule("A");
+            assertEquals(scriptModule.getCreateTime(), i);
+            revisionIds.add(scriptModule.getModuleClassLoader().getModule().getIdentifier());
+        }
+        assertEquals(revisionIds.size(), 10);
+    }
+
+    @Test
+    public void testModuleHandle() throws Exception {
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+        ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+            .build();
+
+        // handles can be created before the module is loaded
+        ScriptModuleHandle handle = moduleLoader.getScriptModuleHandle("A.v1");
+        assertEquals(handle.getModuleId(), ModuleId.create("A", "v1"));
+        assertNull(handle.get());
+        // there is a single handle per module
+        assertSame(moduleLoader.getScriptModuleHandle(ModuleId.create("A", "v1")), handle);
+
+        moduleLoader.updateScriptArchives(Collections.singleton(
+            new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A.v1").addCompilerPluginId("mockPlugin").build(), 1000)));
+        ScriptModule originalModule = moduleLoader.getScriptModule("A.v1");
+        assertNotNull(originalModule);
+        assertSame(handle.get(), originalModule);
+        assertSame(moduleLoader.getScriptModule(ModuleId.create("A", "v1")), originalModule);
+
+        // the handle follows updates of the module
+        moduleLoader.updateScriptArchives(Collections.singleton(
+            new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A.v1").addCompilerPluginId("mockPlugin").build(), 2000)));
+        assertEquals(handle.get().getCreateTime(), 2000);
+        assertSame(moduleLoader.getScriptModule("A.v1"), handle.get());
+
+        moduleLoader.removeScriptModule(ModuleId.create("A", "v1"));
+        assertNull(handle.get());
+        assertNull(moduleLoader.getScriptModule("A.v1"));
+
+        // the handle stays valid once the module is loaded again
+        moduleLoader.updateScriptArchives(Collections.singleton(
+            new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A.v1").addCompilerPluginId("mockPlugin").build(), 3000)));
+        assertEquals(handle.get().getCreateTime(), 3000);
+    }
+
+    @Test
+    public void testUnreferencedModuleHandlesAreDropped() throws Exception {
+        ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder().build();
+        ScriptModuleHandle handle = moduleLoader.getScriptModuleHandle("A");
+        WeakReference<ScriptModuleHandle> unreferencedHandle = new WeakReference<ScriptModuleHandle>(moduleLoader.getScriptModuleHandle("B"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (unreferencedHandle.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(unreferencedHandle.get());
+        assertSame(moduleLoader.getScriptModuleHandle("A"), handle);
+    }
+
+    @Test
+    public void testDependencyCycleRejected() throws Exception {
+        // graph: A->B->A, C->A, D
+        long createTime = 1000;
+        TestDependecyScriptArchive archiveA = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin")
+            .addModuleDependency("B").build(), createTime);
+        TestDependecyScriptArchive archiveB = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("B").addCompilerPluginId("mockPlugin")
+            .addModuleDependency("A").build(), createTime);
+        TestDependecyScriptArchive archiveC = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("C").addCompilerPluginId("mockPlugin")
+            .addModuleDependency("A").build(), createTime);
+        TestDependecyScriptArchive archiveD = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("D").addCompilerPluginId("mockPlugin")
+            .build(), createTime);
+        Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+        Collections.<ScriptArchive>addAll(updateArchives, archiveA, archiveB, archiveC, archiveD);
+
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+
+        ScriptModuleListener mockListener = createMockListener();
+        ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+            .addListener(mockListener).build();
+        moduleLoader.updateScriptArchives(updateArchives);
+
+        verify(mockListener).moduleUpdated(moduleEquals("D", createTime), (ScriptModule)Mockito.isNull());
+        verify(mockListener).archiveRejected(Mockito.same(archiveA), Mockito.same(ArchiveRejectedReason.DEPENDENCY_CYCLE), Mockito.any(ScriptCompilationException.class));
+        verify(mockListener).archiveRejected(Mockito.same(archiveB), Mockito.same(ArchiveRejectedReason.DEPENDENCY_CYCLE), Mockito.any(ScriptCompilationException.class));
+        verify(mockListener).archiveRejected(Mockito.same(archiveC), Mockito.same(ArchiveRejectedReason.DEPENDENCY_CYCLE), Mockito.any(ScriptCompilationException.class));
+        verifyNoMoreInteractions(mockListener);
+        assertEquals(moduleLoader.getAllScriptModules().size(), 1);
+    }
+
     /**
      * Test that the compiler plugin classloader is available through the ScriptModuleLoader.
      * @throws IOException
@@ -389,6 +608,21 @@ public class ScriptModuleLoaderTest {
         return mockListener;
     }
 
+    /**
+     * Listener which records the modules it is notified of, and whether the loader returned them at the time
+     */
+    private static class NotificationRecordingListener extends BaseScriptModuleListener {
+        private final List<String> notifications = new ArrayList<String>();
+        private ScriptModuleLoader moduleLoader;
+
+        @Override
+        public void moduleUpdated(ScriptModule newScriptModule, ScriptModule oldScriptModule) {
+            ModuleId moduleId = newScriptModule.getModuleId();
+            boolean published = moduleLoader.getScriptModule(moduleId) == newScriptModule;
+            notifications.add(moduleId + (published ? "" : " (unpublished)"));
+        }
+    }
+
     private static class TestDependecyScriptArchive implements ScriptArchive {
         private final long createTime;
         private ScriptModuleSpec scriptModuleSpec;
@@ -0,0 +1,291 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+
+/**
+ * Tests for how {@link ScriptModuleLoader} serializes and batches concurrent writes
+ */
+public class ScriptModuleLoaderWritesTest {
+    private Path archiveDir;
+    private RecordingModuleLoader moduleLoader;
+    private Thread writerThread;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        archiveDir = Files.createTempDirectory("ScriptModuleLoaderWritesTest");
+        moduleLoader = new RecordingModuleLoader();
+    }
+
+    @AfterMethod
+    public void teardown() throws Exception {
+        moduleLoader.unblock();
+        if (writerThread != null) {
+            writerThread.join(10000);
+        }
+    }
+
+    @Test
+    public void testSubmitDoesNotWaitForWriter() throws Exception {
+        startBlockedUpdate("A");
+        Future<Void> futureB = moduleLoader.submitScriptArchives(archives("B"));
+        Future<Void> futureC = moduleLoader.submitScriptArchives(archives("C"));
+        assertFalse(futureB.isDone());
+        assertFalse(futureC.isDone());
+
+        moduleLoader.unblock();
+        futureB.get(10, TimeUnit.SECONDS);
+        futureC.get(10, TimeUnit.SECONDS);
+        // the writes queued behind the first update are applied as a single update
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "update [B, C]"));
+    }
+
+    @Test
+    public void testSubmitOnlyQueues() throws Exception {
+        final List<Runnable> writeTasks = new ArrayList<Runnable>();
+        moduleLoader = new RecordingModuleLoader(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                writeTasks.add(command);
+            }
+        });
+        Future<Void> futureA = moduleLoader.submitScriptArchives(archives("A"));
+        Future<Void> futureB = moduleLoader.submitRemoval(ModuleId.create("B"));
+        assertFalse(futureA.isDone());
+        assertFalse(futureB.isDone());
+        assertTrue(moduleLoader.getWrites().isEmpty());
+
+        writeTasks.get(0).run();
+        assertTrue(futureA.isDone());
+        assertTrue(futureB.isDone());
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "remove B"));
+    }
+
+    @Test
+    public void testSubmittedWritesAreAppliedOnWriteThread() throws Exception {
+        moduleLoader.submitScriptArchives(archives("A")).get(10, TimeUnit.SECONDS);
+        assertNotSame(moduleLoader.lastWriteThread, Thread.currentThread());
+    }
+
+    @Test
+    public void testUpdatesOfSameModuleAreNotBatched() throws Exception {
+        startBlockedUpdate("A");
+        Future<Void> future1 = moduleLoader.submitScriptArchives(archives("B"));
+        Future<Void> future2 = moduleLoader.submitScriptArchives(archives("B", "C"));
+        moduleLoader.unblock();
+        future1.get(10, TimeUnit.SECONDS);
+        future2.get(10, TimeUnit.SECONDS);
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "update [B]", "update [B, C]"));
+    }
+
+    @Test
+    public void testWritesAreAppliedInOrder() throws Exception {
+        startBlockedUpdate("A");
+        moduleLoader.submitScriptArchives(archives("B"));
+        moduleLoader.submitRemoval(ModuleId.create("A"));
+        Future<Void> future = moduleLoader.submitScriptArchives(archives("C"));
+        moduleLoader.unblock();
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "update [B]", "remove A", "update [C]"));
+    }
+
+    @Test
+    public void testSynchronousWriteWaitsForQueuedWrites() throws Exception {
+        startBlockedUpdate("A");
+        moduleLoader.submitScriptArchives(archives("B"));
+        Thread removal = new Thread(new Runnable() {
+            public void run() {
+                moduleLoader.removeScriptModule(ModuleId.create("B"));
+            }
+        });
+        removal.start();
+        moduleLoader.unblock();
+        removal.join(10000);
+        assertFalse(removal.isAlive());
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "update [B]", "remove B"));
+    }
+
+    @Test
+    public void testCompilerPluginWaitsForWriter() throws Exception {
+        startBlockedUpdate("A");
+        Thread plugin = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    moduleLoader.addCompilerPlugin(new ScriptCompilerPluginSpec.Builder("plugin").build());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        plugin.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!moduleLoader.writeLock.hasQueuedThread(plugin) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(moduleLoader.writeLock.hasQueuedThread(plugin));
+        moduleLoader.unblock();
+        plugin.join(10000);
+        assertFalse(plugin.isAlive());
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [A]", "plugin plugin"));
+    }
+
+    @Test
+    public void testFailedUpdate() throws Exception {
+        moduleLoader.failOn("B");
+        try {
+            moduleLoader.updateScriptArchives(archives("B"));
+            fail("expected the update to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "B");
+        }
+        try {
+            moduleLoader.submitScriptArchives(archives("B")).get(10, TimeUnit.SECONDS);
+            fail("expected the update to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the loader is still usable
+        moduleLoader.updateScriptArchives(archives("C"));
+        assertEquals(moduleLoader.getWrites(), Arrays.asList("update [B]", "update [B]", "update [C]"));
+    }
+
+    private void startBlockedUpdate(final String moduleId) throws Exception {
+        moduleLoader.block();
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                moduleLoader.updateScriptArchives(archives(moduleId));
+            }
+        });
+        writerThread.start();
+        assertTrue(moduleLoader.awaitBlocked());
+    }
+
+    private Set<ScriptArchive> archives(String... moduleIds) {
+        Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>();
+        try {
+            for (String moduleId : moduleIds) {
+                archives.add(new PathScriptArchive.Builder(archiveDir)
+                    .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+                    .build());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return archives;
+    }
+
+    /**
+     * Loader which records the writes it applies instead of loading modules
+     */
+    private static class RecordingModuleLoader extends ScriptModuleLoader {
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+        private volatile CountDownLatch blockLatch = new CountDownLatch(0);
+        private final CountDownLatch blockedLatch = new CountDownLatch(1);
+        private volatile String failingModuleId;
+        private volatile Thread lastWriteThread;
+
+        private RecordingModuleLoader() throws Exception {
+            this(null);
+        }
+
+        private RecordingModuleLoader(Executor writeExecutor) throws Exception {
+            super(Collections.<ScriptCompilerPluginSpec>emptySet(), RecordingModuleLoader.class.getClassLoader(),
+                Collections.<String>emptySet(), Collections.<ScriptModuleListener>emptySet(), null,
+                null, null, false, false, null, false, writeExecutor);
+        }
+
+        @Override
+        protected void applyUpdate(Set<? extends ScriptArchive> candidateArchives) {
+            List<String> moduleIds = new ArrayList<String>();
+            for (ScriptArchive scriptArchive : candidateArchives) {
+                moduleIds.add(scriptArchive.getModuleSpec().getModuleId().toString());
+            }
+            writes.add("update " + moduleIds);
+            lastWriteThread = Thread.currentThread();
+            blockedLatch.countDown();
+            try {
+                blockLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (moduleIds.contains(failingModuleId)) {
+                throw new IllegalStateException(failingModuleId);
+            }
+        }
+
+        @Override
+        protected void applyRemoval(ModuleId scriptModuleId) {
+            writes.add("remove " + scriptModuleId);
+            lastWriteThread = Thread.currentThread();
+        }
+
+        @Override
+        protected void applyCompilerPlugin(ScriptCompilerPluginSpec pluginSpec) {
+            writes.add("plugin " + pluginSpec.getPluginId());
+        }
+
+        private List<String> getWrites() {
+            return new ArrayList<String>(writes);
+        }
+
+        private void failOn(String moduleId) {
+            failingModuleId = moduleId;
+        }
+
+        private void block() {
+            blockLatch = new CountDownLatch(1);
+        }
+
+        private void unblock() {
+            blockLatch.countDown();
+        }
+
+        private boolean awaitBlocked() throws InterruptedException {
+            return blockedLatch.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
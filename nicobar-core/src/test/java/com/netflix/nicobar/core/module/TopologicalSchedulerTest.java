@@ -0,0 +1,99 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link TopologicalScheduler}
+ */
+public class TopologicalSchedulerTest {
+
+    @Test
+    public void testLevels() {
+        // graph: A->{B,C}, B->D, C->D, E
+        DirectedGraph<String, DefaultEdge> graph = new SimpleDirectedGraph<String, DefaultEdge>(DefaultEdge.class);
+        GraphUtils.addOutgoingEdges(graph, "A", new HashSet<String>(Arrays.asList("B", "C")));
+        GraphUtils.addOutgoingEdges(graph, "B", Collections.singleton("D"));
+        GraphUtils.addOutgoingEdges(graph, "C", Collections.singleton("D"));
+        graph.addVertex("E");
+
+        TopologicalScheduler<String> scheduler = new TopologicalScheduler<String>(graph);
+        assertEquals(pollAndComplete(scheduler), new HashSet<String>(Arrays.asList("D", "E")));
+        assertEquals(pollAndComplete(scheduler), new HashSet<String>(Arrays.asList("B", "C")));
+        assertEquals(pollAndComplete(scheduler), Collections.singleton("A"));
+        assertFalse(scheduler.hasReady());
+        assertTrue(scheduler.getBlockedVertices().isEmpty());
+        assertTrue(scheduler.findCycles().isEmpty());
+    }
+
+    @Test
+    public void testDependentIsNotReadyUntilCompleted() {
+        DirectedGraph<String, DefaultEdge> graph = new SimpleDirectedGraph<String, DefaultEdge>(DefaultEdge.class);
+        GraphUtils.addOutgoingEdges(graph, "A", Collections.singleton("B"));
+
+        TopologicalScheduler<String> scheduler = new TopologicalScheduler<String>(graph);
+        Set<String> level = scheduler.pollReady();
+        assertEquals(level, Collections.singleton("B"));
+        assertFalse(scheduler.hasReady());
+        scheduler.complete(level);
+        assertEquals(scheduler.pollReady(), Collections.singleton("A"));
+    }
+
+    @Test
+    public void testCycles() {
+        // graph: A->B->C->A, D->A, E
+        DirectedGraph<String, DefaultEdge> graph = new SimpleDirectedGraph<String, DefaultEdge>(DefaultEdge.class);
+        GraphUtils.addOutgoingEdges(graph, "A", Collections.singleton("B"));
+        GraphUtils.addOutgoingEdges(graph, "B", Collections.singleton("C"));
+        GraphUtils.addOutgoingEdges(graph, "C", Collections.singleton("A"));
+        GraphUtils.addOutgoingEdges(graph, "D", Collections.singleton("A"));
+        graph.addVertex("E");
+
+        TopologicalScheduler<String> scheduler = new TopologicalScheduler<String>(graph);
+        assertEquals(pollAndComplete(scheduler), Collections.singleton("E"));
+        assertFalse(scheduler.hasReady());
+        assertEquals(scheduler.getBlockedVertices(), new HashSet<String>(Arrays.asList("A", "B", "C", "D")));
+
+        List<List<String>> cycles = scheduler.findCycles();
+        assertEquals(cycles.size(), 1);
+        List<String> cycle = cycles.get(0);
+        assertEquals(cycle.size(), 4);
+        assertEquals(cycle.get(0), cycle.get(3));
+        assertEquals(new HashSet<String>(cycle), new HashSet<String>(Arrays.asList("A", "B", "C")));
+    }
+
+    private static Set<String> pollAndComplete(TopologicalScheduler<String> scheduler) {
+        Set<String> level = scheduler.pollReady();
+        scheduler.complete(level);
+        return level;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module.jboss;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.jboss.modules.DependencySpec;
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.modules.ModuleSpec;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Unit tests for the revision registry of {@link JBossModuleLoader}
+ */
+public class JBossModuleLoaderTest {
+    private static final ModuleId MODULE_A = ModuleId.create("A");
+    private static final ModuleId MODULE_B = ModuleId.create("B");
+    private static final ModuleId MODULE_C = ModuleId.create("C");
+
+    @Test
+    public void testLatestRevisions() {
+        JBossModuleLoader moduleLoader = new JBossModuleLoader();
+        // revisions which don't fit in an int
+        long revision1 = 1400000000000L;
+        long revision2 = 1400000000001L;
+        ModuleIdentifier revisionId1 = JBossModuleUtils.createRevisionId(MODULE_A, revision1);
+        ModuleIdentifier revisionId2 = JBossModuleUtils.createRevisionId(MODULE_A, revision2);
+        assertTrue(moduleLoader.addModuleSpec(createModuleSpec(revisionId2)));
+        assertTrue(moduleLoader.addModuleSpec(createModuleSpec(revisionId1)));
+        assertFalse(moduleLoader.addModuleSpec(createModuleSpec(revisionId1)));
+
+        assertEquals(moduleLoader.getLatestRevisionNumber(MODULE_A), revision2);
+        assertEquals(moduleLoader.getLatestRevisionId(MODULE_A), revisionId2);
+        assertEquals(moduleLoader.getLatestRevisionIds(), Collections.singletonMap(MODULE_A, revisionId2));
+        Iterator<ModuleIdentifier> revisionIds = moduleLoader.getAllRevisionIds(MODULE_A.toString()).iterator();
+        assertEquals(revisionIds.next(), revisionId2);
+        assertEquals(revisionIds.next(), revisionId1);
+        assertFalse(revisionIds.hasNext());
+
+        moduleLoader.removeModuleSpec(revisionId2);
+        assertEquals(moduleLoader.getLatestRevisionNumber(MODULE_A), revision1);
+        moduleLoader.removeModuleSpec(revisionId1);
+        assertEquals(moduleLoader.getLatestRevisionNumber(MODULE_A), -1);
+        assertTrue(moduleLoader.getLatestRevisionIds().isEmpty());
+        assertTrue(moduleLoader.getAllRevisionIds(MODULE_A.toString()).isEmpty());
+        // names which aren't valid module ids have no revisions
+        assertTrue(moduleLoader.getAllRevisionIds("").isEmpty());
+    }
+
+    @Test
+    public void testModuleNameGraph() {
+        JBossModuleLoader moduleLoader = new JBossModuleLoader();
+        // A->B, B->C
+        ModuleIdentifier revisionA = JBossModuleUtils.createRevisionId(MODULE_A, 1);
+        ModuleIdentifier revisionB1 = JBossModuleUtils.createRevisionId(MODULE_B, 1);
+        moduleLoader.addModuleSpec(createModuleSpec(revisionA, revisionB1));
+        moduleLoader.addModuleSpec(createModuleSpec(revisionB1, JBossModuleUtils.createRevisionId(MODULE_C, 1)));
+
+        // C has no revisions, but is still part of the graph since B depends on it
+        DirectedGraph<ModuleId, DefaultEdge> graph = moduleLoader.getModuleNameGraph();
+        assertEquals(graph.vertexSet(), new HashSet<ModuleId>(Arrays.asList(MODULE_A, MODULE_B, MODULE_C)));
+        assertTrue(graph.containsEdge(MODULE_A, MODULE_B));
+        assertTrue(graph.containsEdge(MODULE_B, MODULE_C));
+
+        // the graph is a snapshot
+        graph.removeVertex(MODULE_A);
+        assertTrue(moduleLoader.getModuleNameGraph().containsVertex(MODULE_A));
+
+        // a newer revision of B without dependencies replaces the edges of the old one
+        ModuleIdentifier revisionB2 = JBossModuleUtils.createRevisionId(MODULE_B, 2);
+        moduleLoader.addModuleSpec(createModuleSpec(revisionB2));
+        graph = moduleLoader.getModuleNameGraph();
+        assertEquals(graph.vertexSet(), new HashSet<ModuleId>(Arrays.asList(MODULE_A, MODULE_B)));
+        assertTrue(graph.containsEdge(MODULE_A, MODULE_B));
+
+        // removing A leaves B, which still has revisions
+        moduleLoader.removeModuleSpec(revisionA);
+        graph = moduleLoader.getModuleNameGraph();
+        assertEquals(graph.vertexSet(), Collections.singleton(MODULE_B));
+        assertTrue(graph.edgeSet().isEmpty());
+    }
+
+    private static ModuleSpec createModuleSpec(ModuleIdentifier revisionId, ModuleIdentifier... dependencies) {
+        ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(revisionId);
+        for (ModuleIdentifier dependency : dependencies) {
+            moduleSpecBuilder.addDependency(DependencySpec.createModuleDependencySpec(dependency));
+        }
+        return moduleSpecBuilder.create();
+    }
+}
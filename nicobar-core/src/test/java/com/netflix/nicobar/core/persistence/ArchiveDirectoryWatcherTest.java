@@ -0,0 +1,158 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+
+/**
+ * Unit tests for {@link ArchiveDirectoryWatcher}
+ */
+public class ArchiveDirectoryWatcherTest {
+    private Path rootDir;
+    private ArchiveDirectoryWatcher watcher;
+    private final Semaphore changes = new Semaphore(0);
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        rootDir = Files.createTempDirectory(ArchiveDirectoryWatcherTest.class.getSimpleName() + "_");
+        FileUtils.forceDeleteOnExit(rootDir.toFile());
+        watcher = new ArchiveDirectoryWatcher(rootDir, JarArchiveRepository.JAR_FILE_FILTER, JarArchiveRepository.MODULE_ID_RESOLVER,
+            true, TimeUnit.HOURS.toMillis(1));
+        watcher.addChangeListener(new Runnable() {
+            @Override
+            public void run() {
+                changes.release();
+            }
+        });
+        watcher.start();
+    }
+
+    @AfterMethod
+    public void teardown() throws Exception {
+        watcher.close();
+    }
+
+    @Test
+    public void testExternalChanges() throws Exception {
+        assertTrue(watcher.isWatching());
+        assertEquals(watcher.getArchiveUpdateTimes(), Collections.emptyMap());
+
+        // files which aren't archives are ignored
+        Path archiveJar = rootDir.resolve("A.jar");
+        Files.write(archiveJar, new byte[] {1});
+        Files.write(rootDir.resolve("notes.txt"), new byte[] {1});
+        Files.setLastModifiedTime(archiveJar, FileTime.fromMillis(1000));
+        awaitUpdateTime(ModuleId.create("A"), 1000L);
+        assertEquals(watcher.getArchiveUpdateTimes(), Collections.singletonMap(ModuleId.create("A"), 1000L));
+
+        Files.setLastModifiedTime(archiveJar, FileTime.fromMillis(2000));
+        awaitUpdateTime(ModuleId.create("A"), 2000L);
+
+        Files.delete(archiveJar);
+        awaitUpdateTime(ModuleId.create("A"), null);
+        assertEquals(watcher.getArchiveUpdateTimes(), Collections.emptyMap());
+    }
+
+    @Test
+    public void testScanWithoutWatching() throws Exception {
+        ArchiveDirectoryWatcher scanner = new ArchiveDirectoryWatcher(rootDir, JarArchiveRepository.JAR_FILE_FILTER,
+            JarArchiveRepository.MODULE_ID_RESOLVER, false, 0);
+        scanner.start();
+        assertTrue(!scanner.isWatching());
+        Path archiveJar = rootDir.resolve("A.jar");
+        Files.write(archiveJar, new byte[] {1});
+        Files.setLastModifiedTime(archiveJar, FileTime.fromMillis(1000));
+        assertEquals(scanner.getArchiveUpdateTimes(), Collections.singletonMap(ModuleId.create("A"), 1000L));
+    }
+
+    @Test
+    public void testReplaceEntry() throws Exception {
+        final ArchiveDirectoryWatcher directoryWatcher = new ArchiveDirectoryWatcher(rootDir, PathArchiveRepository.DIRECTORY_FILTER,
+            PathArchiveRepository.MODULE_ID_RESOLVER, true, 0);
+        directoryWatcher.start();
+        try {
+            Path moduleDir = Files.createDirectory(rootDir.resolve("A"));
+            Files.setLastModifiedTime(moduleDir, FileTime.fromMillis(1000));
+
+            // readers never observe the module missing while it is being replaced
+            final AtomicBoolean replacing = new AtomicBoolean(true);
+            final AtomicInteger missingCount = new AtomicInteger();
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (replacing.get()) {
+                        try {
+                            if (!directoryWatcher.getArchiveUpdateTimes().containsKey(ModuleId.create("A"))) {
+                                missingCount.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            missingCount.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            reader.start();
+            for (int i = 1; i <= 20; i++) {
+                Path tempDir = Files.createTempDirectory(rootDir, ".A");
+                Files.write(tempDir.resolve("revision"), new byte[] {(byte)i});
+                Files.setLastModifiedTime(tempDir, FileTime.fromMillis(1000 + i));
+                directoryWatcher.replaceEntry(tempDir, moduleDir);
+            }
+            replacing.set(false);
+            reader.join(10000);
+            assertEquals(missingCount.get(), 0);
+
+            assertEquals(directoryWatcher.getArchiveUpdateTimes(), Collections.singletonMap(ModuleId.create("A"), 1020L));
+            assertEquals(Files.readAllBytes(moduleDir.resolve("revision")), new byte[] {20});
+            // the replaced directories are deleted
+            assertEquals(Arrays.asList(rootDir.toFile().list()), Collections.singletonList("A"));
+        } finally {
+            directoryWatcher.close();
+        }
+    }
+
+    private void awaitUpdateTime(ModuleId moduleId, Long expectedUpdateTime) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (true) {
+            Long updateTime = watcher.getArchiveUpdateTimes().get(moduleId);
+            if (expectedUpdateTime == null ? updateTime == null : expectedUpdateTime.equals(updateTime)) {
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for " + moduleId + " to be updated");
+            changes.tryAcquire(1, TimeUnit.SECONDS);
+        }
+    }
+}
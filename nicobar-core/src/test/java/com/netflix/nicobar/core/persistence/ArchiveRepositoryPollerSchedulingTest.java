@@ -0,0 +1,596 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import static com.netflix.nicobar.core.persistence.ArchiveRepositoryPoller.DEFAULT_MAX_BACKOFF_MILLIS;
+import static com.netflix.nicobar.core.persistence.ArchiveRepositoryPoller.DEFAULT_MAX_UPDATE_DELAY_MILLIS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.ScriptModuleListener;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+
+/**
+ * Unit tests for the scheduling of {@link ArchiveRepositoryPoller}: isolation of the repositories,
+ * timeouts, backoff, adaptive poll intervals, and the coalescing and debouncing of updates.
+ */
+public class ArchiveRepositoryPollerSchedulingTest {
+    private Path archiveDir;
+    private RecordingModuleLoader moduleLoader;
+    private ArchiveRepositoryPoller poller;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        archiveDir = Files.createTempDirectory(ArchiveRepositoryPollerSchedulingTest.class.getSimpleName() + "_");
+        FileUtils.forceDeleteOnExit(archiveDir.toFile());
+        moduleLoader = new RecordingModuleLoader();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        if (poller != null) {
+            poller.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowRepositoryDoesNotDelayOthers() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader).build();
+        TestArchiveRepository slowRepository = new TestArchiveRepository("slow");
+        slowRepository.setArchive("A", 1000);
+        slowRepository.block();
+        TestArchiveRepository fastRepository = new TestArchiveRepository("fast");
+        fastRepository.setArchive("B", 1000);
+
+        poller.addRepository(slowRepository, 10, TimeUnit.SECONDS, false);
+        poller.addRepository(fastRepository, 10, TimeUnit.SECONDS, true);
+        assertEquals(moduleLoader.getUpdatedModuleIds(), Collections.singletonList(ModuleId.create("B")));
+
+        slowRepository.unblock();
+        awaitUpdate(ModuleId.create("A"));
+    }
+
+    @Test
+    public void testPollTimeout() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader)
+            .setPollTimeout(100, TimeUnit.MILLISECONDS)
+            .build();
+        TestArchiveRepository slowRepository = new TestArchiveRepository("slow");
+        slowRepository.setArchive("A", 1000);
+        slowRepository.block();
+
+        // the initial poll is abandoned once it times out
+        long startTime = System.currentTimeMillis();
+        poller.addRepository(slowRepository, 10, TimeUnit.SECONDS, true);
+        assertTrue(System.currentTimeMillis() - startTime < TimeUnit.SECONDS.toMillis(5));
+        assertTrue(moduleLoader.getUpdatedModuleIds().isEmpty());
+        slowRepository.unblock();
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        RecordingPoller recordingPoller = new RecordingPoller(moduleLoader, 200, 0);
+        poller = recordingPoller;
+        TestArchiveRepository failingRepository = new TestArchiveRepository("failing");
+        failingRepository.setArchive("A", 1000);
+        failingRepository.setFailing(true);
+        poller.addRepository(failingRepository, 20, TimeUnit.MILLISECONDS, false);
+        assertEquals(recordingPoller.awaitPollDelay(), 0);
+
+        // the poll interval is doubled for each consecutive failure, up to the max backoff
+        for (long expectedDelay : Arrays.asList(40L, 80L, 160L, 200L, 200L)) {
+            assertEquals(recordingPoller.poll(failingRepository), expectedDelay);
+        }
+        assertEquals(failingRepository.getPollCount(), 5);
+        assertTrue(moduleLoader.getUpdatedModuleIds().isEmpty());
+
+        // and reset once a poll succeeds
+        failingRepository.setFailing(false);
+        assertEquals(recordingPoller.poll(failingRepository), 20);
+        awaitUpdate(ModuleId.create("A"));
+    }
+
+    @Test
+    public void testFailedFetchIsRetried() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader).build();
+        TestArchiveRepository repository = new TestArchiveRepository("repo");
+        poller.addRepository(repository, 10, TimeUnit.SECONDS, true);
+
+        repository.setArchive("A", 1000);
+        repository.setFailing(true);
+        assertFalse(poller.pollRepository(repository));
+        repository.setFailing(false);
+        assertTrue(poller.pollRepository(repository));
+        assertEquals(moduleLoader.getUpdatedModuleIds(), Collections.singletonList(ModuleId.create("A")));
+
+        repository.removeArchive("A");
+        assertTrue(poller.pollRepository(repository));
+        assertEquals(moduleLoader.getRemovedModuleIds(), Collections.singletonList(ModuleId.create("A")));
+    }
+
+    @Test
+    public void testFailedUpdateIsRetried() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader).build();
+        TestArchiveRepository repository = new TestArchiveRepository("repo");
+        repository.setArchive("A", 1000);
+        repository.setArchive("B", 1000);
+        poller.addRepository(repository, 10, TimeUnit.SECONDS, true);
+        assertEquals(moduleLoader.getUpdates().size(), 1);
+
+        // the delete is applied even though the update fails
+        repository.setArchive("A", 2000);
+        repository.removeArchive("B");
+        moduleLoader.failNextUpdate();
+        assertTrue(poller.pollRepository(repository));
+        assertEquals(moduleLoader.getUpdates().size(), 1);
+        assertEquals(moduleLoader.getRemovedModuleIds(), Collections.singletonList(ModuleId.create("B")));
+
+        // the archive which failed to load is fetched again on the next poll
+        assertTrue(poller.pollRepository(repository));
+        List<Set<ScriptArchive>> updates = moduleLoader.getUpdates();
+        assertEquals(updates.size(), 2);
+        assertEquals(updates.get(1).size(), 1);
+        assertEquals(updates.get(1).iterator().next().getCreateTime(), 2000);
+
+        // and isn't fetched again once it has loaded
+        assertTrue(poller.pollRepository(repository));
+        assertEquals(moduleLoader.getUpdates().size(), 2);
+    }
+
+    @Test
+    public void testUpdatesAreCoalesced() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader).build();
+        final CountDownLatch published = new CountDownLatch(4);
+        Runnable onPublished = new Runnable() {
+            public void run() {
+                published.countDown();
+            }
+        };
+
+        // hold up the update thread in the loader, while more updates are queued
+        moduleLoader.block();
+        poller.queueUpdates(Collections.singleton(createArchive("A", 1000)), Collections.<ModuleId>emptySet(), onPublished);
+        moduleLoader.awaitBlocked();
+        poller.queueUpdates(Collections.singleton(createArchive("A", 2000)), Collections.<ModuleId>emptySet(), onPublished);
+        poller.queueUpdates(Collections.singleton(createArchive("B", 2000)), Collections.<ModuleId>emptySet(), onPublished);
+        poller.queueUpdates(Collections.singleton(createArchive("A", 3000)), Collections.singleton(ModuleId.create("B")), onPublished);
+        moduleLoader.unblock();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+
+        List<Set<ScriptArchive>> updates = moduleLoader.getUpdates();
+        assertEquals(updates.size(), 2);
+        assertEquals(updates.get(1).size(), 1);
+        assertEquals(updates.get(1).iterator().next().getCreateTime(), 3000);
+        assertEquals(moduleLoader.getRemovedModuleIds(), Collections.singletonList(ModuleId.create("B")));
+        assertEquals(poller.getPublishedUpdateCount(), 2);
+        assertEquals(poller.getMergedUpdateCount(), 2);
+        assertEquals(poller.getSavedCompilationCount(), 2);
+    }
+
+    @Test
+    public void testUpdateQuietPeriod() throws Exception {
+        ManualClockPoller manualClockPoller = new ManualClockPoller(moduleLoader, 300, DEFAULT_MAX_UPDATE_DELAY_MILLIS);
+        poller = manualClockPoller;
+        final CountDownLatch published = new CountDownLatch(3);
+        Runnable onPublished = new Runnable() {
+            public void run() {
+                published.countDown();
+            }
+        };
+
+        // changes which arrive within the quiet period of each other are published together
+        poller.queueUpdates(Collections.singleton(createArchive("A", 1000)), Collections.<ModuleId>emptySet(), onPublished);
+        manualClockPoller.advance(100);
+        poller.queueUpdates(Collections.singleton(createArchive("B", 1000)), Collections.<ModuleId>emptySet(), onPublished);
+        manualClockPoller.advance(100);
+        poller.queueUpdates(Collections.singleton(createArchive("C", 1000)), Collections.<ModuleId>emptySet(), onPublished);
+        manualClockPoller.advance(299);
+        assertFalse(published.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(moduleLoader.getUpdates().isEmpty());
+
+        manualClockPoller.advance(1);
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertEquals(moduleLoader.getUpdates().size(), 1);
+        assertEquals(new HashSet<ModuleId>(moduleLoader.getUpdatedModuleIds()),
+            new HashSet<ModuleId>(Arrays.asList(ModuleId.create("A"), ModuleId.create("B"), ModuleId.create("C"))));
+        assertEquals(poller.getMergedUpdateCount(), 2);
+    }
+
+    @Test
+    public void testMaxUpdateDelay() throws Exception {
+        ManualClockPoller manualClockPoller = new ManualClockPoller(moduleLoader, 200, 400);
+        poller = manualClockPoller;
+        final CountDownLatch published = new CountDownLatch(1);
+        Runnable onPublished = new Runnable() {
+            public void run() {
+                published.countDown();
+            }
+        };
+
+        // a steady stream of changes doesn't hold up the updates indefinitely
+        for (int i = 0; i < 4; i++) {
+            poller.queueUpdates(Collections.singleton(createArchive("A", i)), Collections.<ModuleId>emptySet(), onPublished);
+            manualClockPoller.advance(100);
+        }
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        List<Set<ScriptArchive>> updates = moduleLoader.getUpdates();
+        assertEquals(updates.size(), 1);
+        assertEquals(updates.get(0).iterator().next().getCreateTime(), 3);
+    }
+
+    @Test
+    public void testActivePollInterval() throws Exception {
+        RecordingPoller recordingPoller = new RecordingPoller(moduleLoader, DEFAULT_MAX_BACKOFF_MILLIS, 50);
+        poller = recordingPoller;
+        TestArchiveRepository repository = new TestArchiveRepository("repo");
+        repository.setArchive("A", 1000);
+        poller.addRepository(repository, 800, TimeUnit.MILLISECONDS, false);
+        assertEquals(recordingPoller.awaitPollDelay(), 0);
+        // the initial poll finds every archive, which doesn't count as a change
+        assertEquals(recordingPoller.poll(repository), 800);
+
+        // a change speeds polling up, until the repository is idle again
+        repository.setArchive("A", 2000);
+        poller.requestPoll(repository, poller.repositoryContexts.get(repository));
+        assertEquals(recordingPoller.awaitPollDelay(), 0);
+        for (long expectedDelay : Arrays.asList(50L, 100L, 200L, 400L, 800L, 800L)) {
+            assertEquals(recordingPoller.poll(repository), expectedDelay);
+        }
+        RepositoryPollStatistics statistics = poller.getPollStatistics(repository);
+        assertEquals(statistics.getPollCount(), 7);
+        assertEquals(statistics.getEffectivePollIntervalMillis(), 800);
+        assertEquals(statistics.getPollIntervalMillis(), 800);
+    }
+
+    @Test
+    public void testPollJitter() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader)
+            .setPollJitter(0.5)
+            .build();
+        Set<Long> delays = new HashSet<Long>();
+        for (int i = 0; i < 100; i++) {
+            long delay = poller.applyJitter(1000);
+            assertTrue(delay >= 500 && delay <= 1500, "unexpected delay " + delay);
+            delays.add(delay);
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+    @Test
+    public void testPollStatistics() throws Exception {
+        poller = new ArchiveRepositoryPoller.Builder(moduleLoader).build();
+        TestArchiveRepository repository = new TestArchiveRepository("repo");
+        repository.setArchive("A", 1000);
+        repository.setLatency(100);
+        assertNull(poller.getPollStatistics(repository));
+
+        poller.addRepository(repository, 10, TimeUnit.SECONDS, true);
+        awaitEffectivePollInterval(repository, 9000);
+        RepositoryPollStatistics statistics = poller.getPollStatistics(repository);
+        assertEquals(statistics.getRepositoryId(), "repo");
+        assertEquals(statistics.getPollCount(), 1);
+        assertEquals(statistics.getFailureCount(), 0);
+        assertTrue(statistics.getEffectivePollIntervalMillis() <= 11000);
+        assertEquals(statistics.getLatencies().getCount(), 1);
+        assertTrue(statistics.getLatencies().getMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(100));
+    }
+
+    private void awaitEffectivePollInterval(ArchiveRepository repository, long minIntervalMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (poller.getPollStatistics(repository).getEffectivePollIntervalMillis() < minIntervalMillis) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the poll interval " + minIntervalMillis);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitUpdate(ModuleId moduleId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!moduleLoader.getUpdatedModuleIds().contains(moduleId)) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for an update of " + moduleId);
+            Thread.sleep(10);
+        }
+    }
+
+    private ScriptArchive createArchive(String moduleId, long createTime) throws IOException {
+        return new PathScriptArchive.Builder(archiveDir)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+            .setCreateTime(createTime)
+            .build();
+    }
+
+    /**
+     * Repository which serves empty archives, and can be made to fail or to block
+     */
+    private class TestArchiveRepository implements ArchiveRepository, RepositoryView {
+        private final String repositoryId;
+        private final Map<ModuleId, Long> updateTimes = new ConcurrentHashMap<ModuleId, Long>();
+        private final AtomicInteger pollCount = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile long latencyMillis;
+        private volatile CountDownLatch blockLatch = new CountDownLatch(0);
+
+        private TestArchiveRepository(String repositoryId) {
+            this.repositoryId = repositoryId;
+        }
+
+        private void setArchive(String moduleId, long updateTime) {
+            updateTimes.put(ModuleId.create(moduleId), updateTime);
+        }
+
+        private void removeArchive(String moduleId) {
+            updateTimes.remove(ModuleId.create(moduleId));
+        }
+
+        private void setFailing(boolean failing) {
+            this.failing = failing;
+        }
+
+        private void setLatency(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        private void block() {
+            blockLatch = new CountDownLatch(1);
+        }
+
+        private void unblock() {
+            blockLatch.countDown();
+        }
+
+        private int getPollCount() {
+            return pollCount.get();
+        }
+
+        @Override
+        public String getRepositoryId() {
+            return repositoryId;
+        }
+
+        @Override
+        public RepositoryView getDefaultView() {
+            return this;
+        }
+
+        @Override
+        public RepositoryView getView(String view) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void insertArchive(JarScriptArchive jarScriptArchive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void insertArchive(JarScriptArchive jarScriptArchive, Map<String, Object> initialDeploySpecs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<ScriptArchive> getScriptArchives(Set<ModuleId> moduleIds) throws IOException {
+            Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>();
+            for (ModuleId moduleId : moduleIds) {
+                archives.add(createArchive(moduleId.toString(), updateTimes.get(moduleId)));
+            }
+            return archives;
+        }
+
+        @Override
+        public void deleteArchive(ModuleId moduleId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName() {
+            return "default";
+        }
+
+        @Override
+        public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+            pollCount.incrementAndGet();
+            try {
+                blockLatch.await();
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failing) {
+                throw new IOException("failing");
+            }
+            return new HashMap<ModuleId, Long>(updateTimes);
+        }
+
+        @Override
+        public RepositorySummary getRepositorySummary() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ArchiveSummary> getArchiveSummaries() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Poller which records the delays of the polls instead of scheduling them, so that the tests
+     * start each poll themselves
+     */
+    private static class RecordingPoller extends ArchiveRepositoryPoller {
+        private final BlockingQueue<Long> pollDelays = new LinkedBlockingQueue<Long>();
+
+        private RecordingPoller(ScriptModuleLoader moduleLoader, long maxBackoffMillis, long activePollIntervalMillis) {
+            super(Executors.newSingleThreadScheduledExecutor(), Executors.newCachedThreadPool(),
+                Executors.newSingleThreadExecutor(), moduleLoader, DEFAULT_POLL_TIMEOUT_MILLIS, maxBackoffMillis,
+                0, DEFAULT_MAX_UPDATE_DELAY_MILLIS, activePollIntervalMillis, 0);
+        }
+
+        @Override
+        protected void schedulePoll(ArchiveRepository archiveRepository, RepositoryPollerContext context, long delayMillis) {
+            pollDelays.add(delayMillis);
+        }
+
+        /**
+         * Start a poll of the repository
+         * @return the delay of the next poll, which is scheduled once the poll completes
+         */
+        private long poll(ArchiveRepository archiveRepository) throws InterruptedException {
+            startPoll(archiveRepository, repositoryContexts.get(archiveRepository));
+            return awaitPollDelay();
+        }
+
+        private long awaitPollDelay() throws InterruptedException {
+            Long delayMillis = pollDelays.poll(5, TimeUnit.SECONDS);
+            assertNotNull(delayMillis, "timed out waiting for a poll to be scheduled");
+            return delayMillis;
+        }
+    }
+
+    /**
+     * Poller whose quiet period and max update delay are measured with a clock which the tests advance
+     */
+    private static class ManualClockPoller extends ArchiveRepositoryPoller {
+        private volatile long nanoTime;
+
+        private ManualClockPoller(ScriptModuleLoader moduleLoader, long updateQuietPeriodMillis, long maxUpdateDelayMillis) {
+            super(Executors.newSingleThreadScheduledExecutor(), Executors.newCachedThreadPool(),
+                Executors.newSingleThreadExecutor(), moduleLoader, DEFAULT_POLL_TIMEOUT_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                updateQuietPeriodMillis, maxUpdateDelayMillis, 0, 0);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return nanoTime;
+        }
+
+        /**
+         * Advance the clock, and wake up the update thread if it is waiting for the quiet period
+         */
+        private void advance(long millis) {
+            synchronized (updateQueueLock) {
+                nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+                updateQueueLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Module loader which records the updates instead of loading them, and can be made to block
+     */
+    private static class RecordingModuleLoader extends ScriptModuleLoader {
+        private final List<Set<ScriptArchive>> updates = new ArrayList<Set<ScriptArchive>>();
+        private final List<ModuleId> removedModuleIds = new ArrayList<ModuleId>();
+        private volatile CountDownLatch blockLatch = new CountDownLatch(0);
+        private final CountDownLatch blockedLatch = new CountDownLatch(1);
+        private volatile boolean failNextUpdate;
+
+        private RecordingModuleLoader() throws Exception {
+            super(Collections.<ScriptCompilerPluginSpec>emptySet(), RecordingModuleLoader.class.getClassLoader(),
+                Collections.<String>emptySet(), Collections.<ScriptModuleListener>emptySet(), null);
+        }
+
+        @Override
+        public void updateScriptArchives(Set<? extends ScriptArchive> candidateArchives) {
+            blockedLatch.countDown();
+            try {
+                blockLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (failNextUpdate) {
+                failNextUpdate = false;
+                throw new IllegalStateException("failing");
+            }
+            synchronized (this) {
+                updates.add(new HashSet<ScriptArchive>(candidateArchives));
+            }
+        }
+
+        @Override
+        public synchronized void removeScriptModule(ModuleId scriptModuleId) {
+            removedModuleIds.add(scriptModuleId);
+        }
+
+        private void block() {
+            blockLatch = new CountDownLatch(1);
+        }
+
+        private void failNextUpdate() {
+            failNextUpdate = true;
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            assertTrue(blockedLatch.await(5, TimeUnit.SECONDS));
+        }
+
+        private void unblock() {
+            blockLatch.countDown();
+        }
+
+        private synchronized List<Set<ScriptArchive>> getUpdates() {
+            return new ArrayList<Set<ScriptArchive>>(updates);
+        }
+
+        private synchronized List<ModuleId> getUpdatedModuleIds() {
+            List<ModuleId> moduleIds = new ArrayList<ModuleId>();
+            for (Set<ScriptArchive> update : updates) {
+                for (ScriptArchive archive : update) {
+                    moduleIds.add(archive.getModuleSpec().getModuleId());
+                }
+            }
+            return moduleIds;
+        }
+
+        private synchronized List<ModuleId> getRemovedModuleIds() {
+            return new ArrayList<ModuleId>(removedModuleIds);
+        }
+    }
+}
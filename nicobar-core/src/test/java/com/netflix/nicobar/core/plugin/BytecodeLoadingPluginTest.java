@@ -16,7 +16,9 @@
 package com.netflix.nicobar.core.plugin;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 import java.lang.reflect.Method;
 import java.net.URL;
@@ -28,12 +30,14 @@ import java.util.Set;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.netflix.nicobar.core.archive.JarScriptArchive;
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.module.ScriptModule;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
 import com.netflix.nicobar.core.module.ScriptModuleUtils;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
 import com.netflix.nicobar.core.utils.ClassPathUtils;
 
 /**
@@ -114,6 +118,38 @@ public class BytecodeLoadingPluginTest {
         assertEquals(message, "Hello Nicobar World!");
     }
 
+    /**
+     * Test that classes are only defined on first load when defining classes lazily.
+     * @throws Exception
+     */
+    @Test
+    public void testLazyClassDefinition() throws Exception {
+        ScriptModuleLoader lazyModuleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(getCompilerSpec())
+            .withLazyClassDefinition(true)
+            .withClassVerificationExecutor(MoreExecutors.sameThreadExecutor())
+            .build();
+        URL jarPath = getClass().getClassLoader().getResource("testmodules/hellohelper.jar");
+        JarScriptArchive jarArchive = new JarScriptArchive.Builder(Paths.get(jarPath.getFile()))
+            .build();
+        lazyModuleLoader.updateScriptArchives(Collections.singleton((ScriptArchive)jarArchive));
+        ScriptModule module = lazyModuleLoader.getScriptModule(ModuleId.create("hellohelper"));
+        assertNotNull(module);
+
+        JBossModuleClassLoader moduleClassLoader = module.getModuleClassLoader();
+        assertTrue(moduleClassLoader.getDeclaredLazyClassCount() > 0);
+        assertEquals(moduleClassLoader.getMaterializedLazyClassCount(), 0);
+        assertTrue(module.getLoadedClasses().isEmpty());
+        assertEquals(lazyModuleLoader.getClassVerificationFailureCount(), 0);
+
+        Class<?> targetClass = ScriptModuleUtils.findClass(module, "com.netflix.nicobar.test.HelloHelper");
+        assertNotNull(targetClass);
+        assertTrue(moduleClassLoader.getMaterializedLazyClassCount() > 0);
+        assertFalse(moduleClassLoader.getLazyClassNames().contains("com.netflix.nicobar.test.HelloHelper"));
+        Method method = targetClass.getMethod("execute");
+        assertEquals((String)method.invoke(targetClass.newInstance()), "Hello Nicobar World!");
+    }
+
     private ScriptCompilerPluginSpec getCompilerSpec() {
         // Create a compiler spec for the bytecode loading plugin
         ScriptCompilerPluginSpec compilerSpec = new ScriptCompilerPluginSpec.Builder(BytecodeLoadingPlugin.PLUGIN_ID)
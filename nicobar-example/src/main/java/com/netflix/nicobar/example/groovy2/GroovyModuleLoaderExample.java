@@ -35,11 +35,12 @@ import org.apache.commons.io.IOUtils;
 import com.netflix.hystrix.Hystrix;
 import com.netflix.nicobar.core.archive.JarScriptArchive;
 import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor;
+import com.netflix.nicobar.core.execution.ScriptModuleEntryPointExecutable;
 import com.netflix.nicobar.core.execution.ScriptModuleExecutable;
+import com.netflix.nicobar.core.execution.ScriptModuleInstanceProvider;
 import com.netflix.nicobar.core.module.BaseScriptModuleListener;
 import com.netflix.nicobar.core.module.ScriptModule;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
-import com.netflix.nicobar.core.module.ScriptModuleUtils;
 import com.netflix.nicobar.core.persistence.ArchiveRepository;
 import com.netflix.nicobar.core.persistence.ArchiveRepositoryPoller;
 import com.netflix.nicobar.core.persistence.JarArchiveRepository;
@@ -69,6 +70,10 @@ public class GroovyModuleLoaderExample {
 
     public void runExample() throws Exception {
 
+        // provides a shared Callable instance per module revision. the script doesn't necessarily have to
+        // implement any specific interfaces, but it does need to be compilable to a class.
+        ScriptModuleInstanceProvider<Callable> instanceProvider = new ScriptModuleInstanceProvider<Callable>(Callable.class);
+
         // create the loader with the groovy plugin
         ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
             .addPluginSpec(new ScriptCompilerPluginSpec.Builder(GROOVY2_PLUGIN_ID) // configure Groovy plugin
@@ -81,6 +86,7 @@ public class GroovyModuleLoaderExample {
                     System.out.printf("Received module update event. newModule: %s,  oldModule: %s%n", newScriptModule, oldScriptModule);
                 }
             })
+            .addListener(instanceProvider)                                // release the instances of updated modules
             .build();
 
         // create an archive repository and wrap a poller around it to feed updates to the module loader
@@ -92,15 +98,10 @@ public class GroovyModuleLoaderExample {
 
         // the test module has now been compiled and is ready for execution.
         // create a closure which knows how to bind any request time inputs (if any) and execute the module.
-        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+        ScriptModuleExecutable<String> executable = new ScriptModuleEntryPointExecutable<Callable, String>(instanceProvider) {
             @Override
-            public String execute(ScriptModule scriptModule) throws Exception {
-                // the script doesn't necessarily have to implement any specific interfaces, but it does need to
-                // be compilable to a class.
-                Class<?> callable = ScriptModuleUtils.findAssignableClass(scriptModule, Callable.class);
-                @SuppressWarnings("unchecked")
-                Callable<String> instance = (Callable<String>) callable.newInstance();
-                String result = instance.call();
+            protected String execute(Callable entryPoint, ScriptModule scriptModule) throws Exception {
+                String result = (String) entryPoint.call();
                 return result;
             }
         };
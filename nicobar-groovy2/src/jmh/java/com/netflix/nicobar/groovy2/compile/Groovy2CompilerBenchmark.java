@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.compile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.groovy2.internal.compile.Groovy2Compiler;
+
+/**
+ * Benchmarks {@link Groovy2Compiler#compile} of a generated archive, outside of a module loader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Groovy2CompilerBenchmark {
+    @Param({"1", "50"})
+    public int scriptCount;
+
+    private Path archiveDir;
+    private Path compilationRootDir;
+    private ScriptArchive archive;
+    private Groovy2Compiler compiler;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        archiveDir = Files.createTempDirectory("Groovy2CompilerBenchmark");
+        compilationRootDir = Files.createTempDirectory("Groovy2CompilerBenchmark-compilation");
+        for (int i = 0; i < scriptCount; i++) {
+            String source = "package benchmark\n" +
+                "class Script" + i + " {\n" +
+                "    String greet(String who) { \"hello $who from " + i + "\" }\n" +
+                "    int sum(List<Integer> values) { values.inject(0) { total, value -> total + value } }\n" +
+                "}\n";
+            Files.write(archiveDir.resolve("Script" + i + ".groovy"), source.getBytes(StandardCharsets.UTF_8));
+        }
+        archive = new PathScriptArchive.Builder(archiveDir)
+            .setModuleSpec(new ScriptModuleSpec.Builder("benchmark").addCompilerPluginId(Groovy2Compiler.GROOVY2_COMPILER_ID).build())
+            .build();
+        compiler = new Groovy2Compiler(Collections.<String, Object>emptyMap());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        FileUtils.deleteQuietly(archiveDir.toFile());
+        FileUtils.deleteQuietly(compilationRootDir.toFile());
+    }
+
+    @Benchmark
+    public Set<Class<?>> compile() throws ScriptCompilationException, IOException {
+        return compiler.compile(archive, null, compilationRootDir);
+    }
+}
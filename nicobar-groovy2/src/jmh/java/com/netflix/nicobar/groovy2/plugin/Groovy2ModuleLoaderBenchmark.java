@@ -0,0 +1,129 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.modules.ModuleLoadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+import com.netflix.nicobar.groovy2.utils.Groovy2PluginUtils;
+
+/**
+ * Benchmarks {@link ScriptModuleLoader#updateScriptArchives(Set)} of groovy modules, including
+ * their compilation, for independent modules and for a chain of modules which each depend on the
+ * previous one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Groovy2ModuleLoaderBenchmark {
+    @Param({"true", "false"})
+    public boolean chain;
+
+    @Param({"10", "50"})
+    public int moduleCount;
+
+    @Param({"false", "true"})
+    public boolean concurrentCompilation;
+
+    private Path archiveRootDir;
+    private Path compilationRootDir;
+    private Set<ScriptArchive> archives;
+    private ExecutorService compilationExecutor;
+    private ScriptModuleLoader moduleLoader;
+
+    @Setup(Level.Trial)
+    public void createArchives() throws IOException {
+        archiveRootDir = Files.createTempDirectory("Groovy2ModuleLoaderBenchmark");
+        archives = new LinkedHashSet<ScriptArchive>();
+        for (int i = 0; i < moduleCount; i++) {
+            Path archiveDir = Files.createDirectory(archiveRootDir.resolve("module" + i));
+            boolean dependent = chain && i > 0;
+            String source = "package module" + i + "\n" +
+                "class Service" + i + " {\n" +
+                "    String call() { " + (dependent ? "new module" + (i - 1) + ".Service" + (i - 1) + "().call() + " : "") + "'" + i + "' }\n" +
+                "}\n";
+            Files.write(archiveDir.resolve("Service" + i + ".groovy"), source.getBytes(StandardCharsets.UTF_8));
+            ScriptModuleSpec.Builder moduleSpecBuilder = new ScriptModuleSpec.Builder("module" + i)
+                .addCompilerPluginId(Groovy2CompilerPlugin.PLUGIN_ID);
+            if (dependent) {
+                moduleSpecBuilder.addModuleDependency("module" + (i - 1));
+            }
+            archives.add(new PathScriptArchive.Builder(archiveDir)
+                .setModuleSpec(moduleSpecBuilder.build())
+                .setCreateTime(1)
+                .build());
+        }
+        if (concurrentCompilation) {
+            compilationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createModuleLoader() throws ModuleLoadException, IOException {
+        compilationRootDir = Files.createTempDirectory("Groovy2ModuleLoaderBenchmark-compilation");
+        moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(Groovy2PluginUtils.getCompilerSpec())
+            .withCompilationRootDir(compilationRootDir)
+            .withCompilationExecutor(compilationExecutor)
+            .build();
+        // every invocation reloads the modules, rather than loading them for the first time
+        moduleLoader.updateScriptArchives(archives);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCompilationRoot() {
+        FileUtils.deleteQuietly(compilationRootDir.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchives() {
+        if (compilationExecutor != null) {
+            compilationExecutor.shutdown();
+        }
+        FileUtils.deleteQuietly(archiveRootDir.toFile());
+    }
+
+    @Benchmark
+    public void updateAll() {
+        moduleLoader.updateScriptArchives(archives);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.modules.ModuleLoadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+import com.netflix.nicobar.groovy2.utils.Groovy2PluginUtils;
+
+/**
+ * Benchmarks updating a shared groovy module which many modules depend on. Every update swaps
+ * between two revisions of the shared module, which either only differ in the body of a method,
+ * so that its dependents can be relinked, or also in its API, so that they have to be recompiled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Groovy2RelinkBenchmark {
+    @Param({"10", "50"})
+    public int dependentCount;
+
+    @Param({"false", "true"})
+    public boolean apiChange;
+
+    @Param({"true", "false"})
+    public boolean apiAwareRelinking;
+
+    private Path archiveRootDir;
+    private Path compilationRootDir;
+    private Set<ScriptArchive> dependentArchives;
+    private Set<ScriptArchive> sharedArchiveV1;
+    private Set<ScriptArchive> sharedArchiveV2;
+    private boolean updateToV2;
+    private ScriptModuleLoader moduleLoader;
+
+    @Setup(Level.Trial)
+    public void createArchives() throws IOException {
+        archiveRootDir = Files.createTempDirectory("Groovy2RelinkBenchmark");
+        sharedArchiveV1 = createSharedArchive("v1",
+            "class Shared {\n" +
+            "    static String greet(String who) { 'hello ' + who }\n" +
+            "}\n");
+        sharedArchiveV2 = createSharedArchive("v2", apiChange ?
+            "class Shared {\n" +
+            "    static String greet(String who) { 'hello ' + who }\n" +
+            "    static String greet(String who, int times) { greet(who) * times }\n" +
+            "}\n" :
+            "class Shared {\n" +
+            "    static String greet(String who) { 'hi ' + who }\n" +
+            "}\n");
+        dependentArchives = new LinkedHashSet<ScriptArchive>();
+        for (int i = 0; i < dependentCount; i++) {
+            Path archiveDir = Files.createDirectory(archiveRootDir.resolve("dependent" + i));
+            String source = "package dependent" + i + "\n" +
+                "class Dependent" + i + " {\n" +
+                "    String call() { shared.Shared.greet('" + i + "') }\n" +
+                "}\n";
+            Files.write(archiveDir.resolve("Dependent" + i + ".groovy"), source.getBytes(StandardCharsets.UTF_8));
+            dependentArchives.add(new PathScriptArchive.Builder(archiveDir)
+                .setModuleSpec(new ScriptModuleSpec.Builder("dependent" + i)
+                    .addCompilerPluginId(Groovy2CompilerPlugin.PLUGIN_ID)
+                    .addModuleDependency("shared")
+                    .build())
+                .setCreateTime(1)
+                .build());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createModuleLoader() throws ModuleLoadException, IOException {
+        compilationRootDir = Files.createTempDirectory("Groovy2RelinkBenchmark-compilation");
+        moduleLoader = new ScriptModuleLoader.Builder()
+            .addPluginSpec(Groovy2PluginUtils.getCompilerSpec())
+            .withCompilationRootDir(compilationRootDir)
+            .withApiAwareRelinking(apiAwareRelinking)
+            .build();
+        moduleLoader.updateScriptArchives(sharedArchiveV1);
+        moduleLoader.updateScriptArchives(dependentArchives);
+        updateToV2 = true;
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCompilationRoot() {
+        FileUtils.deleteQuietly(compilationRootDir.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchives() {
+        FileUtils.deleteQuietly(archiveRootDir.toFile());
+    }
+
+    /**
+     * Update the shared module, which relinks or recompiles all of its dependents.
+     */
+    @Benchmark
+    public void updateSharedDependency() {
+        moduleLoader.updateScriptArchives(updateToV2 ? sharedArchiveV2 : sharedArchiveV1);
+        updateToV2 = !updateToV2;
+    }
+
+    private Set<ScriptArchive> createSharedArchive(String revision, String source) throws IOException {
+        Path archiveDir = Files.createDirectories(archiveRootDir.resolve("shared-" + revision).resolve("shared"));
+        Files.write(archiveDir.resolve("Shared.groovy"), ("package shared\n" + source).getBytes(StandardCharsets.UTF_8));
+        ScriptArchive archive = new PathScriptArchive.Builder(archiveDir.getParent())
+            .setModuleSpec(new ScriptModuleSpec.Builder("shared").addCompilerPluginId(Groovy2CompilerPlugin.PLUGIN_ID).build())
+            .setCreateTime(1)
+            .build();
+        return Collections.singleton(archive);
+    }
+}
@@ -27,10 +27,12 @@ import java.util.Set;
 
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.tools.GroovyClass;
 
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
 import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.core.module.jboss.InMemoryResourceLoader;
 import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
 
 /**
@@ -105,11 +107,21 @@ public class Groovy2Compiler implements ScriptArchiveCompiler {
         CompilerConfiguration config = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
         config.addCompilationCustomizers(customizers.toArray(new CompilationCustomizer[0]));
 
-         new Groovy2CompilerHelper(compilationRootDir)
+        // compile straight into the module's in-memory compilation root, if it has one
+        InMemoryResourceLoader inMemoryCompilationRoot = moduleClassLoader != null ?
+            moduleClassLoader.getInMemoryCompilationRoot() : null;
+        Groovy2CompilerHelper compilerHelper = inMemoryCompilationRoot != null ?
+            new Groovy2CompilerHelper() : new Groovy2CompilerHelper(compilationRootDir);
+        Set<GroovyClass> groovyClasses = compilerHelper
             .addScriptArchive(archive)
             .withParentClassloader(moduleClassLoader) // TODO: replace JBossModuleClassLoader with generic class loader
             .withConfiguration(config)
             .compile();
+        if (inMemoryCompilationRoot != null) {
+            for (GroovyClass groovyClass : groovyClasses) {
+                inMemoryCompilationRoot.addClassBytes(groovyClass.getName(), groovyClass.getBytes());
+            }
+        }
         return Collections.emptySet();
     }
 }
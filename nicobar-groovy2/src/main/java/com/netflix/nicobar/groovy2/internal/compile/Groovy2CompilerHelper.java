@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.codehaus.groovy.control.CompilationFailedException;
 import org.codehaus.groovy.control.CompilationUnit;
 import org.codehaus.groovy.control.CompilerConfiguration;
@@ -48,6 +50,7 @@ import com.netflix.nicobar.core.compile.ScriptCompilationException;
  * @author Vasanth Asokan
  */
 public class Groovy2CompilerHelper {
+    @Nullable
     private final Path targetDir;
     private final List<Path> sourceFiles = new LinkedList<Path>();
     private final List<ScriptArchive> scriptArchives = new LinkedList<ScriptArchive>();
@@ -59,6 +62,14 @@ public class Groovy2CompilerHelper {
         this.targetDir = targetDir;
     }
 
+    /**
+     * Create a helper which compiles in memory. No class files are written, the bytecode is only
+     * available from the {@link GroovyClass}es returned by {@link #compile()}.
+     */
+    public Groovy2CompilerHelper() {
+        this.targetDir = null;
+    }
+
     public Groovy2CompilerHelper withParentClassloader(ClassLoader parentClassLoader) {
         this.parentClassLoader = parentClassLoader;
         return this;
@@ -95,7 +106,9 @@ public class Groovy2CompilerHelper {
         final CompilerConfiguration conf = compileConfig != null ? compileConfig: CompilerConfiguration.DEFAULT;
         conf.setTolerance(0);
         conf.setVerbose(true);
-        conf.setTargetDirectory(targetDir.toFile());
+        if (targetDir != null) {
+            conf.setTargetDirectory(targetDir.toFile());
+        }
         final ClassLoader buildParentClassloader = parentClassLoader != null ?
             parentClassLoader : Thread.currentThread().getContextClassLoader();
         GroovyClassLoader groovyClassLoader = AccessController.doPrivileged(new PrivilegedAction<GroovyClassLoader>() {
@@ -125,7 +138,8 @@ public class Groovy2CompilerHelper {
             unit.addSource(sourceFile.toFile());
         }
         try {
-            unit.compile(Phases.OUTPUT);
+            // class generation is the last phase before the classes are written out
+            unit.compile(targetDir != null ? Phases.OUTPUT : Phases.CLASS_GENERATION);
         } catch (CompilationFailedException e) {
            throw new ScriptCompilationException("Exception during script compilation", e);
         }
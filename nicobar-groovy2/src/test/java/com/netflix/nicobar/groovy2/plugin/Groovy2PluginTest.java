@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.testng.annotations.BeforeClass;
@@ -42,6 +43,8 @@ import com.netflix.nicobar.core.archive.PathScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor;
+import com.netflix.nicobar.core.execution.ModuleExecutionOptions;
+import com.netflix.nicobar.core.execution.PartialResultPolicy;
 import com.netflix.nicobar.core.execution.ScriptModuleExecutable;
 import com.netflix.nicobar.core.module.ScriptModule;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
@@ -123,6 +126,53 @@ public class Groovy2PluginTest {
         assertEquals(results, Collections.singletonList("I'm a Callable<String>"));
     }
 
+    @Test
+    public void testExecuteModulesAsync() throws Exception {
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader().build();
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.IMPLEMENTS_INTERFACE);
+        ScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.IMPLEMENTS_INTERFACE.getScriptPath())
+            .setModuleSpec(createGroovyModuleSpec(TestScript.IMPLEMENTS_INTERFACE.getModuleId()).build())
+            .build();
+        moduleLoader.updateScriptArchives(Collections.singleton(scriptArchive));
+        ScriptModule scriptModule = moduleLoader.getScriptModule(TestScript.IMPLEMENTS_INTERFACE.getModuleId());
+
+        // the first execution of the module fails, the second one succeeds
+        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+            private int executionCount;
+
+            @SuppressWarnings({"rawtypes","unchecked"})
+            @Override
+            public synchronized String execute(ScriptModule scriptModule) throws Exception {
+                if (executionCount++ == 0) {
+                    throw new IllegalStateException("first execution");
+                }
+                Class<Callable> callable = (Class<Callable>) ScriptModuleUtils.findAssignableClass(scriptModule, Callable.class);
+                return (String) callable.newInstance().call();
+            }
+        };
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("TestModuleExecutor");
+        ModuleExecutionOptions options = new ModuleExecutionOptions.Builder()
+            .withDefaultTimeout(10, TimeUnit.SECONDS)
+            .withPartialResultPolicy(PartialResultPolicy.NULL_FOR_FAILURES)
+            .build();
+        List<String> results = executor.executeModulesAsync(Arrays.asList(scriptModule, scriptModule), executable, options).get();
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0) == null ? results.get(1) : results.get(0), "I'm a Callable<String>");
+        assertEquals(results.contains(null), true);
+
+        // failed modules are skipped by default
+        executable = new ScriptModuleExecutable<String>() {
+            @Override
+            public String execute(ScriptModule scriptModule) throws Exception {
+                throw new IllegalStateException("always fails");
+            }
+        };
+        results = executor.executeModulesAsync(Collections.singletonList(scriptModule), executable).get();
+        assertEquals(results, Collections.<String>emptyList());
+    }
+
     /**
      * Test loading/executing a script which has a dependency on a library
      */
@@ -257,6 +307,38 @@ public class Groovy2PluginTest {
         assertGetMessage(clazz, "I'm A.  Called B and got: I'm B. Called C and got: I'm C. Called D and got: I'm D.");
     }
 
+    /**
+     * Test compiling a module with interdependent scripts in memory, without writing class files.
+     */
+    @Test
+    public void testLoadScriptWithInternalDependenciesInMemory() throws Exception {
+        Path compilationRootDir = Files.createTempDirectory(Groovy2PluginTest.class.getSimpleName() + "_");
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader()
+            .withCompilationRootDir(compilationRootDir)
+            .withInMemoryCompilation(true)
+            .build();
+
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.INTERNAL_DEPENDENCY_A);
+        ScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(Paths.get("InternalDependencyB.groovy"))
+            .addFile(Paths.get("InternalDependencyA.groovy"))
+            .addFile(Paths.get("InternalDependencyD.groovy"))
+            .addFile(Paths.get("subpackage/InternalDependencyC.groovy"))
+            .setModuleSpec(createGroovyModuleSpec(TestScript.INTERNAL_DEPENDENCY_A.getModuleId()).build())
+            .build();
+        moduleLoader.updateScriptArchives(Collections.singleton(scriptArchive));
+
+        ScriptModule scriptModule = moduleLoader.getScriptModule(TestScript.INTERNAL_DEPENDENCY_A.getModuleId());
+        Class<?> clazz = findClassByName(scriptModule, TestScript.INTERNAL_DEPENDENCY_A);
+        assertGetMessage(clazz, "I'm A.  Called B and got: I'm B. Called C and got: I'm C. Called D and got: I'm D.");
+
+        // the compiled classes are still available as resources
+        String classResource = TestScript.INTERNAL_DEPENDENCY_A.getClassName().replace('.', '/') + ".class";
+        assertNotNull(scriptModule.getModuleClassLoader().getResource(classResource));
+        assertEquals(FileUtils.listFiles(compilationRootDir.toFile(), new String[] {"class"}, true).size(), 0);
+    }
+
     @Test
     public void testMixedModule() throws Exception {
         ScriptModuleLoader.Builder moduleLoaderBuilder = createGroovyModuleLoader();